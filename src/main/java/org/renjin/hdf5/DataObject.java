@@ -195,6 +195,13 @@ public class DataObject {
         }
     }
 
+    /**
+     * @return the address of this object's header within the file.
+     */
+    public long getAddress() {
+        return address;
+    }
+
     public <T extends Message> Iterable<T> getMessages(Class<T> messageClass) {
         return Iterables.filter(messages, messageClass);
     }
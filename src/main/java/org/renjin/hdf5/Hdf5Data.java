@@ -1,26 +1,33 @@
 package org.renjin.hdf5;
 
+import org.renjin.hdf5.storage.StorageBackend;
+import org.renjin.hdf5.storage.StorageType;
+
 import java.io.File;
 import java.io.IOException;
-import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
-import java.nio.MappedByteBuffer;
-import java.nio.channels.FileChannel;
 
 public class Hdf5Data {
-  private FileChannel channel;
+  private StorageBackend storage;
   private Superblock superblock;
 
   public Hdf5Data(File file) throws IOException {
-    RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
-    channel = randomAccessFile.getChannel();
-    superblock = new Superblock(channel);
+    this(StorageType.MMAP.open(file));
+  }
+
+  public Hdf5Data(StorageBackend storage) throws IOException {
+    this.storage = storage;
+    this.superblock = new Superblock(storage);
   }
 
   public Superblock getSuperblock() {
     return superblock;
   }
 
+  public StorageBackend getStorage() {
+    return storage;
+  }
+
   public DataObject objectAt(long address) throws IOException {
     return new DataObject(this, address);
   }
@@ -30,21 +37,20 @@ public class Hdf5Data {
   }
 
   public HeaderReader readerAt(long address, long maxHeaderSize) throws IOException {
-    MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, address,
-        Math.min(maxHeaderSize, channel.size() - address));
+    ByteBuffer buffer = storage.slice(address, Math.min(maxHeaderSize, storage.size() - address));
 
     return new HeaderReader(superblock, buffer);
   }
 
   public ByteBuffer bufferAt(long address, long size) throws IOException {
-    return channel.map(FileChannel.MapMode.READ_ONLY, address, size);
+    return storage.slice(address, size);
   }
 
   public int read(ByteBuffer buffer, long address) throws IOException {
-    return channel.read(buffer, address);
+    return storage.read(buffer, address);
   }
 
-  public MappedByteBuffer map(FileChannel.MapMode mode, long address, long size) throws IOException {
-    return channel.map(mode, address, size);
+  public void close() throws IOException {
+    storage.close();
   }
 }
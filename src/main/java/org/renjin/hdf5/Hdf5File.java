@@ -2,29 +2,79 @@ package org.renjin.hdf5;
 
 
 import org.renjin.hdf5.chunked.*;
+import org.renjin.hdf5.filters.ChecksumPolicy;
 import org.renjin.hdf5.groups.FractalHeapGroupIndex;
 import org.renjin.hdf5.groups.GroupBTree;
 import org.renjin.hdf5.groups.GroupIndex;
 import org.renjin.hdf5.groups.SimpleGroupIndex;
 import org.renjin.hdf5.message.*;
+import org.renjin.hdf5.storage.StorageType;
+import org.renjin.repackaged.guava.base.Joiner;
 import org.renjin.repackaged.guava.base.Optional;
 
+import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
 
-public class Hdf5File {
+/**
+ * An open HDF5 file.
+ *
+ * <p>Objects looked up by path and the chunk indexes opened through {@link #getChunkIndex(DataObject)} are
+ * kept for the lifetime of this instance, so that they can be shared by all the datasets opened from
+ * the same file.</p>
+ */
+public class Hdf5File implements Closeable {
 
     public static final long UNDEFINED_ADDRESS = 0xFFFFFFFFFFFFFFFFL;
 
     private final Hdf5Data file;
     private final DataObject rootObject;
 
+    private final ConcurrentHashMap<String, DataObject> objects = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<IndexKey, ChunkIndex> chunkIndexes = new ConcurrentHashMap<>();
+
+    private final DecoderMetrics decoderMetrics = new DecoderMetrics();
+    private volatile ChecksumPolicy checksumPolicy = ChecksumPolicy.VERIFY;
+    private volatile boolean lazyInflate = false;
+    private volatile boolean bulkLoadIndexes = false;
+    private volatile SidecarIndex sidecarIndex;
+
     public Hdf5File(File file) throws IOException {
-        this.file = new Hdf5Data(file);
+        this(file, StorageType.MMAP);
+    }
+
+    public Hdf5File(File file, StorageType storageType) throws IOException {
+        this(new Hdf5Data(storageType.open(file)));
+    }
+
+    public Hdf5File(Hdf5Data file) throws IOException {
+        this.file = file;
         this.rootObject = new DataObject(this.file, this.file.getSuperblock().getRootGroupObjectHeaderAddress());
     }
 
     public DataObject getObject(String... path) throws IOException {
+        String key = Joiner.on('/').join(path);
+        DataObject object = objects.get(key);
+        if(object == null) {
+            object = findObject(key, path);
+            DataObject existing = objects.putIfAbsent(key, object);
+            if(existing != null) {
+                object = existing;
+            }
+        }
+        return object;
+    }
+
+    private DataObject findObject(String key, String[] path) throws IOException {
+
+        SidecarIndex sidecarIndex = this.sidecarIndex;
+        if(sidecarIndex != null) {
+            long address = sidecarIndex.getObjectAddress(key);
+            if(address != -1) {
+                return new DataObject(file, address);
+            }
+        }
 
         DataObject node = rootObject;
 
@@ -32,6 +82,10 @@ public class Hdf5File {
             GroupIndex groupIndex = readGroupIndex(node);
             node = groupIndex.getObject(path[i]);
         }
+
+        if(sidecarIndex != null) {
+            sidecarIndex.putObjectAddress(key, node.getAddress());
+        }
         return node;
     }
 
@@ -52,25 +106,218 @@ public class Hdf5File {
         }
     }
 
+    public ChecksumPolicy getChecksumPolicy() {
+        return checksumPolicy;
+    }
+
+    /**
+     * Sets how the checksums of chunks are verified by chunk indexes opened from now on without a policy of
+     * their own. Shared chunk indexes opened under other policies are kept.
+     */
+    public void setChecksumPolicy(ChecksumPolicy checksumPolicy) {
+        this.checksumPolicy = checksumPolicy;
+    }
+
+    public boolean isLazyInflate() {
+        return lazyInflate;
+    }
+
+    /**
+     * Sets whether chunk indexes opened from now on without a setting of their own inflate deflated chunks only
+     * as far as they are read, which makes looking up single elements of large chunks cheaper. Shared chunk
+     * indexes opened with the other setting are kept.
+     */
+    public void setLazyInflate(boolean lazyInflate) {
+        this.lazyInflate = lazyInflate;
+    }
+
+    public boolean isBulkLoadIndexes() {
+        return bulkLoadIndexes;
+    }
+
+    /**
+     * Sets whether version 1 B-tree chunk indexes opened from now on read the whole tree into a table on their
+     * first lookup, rather than descending the tree for every chunk. This costs a read of every node up front,
+     * which pays off for datasets with many chunks that are read throughout. Shared chunk indexes opened with
+     * the other setting are kept.
+     */
+    public void setBulkLoadIndexes(boolean bulkLoadIndexes) {
+        this.bulkLoadIndexes = bulkLoadIndexes;
+    }
+
+    public SidecarIndex getSidecarIndex() {
+        return sidecarIndex;
+    }
+
+    /**
+     * Looks up objects and the chunk tables of B-tree indexed datasets in the given sidecar of this file, and
+     * records those found from now on in it. The sidecar is saved when this file is closed, and may be saved
+     * earlier through {@link SidecarIndex#save()}.
+     *
+     * @param file the location of this HDF5 file, against which the sidecar is validated
+     * @param sidecarFile the location of the sidecar, such as {@link SidecarIndex#defaultLocation(File)}
+     */
+    public void useSidecarIndex(File file, File sidecarFile) {
+        this.sidecarIndex = SidecarIndex.open(file, sidecarFile, this.file.getSuperblock());
+        objects.clear();
+        chunkIndexes.clear();
+    }
+
+    /**
+     * @return counts of the chunks decoded from this file, and the time spent decoding them.
+     */
+    public DecoderMetrics getDecoderMetrics() {
+        return decoderMetrics;
+    }
+
+    /**
+     * Returns the chunk index of the given dataset, opening it on first use. Chunk indexes are shared
+     * along with their cache of decoded chunks.
+     */
+    public ChunkIndex getChunkIndex(DataObject object) throws IOException {
+        return getChunkIndex(object, checksumPolicy, lazyInflate, bulkLoadIndexes);
+    }
+
+    /**
+     * Returns the chunk index of the given dataset which decodes chunks with the given options, opening it on
+     * first use. Datasets opened with the same options share the index.
+     *
+     * @param checksumPolicy how the checksums of chunks are verified
+     * @param lazyInflate if true, deflated chunks are inflated only as far as they are read
+     * @param bulkLoad if true, a version 1 B-tree index is read whole into a table on its first lookup
+     */
+    public ChunkIndex getChunkIndex(DataObject object, ChecksumPolicy checksumPolicy, boolean lazyInflate,
+                                    boolean bulkLoad) throws IOException {
+        IndexKey key = new IndexKey(object.getAddress(), checksumPolicy, lazyInflate, bulkLoad);
+        ChunkIndex index = chunkIndexes.get(key);
+        if(index == null) {
+            index = openChunkIndex(object, checksumPolicy, lazyInflate, bulkLoad);
+            ChunkIndex existing = chunkIndexes.putIfAbsent(key, index);
+            if(existing != null) {
+                index = existing;
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Opens a new, unshared, chunk index for the given dataset.
+     */
     public ChunkIndex openChunkIndex(DataObject object) throws IOException {
+        return openChunkIndex(object, checksumPolicy, lazyInflate, bulkLoadIndexes);
+    }
+
+    /**
+     * Opens a new, unshared, chunk index for the given dataset with the given options, as described for
+     * {@link #getChunkIndex(DataObject, ChecksumPolicy, boolean, boolean)}.
+     */
+    public ChunkIndex openChunkIndex(DataObject object, ChecksumPolicy checksumPolicy, boolean lazyInflate,
+                                     boolean bulkLoad) throws IOException {
 
         DataspaceMessage dataspace = object.getMessage(DataspaceMessage.class);
         DataLayoutMessage layout = object.getMessage(DataLayoutMessage.class);
         DatatypeMessage datatype = object.getMessage(DatatypeMessage.class);
         Optional<DataStorageMessage> storage = object.getMessageIfPresent(DataStorageMessage.class);
 
-        ChunkDecoderFactory decoderFactory = new ChunkDecoderFactory(file);
+        ChunkDecoderFactory decoderFactory = new ChunkDecoderFactory(file, checksumPolicy, decoderMetrics, lazyInflate);
         ChunkDecoder chunkDecoder = decoderFactory.create(datatype, layout, storage);
 
+        ChunkIndex index = openChunkIndex(object, dataspace, layout, chunkDecoder, bulkLoad);
+        index.setFillChunk(decoderFactory.createFillChunk(datatype,
+            object.getMessageIfPresent(FillValueMessage.class)));
+        return index;
+    }
+
+    private ChunkIndex openChunkIndex(DataObject object, DataspaceMessage dataspace, DataLayoutMessage layout,
+                                      ChunkDecoder chunkDecoder, boolean bulkLoad) throws IOException {
         switch (layout.getChunkIndexingType()) {
             case BTREE:
-                return new BTreeChunkIndex(file, layout, chunkDecoder);
+                if(sidecarIndex != null) {
+                    return openTabulatedIndex(object, dataspace, layout, chunkDecoder);
+                }
+                // Version 4 layouts index chunks with a version 2 B-tree
+                if(layout.getVersion() >= 4) {
+                    return new BTreeV2ChunkIndex(file, dataspace, layout, chunkDecoder);
+                }
+                return new BTreeChunkIndex(file, dataspace, layout, chunkDecoder, bulkLoad);
+            case SINGLE:
+                return new SingleChunkIndex(file, dataspace, layout, chunkDecoder);
+            case IMPLICIT:
+                return new ImplicitChunkIndex(file, dataspace, layout, chunkDecoder);
             case FIXED_ARRAY:
                 return new FixedArrayChunkIndex(file, dataspace, layout, chunkDecoder);
             case EXTENSIBLE_ARRAY:
-                return new ExtensibleArrayChunkIndex(file, dataspace, layout, decoderFactory.createFactory(datatype));
+                return new ExtensibleArrayChunkIndex(file, dataspace, layout, chunkDecoder);
             default:
                 throw new UnsupportedOperationException("indexing type: " + layout.getChunkIndexingType());
         }
     }
+
+    /**
+     * Opens the index of a B-tree indexed dataset from the table of its chunks kept in the sidecar, reading the
+     * whole B-tree into the sidecar first if it is not yet there.
+     */
+    private ChunkIndex openTabulatedIndex(DataObject object, DataspaceMessage dataspace, DataLayoutMessage layout,
+                                          ChunkDecoder chunkDecoder) throws IOException {
+        SidecarIndex sidecarIndex = this.sidecarIndex;
+        ChunkTable table = sidecarIndex.getChunkTable(object.getAddress());
+        if(table == null) {
+            if(layout.getVersion() >= 4) {
+                table = new BTreeV2ChunkIndex(file, dataspace, layout, chunkDecoder).getTable();
+            } else {
+                table = new BTreeChunkIndex(file, dataspace, layout, chunkDecoder, true).getTable();
+            }
+            sidecarIndex.putChunkTable(object.getAddress(), table);
+        }
+        return new TableChunkIndex(file, dataspace, layout, table, chunkDecoder);
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            SidecarIndex sidecarIndex = this.sidecarIndex;
+            if(sidecarIndex != null) {
+                sidecarIndex.save();
+            }
+        } finally {
+            file.close();
+        }
+    }
+
+    /**
+     * Identifies a shared chunk index by its dataset and the options it is opened with.
+     */
+    private static final class IndexKey {
+        private final long address;
+        private final ChecksumPolicy checksumPolicy;
+        private final boolean lazyInflate;
+        private final boolean bulkLoad;
+
+        private IndexKey(long address, ChecksumPolicy checksumPolicy, boolean lazyInflate, boolean bulkLoad) {
+            this.address = address;
+            this.checksumPolicy = checksumPolicy;
+            this.lazyInflate = lazyInflate;
+            this.bulkLoad = bulkLoad;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            IndexKey key = (IndexKey) o;
+            return address == key.address && checksumPolicy.equals(key.checksumPolicy) &&
+                lazyInflate == key.lazyInflate && bulkLoad == key.bulkLoad;
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = 31 * (int) (address ^ (address >>> 32)) + checksumPolicy.hashCode();
+            hash = 31 * hash + (lazyInflate ? 1 : 0);
+            return 31 * hash + (bulkLoad ? 1 : 0);
+        }
+    }
 }
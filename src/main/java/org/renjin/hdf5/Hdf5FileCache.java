@@ -0,0 +1,295 @@
+package org.renjin.hdf5;
+
+import org.renjin.hdf5.storage.StorageType;
+import org.renjin.repackaged.guava.base.Ticker;
+import org.renjin.repackaged.guava.util.concurrent.ThreadFactoryBuilder;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.PhantomReference;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Keeps HDF5 files open between calls, so that repeatedly opening the same file shares its parsed
+ * object headers, chunk indexes and decoded chunks.
+ *
+ * <p>Files are identified by their canonical path and storage type. An open file is reused only as long as its
+ * modification time and size are unchanged; otherwise it is reopened.</p>
+ *
+ * <p>Each call to {@link #open(File, StorageType)} returns a {@link Handle} which holds a reference to the file
+ * until it is closed or becomes unreachable. Files without any remaining handles are closed after an idle
+ * timeout.</p>
+ *
+ * <p>Files may also keep a {@link SidecarIndex}, so that reopening them in a later session need not walk their
+ * B-trees again. The sidecars of open files are saved periodically by the shared cache's sweeper and when the
+ * JVM shuts down, as well as when their files are closed, since files may stay open for the whole session.</p>
+ */
+public class Hdf5FileCache {
+
+    private static final long DEFAULT_IDLE_TIMEOUT_SECONDS = 60;
+
+    private static final Logger LOGGER = Logger.getLogger(Hdf5FileCache.class.getName());
+
+    private static final Hdf5FileCache SHARED =
+        new Hdf5FileCache(DEFAULT_IDLE_TIMEOUT_SECONDS, TimeUnit.SECONDS, Ticker.systemTicker());
+
+    static {
+        ScheduledExecutorService sweeper = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setDaemon(true).setNameFormat("hdf5-file-cache").build());
+        sweeper.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                SHARED.cleanUp();
+                SHARED.saveSidecarIndexes();
+            }
+        }, 10, 10, TimeUnit.SECONDS);
+
+        Runtime.getRuntime().addShutdownHook(new Thread("hdf5-sidecar-index") {
+            @Override
+            public void run() {
+                SHARED.saveSidecarIndexes();
+            }
+        });
+    }
+
+    private final long idleTimeoutNanos;
+    private final Ticker ticker;
+
+    private final Map<Key, Entry> entries = new HashMap<>();
+
+    private boolean sidecarIndexes;
+    private File sidecarDirectory;
+
+    /**
+     * Handles which have not yet been released. Phantom references must themselves remain reachable
+     * in order to be enqueued.
+     */
+    private final Set<HandleReference> liveHandles = new HashSet<>();
+    private final ReferenceQueue<Handle> collectedHandles = new ReferenceQueue<>();
+
+    public Hdf5FileCache(long idleTimeout, TimeUnit unit, Ticker ticker) {
+        this.idleTimeoutNanos = unit.toNanos(idleTimeout);
+        this.ticker = ticker;
+    }
+
+    /**
+     * @return the cache shared by all datasets opened from R.
+     */
+    public static Hdf5FileCache getShared() {
+        return SHARED;
+    }
+
+    /**
+     * Sets whether files opened from now on keep a {@link SidecarIndex}. Files which are already open are not
+     * affected.
+     *
+     * @param directory the directory in which sidecars are kept, or {@code null} to keep each beside its file
+     */
+    public synchronized void setSidecarIndexes(boolean enabled, File directory) {
+        this.sidecarIndexes = enabled;
+        this.sidecarDirectory = directory;
+    }
+
+    /**
+     * Opens the given file, or reuses an already open instance if the file has not changed since.
+     */
+    public synchronized Handle open(File file, StorageType storageType) throws IOException {
+        cleanUp();
+
+        File canonicalFile = file.getCanonicalFile();
+        Key key = new Key(canonicalFile.getPath(), storageType);
+
+        Entry entry = entries.get(key);
+        if(entry != null && !entry.isCurrent()) {
+            entries.remove(key);
+            entry.stale = true;
+            if(entry.refCount == 0) {
+                entry.close();
+            }
+            entry = null;
+        }
+        if(entry == null) {
+            entry = new Entry(canonicalFile, storageType);
+            if(sidecarIndexes) {
+                entry.file.useSidecarIndex(canonicalFile, sidecarDirectory == null ?
+                    SidecarIndex.defaultLocation(canonicalFile) :
+                    SidecarIndex.locationIn(sidecarDirectory, canonicalFile));
+            }
+            entries.put(key, entry);
+        }
+
+        entry.refCount++;
+
+        Handle handle = new Handle(entry.file);
+        handle.reference = new HandleReference(handle, entry, collectedHandles);
+        liveHandles.add(handle.reference);
+        return handle;
+    }
+
+    /**
+     * Releases the handles which are no longer reachable and closes files which have been idle
+     * for longer than the timeout.
+     */
+    public synchronized void cleanUp() {
+        Reference<? extends Handle> collected;
+        while((collected = collectedHandles.poll()) != null) {
+            release((HandleReference) collected);
+        }
+
+        long now = ticker.read();
+        Iterator<Entry> it = entries.values().iterator();
+        while(it.hasNext()) {
+            Entry entry = it.next();
+            if(entry.refCount == 0 && (now - entry.lastReleased) >= idleTimeoutNanos) {
+                it.remove();
+                entry.close();
+            }
+        }
+    }
+
+    /**
+     * Saves the sidecar indexes of the open files which have learned anything since they were last saved.
+     * Failures are logged, and the sidecar tried again on the next call.
+     */
+    public void saveSidecarIndexes() {
+        List<SidecarIndex> sidecarIndexes = new ArrayList<>();
+        synchronized (this) {
+            for (Entry entry : entries.values()) {
+                SidecarIndex sidecarIndex = entry.file.getSidecarIndex();
+                if(sidecarIndex != null) {
+                    sidecarIndexes.add(sidecarIndex);
+                }
+            }
+        }
+        for (SidecarIndex sidecarIndex : sidecarIndexes) {
+            try {
+                sidecarIndex.save();
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Could not save sidecar index " + sidecarIndex.getSidecarFile(), e);
+            }
+        }
+    }
+
+    /**
+     * @return the number of files currently held open.
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    private synchronized void release(HandleReference reference) {
+        if(liveHandles.remove(reference)) {
+            reference.clear();
+            Entry entry = reference.entry;
+            entry.refCount--;
+            entry.lastReleased = ticker.read();
+            if(entry.refCount == 0 && entry.stale) {
+                entry.close();
+            }
+        }
+    }
+
+    /**
+     * A reference to a file held open by the cache.
+     */
+    public class Handle implements Closeable {
+        private final Hdf5File file;
+        private HandleReference reference;
+
+        private Handle(Hdf5File file) {
+            this.file = file;
+        }
+
+        public Hdf5File getFile() {
+            return file;
+        }
+
+        /**
+         * Releases this handle. The file itself remains open until it has been idle for the cache's timeout.
+         */
+        @Override
+        public void close() {
+            release(reference);
+        }
+    }
+
+    private static class HandleReference extends PhantomReference<Handle> {
+        private final Entry entry;
+
+        private HandleReference(Handle handle, Entry entry, ReferenceQueue<Handle> queue) {
+            super(handle, queue);
+            this.entry = entry;
+        }
+    }
+
+    private static class Key {
+        private final String path;
+        private final StorageType storageType;
+
+        private Key(String path, StorageType storageType) {
+            this.path = path;
+            this.storageType = storageType;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            Key key = (Key) o;
+            return path.equals(key.path) && storageType == key.storageType;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * path.hashCode() + storageType.hashCode();
+        }
+    }
+
+    private static class Entry {
+        private final File path;
+        private final long lastModified;
+        private final long length;
+        private final Hdf5File file;
+
+        private int refCount;
+        private long lastReleased;
+        private boolean stale;
+
+        private Entry(File path, StorageType storageType) throws IOException {
+            this.path = path;
+            this.lastModified = path.lastModified();
+            this.length = path.length();
+            this.file = new Hdf5File(path, storageType);
+        }
+
+        private boolean isCurrent() {
+            return path.lastModified() == lastModified && path.length() == length;
+        }
+
+        private void close() {
+            try {
+                file.close();
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Could not close " + path, e);
+            }
+        }
+    }
+}
@@ -206,7 +206,14 @@ public class HeaderReader {
             case 8:
                 return readUInt64();
             default:
-                throw new IllegalArgumentException("bytes: " + byteSize);
+                if(byteSize < 1 || byteSize > 8) {
+                    throw new IllegalArgumentException("bytes: " + byteSize);
+                }
+                long value = 0;
+                for (int i = 0; i < byteSize; i++) {
+                    value |= (buffer.get() & 0xFFL) << (8 * i);
+                }
+                return value;
         }
     }
 
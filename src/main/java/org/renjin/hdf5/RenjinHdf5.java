@@ -7,7 +7,12 @@ import org.apache.commons.vfs2.provider.local.LocalFile;
 import org.apache.commons.vfs2.provider.local.LocalFileSystem;
 import org.renjin.eval.Context;
 import org.renjin.eval.EvalException;
+import org.renjin.hdf5.chunked.ChunkCache;
+import org.renjin.hdf5.chunked.ChunkPrefetcher;
+import org.renjin.hdf5.chunked.ChunkStore;
+import org.renjin.hdf5.filters.ChecksumPolicy;
 import org.renjin.hdf5.message.DatatypeMessage;
+import org.renjin.hdf5.storage.StorageType;
 import org.renjin.hdf5.vector.ChunkedDataset;
 import org.renjin.hdf5.vector.ChunkedDoubleVector;
 import org.renjin.invoke.annotations.Current;
@@ -23,6 +28,62 @@ import java.net.URL;
 public class RenjinHdf5 {
 
     public static Vector readArray(@Current Context context, String file, String objectName) throws IOException {
+        return readArray(context, file, objectName, StorageType.MMAP.name());
+    }
+
+    /**
+     * Opens an HDF5 dataset as an R vector.
+     *
+     * <p>Files are kept open in the shared {@link Hdf5FileCache}, so repeatedly opening datasets from the same
+     * file reuses its parsed headers, chunk indexes and decoded chunks.</p>
+     *
+     * @param storage the name of the {@link StorageType} used to read the file: "mmap", "pread", or "memory".
+     */
+    public static Vector readArray(@Current Context context, String file, String objectName, String storage)
+        throws IOException {
+        return readArray(context, file, objectName, storage, "verify", 1);
+    }
+
+    /**
+     * Opens an HDF5 dataset as an R vector, choosing how chunk checksums in the file are verified.
+     *
+     * @param checksum the {@link ChecksumPolicy} mode: "verify", "sample", or "skip".
+     * @param checksumInterval when sampling, the number of chunks decoded per checksum verified.
+     */
+    public static Vector readArray(@Current Context context, String file, String objectName, String storage,
+                                   String checksum, int checksumInterval) throws IOException {
+        return readArray(context, file, objectName, storage, checksum, checksumInterval, false);
+    }
+
+    /**
+     * Opens an HDF5 dataset as an R vector, choosing whether deflated chunks are inflated lazily.
+     *
+     * @param lazyInflate if true, deflated chunks are only inflated as far as their elements are read.
+     */
+    public static Vector readArray(@Current Context context, String file, String objectName, String storage,
+                                   String checksum, int checksumInterval, boolean lazyInflate)
+        throws IOException {
+        return readArray(context, file, objectName, storage, checksum, checksumInterval, lazyInflate, false);
+    }
+
+    /**
+     * Opens an HDF5 dataset as an R vector.
+     *
+     * @param bulkLoadIndex if true, a version 1 B-tree chunk index is read whole into a table on its first
+     *                      lookup, rather than descended for every chunk.
+     */
+    public static Vector readArray(@Current Context context, String file, String objectName, String storage,
+                                   String checksum, int checksumInterval, boolean lazyInflate,
+                                   boolean bulkLoadIndex) throws IOException {
+
+        StorageType storageType;
+        ChecksumPolicy checksumPolicy;
+        try {
+            storageType = StorageType.fromName(storage);
+            checksumPolicy = ChecksumPolicy.fromName(checksum, checksumInterval);
+        } catch (IllegalArgumentException e) {
+            throw new EvalException(e.getMessage());
+        }
 
         FileObject fileObject = context.resolveFile(file);
         if(!(fileObject instanceof LocalFile)) {
@@ -35,16 +96,76 @@ public class RenjinHdf5 {
 
         URL url = localFile.getURL();
 
-        Hdf5File hdf5 = new Hdf5File(new File(url.getFile()));
+        Hdf5FileCache.Handle handle = Hdf5FileCache.getShared().open(new File(url.getFile()), storageType);
+        try {
+            DataObject object = handle.getFile().getObject(objectName);
+            DatatypeMessage datatype = object.getMessage(DatatypeMessage.class);
+            if (!datatype.isDoubleIEE754()) {
+                throw new EvalException("Unsupported data type. Currently only 64-bit floating point is implemented");
+            }
+
+            ChunkedDataset dataset = new ChunkedDataset(handle, object, checksumPolicy, lazyInflate, bulkLoadIndex);
+            return new ChunkedDoubleVector(dataset);
 
-        DataObject object = hdf5.getObject(objectName);
-        DatatypeMessage datatype = object.getMessage(DatatypeMessage.class);
-        if(!datatype.isDoubleIEE754()) {
-            throw new EvalException("Unsupported data type. Currently only 64-bit floating point is implemented");
+        } catch (RuntimeException | IOException e) {
+            handle.close();
+            throw e;
         }
+    }
+
+    /**
+     * Configures background prefetching of chunks during sequential scans.
+     *
+     * @param depth the number of chunks to read ahead, or zero to disable prefetching
+     * @param threads the number of background threads shared by all open datasets
+     */
+    public static void setPrefetch(int depth, int threads) {
+        try {
+            ChunkPrefetcher.configure(depth, threads);
+        } catch (IllegalArgumentException e) {
+            throw new EvalException(e.getMessage());
+        }
+    }
 
-        ChunkedDataset dataset = new ChunkedDataset(hdf5, object);
-        return new ChunkedDoubleVector(dataset);
+    /**
+     * Sets the maximum total size of decoded chunks cached across all open datasets. The current
+     * contents of the cache are discarded.
+     *
+     * @param maxBytes the budget in bytes
+     */
+    public static void setChunkCacheSize(double maxBytes) {
+        try {
+            ChunkCache.configure((long) maxBytes);
+        } catch (IllegalArgumentException e) {
+            throw new EvalException(e.getMessage());
+        }
+    }
+
+    /**
+     * Decodes chunks into direct buffers outside of the Java heap.
+     *
+     * @param maxBytes the maximum size of the off-heap store in bytes, or zero to decode chunks onto the heap
+     */
+    public static void setOffHeapChunkStore(double maxBytes) {
+        try {
+            ChunkStore.configureOffHeap((long) maxBytes);
+        } catch (IllegalArgumentException e) {
+            throw new EvalException(e.getMessage());
+        }
+    }
+
+    /**
+     * Keeps a {@link SidecarIndex} for each HDF5 file opened from now on, recording the addresses of the objects
+     * and chunks read from it, so that reopening the file in a later session need not walk its B-trees again.
+     *
+     * @param directory the directory in which to keep sidecars, or an empty string to keep each beside its file
+     */
+    public static void setSidecarIndex(boolean enabled, String directory) {
+        File sidecarDirectory = null;
+        if(directory != null && !directory.isEmpty()) {
+            sidecarDirectory = new File(directory);
+        }
+        Hdf5FileCache.getShared().setSidecarIndexes(enabled, sidecarDirectory);
     }
 
 }
@@ -0,0 +1,294 @@
+package org.renjin.hdf5;
+
+import org.renjin.hdf5.chunked.ChunkTable;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A file kept beside an HDF5 file, or in a cache directory, which records what has been learned about the
+ * structure of the HDF5 file: the header addresses of objects looked up by path, and the locations of the chunks
+ * of datasets indexed by B-trees. When the file is opened again, the sidecar is mapped into memory instead of
+ * walking the group and chunk B-trees.
+ *
+ * <p>The sidecar records the length and modification time of the HDF5 file, and the end of file address held in
+ * its superblock. If any of these has changed, the sidecar is stale, and is ignored and rewritten when next
+ * saved.</p>
+ *
+ * <p>Chunk tables are only copied out of the mapped sidecar when they are first needed.</p>
+ */
+public class SidecarIndex {
+
+    private static final int MAGIC = 0x48354958; // "H5IX"
+    private static final int VERSION = 1;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final File sidecarFile;
+    private final long fileLength;
+    private final long lastModified;
+    private final long endOfFileAddress;
+
+    private final ConcurrentHashMap<String, Long> objectAddresses = new ConcurrentHashMap<>();
+
+    /**
+     * Chunk tables which have been read from the sidecar, or added since, by object header address.
+     */
+    private final ConcurrentHashMap<Long, ChunkTable> chunkTables = new ConcurrentHashMap<>();
+
+    /**
+     * Chunk tables in the mapped sidecar which have not yet been read, by object header address.
+     */
+    private final ConcurrentHashMap<Long, ByteBuffer> storedTables = new ConcurrentHashMap<>();
+
+    private volatile boolean loaded;
+    private volatile boolean dirty;
+
+    private SidecarIndex(File sidecarFile, long fileLength, long lastModified, long endOfFileAddress) {
+        this.sidecarFile = sidecarFile;
+        this.fileLength = fileLength;
+        this.lastModified = lastModified;
+        this.endOfFileAddress = endOfFileAddress;
+    }
+
+    /**
+     * @return the sidecar kept beside the given HDF5 file, named by appending ".idx" to its name.
+     */
+    public static File defaultLocation(File file) {
+        return new File(file.getPath() + ".idx");
+    }
+
+    /**
+     * @return the sidecar kept in {@code directory} for the given HDF5 file, which is named after the file and a
+     * hash of its canonical path, so that files with the same name in different directories do not collide.
+     */
+    public static File locationIn(File directory, File file) throws IOException {
+        String path = file.getCanonicalPath();
+        return new File(directory, file.getName() + "-" + Integer.toHexString(path.hashCode()) + ".idx");
+    }
+
+    /**
+     * Opens the sidecar of an HDF5 file. If the sidecar does not exist, cannot be read, or is stale, the
+     * index starts out empty.
+     *
+     * @param file the HDF5 file
+     * @param sidecarFile the location of its sidecar
+     * @param superblock the superblock of the open HDF5 file
+     */
+    public static SidecarIndex open(File file, File sidecarFile, Superblock superblock) {
+        SidecarIndex index = new SidecarIndex(sidecarFile, file.length(), file.lastModified(),
+            superblock.getEndOfFileAddress());
+        if(sidecarFile.isFile()) {
+            try {
+                index.load();
+            } catch (IOException | BufferUnderflowException e) {
+                index.objectAddresses.clear();
+                index.storedTables.clear();
+            }
+        }
+        return index;
+    }
+
+    private void load() throws IOException {
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(sidecarFile.toPath(), StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if(buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+            return;
+        }
+        if(buffer.getLong() != fileLength ||
+            buffer.getLong() != lastModified ||
+            buffer.getLong() != endOfFileAddress) {
+            return;
+        }
+        int objectCount = buffer.getInt();
+        for (int i = 0; i < objectCount; i++) {
+            byte[] path = new byte[buffer.getShort() & 0xFFFF];
+            buffer.get(path);
+            objectAddresses.put(new String(path, UTF8), buffer.getLong());
+        }
+        int tableCount = buffer.getInt();
+        for (int i = 0; i < tableCount; i++) {
+            long objectAddress = buffer.getLong();
+            int size = buffer.getInt();
+            if(size < 0 || size > buffer.remaining()) {
+                throw new IOException("Truncated sidecar index " + sidecarFile);
+            }
+            ByteBuffer table = buffer.slice();
+            table.limit(size);
+            storedTables.put(objectAddress, table);
+            buffer.position(buffer.position() + size);
+        }
+        loaded = true;
+    }
+
+    /**
+     * @return true if the index was read from a current sidecar.
+     */
+    public boolean isLoaded() {
+        return loaded;
+    }
+
+    public File getSidecarFile() {
+        return sidecarFile;
+    }
+
+    /**
+     * @return the address of the header of the object at the given path, or -1 if it has not been recorded.
+     */
+    public long getObjectAddress(String path) {
+        Long address = objectAddresses.get(path);
+        if(address == null) {
+            return -1;
+        }
+        return address;
+    }
+
+    public void putObjectAddress(String path, long address) {
+        if(objectAddresses.putIfAbsent(path, address) == null) {
+            dirty = true;
+        }
+    }
+
+    /**
+     * @return the chunk table of the dataset whose header is at {@code objectAddress}, or {@code null} if it has
+     * not been recorded.
+     */
+    public ChunkTable getChunkTable(long objectAddress) throws IOException {
+        ChunkTable table = chunkTables.get(objectAddress);
+        if(table == null) {
+            ByteBuffer stored = storedTables.get(objectAddress);
+            if(stored != null) {
+                table = ChunkTable.read(stored.duplicate());
+                ChunkTable existing = chunkTables.putIfAbsent(objectAddress, table);
+                if(existing != null) {
+                    table = existing;
+                }
+            }
+        }
+        return table;
+    }
+
+    public void putChunkTable(long objectAddress, ChunkTable table) {
+        if(chunkTables.putIfAbsent(objectAddress, table) == null) {
+            dirty = true;
+        }
+    }
+
+    /**
+     * Writes the index to the sidecar if anything has been added since it was read. The sidecar is written to a
+     * temporary file first, and then moved into place, so that a sidecar is never seen half-written.
+     */
+    public synchronized void save() throws IOException {
+        if(!dirty) {
+            return;
+        }
+        // Cleared first, so that anything added while writing is saved next time
+        dirty = false;
+        File directory = sidecarFile.getAbsoluteFile().getParentFile();
+        if(!directory.isDirectory() && !directory.mkdirs()) {
+            dirty = true;
+            throw new IOException("Could not create directory " + directory);
+        }
+        File tempFile = File.createTempFile(sidecarFile.getName(), ".tmp", directory);
+        boolean saved = false;
+        try {
+            try (FileChannel channel = FileChannel.open(tempFile.toPath(), StandardOpenOption.WRITE)) {
+                writeTo(channel);
+            }
+            try {
+                Files.move(tempFile.toPath(), sidecarFile.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tempFile.toPath(), sidecarFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+            saved = true;
+        } finally {
+            if(!saved) {
+                dirty = true;
+                Files.deleteIfExists(tempFile.toPath());
+            }
+        }
+    }
+
+    private void writeTo(FileChannel channel) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(32);
+        header.putInt(MAGIC);
+        header.putInt(VERSION);
+        header.putLong(fileLength);
+        header.putLong(lastModified);
+        header.putLong(endOfFileAddress);
+        header.flip();
+        writeFully(channel, header);
+
+        // Lookups may add to the index while it is being written
+        Map<String, Long> objects = new HashMap<>(objectAddresses);
+        Map<Long, ChunkTable> tables = new HashMap<>(chunkTables);
+
+        int objectsSize = 4;
+        for (String path : objects.keySet()) {
+            objectsSize += 2 + path.getBytes(UTF8).length + 8;
+        }
+        ByteBuffer objectBuffer = ByteBuffer.allocate(objectsSize);
+        objectBuffer.putInt(objects.size());
+        for (Map.Entry<String, Long> entry : objects.entrySet()) {
+            byte[] path = entry.getKey().getBytes(UTF8);
+            objectBuffer.putShort((short) path.length);
+            objectBuffer.put(path);
+            objectBuffer.putLong(entry.getValue());
+        }
+        objectBuffer.flip();
+        writeFully(channel, objectBuffer);
+
+        // Tables which were never read are copied through from the old sidecar unchanged
+        int tableCount = tables.size();
+        for (Long objectAddress : storedTables.keySet()) {
+            if(!tables.containsKey(objectAddress)) {
+                tableCount++;
+            }
+        }
+        ByteBuffer countBuffer = ByteBuffer.allocate(4);
+        countBuffer.putInt(tableCount);
+        countBuffer.flip();
+        writeFully(channel, countBuffer);
+
+        for (Map.Entry<Long, ChunkTable> entry : tables.entrySet()) {
+            ChunkTable table = entry.getValue();
+            ByteBuffer tableBuffer = ByteBuffer.allocate(12 + table.getSerializedSize());
+            tableBuffer.putLong(entry.getKey());
+            tableBuffer.putInt(table.getSerializedSize());
+            table.write(tableBuffer);
+            tableBuffer.flip();
+            writeFully(channel, tableBuffer);
+        }
+        for (Map.Entry<Long, ByteBuffer> entry : storedTables.entrySet()) {
+            if(!tables.containsKey(entry.getKey())) {
+                ByteBuffer tableHeader = ByteBuffer.allocate(12);
+                tableHeader.putLong(entry.getKey());
+                tableHeader.putInt(entry.getValue().remaining());
+                tableHeader.flip();
+                writeFully(channel, tableHeader);
+                writeFully(channel, entry.getValue().duplicate());
+            }
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while(buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+}
@@ -1,10 +1,10 @@
 package org.renjin.hdf5;
 
+import org.renjin.hdf5.storage.StorageBackend;
+
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
-import java.nio.MappedByteBuffer;
-import java.nio.channels.FileChannel;
 import java.util.Arrays;
 
 public class Superblock {
@@ -23,9 +23,9 @@ public class Superblock {
     private long driverInformationBlockAddress;
     private int groupLeafNodeK;
 
-    public Superblock(FileChannel channel) throws IOException {
+    public Superblock(StorageBackend storage) throws IOException {
 
-        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(channel.size(), MAX_LENGTH));
+        ByteBuffer buffer = storage.slice(0, Math.min(storage.size(), MAX_LENGTH));
         buffer.order(ByteOrder.LITTLE_ENDIAN);
 
         readAndCheckSignature(buffer);
@@ -41,7 +41,7 @@ public class Superblock {
         }
     }
 
-    private void readVersion0(MappedByteBuffer buffer) throws IOException {
+    private void readVersion0(ByteBuffer buffer) throws IOException {
 
         int freeSpaceStorageVersion = buffer.get();
         int rootGroupSymbolTableEntryVersion = buffer.get();
@@ -83,7 +83,7 @@ public class Superblock {
 
     }
 
-    private void readVersion2(MappedByteBuffer buffer) throws IOException {
+    private void readVersion2(ByteBuffer buffer) throws IOException {
         /*
          * This value contains the number of bytes used to store addresses in the file. The values for the
          * addresses of objects in the file are offsets relative to a base address, usually the address of the
@@ -141,4 +141,8 @@ public class Superblock {
         return rootGroupObjectHeaderAddress;
     }
 
+    public long getEndOfFileAddress() {
+        return endOfFileAddress;
+    }
+
 }
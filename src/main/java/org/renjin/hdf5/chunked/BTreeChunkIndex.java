@@ -2,87 +2,156 @@ package org.renjin.hdf5.chunked;
 
 
 import org.renjin.hdf5.Hdf5Data;
+import org.renjin.hdf5.HeaderReader;
 import org.renjin.hdf5.message.DataLayoutMessage;
-import org.renjin.hdf5.message.DataStorageMessage;
-import org.renjin.repackaged.guava.cache.CacheBuilder;
-import org.renjin.repackaged.guava.cache.CacheLoader;
-import org.renjin.repackaged.guava.cache.LoadingCache;
+import org.renjin.hdf5.message.DataspaceMessage;
 
 import java.io.IOException;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.concurrent.ExecutionException;
-import java.util.zip.DataFormatException;
-
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The version 1 B-tree index, used by datasets written with layout messages before version 4.
+ *
+ * <p>Chunks are found either by descending the tree from its root, caching the nodes read along the way, or,
+ * if the index is bulk loaded, by reading the whole tree into a {@link ChunkTable} on the first lookup, which is
+ * cheaper for datasets with many chunks that are read throughout.</p>
+ */
 public class BTreeChunkIndex extends ChunkIndex {
 
-    private Hdf5Data file;
+    /**
+     * The size of a node's signature, type, level and number of entries.
+     */
+    private static final int NODE_PREFIX_SIZE = 8;
+
     private DataLayoutMessage dataLayout;
-    private final ChunkDecoder chunkDecoder;
     private final ChunkNode rootNode;
+    private final boolean bulkLoad;
 
-    private Map<Long, ChunkNode> nodes = new HashMap<>();
+    private final ConcurrentHashMap<Long, ChunkNode> nodes = new ConcurrentHashMap<>();
 
-    private LoadingCache<ChunkKey, Chunk> chunkCache;
+    private volatile ChunkTable table;
 
-    public BTreeChunkIndex(Hdf5Data file, DataLayoutMessage dataLayout, ChunkDecoder decoder) throws IOException {
-        this.file = file;
-        this.dataLayout = dataLayout;
-        this.rootNode = readNode(dataLayout.getChunkIndexAddress(), 4096);
-        this.chunkDecoder = decoder;
-        this.chunkCache = CacheBuilder.newBuilder()
-            .softValues()
-            .build(new CacheLoader<ChunkKey, Chunk>() {
-                @Override
-                public Chunk load(ChunkKey key) throws Exception {
-                    return readChunkData(key);
-                }
-            });
+    public BTreeChunkIndex(Hdf5Data file, DataspaceMessage dataspace, DataLayoutMessage dataLayout,
+                           ChunkDecoder decoder) throws IOException {
+        this(file, dataspace, dataLayout, decoder, false);
+    }
 
+    public BTreeChunkIndex(Hdf5Data file, DataspaceMessage dataspace, DataLayoutMessage dataLayout,
+                           ChunkDecoder decoder, boolean bulkLoad) throws IOException {
+        super(file, dataspace, dataLayout, decoder);
+        this.dataLayout = dataLayout;
+        this.bulkLoad = bulkLoad;
+        this.rootNode = readNode(dataLayout.getChunkIndexAddress());
     }
 
     private ChunkNode getNode(ChunkKey key) throws IOException {
         ChunkNode node = nodes.get(key.getChildPointer());
         if(node == null) {
-            node = readNode(key.getChildPointer(), key.getChunkSize());
-            nodes.put(key.getChildPointer(), node);
+            node = readNode(key.getChildPointer());
+            nodes.putIfAbsent(key.getChildPointer(), node);
         }
         return node;
     }
 
-    private ChunkNode readNode(long address, int size) throws IOException {
-        return new ChunkNode(dataLayout, file.readerAt(address, size));
+    private ChunkNode readNode(long address) throws IOException {
+        HeaderReader prefix = file.readerAt(address, NODE_PREFIX_SIZE);
+        prefix.checkSignature("TREE");
+        prefix.readReserved(2); // node type and level
+        int entriesUsed = prefix.readUInt16();
+
+        int offsetSize = file.getSuperblock().getOffsetSize();
+        int keySize = 4 + // chunk size
+            4 + // filter mask
+            8 * (dataLayout.getDimensionality() + 1); // chunk offset
+        int nodeSize = NODE_PREFIX_SIZE +
+            2 * offsetSize + // siblings
+            (entriesUsed + 1) * keySize +
+            entriesUsed * offsetSize; // children
+
+        return new ChunkNode(dataLayout, file.readerAt(address, nodeSize));
     }
 
-    /**
-     * Returns the chunk containing the value at the given
-     */
     @Override
-    public Chunk chunkAt(long[] arrayIndex) throws IOException {
-        assert dataLayout.getDimensionality() == arrayIndex.length : "Invalid dimensionality";
-        return getChunk(arrayIndex);
-    }
-
-    private Chunk getChunk(long[] index) throws IOException {
-        ChunkKey key = findNode(index);
-        try {
-            return chunkCache.get(key);
-        } catch (ExecutionException e) {
-            throw new RuntimeException(e);
+    protected ChunkLocation locate(long[] chunkOffset) throws IOException {
+        if(bulkLoad) {
+            ChunkTable table = getTable();
+            int i = table.find(chunkOffset);
+            if(i < 0) {
+                return null;
+            }
+            return new ChunkLocation(chunkOffset, table.getAddress(i), table.getSize(i), table.getFilterMask(i));
         }
+        ChunkKey key = findNode(chunkOffset);
+        if(key == null) {
+            return null;
+        }
+        return new ChunkLocation(key.getOffset(), key.getChildPointer(), key.getChunkSize(), key.getFilterMask());
     }
 
-    private Chunk readChunkData(ChunkKey key) throws IOException {
-        return chunkDecoder.read(key.getOffset(), key.getChildPointer(), key.getChunkSize());
-    }
-
+    /**
+     * @return the key of the chunk at {@code chunkCoordinates}, or {@code null} if it has not been allocated.
+     */
     private ChunkKey findNode(long[] chunkCoordinates) throws IOException {
 
         ChunkNode node = rootNode;
         while(!node.isLeaf()) {
-            node = getNode(node.findChildAddress(chunkCoordinates));
+            ChunkKey key = node.findChildAddress(chunkCoordinates);
+            if(key == null) {
+                return null;
+            }
+            node = getNode(key);
         }
 
-        return node.findChildAddress(chunkCoordinates);
+        ChunkKey key = node.findChildAddress(chunkCoordinates);
+        if(key == null || key.compare(chunkCoordinates) != 0) {
+            return null;
+        }
+        return key;
+    }
+
+    /**
+     * Returns the location of every chunk in the tree, reading the whole tree if it has not yet been loaded.
+     */
+    public ChunkTable getTable() throws IOException {
+        ChunkTable table = this.table;
+        if(table == null) {
+            table = load();
+        }
+        return table;
+    }
+
+    private synchronized ChunkTable load() throws IOException {
+        if(table != null) {
+            return table;
+        }
+        int[] chunkSize = dataLayout.getChunkSize();
+        long[] gridSize = getGridSize();
+        long gridCount = 1;
+        for (int i = 0; i < gridSize.length; i++) {
+            gridCount *= gridSize[i];
+        }
+        ChunkTable newTable = new ChunkTable(chunkSize, gridSize, (int) Math.min(gridCount, 1 << 16));
+        loadNode(newTable, rootNode, new long[chunkSize.length]);
+        newTable.finish();
+        table = newTable;
+        return newTable;
+    }
+
+    /**
+     * Appends the chunks beneath {@code node} to the table, in order. Nodes are read once, and not cached.
+     */
+    private void loadNode(ChunkTable table, ChunkNode node, long[] scaledOffset) throws IOException {
+        int[] chunkSize = dataLayout.getChunkSize();
+        for (int i = 0; i < node.getEntryCount(); i++) {
+            ChunkKey key = node.getKey(i);
+            if(node.isLeaf()) {
+                for (int d = 0; d < scaledOffset.length; d++) {
+                    scaledOffset[d] = key.getOffset()[d] / chunkSize[d];
+                }
+                table.add(key.getChildPointer(), key.getChunkSize(), key.getFilterMask(), scaledOffset);
+            } else {
+                loadNode(table, readNode(key.getChildPointer()), scaledOffset);
+            }
+        }
     }
 }
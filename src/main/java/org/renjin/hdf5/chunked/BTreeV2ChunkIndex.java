@@ -0,0 +1,251 @@
+package org.renjin.hdf5.chunked;
+
+import org.renjin.hdf5.Hdf5Data;
+import org.renjin.hdf5.HeaderReader;
+import org.renjin.hdf5.message.DataLayoutMessage;
+import org.renjin.hdf5.message.DataspaceMessage;
+import org.renjin.repackaged.guava.primitives.Ints;
+
+import java.io.IOException;
+
+/**
+ * The version 2 B-tree index is used for datasets with more than one unlimited dimension.
+ *
+ * <p>Each record in the tree holds the address of a chunk and its scaled offset: the offset of its first element
+ * divided by the chunk size. Records of filtered datasets also hold the chunk's size and filter mask. Unlike the
+ * version 1 B-tree, records are held in the internal nodes as well as the leaves, and are ordered by their
+ * scaled offsets.</p>
+ *
+ * <p>Rather than descending the tree for every chunk, the first lookup reads each node once, in order, into a
+ * {@link ChunkTable}, which is then searched for every chunk.</p>
+ */
+public class BTreeV2ChunkIndex extends ChunkIndex {
+
+    private static final int UNFILTERED_RECORD_TYPE = 10;
+    private static final int FILTERED_RECORD_TYPE = 11;
+
+    /**
+     * The size of a node's signature, version, type and checksum.
+     */
+    private static final int NODE_PREFIX_SIZE = 10;
+
+    private final int offsetSize;
+    private final int[] chunkSize;
+    private final int dimensionality;
+    private final int unfilteredChunkSize;
+
+    private final int recordType;
+    private final int recordSize;
+    private final int chunkSizeLength;
+    private final int depth;
+    private final long rootAddress;
+    private final int rootRecordCount;
+    private final long totalRecordCount;
+
+    /**
+     * The number of bytes used to encode the number of records in a child node.
+     */
+    private final int recordCountSize;
+
+    /**
+     * The number of bytes used to encode the total number of records beneath a node, by the node's depth.
+     */
+    private final int[] totalRecordCountSize;
+
+    private volatile ChunkTable table;
+
+    /**
+     * The scaled offset of the record being read.
+     */
+    private long[] scaledOffset;
+
+    public BTreeV2ChunkIndex(Hdf5Data file, DataspaceMessage dataspace, DataLayoutMessage layout,
+                             ChunkDecoder decoder) throws IOException {
+        this(file, dimensionSize(dataspace), layout.getChunkSize(), layout.getDatasetElementSize(),
+            layout.getChunkIndexAddress(), decoder);
+    }
+
+    BTreeV2ChunkIndex(Hdf5Data file, long[] dimensionSize, int[] chunkSize, int datasetElementSize,
+                      long headerAddress, ChunkDecoder decoder) throws IOException {
+        super(file, dimensionSize, chunkSize, decoder);
+        this.offsetSize = file.getSuperblock().getOffsetSize();
+        this.chunkSize = chunkSize;
+        this.dimensionality = chunkSize.length;
+
+        long chunkElements = 1;
+        for (int i = 0; i < chunkSize.length; i++) {
+            chunkElements *= chunkSize[i];
+        }
+        this.unfilteredChunkSize = Ints.checkedCast(chunkElements * datasetElementSize);
+
+        int headerSize = 4 + // signature
+            12 + // version, type, node size, record size, depth, split and merge percentages
+            offsetSize + // root node address
+            2 + // number of records in the root node
+            file.getSuperblock().getLengthSize() + // total number of records
+            4; // checksum
+
+        HeaderReader reader = file.readerAt(headerAddress, headerSize);
+        reader.checkSignature("BTHD");
+        int version = reader.readUInt8();
+        if(version != 0) {
+            throw new UnsupportedOperationException("BTHD version: " + version);
+        }
+        recordType = reader.readUInt8();
+        if(recordType != UNFILTERED_RECORD_TYPE && recordType != FILTERED_RECORD_TYPE) {
+            throw new UnsupportedOperationException("B-tree record type: " + recordType);
+        }
+        int nodeSize = reader.readInt();
+        recordSize = reader.readUInt16();
+        depth = reader.readUInt16();
+        // split and merge percentages
+        reader.readUInt8();
+        reader.readUInt8();
+        rootAddress = reader.readOffset();
+        rootRecordCount = reader.readUInt16();
+        totalRecordCount = reader.readLength();
+
+        if(recordType == FILTERED_RECORD_TYPE) {
+            chunkSizeLength = recordSize - offsetSize - 4 - 8 * dimensionality;
+            if(chunkSizeLength < 1 || chunkSizeLength > 8) {
+                throw new IOException("Invalid B-tree record size: " + recordSize);
+            }
+        } else {
+            chunkSizeLength = 0;
+        }
+
+        // The sizes of the fields in an internal node's child pointers depend on the greatest
+        // number of records which can be held beneath it.
+        long maxLeafRecords = (nodeSize - NODE_PREFIX_SIZE) / recordSize;
+        recordCountSize = encodedSize(maxLeafRecords);
+        totalRecordCountSize = new int[depth + 1];
+        long maxTotalRecords = maxLeafRecords;
+        for (int d = 1; d <= depth; d++) {
+            int pointerSize = childPointerSize(d);
+            long maxRecords = (nodeSize - (NODE_PREFIX_SIZE + pointerSize)) / (recordSize + pointerSize);
+            maxTotalRecords = (maxRecords + 1) * maxTotalRecords + maxRecords;
+            totalRecordCountSize[d] = encodedSize(maxTotalRecords);
+        }
+    }
+
+    /**
+     * @return the number of bytes needed to encode {@code value}
+     */
+    private static int encodedSize(long value) {
+        return (63 - Long.numberOfLeadingZeros(value)) / 8 + 1;
+    }
+
+    /**
+     * @return the size of the pointers to child nodes held by internal nodes at the given depth.
+     */
+    private int childPointerSize(int nodeDepth) {
+        int size = offsetSize + recordCountSize;
+        if(nodeDepth > 1) {
+            size += totalRecordCountSize[nodeDepth - 1];
+        }
+        return size;
+    }
+
+    @Override
+    protected ChunkLocation locate(long[] chunkOffset) throws IOException {
+        ChunkTable table = getTable();
+        int i = table.find(chunkOffset);
+        if(i < 0) {
+            return null;
+        }
+        return new ChunkLocation(chunkOffset, table.getAddress(i), table.getSize(i), table.getFilterMask(i));
+    }
+
+    /**
+     * Returns the location of every chunk in the tree, reading the whole tree if it has not yet been loaded.
+     */
+    public ChunkTable getTable() throws IOException {
+        ChunkTable table = this.table;
+        if(table == null) {
+            table = load();
+        }
+        return table;
+    }
+
+    private synchronized ChunkTable load() throws IOException {
+        if(table != null) {
+            return table;
+        }
+        ChunkTable newTable = new ChunkTable(chunkSize, getGridSize(), Ints.checkedCast(totalRecordCount));
+        scaledOffset = new long[dimensionality];
+        if(rootRecordCount > 0) {
+            loadNode(newTable, rootAddress, depth, rootRecordCount);
+        }
+        if(newTable.getCount() != totalRecordCount) {
+            throw new IOException("B-tree holds " + newTable.getCount() + " records, expected " + totalRecordCount);
+        }
+        newTable.finish();
+        table = newTable;
+        return newTable;
+    }
+
+    /**
+     * Appends the records held in the node at {@code address}, and beneath it, to the table in order.
+     */
+    private void loadNode(ChunkTable table, long address, int nodeDepth, int nodeRecordCount) throws IOException {
+        int pointerCount = nodeDepth > 0 ? nodeRecordCount + 1 : 0;
+        int nodeSize = NODE_PREFIX_SIZE +
+            nodeRecordCount * recordSize +
+            pointerCount * (nodeDepth > 0 ? childPointerSize(nodeDepth) : 0);
+
+        HeaderReader reader = file.readerAt(address, nodeSize);
+        reader.checkSignature(nodeDepth > 0 ? "BTIN" : "BTLF");
+        int version = reader.readUInt8();
+        if(version != 0) {
+            throw new UnsupportedOperationException("B-tree node version: " + version);
+        }
+        int type = reader.readUInt8();
+        if(type != recordType) {
+            throw new IOException("B-tree node of type " + type + " in a tree of type " + recordType);
+        }
+
+        if(nodeDepth == 0) {
+            for (int i = 0; i < nodeRecordCount; i++) {
+                readRecord(table, reader);
+            }
+            return;
+        }
+
+        // Records are interleaved with the subtrees between them, so we have to
+        // read past them first to reach the child pointers.
+        int recordsStart = reader.position();
+        reader.readReserved(nodeRecordCount * recordSize);
+        long[] childAddresses = new long[pointerCount];
+        int[] childRecordCounts = new int[pointerCount];
+        for (int i = 0; i < pointerCount; i++) {
+            childAddresses[i] = reader.readOffset();
+            childRecordCounts[i] = Ints.checkedCast(reader.readUInt(recordCountSize));
+            if(nodeDepth > 1) {
+                // total number of records beneath the child
+                reader.readUInt(totalRecordCountSize[nodeDepth - 1]);
+            }
+        }
+
+        HeaderReader records = file.readerAt(address + recordsStart, nodeRecordCount * recordSize);
+        for (int i = 0; i < pointerCount; i++) {
+            loadNode(table, childAddresses[i], nodeDepth - 1, childRecordCounts[i]);
+            if(i < nodeRecordCount) {
+                readRecord(table, records);
+            }
+        }
+    }
+
+    private void readRecord(ChunkTable table, HeaderReader reader) throws IOException {
+        long address = reader.readOffset();
+        int size = unfilteredChunkSize;
+        int filterMask = 0;
+        if(recordType == FILTERED_RECORD_TYPE) {
+            size = Ints.checkedCast(reader.readUInt(chunkSizeLength));
+            filterMask = reader.readInt();
+        }
+        for (int d = 0; d < dimensionality; d++) {
+            scaledOffset[d] = reader.readUInt64();
+        }
+        table.add(address, size, filterMask, scaledOffset);
+    }
+}
@@ -1,14 +1,27 @@
 package org.renjin.hdf5.chunked;
 
+import java.util.concurrent.atomic.AtomicInteger;
+
 /**
  * Chunk of data loaded into memory
+ *
+ * <p>Chunks are reference counted so that memory allocated from a {@link ChunkStore} can be returned
+ * as soon as the chunk has been evicted from the {@link ChunkCache} and is no longer being read. A new chunk
+ * has a single reference, owned by whoever decoded it.</p>
  */
 public abstract class Chunk {
 
     private final long[] chunkOffset;
+    private final ChunkStore.Allocation allocation;
+    private final AtomicInteger refCount = new AtomicInteger(1);
 
     public Chunk(long[] chunkOffset) {
+        this(chunkOffset, null);
+    }
+
+    public Chunk(long[] chunkOffset, ChunkStore.Allocation allocation) {
         this.chunkOffset = chunkOffset;
+        this.allocation = allocation;
     }
 
     public long[] getChunkOffset() {
@@ -16,4 +29,79 @@ public abstract class Chunk {
     }
 
     public abstract double getDoubleAt(int i);
+
+    /**
+     * Copies {@code length} consecutive elements, starting at element {@code start} of this chunk, into
+     * {@code dest} at {@code destOffset}.
+     */
+    public void copyTo(int start, double[] dest, int destOffset, int length) {
+        for (int i = 0; i < length; i++) {
+            dest[destOffset + i] = getDoubleAt(start + i);
+        }
+    }
+
+    /**
+     * Copies {@code length} consecutive elements, starting at element {@code start} of this chunk, into
+     * {@code dest} at {@code destOffset}, converting each to an integer.
+     */
+    public void copyTo(int start, int[] dest, int destOffset, int length) {
+        for (int i = 0; i < length; i++) {
+            dest[destOffset + i] = (int) getDoubleAt(start + i);
+        }
+    }
+
+    /**
+     * @return the size, in bytes, of this chunk's decoded data.
+     */
+    public abstract int getByteSize();
+
+    /**
+     * Adds a reference to this chunk, unless it has already been released.
+     *
+     * @return false if the chunk has already been released and its memory may have been reused.
+     */
+    public boolean tryRetain() {
+        while(true) {
+            int count = refCount.get();
+            if(count == 0) {
+                return false;
+            }
+            if(refCount.compareAndSet(count, count + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Adds a reference to this chunk.
+     *
+     * @throws IllegalStateException if the chunk has already been released
+     */
+    public Chunk retain() {
+        if(!tryRetain()) {
+            throw new IllegalStateException("Chunk already released");
+        }
+        return this;
+    }
+
+    /**
+     * Drops a reference to this chunk, freeing its memory once there are no references left.
+     */
+    public void release() {
+        int count = refCount.decrementAndGet();
+        if(count == 0) {
+            if(allocation != null) {
+                allocation.free();
+            }
+            dispose();
+        } else if(count < 0) {
+            throw new IllegalStateException("Chunk released too many times");
+        }
+    }
+
+    /**
+     * Frees any other resources held by this chunk, once the last reference to it has been released.
+     */
+    protected void dispose() {
+    }
 }
@@ -0,0 +1,112 @@
+package org.renjin.hdf5.chunked;
+
+import org.renjin.hdf5.Hdf5Data;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Reads a set of chunks with as few requests to the file as possible.
+ *
+ * <p>Chunks are sorted by file address, and chunks that are adjacent or separated by a gap of at most
+ * {@code maxGap} bytes are merged into a single read of at most {@code maxReadSize} bytes. The
+ * buffer for each read is then split and each chunk decoded separately.</p>
+ */
+public class ChunkBatchReader {
+
+    public static final int DEFAULT_MAX_GAP = 64 * 1024;
+
+    public static final int DEFAULT_MAX_READ_SIZE = 16 * 1024 * 1024;
+
+    private final Hdf5Data file;
+    private final ChunkDecoder decoder;
+    private final int maxGap;
+    private final int maxReadSize;
+
+    public ChunkBatchReader(Hdf5Data file, ChunkDecoder decoder) {
+        this(file, decoder, DEFAULT_MAX_GAP, DEFAULT_MAX_READ_SIZE);
+    }
+
+    public ChunkBatchReader(Hdf5Data file, ChunkDecoder decoder, int maxGap, int maxReadSize) {
+        this.file = file;
+        this.decoder = decoder;
+        this.maxGap = maxGap;
+        this.maxReadSize = maxReadSize;
+    }
+
+    /**
+     * Reads and decodes the chunks at the given locations.
+     *
+     * @return the decoded chunks, in the same order as {@code locations}
+     */
+    public List<Chunk> read(List<ChunkLocation> locations) throws IOException {
+
+        // Sort the positions of the locations by file address
+        Integer[] order = new Integer[locations.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        final List<ChunkLocation> unsorted = locations;
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return Long.compare(unsorted.get(a).getAddress(), unsorted.get(b).getAddress());
+            }
+        });
+
+        Chunk[] chunks = new Chunk[order.length];
+
+        try {
+            int runStart = 0;
+            while(runStart < order.length) {
+                ChunkLocation first = locations.get(order[runStart]);
+                long start = first.getAddress();
+                long end = start + first.getSize();
+
+                // Extend the run as long as the next chunk is close enough
+                int runEnd = runStart + 1;
+                while(runEnd < order.length) {
+                    ChunkLocation next = locations.get(order[runEnd]);
+                    long nextEnd = Math.max(end, next.getAddress() + next.getSize());
+                    if(next.getAddress() - end > maxGap || nextEnd - start > maxReadSize) {
+                        break;
+                    }
+                    end = nextEnd;
+                    runEnd++;
+                }
+
+                ByteBuffer run = file.bufferAt(start, end - start);
+                for (int i = runStart; i < runEnd; i++) {
+                    ChunkLocation location = locations.get(order[i]);
+                    chunks[order[i]] = decoder.decode(location, slice(run, (int) (location.getAddress() - start),
+                        location.getSize()));
+                }
+                runStart = runEnd;
+            }
+        } catch (Throwable e) {
+            // Chunks decoded before the failure are not handed out, so their memory must be returned here
+            for (Chunk chunk : chunks) {
+                if(chunk != null) {
+                    chunk.release();
+                }
+            }
+            throw e;
+        }
+
+        List<Chunk> result = new ArrayList<>(chunks.length);
+        Collections.addAll(result, chunks);
+        return result;
+    }
+
+    private static ByteBuffer slice(ByteBuffer run, int offset, int size) {
+        ByteBuffer view = run.duplicate();
+        view.position(offset);
+        view.limit(offset + size);
+        return view.slice();
+    }
+}
@@ -0,0 +1,438 @@
+package org.renjin.hdf5.chunked;
+
+import org.renjin.repackaged.guava.base.Throwables;
+import org.renjin.repackaged.guava.cache.CacheStats;
+import org.renjin.repackaged.guava.util.concurrent.Uninterruptibles;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache of decoded chunks shared by all open datasets, bounded by the total size of the decoded data.
+ *
+ * <p>Chunks are keyed by the id of the {@link ChunkIndex} they belong to and their position in that dataset's
+ * grid of chunks. Eviction follows a segmented LRU policy: a newly read chunk enters a probationary segment,
+ * and moves to a protected segment when it is read again. Chunks are evicted from the probationary segment
+ * first, so that a single scan through a large dataset does not flush the chunks which are read repeatedly.
+ * The protected segment is limited to {@link #PROTECTED_SHARE} of the budget, and demotes its least recently
+ * used chunks back to probation when it grows beyond that.</p>
+ *
+ * <p>The entries are split between independently locked stripes, so that readers of different chunks rarely
+ * contend. The byte budget applies to the cache as a whole: each stripe keeps its own eviction order, and
+ * evictions are taken from the stripes in turn until the total size is back within the budget. Only a chunk
+ * larger than the whole budget can never be cached: it is handed to the caller without being stored.</p>
+ *
+ * <p>The cache owns one reference to each chunk it holds, which it releases when the chunk is evicted.
+ * Callers must {@linkplain Chunk#tryRetain() retain} chunks they read from the cache before using them.</p>
+ */
+public class ChunkCache {
+
+    public static final long DEFAULT_MAX_BYTES = 256L * 1024 * 1024;
+
+    public static final int DEFAULT_CONCURRENCY_LEVEL = 16;
+
+    /**
+     * The share of the byte budget which may be taken up by the protected segment.
+     */
+    public static final double PROTECTED_SHARE = 0.8;
+
+    private static final AtomicLong NEXT_INDEX_ID = new AtomicLong(0);
+
+    private static volatile ChunkCache shared = new ChunkCache(DEFAULT_MAX_BYTES, DEFAULT_CONCURRENCY_LEVEL);
+
+    private final long maxBytes;
+    private final long maxProtectedBytes;
+
+    private final Stripe[] stripes;
+
+    /**
+     * The total size of the chunks held by all stripes.
+     */
+    private final AtomicLong weight = new AtomicLong();
+    private final AtomicLong protectedWeight = new AtomicLong();
+
+    /**
+     * The stripe from which the next chunk is evicted.
+     */
+    private final AtomicInteger evictionHand = new AtomicInteger();
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong loadSuccessCount = new AtomicLong();
+    private final AtomicLong loadExceptionCount = new AtomicLong();
+    private final AtomicLong totalLoadTime = new AtomicLong();
+    private final AtomicLong evictionCount = new AtomicLong();
+
+    public ChunkCache(long maxBytes, int concurrencyLevel) {
+        if(concurrencyLevel < 1) {
+            throw new IllegalArgumentException("concurrencyLevel: " + concurrencyLevel);
+        }
+        this.maxBytes = maxBytes;
+        this.maxProtectedBytes = (long) (maxBytes * PROTECTED_SHARE);
+        // Round the number of stripes up to a power of two, so that a key's stripe can be found by masking
+        this.stripes = new Stripe[Integer.highestOneBit(concurrencyLevel * 2 - 1)];
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = new Stripe();
+        }
+    }
+
+    public static ChunkCache getShared() {
+        return shared;
+    }
+
+    /**
+     * Replaces the shared cache with a new, empty, cache limited to {@code maxBytes} of decoded chunks.
+     */
+    public static void configure(long maxBytes) {
+        if(maxBytes < 0) {
+            throw new IllegalArgumentException("maxBytes: " + maxBytes);
+        }
+        ChunkCache previous = shared;
+        shared = new ChunkCache(maxBytes, DEFAULT_CONCURRENCY_LEVEL);
+        previous.invalidateAll();
+    }
+
+    /**
+     * @return a new id identifying a chunk index's entries in the cache.
+     */
+    static long newIndexId() {
+        return NEXT_INDEX_ID.incrementAndGet();
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * @return the size of the largest chunk which this cache can hold, which is its whole budget.
+     */
+    public long getMaxChunkBytes() {
+        return maxBytes;
+    }
+
+    public Chunk getIfPresent(long indexId, long chunkNumber) {
+        Key key = new Key(indexId, chunkNumber);
+        Stripe stripe = stripeFor(key);
+        Chunk chunk;
+        synchronized (stripe) {
+            chunk = stripe.access(key);
+        }
+        (chunk == null ? missCount : hitCount).incrementAndGet();
+        return chunk;
+    }
+
+    /**
+     * Returns the cached chunk, or reads it using {@code loader}. Concurrent requests for the same chunk
+     * wait for a single read.
+     *
+     * <p>The chunk is returned with a reference held for the caller, who must {@link Chunk#release() release}
+     * it once done reading. The reference of a newly loaded chunk is owned by the cache, unless the chunk is
+     * too large to be cached, in which case the loader's reference passes to the caller.</p>
+     */
+    public Chunk get(long indexId, long chunkNumber, Callable<Chunk> loader) throws IOException {
+        Key key = new Key(indexId, chunkNumber);
+        Stripe stripe = stripeFor(key);
+        while(true) {
+            FutureTask<Chunk> load;
+            boolean loading = false;
+            synchronized (stripe) {
+                Chunk chunk = stripe.access(key);
+                if(chunk != null) {
+                    hitCount.incrementAndGet();
+                    // The cache's own reference keeps the chunk alive while it is in the stripe
+                    return chunk.retain();
+                }
+                load = stripe.loads.get(key);
+                if(load == null) {
+                    missCount.incrementAndGet();
+                    load = new FutureTask<>(loader);
+                    stripe.loads.put(key, load);
+                    loading = true;
+                }
+            }
+            if(loading) {
+                return load(stripe, key, load);
+            }
+            // Another thread read the chunk, which may have been evicted and released in
+            // the meantime, in which case we read it again.
+            Chunk chunk = await(load);
+            if(chunk.tryRetain()) {
+                return chunk;
+            }
+        }
+    }
+
+    private Chunk load(Stripe stripe, Key key, FutureTask<Chunk> load) throws IOException {
+        long start = System.nanoTime();
+        load.run();
+        Chunk chunk;
+        try {
+            chunk = await(load);
+        } catch (IOException | RuntimeException | Error e) {
+            loadExceptionCount.incrementAndGet();
+            synchronized (stripe) {
+                stripe.loads.remove(key);
+            }
+            throw e;
+        } finally {
+            totalLoadTime.addAndGet(System.nanoTime() - start);
+        }
+        loadSuccessCount.incrementAndGet();
+
+        if(chunk.getByteSize() > maxBytes) {
+            synchronized (stripe) {
+                stripe.loads.remove(key);
+            }
+            return chunk;
+        }
+        // Hold the caller's reference before the chunk becomes visible to eviction
+        chunk.retain();
+        Chunk displaced;
+        synchronized (stripe) {
+            stripe.loads.remove(key);
+            displaced = stripe.insert(key, chunk);
+        }
+        if(displaced != null) {
+            displaced.release();
+        }
+        evict(key);
+        return chunk;
+    }
+
+    private static Chunk await(FutureTask<Chunk> load) throws IOException {
+        try {
+            return Uninterruptibles.getUninterruptibly(load);
+        } catch (ExecutionException e) {
+            Throwables.propagateIfInstanceOf(e.getCause(), IOException.class);
+            Throwables.propagateIfPossible(e.getCause());
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    /**
+     * Adds a chunk to the cache, transferring the caller's reference to the cache. A chunk which is too large
+     * to be cached is released at once.
+     */
+    public void put(long indexId, long chunkNumber, Chunk chunk) {
+        if(chunk.getByteSize() > maxBytes) {
+            chunk.release();
+            return;
+        }
+        Key key = new Key(indexId, chunkNumber);
+        Stripe stripe = stripeFor(key);
+        Chunk displaced;
+        synchronized (stripe) {
+            displaced = stripe.insert(key, chunk);
+        }
+        if(displaced != null) {
+            displaced.release();
+        }
+        evict(key);
+    }
+
+    /**
+     * Evicts chunks, taking one from each stripe in turn, until the cache is back within its budget.
+     * The chunk which has just been added is only evicted if it is the last one left.
+     */
+    private void evict(Key added) {
+        int emptyStripes = 0;
+        while(weight.get() > maxBytes && emptyStripes < stripes.length) {
+            Stripe stripe = stripes[evictionHand.getAndIncrement() & (stripes.length - 1)];
+            Chunk victim;
+            synchronized (stripe) {
+                victim = stripe.evictEldest(added);
+            }
+            if(victim == null) {
+                emptyStripes++;
+            } else {
+                emptyStripes = 0;
+                evictionCount.incrementAndGet();
+                victim.release();
+            }
+        }
+    }
+
+    public long size() {
+        long size = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                size += stripe.probation.size() + stripe.protectedSegment.size();
+            }
+        }
+        return size;
+    }
+
+    public CacheStats stats() {
+        return new CacheStats(hitCount.get(), missCount.get(), loadSuccessCount.get(), loadExceptionCount.get(),
+            totalLoadTime.get(), evictionCount.get());
+    }
+
+    public void invalidateAll() {
+        List<Chunk> removed = new ArrayList<>();
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                stripe.removeAll(removed);
+            }
+        }
+        for (Chunk chunk : removed) {
+            chunk.release();
+        }
+    }
+
+    private Stripe stripeFor(Key key) {
+        int hash = key.hashCode();
+        return stripes[(hash ^ (hash >>> 16)) & (stripes.length - 1)];
+    }
+
+    /**
+     * One of the cache's independently locked shares of the entries, with its own probationary and protected
+     * segments. Callers must hold the stripe's lock.
+     */
+    private final class Stripe {
+
+        /**
+         * The segments, each in access order from the least to the most recently used chunk.
+         */
+        private final LinkedHashMap<Key, Chunk> probation = new LinkedHashMap<>(16, 0.75f, true);
+        private final LinkedHashMap<Key, Chunk> protectedSegment = new LinkedHashMap<>(16, 0.75f, true);
+
+        /**
+         * Reads in progress, on which concurrent requests for the same chunk wait.
+         */
+        private final Map<Key, FutureTask<Chunk>> loads = new HashMap<>();
+
+        /**
+         * Looks up a chunk, promoting it to the protected segment if it was on probation.
+         */
+        private Chunk access(Key key) {
+            Chunk chunk = protectedSegment.get(key);
+            if(chunk != null) {
+                return chunk;
+            }
+            chunk = probation.remove(key);
+            if(chunk != null) {
+                protectedSegment.put(key, chunk);
+                protectedWeight.addAndGet(chunk.getByteSize());
+                demote(key);
+            }
+            return chunk;
+        }
+
+        /**
+         * Moves the least recently used protected chunks back to probation while the protected segment is
+         * over its share of the budget, keeping the chunk which has just been promoted.
+         */
+        private void demote(Key promoted) {
+            Iterator<Map.Entry<Key, Chunk>> it = protectedSegment.entrySet().iterator();
+            while(protectedWeight.get() > maxProtectedBytes && it.hasNext()) {
+                Map.Entry<Key, Chunk> eldest = it.next();
+                if(eldest.getKey().equals(promoted)) {
+                    break;
+                }
+                it.remove();
+                protectedWeight.addAndGet(-eldest.getValue().getByteSize());
+                probation.put(eldest.getKey(), eldest.getValue());
+            }
+        }
+
+        /**
+         * Adds a chunk on probation.
+         *
+         * @return the chunk previously held under the same key, whose reference the caller must release.
+         */
+        private Chunk insert(Key key, Chunk chunk) {
+            Chunk previous = remove(key);
+            probation.put(key, chunk);
+            weight.addAndGet(chunk.getByteSize());
+            return previous;
+        }
+
+        private Chunk remove(Key key) {
+            Chunk chunk = probation.remove(key);
+            if(chunk == null) {
+                chunk = protectedSegment.remove(key);
+                if(chunk != null) {
+                    protectedWeight.addAndGet(-chunk.getByteSize());
+                }
+            }
+            if(chunk != null) {
+                weight.addAndGet(-chunk.getByteSize());
+            }
+            return chunk;
+        }
+
+        /**
+         * Removes the least recently used chunk, preferring those on probation, but never {@code keep}.
+         *
+         * @return the removed chunk, whose reference the caller must release, or {@code null} if the stripe
+         * holds no other chunk.
+         */
+        private Chunk evictEldest(Key keep) {
+            Key victim = eldest(probation, keep);
+            if(victim == null) {
+                victim = eldest(protectedSegment, keep);
+            }
+            return victim == null ? null : remove(victim);
+        }
+
+        private Key eldest(LinkedHashMap<Key, Chunk> segment, Key keep) {
+            for (Key key : segment.keySet()) {
+                if(!key.equals(keep)) {
+                    return key;
+                }
+            }
+            return null;
+        }
+
+        private void removeAll(List<Chunk> removed) {
+            for (Chunk chunk : probation.values()) {
+                weight.addAndGet(-chunk.getByteSize());
+                removed.add(chunk);
+            }
+            for (Chunk chunk : protectedSegment.values()) {
+                weight.addAndGet(-chunk.getByteSize());
+                protectedWeight.addAndGet(-chunk.getByteSize());
+                removed.add(chunk);
+            }
+            probation.clear();
+            protectedSegment.clear();
+        }
+    }
+
+    private static final class Key {
+        private final long indexId;
+        private final long chunkNumber;
+
+        private Key(long indexId, long chunkNumber) {
+            this.indexId = indexId;
+            this.chunkNumber = chunkNumber;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            Key key = (Key) o;
+            return indexId == key.indexId && chunkNumber == key.chunkNumber;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (int) (indexId ^ (indexId >>> 32)) + (int) (chunkNumber ^ (chunkNumber >>> 32));
+        }
+    }
+}
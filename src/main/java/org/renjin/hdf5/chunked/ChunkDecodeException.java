@@ -0,0 +1,21 @@
+package org.renjin.hdf5.chunked;
+
+import java.io.IOException;
+
+/**
+ * Thrown when reading from a chunk which is decoded on demand, such as a {@link LazyDoubleChunk}, fails
+ * because its data turns out to be corrupt.
+ */
+public class ChunkDecodeException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    public ChunkDecodeException(IOException cause) {
+        super(cause.getMessage(), cause);
+    }
+
+    @Override
+    public synchronized IOException getCause() {
+        return (IOException) super.getCause();
+    }
+}
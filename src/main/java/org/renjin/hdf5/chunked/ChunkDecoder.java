@@ -1,13 +1,19 @@
 package org.renjin.hdf5.chunked;
 
 import java.io.IOException;
-import java.util.zip.DataFormatException;
+import java.nio.ByteBuffer;
 
 /**
  * Responsible for decoding chunks, decompressing, etc as necessary
  */
 public interface ChunkDecoder {
 
-  Chunk read(long[] chunkOffset, long address, int size) throws IOException;
+  /**
+   * Decodes a chunk from its raw bytes as stored in the file.
+   *
+   * @param location the chunk's location
+   * @param buffer a buffer holding exactly the {@code location.getSize()} bytes read from the file.
+   */
+  Chunk decode(ChunkLocation location, ByteBuffer buffer) throws IOException;
 
 }
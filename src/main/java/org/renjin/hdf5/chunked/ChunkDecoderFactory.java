@@ -1,22 +1,52 @@
 package org.renjin.hdf5.chunked;
 
 import org.renjin.hdf5.Hdf5Data;
+import org.renjin.hdf5.filters.ChecksumPolicy;
+import org.renjin.hdf5.filters.DeflateFilter;
+import org.renjin.hdf5.filters.FilterRegistry;
+import org.renjin.hdf5.filters.FilterStage;
+import org.renjin.hdf5.filters.Fletcher32Filter;
+import org.renjin.hdf5.filters.NBitFilter;
+import org.renjin.hdf5.filters.ScaleOffsetFilter;
+import org.renjin.hdf5.filters.ShuffleFilter;
+import org.renjin.hdf5.filters.SzipFilter;
 import org.renjin.hdf5.message.DataLayoutMessage;
 import org.renjin.hdf5.message.DataStorageMessage;
 import org.renjin.hdf5.message.DatatypeMessage;
+import org.renjin.hdf5.message.FillValueMessage;
 import org.renjin.hdf5.message.Filter;
 import org.renjin.repackaged.guava.base.Optional;
+import org.renjin.repackaged.guava.primitives.Ints;
 
 import java.nio.ByteBuffer;
-import java.nio.IntBuffer;
 import java.util.ArrayList;
+import java.util.List;
 
 public class ChunkDecoderFactory {
 
   private Hdf5Data file;
+  private final ChecksumPolicy checksumPolicy;
+  private final DecoderMetrics metrics;
+  private final boolean lazyInflate;
 
   public ChunkDecoderFactory(Hdf5Data file) {
+    this(file, ChecksumPolicy.VERIFY, new DecoderMetrics());
+  }
+
+  public ChunkDecoderFactory(Hdf5Data file, ChecksumPolicy checksumPolicy, DecoderMetrics metrics) {
+    this(file, checksumPolicy, metrics, false);
+  }
+
+  /**
+   * @param lazyInflate if true, deflated chunks are inflated only as far as they are read, where
+   *                    the dataset's pipeline allows it. See {@link LazyInflateDecoder}.
+   */
+  public ChunkDecoderFactory(Hdf5Data file, ChecksumPolicy checksumPolicy, DecoderMetrics metrics,
+                             boolean lazyInflate) {
     this.file = file;
+    this.checksumPolicy = checksumPolicy;
+    this.metrics = metrics;
+    this.lazyInflate = lazyInflate;
   }
 
   public ChunkDecoder create(DatatypeMessage datatype, DataLayoutMessage dataLayout, Optional<DataStorageMessage> dataStorage) {
@@ -29,18 +59,67 @@ public class ChunkDecoderFactory {
     }
 
     if(filters.isEmpty()) {
-      return new UncompressedDecoder(file, factory);
+      return new UncompressedDecoder(factory);
+    }
+
+    int chunkSizeBytes = Ints.checkedCast(dataLayout.getChunkElementCount() * dataLayout.getDatasetElementSize());
+
+    List<FilterStage> stages = new ArrayList<>();
+    for (Filter filter : filters) {
+      stages.add(createStage(filter, datatype, dataLayout, chunkSizeBytes));
+    }
+    FilterPipelineDecoder decoder = new FilterPipelineDecoder(stages, factory, chunkSizeBytes, metrics);
+    if(lazyInflate && LazyInflateDecoder.supports(filters, datatype)) {
+      return new LazyInflateDecoder(stages, decoder, datatype, chunkSizeBytes, metrics);
+    }
+    return decoder;
+  }
+
+  private FilterStage createStage(Filter filter, DatatypeMessage datatype, DataLayoutMessage dataLayout,
+                                  int chunkSizeBytes) {
+    switch (filter.getFilterId()) {
+      case Filter.FILTER_DEFLATE:
+        return new DeflateFilter(chunkSizeBytes);
+      case Filter.FILTER_SHUFFLE:
+        return new ShuffleFilter(shuffleElementSize(filter, dataLayout));
+      case Filter.FILTER_FLETCHER32:
+        return new Fletcher32Filter(checksumPolicy, metrics);
+      case Filter.FILTER_SZIP:
+        return new SzipFilter(filter.getClientData());
+      case Filter.FILTER_NBIT:
+        return new NBitFilter(filter.getClientData(), datatype);
+      case Filter.FILTER_SCALE_OFFSET:
+        return new ScaleOffsetFilter(filter.getClientData());
+    }
+    return FilterRegistry.getShared().create(filter, datatype, chunkSizeBytes);
+  }
 
-    } else if(filters.size() == 1) {
-      switch (filters.get(0).getFilterId()) {
-        case Filter.FILTER_DEFLATE:
-          return new InflateDecoder(file, dataLayout, factory);
-      }
-      throw new UnsupportedOperationException("Filter: " + filters.get(0).getFilterId());
+  /**
+   * The shuffle filter records the element size as its first client data value.
+   */
+  private static int shuffleElementSize(Filter filter, DataLayoutMessage dataLayout) {
+    int[] clientData = filter.getClientData();
+    if(clientData != null && clientData.length > 0) {
+      return clientData[0];
+    }
+    return dataLayout.getDatasetElementSize();
+  }
 
-    } else {
-      throw new UnsupportedOperationException("Filters: " + filters);
+  /**
+   * Creates the chunk which stands in for the dataset's unallocated chunks, holding its fill value, or zero,
+   * the library's default, if it has none.
+   */
+  public ConstantChunk createFillChunk(DatatypeMessage datatype, Optional<FillValueMessage> fillValue) {
+    if(!fillValue.isPresent() || !fillValue.get().isDefined()) {
+      return ConstantChunk.ZERO;
+    }
+    ByteBuffer value = ByteBuffer.wrap(fillValue.get().getValue()).order(datatype.getByteOrder());
+    if(datatype.isDoubleIEE754() && value.remaining() == 8) {
+      return new ConstantChunk(value.getDouble(0));
+    } else if(datatype.isSignedInteger32() && value.remaining() == 4) {
+      return new ConstantChunk(value.getInt(0));
     }
+    throw new UnsupportedOperationException("Fill value of datatype: " + datatype);
   }
 
   public ChunkFactory createFactory(final DatatypeMessage datatype) {
@@ -48,8 +127,12 @@ public class ChunkDecoderFactory {
       return new ChunkFactory() {
         @Override
         public Chunk wrap(long[] chunkOffset, ByteBuffer buffer) {
-          buffer.order(datatype.getByteOrder());
-          return new DoubleChunk(chunkOffset, buffer.asDoubleBuffer());
+          return DoubleChunk.copyOf(chunkOffset, buffer, datatype.getByteOrder());
+        }
+
+        @Override
+        public Chunk wrap(long[] chunkOffset, ChunkStore.Allocation allocation) {
+          return DoubleChunk.of(chunkOffset, allocation, datatype.getByteOrder());
         }
       };
 
@@ -57,8 +140,12 @@ public class ChunkDecoderFactory {
       return new ChunkFactory() {
         @Override
         public Chunk wrap(long[] chunkOffset, ByteBuffer buffer) {
-          buffer.order(datatype.getByteOrder());
-          return new Int32Chunk(chunkOffset, buffer.asIntBuffer());
+          return Int32Chunk.copyOf(chunkOffset, buffer, datatype.getByteOrder());
+        }
+
+        @Override
+        public Chunk wrap(long[] chunkOffset, ChunkStore.Allocation allocation) {
+          return Int32Chunk.of(chunkOffset, allocation, datatype.getByteOrder());
         }
       };
     }
@@ -4,5 +4,13 @@ import java.nio.ByteBuffer;
 
 public interface ChunkFactory {
 
+  /**
+   * Creates a chunk that reads from a buffer owned by someone else.
+   */
   Chunk wrap(long[] chunkOffset, ByteBuffer buffer);
+
+  /**
+   * Creates a chunk that reads from, and takes ownership of, a buffer allocated from a {@link ChunkStore}.
+   */
+  Chunk wrap(long[] chunkOffset, ChunkStore.Allocation allocation);
 }
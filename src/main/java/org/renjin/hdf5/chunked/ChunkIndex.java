@@ -1,11 +1,248 @@
 package org.renjin.hdf5.chunked;
 
+import org.renjin.hdf5.Hdf5Data;
+import org.renjin.hdf5.message.DataLayoutMessage;
+import org.renjin.hdf5.message.DataspaceMessage;
+
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Logger;
 
+/**
+ * Locates, reads and caches the chunks of a chunked dataset.
+ *
+ * <p>Subclasses implement the different on-disk index structures by resolving chunk offsets to
+ * {@link ChunkLocation}s. Decoded chunks are kept in the shared {@link ChunkCache}, keyed by this index's id and
+ * their position in the row-major grid of chunks.</p>
+ *
+ * <p>Chunks which have not been allocated in the file are all represented by a single {@link ConstantChunk} holding
+ * the dataset's fill value, which is returned without reading or caching anything.</p>
+ */
 public abstract class ChunkIndex {
 
+    private static final Logger LOGGER = Logger.getLogger(ChunkIndex.class.getName());
+
+    protected final Hdf5Data file;
+    protected final ChunkDecoder decoder;
+
+    private final int[] chunkSize;
+    private final long[] gridSize;
+
+    private final long cacheId = ChunkCache.newIndexId();
+
+    private volatile ConstantChunk fillChunk = ConstantChunk.ZERO;
+
+    /**
+     * Whether a chunk too large for the cache has already been reported, which is done once per dataset.
+     */
+    private final AtomicBoolean uncachedReported = new AtomicBoolean(false);
+
+    protected ChunkIndex(Hdf5Data file, DataspaceMessage dataspace, DataLayoutMessage layout, ChunkDecoder decoder) {
+        this(file, dimensionSize(dataspace), layout.getChunkSize(), decoder);
+    }
+
+    protected ChunkIndex(Hdf5Data file, long[] dimensionSize, int[] chunkSize, ChunkDecoder decoder) {
+        this.file = file;
+        this.decoder = decoder;
+        this.chunkSize = chunkSize;
+        this.gridSize = new long[chunkSize.length];
+        for (int i = 0; i < chunkSize.length; i++) {
+            gridSize[i] = (dimensionSize[i] + chunkSize[i] - 1) / chunkSize[i];
+        }
+    }
+
+    protected static long[] dimensionSize(DataspaceMessage dataspace) {
+        long[] size = new long[dataspace.getDimensionality()];
+        for (int i = 0; i < size.length; i++) {
+            size[i] = dataspace.getDimensionSize(i);
+        }
+        return size;
+    }
+
+    /**
+     * Resolves the location of the chunk starting at {@code chunkOffset}.
+     *
+     * @return the chunk's location, or {@code null} if the chunk has not been allocated in the file.
+     */
+    protected abstract ChunkLocation locate(long[] chunkOffset) throws IOException;
+
+    public ConstantChunk getFillChunk() {
+        return fillChunk;
+    }
+
+    /**
+     * Sets the chunk returned for chunks which have not been allocated, which holds the dataset's fill value.
+     */
+    public void setFillChunk(ConstantChunk fillChunk) {
+        this.fillChunk = fillChunk;
+    }
+
+    /**
+     * Retrieves the chunk that includes the element at the given {@code arrayIndex}.
+     *
+     * <p>The chunk is returned with a reference held for the caller, who must {@link Chunk#release() release}
+     * it once done reading.</p>
+     */
+    public Chunk chunkAt(long[] arrayIndex) throws IOException {
+        assert arrayIndex.length == chunkSize.length : "Invalid dimensionality";
+
+        long chunkNumber = chunkNumber(arrayIndex);
+        ChunkCache cache = ChunkCache.getShared();
+        Chunk chunk = cache.getIfPresent(cacheId, chunkNumber);
+        // The chunk may have been evicted and released in the meantime, in which
+        // case we read it again.
+        if(chunk != null && chunk.tryRetain()) {
+            return chunk;
+        }
+        final ChunkLocation location = locate(chunkOffset(arrayIndex));
+        if(location == null) {
+            return fillChunk;
+        }
+        chunk = cache.get(cacheId, chunkNumber, new Callable<Chunk>() {
+            @Override
+            public Chunk call() throws Exception {
+                return readChunk(location);
+            }
+        });
+        checkCacheable(cache, chunk);
+        return chunk;
+    }
+
+    /**
+     * Retrieves the chunks that include each of the elements at the given {@code arrayIndexes}.
+     *
+     * <p>Chunks which are not yet cached are read together: their addresses are resolved and sorted, and
+     * neighbouring chunks are fetched from the file with a single read. Unallocated chunks are not read at all,
+     * and are returned as the {@linkplain #getFillChunk() fill chunk}.</p>
+     *
+     * @return a list of chunks, in the same order as {@code arrayIndexes}, each with a reference held for
+     * the caller.
+     */
+    public List<Chunk> chunksAt(List<long[]> arrayIndexes) throws IOException {
+
+        ChunkCache cache = ChunkCache.getShared();
+
+        Map<Long, ChunkLocation> missing = new LinkedHashMap<>();
+        Set<Long> unallocated = new HashSet<>();
+        for (long[] arrayIndex : arrayIndexes) {
+            long chunkNumber = chunkNumber(arrayIndex);
+            if(!missing.containsKey(chunkNumber) && !unallocated.contains(chunkNumber) &&
+                cache.getIfPresent(cacheId, chunkNumber) == null) {
+                ChunkLocation location = locate(chunkOffset(arrayIndex));
+                if(location == null) {
+                    unallocated.add(chunkNumber);
+                } else {
+                    missing.put(chunkNumber, location);
+                }
+            }
+        }
+
+        // Newly read chunks keep their initial reference until the end of this
+        // method, so that they cannot be freed before being handed out.
+        Map<Long, Chunk> loaded = new LinkedHashMap<>();
+        if(!missing.isEmpty()) {
+            List<ChunkLocation> locations = new ArrayList<>(missing.values());
+            List<Chunk> chunks = new ChunkBatchReader(file, decoder).read(locations);
+            int i = 0;
+            for (Long chunkNumber : missing.keySet()) {
+                Chunk chunk = chunks.get(i++);
+                loaded.put(chunkNumber, chunk);
+                checkCacheable(cache, chunk);
+                cache.put(cacheId, chunkNumber, chunk.retain());
+            }
+        }
+
+        List<Chunk> result = new ArrayList<>(arrayIndexes.size());
+        for (long[] arrayIndex : arrayIndexes) {
+            long chunkNumber = chunkNumber(arrayIndex);
+            Chunk chunk = loaded.get(chunkNumber);
+            if(chunk != null) {
+                chunk.retain();
+            } else if(unallocated.contains(chunkNumber)) {
+                chunk = fillChunk;
+            } else {
+                chunk = chunkAt(arrayIndex);
+            }
+            result.add(chunk);
+        }
+        for (Chunk chunk : loaded.values()) {
+            chunk.release();
+        }
+        return result;
+    }
+
+    /**
+     * Logs a warning the first time one of this dataset's chunks turns out to be too large to be cached.
+     */
+    private void checkCacheable(ChunkCache cache, Chunk chunk) {
+        if(chunk.getByteSize() > cache.getMaxChunkBytes() && uncachedReported.compareAndSet(false, true)) {
+            LOGGER.warning("Decoded chunk of " + chunk.getByteSize() + " bytes is larger than the chunk cache's " +
+                "limit of " + cache.getMaxChunkBytes() + " bytes, so the chunks of this dataset will be read " +
+                "again on each access");
+        }
+    }
+
+    private Chunk readChunk(ChunkLocation location) throws IOException {
+        return decoder.decode(location, file.bufferAt(location.getAddress(), location.getSize()));
+    }
+
+    /**
+     * @return the number of chunks spanning the dataset along each dimension.
+     */
+    protected final long[] getGridSize() {
+        return gridSize;
+    }
+
+    /**
+     * @return the position of the chunk containing {@code arrayIndex} in the row-major grid of chunks.
+     */
+    protected final long chunkNumber(long[] arrayIndex) {
+        long number = 0;
+        for (int i = 0; i < gridSize.length; i++) {
+            number = number * gridSize[i] + (arrayIndex[i] / chunkSize[i]);
+        }
+        return number;
+    }
+
+    /**
+     * @return the number of chunks in the dataset's grid of chunks.
+     */
+    protected final long getChunkCount() {
+        long count = 1;
+        for (int i = 0; i < gridSize.length; i++) {
+            count *= gridSize[i];
+        }
+        return count;
+    }
+
+    /**
+     * @return the offset of the first element of the chunk at position {@code chunkNumber} in the row-major grid
+     * of chunks. This is the inverse of {@link #chunkNumber(long[])}.
+     */
+    protected final long[] chunkOrigin(long chunkNumber) {
+        long[] origin = new long[gridSize.length];
+        for (int i = gridSize.length - 1; i >= 0; i--) {
+            origin[i] = (chunkNumber % gridSize[i]) * chunkSize[i];
+            chunkNumber /= gridSize[i];
+        }
+        return origin;
+    }
+
     /**
-     * Retrieves the chunk that includes the element at the given {@code arrayIndex}
+     * @return the offset of the first element of the chunk which contains {@code arrayIndex}
      */
-    public abstract Chunk chunkAt(long[] arrayIndex) throws IOException;
+    protected final long[] chunkOffset(long[] arrayIndex) {
+        long[] offset = new long[arrayIndex.length];
+        for (int i = 0; i < offset.length; i++) {
+            offset[i] = (arrayIndex[i] / chunkSize[i]) * chunkSize[i];
+        }
+        return offset;
+    }
 }
@@ -69,6 +69,13 @@ public class ChunkKey {
     }
 
 
+    /**
+     * @return a bit field indicating which filters have been skipped for this chunk.
+     */
+    public int getFilterMask() {
+        return filterMask;
+    }
+
     /**
      * Compares this chunk's offset with the given index.
      */
@@ -0,0 +1,47 @@
+package org.renjin.hdf5.chunked;
+
+/**
+ * The location of a chunk's raw, possibly filtered, data within the file.
+ */
+public class ChunkLocation {
+
+    private final long[] chunkOffset;
+    private final long address;
+    private final int size;
+    private final int filterMask;
+
+    public ChunkLocation(long[] chunkOffset, long address, int size, int filterMask) {
+        this.chunkOffset = chunkOffset;
+        this.address = address;
+        this.size = size;
+        this.filterMask = filterMask;
+    }
+
+    /**
+     * @return the offset of the chunk's first element within the dataset.
+     */
+    public long[] getChunkOffset() {
+        return chunkOffset;
+    }
+
+    /**
+     * @return the file address of the chunk's data.
+     */
+    public long getAddress() {
+        return address;
+    }
+
+    /**
+     * @return the size of the chunk's data in the file, in bytes.
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * @return a bit field indicating which filters in the pipeline have been skipped for this chunk.
+     */
+    public int getFilterMask() {
+        return filterMask;
+    }
+}
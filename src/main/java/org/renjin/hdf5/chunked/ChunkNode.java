@@ -38,15 +38,39 @@ public class ChunkNode {
         return nodeLevel == 0;
     }
 
-    public ChunkKey findChildAddress(long[] chunkCoordinates) {
-        for (int i = 0; i < keys.length - 1; i++) {
-            int lower = keys[i].compare(chunkCoordinates);
-            int upper = keys[i+1].compare(chunkCoordinates);
+    /**
+     * @return the number of children of this node.
+     */
+    public int getEntryCount() {
+        return keys.length - 1;
+    }
 
-            if(lower <= 0 && upper > 0) {
-                return keys[i];
+    /**
+     * @return the key of the {@code i}-th child, which holds the offset of its first chunk.
+     */
+    public ChunkKey getKey(int i) {
+        return keys[i];
+    }
+
+    /**
+     * Finds the child which would hold the chunk at {@code chunkCoordinates}: the last one whose first chunk
+     * does not come after it. The final key, which bounds the last child, is not reliable enough to be used here.
+     *
+     * @return the key of the child, or {@code null} if the coordinates precede every child.
+     */
+    public ChunkKey findChildAddress(long[] chunkCoordinates) {
+        ChunkKey found = null;
+        int low = 0;
+        int high = keys.length - 2;
+        while(low <= high) {
+            int mid = (low + high) >>> 1;
+            if(keys[mid].compare(chunkCoordinates) <= 0) {
+                found = keys[mid];
+                low = mid + 1;
+            } else {
+                high = mid - 1;
             }
         }
-        throw new IllegalStateException();
+        return found;
     }
 }
@@ -0,0 +1,146 @@
+package org.renjin.hdf5.chunked;
+
+import org.renjin.repackaged.guava.util.concurrent.ThreadFactoryBuilder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches the sequence of chunks requested from a {@link ChunkIndex} and, once it detects a forward or strided
+ * scan, reads and decodes the next chunks in the background so that they are already in the index's chunk cache
+ * by the time they are needed. The chunks ahead are read as one batch, so that neighbouring chunks can be fetched
+ * from the file together.
+ *
+ * <p>Chunks are identified by their position in the row-major grid of chunks. A scan is detected when two
+ * consecutive chunk requests are separated by the same, non-zero stride.</p>
+ */
+public class ChunkPrefetcher {
+
+    private static final int MAX_QUEUED_READS = 256;
+
+    private static int defaultDepth = 4;
+
+    private static final ThreadPoolExecutor SHARED_EXECUTOR = new ThreadPoolExecutor(2, 2,
+        30, TimeUnit.SECONDS,
+        new LinkedBlockingQueue<Runnable>(MAX_QUEUED_READS),
+        new ThreadFactoryBuilder().setDaemon(true).setNameFormat("hdf5-prefetch-%d").build(),
+        new ThreadPoolExecutor.DiscardPolicy());
+
+    static {
+        SHARED_EXECUTOR.allowCoreThreadTimeOut(true);
+    }
+
+    private final ChunkIndex index;
+    private final long chunkCount;
+    private final int depth;
+    private final Executor executor;
+
+    private long lastChunk = -1;
+    private long lastStride = 0;
+
+    /**
+     * The furthest chunk along the current stride that has already been scheduled.
+     */
+    private long scheduledUpTo = -1;
+
+    public ChunkPrefetcher(ChunkIndex index) {
+        this(index, defaultDepth, SHARED_EXECUTOR);
+    }
+
+    public ChunkPrefetcher(ChunkIndex index, int depth, Executor executor) {
+        this.index = index;
+        this.depth = depth;
+        this.executor = executor;
+        this.chunkCount = index.getChunkCount();
+    }
+
+    /**
+     * Sets the number of chunks to read ahead of a detected scan, and the number of background threads
+     * shared by all prefetchers. A depth of zero disables prefetching.
+     */
+    public static void configure(int depth, int threads) {
+        if(depth < 0) {
+            throw new IllegalArgumentException("depth: " + depth);
+        }
+        if(threads < 1) {
+            throw new IllegalArgumentException("threads: " + threads);
+        }
+        defaultDepth = depth;
+        if(threads > SHARED_EXECUTOR.getMaximumPoolSize()) {
+            SHARED_EXECUTOR.setMaximumPoolSize(threads);
+            SHARED_EXECUTOR.setCorePoolSize(threads);
+        } else {
+            SHARED_EXECUTOR.setCorePoolSize(threads);
+            SHARED_EXECUTOR.setMaximumPoolSize(threads);
+        }
+    }
+
+    public static int getDefaultDepth() {
+        return defaultDepth;
+    }
+
+    /**
+     * Retrieves the chunk that includes the element at the given {@code arrayIndex}, scheduling
+     * background reads of the chunks that are likely to follow.
+     */
+    public Chunk chunkAt(long[] arrayIndex) throws IOException {
+        if(depth > 0) {
+            recordAccess(index.chunkNumber(arrayIndex));
+        }
+        return index.chunkAt(arrayIndex);
+    }
+
+    private synchronized void recordAccess(long chunk) {
+        long stride = (lastChunk == -1) ? 0 : chunk - lastChunk;
+        if(stride != 0 && stride == lastStride) {
+            scheduleAhead(chunk, stride);
+        } else if(stride != lastStride) {
+            scheduledUpTo = -1;
+        }
+        lastStride = stride;
+        lastChunk = chunk;
+    }
+
+    private void scheduleAhead(long chunk, long stride) {
+        long next = chunk + stride;
+        if(scheduledUpTo != -1 && (scheduledUpTo - chunk) / stride > 0) {
+            next = scheduledUpTo + stride;
+        }
+        long last = chunk + depth * stride;
+        List<long[]> chunkOrigins = new ArrayList<>();
+        for (long target = next; (stride > 0 ? target <= last : target >= last); target += stride) {
+            if(target < 0 || target >= chunkCount) {
+                break;
+            }
+            chunkOrigins.add(index.chunkOrigin(target));
+            scheduledUpTo = target;
+        }
+        if(!chunkOrigins.isEmpty()) {
+            executor.execute(new PrefetchTask(chunkOrigins));
+        }
+    }
+
+    private class PrefetchTask implements Runnable {
+        private final List<long[]> chunkOrigins;
+
+        private PrefetchTask(List<long[]> chunkOrigins) {
+            this.chunkOrigins = chunkOrigins;
+        }
+
+        @Override
+        public void run() {
+            try {
+                for (Chunk chunk : index.chunksAt(chunkOrigins)) {
+                    chunk.release();
+                }
+            } catch (Exception e) {
+                // Ignore: the same error will be reported if and when the chunk is actually requested.
+            }
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package org.renjin.hdf5.chunked;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Allocates the memory that holds decoded chunks.
+ *
+ * <p>By default, chunks are decoded into recycled heap arrays. {@link #configureOffHeap(long)} switches to an
+ * {@link OffHeapChunkStore}, which keeps decoded data outside of the Java heap.</p>
+ */
+public abstract class ChunkStore {
+
+    /**
+     * The default store, which keeps up to 64MB of arrays from released chunks for reuse.
+     */
+    public static final ChunkStore HEAP = new HeapChunkStore(64L * 1024 * 1024);
+
+    private static volatile ChunkStore shared = HEAP;
+
+    public static ChunkStore getShared() {
+        return shared;
+    }
+
+    /**
+     * Decodes chunks into a pool of direct buffers of up to {@code maxBytes} in total, or back onto the
+     * heap if {@code maxBytes} is zero. Chunks already decoded are not affected.
+     */
+    public static void configureOffHeap(long maxBytes) {
+        if(maxBytes < 0) {
+            throw new IllegalArgumentException("maxBytes: " + maxBytes);
+        }
+        shared = maxBytes == 0 ? HEAP : new OffHeapChunkStore(maxBytes);
+    }
+
+    /**
+     * Allocates a buffer of exactly {@code size} bytes.
+     */
+    public abstract Allocation allocate(int size);
+
+    /**
+     * Allocates an array of {@code length} doubles to hold a chunk decoded on the heap, which must be
+     * returned with {@link #freeDoubles(double[])} once no longer used.
+     */
+    public double[] allocateDoubles(int length) {
+        return new double[length];
+    }
+
+    public void freeDoubles(double[] values) {
+        // Reclaimed by the garbage collector
+    }
+
+    /**
+     * Allocates an array of {@code length} ints to hold a chunk decoded on the heap, which must be
+     * returned with {@link #freeInts(int[])} once no longer used.
+     */
+    public int[] allocateInts(int length) {
+        return new int[length];
+    }
+
+    public void freeInts(int[] values) {
+        // Reclaimed by the garbage collector
+    }
+
+    /**
+     * A buffer allocated from a store, which must be freed when no longer used.
+     */
+    public abstract static class Allocation {
+        private final ChunkStore store;
+        private final ByteBuffer buffer;
+
+        protected Allocation(ChunkStore store, ByteBuffer buffer) {
+            this.store = store;
+            this.buffer = buffer;
+        }
+
+        /**
+         * @return the store this buffer was allocated from, which also provides the arrays that heap buffers
+         * are converted into.
+         */
+        public ChunkStore getStore() {
+            return store;
+        }
+
+        /**
+         * @return the allocated buffer, positioned at zero with a limit equal to the requested size.
+         */
+        public ByteBuffer getBuffer() {
+            return buffer;
+        }
+
+        /**
+         * @return true if the buffer lives outside the Java heap.
+         */
+        public boolean isDirect() {
+            return buffer.isDirect();
+        }
+
+        /**
+         * Returns the buffer to its store. The buffer must not be used afterwards.
+         */
+        public abstract void free();
+    }
+
+    private static class HeapAllocation extends Allocation {
+        private HeapAllocation(ChunkStore store, ByteBuffer buffer) {
+            super(store, buffer);
+        }
+
+        @Override
+        public void free() {
+            // Reclaimed by the garbage collector
+        }
+    }
+
+    /**
+     * Allocates a buffer on the heap which is not recycled.
+     */
+    Allocation onHeap(int size) {
+        return new HeapAllocation(this, ByteBuffer.allocate(size));
+    }
+}
@@ -0,0 +1,238 @@
+package org.renjin.hdf5.chunked;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * The locations of all the chunks of a dataset, sorted by scaled offset: the offset of each chunk's first element
+ * divided by the chunk size.
+ *
+ * <p>The table is held in primitive arrays, which are searched without allocating and, once the table is
+ * {@link #finish() finished}, can be shared between threads. Chunks are found by binary search, or, if the
+ * table holds every chunk in the grid, simply by their position in the grid.</p>
+ *
+ * <p>A finished table can be {@link #write(ByteBuffer) written} to a buffer and {@link #read(ByteBuffer) read}
+ * back, so that it can be kept between sessions without reading the chunk index again.</p>
+ */
+public final class ChunkTable {
+
+    private final int[] chunkSize;
+    private final long[] gridSize;
+    private final int dimensionality;
+
+    /*
+     * The scaled offset of chunk i is held in scaledOffsets[i * dimensionality] ...
+     * scaledOffsets[(i + 1) * dimensionality - 1]
+     */
+    private long[] scaledOffsets;
+    private long[] addresses;
+    private int[] sizes;
+    private int[] filterMasks;
+    private int count;
+
+    /**
+     * True if the table holds every chunk in the grid, in which case the position of a chunk in the table
+     * is its position in the row-major grid of chunks.
+     */
+    private boolean dense;
+
+    ChunkTable(int[] chunkSize, long[] gridSize, int capacity) {
+        this.chunkSize = chunkSize;
+        this.gridSize = gridSize;
+        this.dimensionality = chunkSize.length;
+        capacity = Math.max(capacity, 1);
+        this.scaledOffsets = new long[capacity * dimensionality];
+        this.addresses = new long[capacity];
+        this.sizes = new int[capacity];
+        this.filterMasks = new int[capacity];
+    }
+
+    /**
+     * Appends a chunk to the table, which must be added in order of scaled offset.
+     */
+    void add(long address, int size, int filterMask, long[] scaledOffset) {
+        if(count == addresses.length) {
+            int capacity = count * 2;
+            scaledOffsets = Arrays.copyOf(scaledOffsets, capacity * dimensionality);
+            addresses = Arrays.copyOf(addresses, capacity);
+            sizes = Arrays.copyOf(sizes, capacity);
+            filterMasks = Arrays.copyOf(filterMasks, capacity);
+        }
+        System.arraycopy(scaledOffset, 0, scaledOffsets, count * dimensionality, dimensionality);
+        addresses[count] = address;
+        sizes[count] = size;
+        filterMasks[count] = filterMask;
+        count++;
+    }
+
+    /**
+     * Checks that the chunks were added in order, and whether they cover the whole grid.
+     */
+    void finish() throws IOException {
+        for (int i = 1; i < count; i++) {
+            if(compare(i - 1, scaledOffsets, i * dimensionality) >= 0) {
+                throw new IOException("Chunk index is not in order at chunk " + i);
+            }
+        }
+        long gridCount = 1;
+        for (int d = 0; d < dimensionality; d++) {
+            gridCount *= gridSize[d];
+        }
+        dense = count == gridCount;
+        // Sorted, distinct chunks fill the grid only if none lies outside of it
+        for (int i = 0; dense && i < count; i++) {
+            for (int d = 0; d < dimensionality; d++) {
+                if(scaledOffsets[i * dimensionality + d] >= gridSize[d]) {
+                    dense = false;
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the number of bytes written by {@link #write(ByteBuffer)}
+     */
+    public int getSerializedSize() {
+        return 4 + dimensionality * (4 + 8) + 4 + count * (dimensionality * 8 + 8 + 4 + 4);
+    }
+
+    /**
+     * Writes this table to {@code buffer}, starting at its position.
+     */
+    public void write(ByteBuffer buffer) {
+        buffer.putInt(dimensionality);
+        for (int d = 0; d < dimensionality; d++) {
+            buffer.putInt(chunkSize[d]);
+            buffer.putLong(gridSize[d]);
+        }
+        buffer.putInt(count);
+        buffer.asLongBuffer().put(scaledOffsets, 0, count * dimensionality);
+        buffer.position(buffer.position() + count * dimensionality * 8);
+        buffer.asLongBuffer().put(addresses, 0, count);
+        buffer.position(buffer.position() + count * 8);
+        buffer.asIntBuffer().put(sizes, 0, count);
+        buffer.position(buffer.position() + count * 4);
+        buffer.asIntBuffer().put(filterMasks, 0, count);
+        buffer.position(buffer.position() + count * 4);
+    }
+
+    /**
+     * Reads a table written by {@link #write(ByteBuffer)}, starting at the buffer's position.
+     */
+    public static ChunkTable read(ByteBuffer buffer) throws IOException {
+        try {
+            int dimensionality = buffer.getInt();
+            if(dimensionality < 1 || dimensionality > 32) {
+                throw new IOException("Invalid chunk table dimensionality: " + dimensionality);
+            }
+            int[] chunkSize = new int[dimensionality];
+            long[] gridSize = new long[dimensionality];
+            for (int d = 0; d < dimensionality; d++) {
+                chunkSize[d] = buffer.getInt();
+                gridSize[d] = buffer.getLong();
+            }
+            int count = buffer.getInt();
+            if(count < 0 || (long) count * (dimensionality * 8 + 16) > buffer.remaining()) {
+                throw new IOException("Invalid chunk table size: " + count);
+            }
+            ChunkTable table = new ChunkTable(chunkSize, gridSize, count);
+            buffer.asLongBuffer().get(table.scaledOffsets, 0, count * dimensionality);
+            buffer.position(buffer.position() + count * dimensionality * 8);
+            buffer.asLongBuffer().get(table.addresses, 0, count);
+            buffer.position(buffer.position() + count * 8);
+            buffer.asIntBuffer().get(table.sizes, 0, count);
+            buffer.position(buffer.position() + count * 4);
+            buffer.asIntBuffer().get(table.filterMasks, 0, count);
+            buffer.position(buffer.position() + count * 4);
+            table.count = count;
+            table.finish();
+            return table;
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Truncated chunk table", e);
+        }
+    }
+
+    /**
+     * @return true if this table is of chunks of the given size, in a grid of the given size.
+     */
+    boolean hasShape(int[] chunkSize, long[] gridSize) {
+        return Arrays.equals(this.chunkSize, chunkSize) && Arrays.equals(this.gridSize, gridSize);
+    }
+
+    int getCount() {
+        return count;
+    }
+
+    boolean isDense() {
+        return dense;
+    }
+
+    long getAddress(int i) {
+        return addresses[i];
+    }
+
+    int getSize(int i) {
+        return sizes[i];
+    }
+
+    int getFilterMask(int i) {
+        return filterMasks[i];
+    }
+
+    /**
+     * @return the position in the table of the chunk starting at {@code chunkOffset}, or -1 if there is none.
+     */
+    int find(long[] chunkOffset) {
+        if(dense) {
+            long number = 0;
+            for (int d = 0; d < dimensionality; d++) {
+                long scaled = chunkOffset[d] / chunkSize[d];
+                if(scaled >= gridSize[d]) {
+                    return -1;
+                }
+                number = number * gridSize[d] + scaled;
+            }
+            return (int) number;
+        }
+        int low = 0;
+        int high = count - 1;
+        while(low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = compareOffset(mid, chunkOffset);
+            if(cmp < 0) {
+                low = mid + 1;
+            } else if(cmp > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    private int compareOffset(int i, long[] chunkOffset) {
+        int start = i * dimensionality;
+        for (int d = 0; d < dimensionality; d++) {
+            long a = scaledOffsets[start + d];
+            long b = chunkOffset[d] / chunkSize[d];
+            if(a != b) {
+                return a < b ? -1 : 1;
+            }
+        }
+        return 0;
+    }
+
+    private int compare(int i, long[] scaled, int start) {
+        for (int d = 0; d < dimensionality; d++) {
+            long a = scaledOffsets[i * dimensionality + d];
+            long b = scaled[start + d];
+            if(a != b) {
+                return a < b ? -1 : 1;
+            }
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,63 @@
+package org.renjin.hdf5.chunked;
+
+import java.util.Arrays;
+
+/**
+ * A chunk whose elements all have the same value, which stands in for the chunks of a dataset that have not been
+ * allocated in the file.
+ *
+ * <p>A single instance is shared by all the unallocated chunks of a dataset, so it is never read, cached or
+ * freed, and has no offset of its own: {@link #getChunkOffset()} returns {@code null}. Retaining and releasing
+ * it have no effect.</p>
+ */
+public final class ConstantChunk extends Chunk {
+
+    public static final ConstantChunk ZERO = new ConstantChunk(0);
+
+    private final double value;
+
+    public ConstantChunk(double value) {
+        super(null);
+        this.value = value;
+    }
+
+    public double getValue() {
+        return value;
+    }
+
+    /**
+     * @return true if every element of this chunk is positive zero, the default value of a new array.
+     */
+    public boolean isZero() {
+        return Double.doubleToRawLongBits(value) == 0;
+    }
+
+    @Override
+    public double getDoubleAt(int i) {
+        return value;
+    }
+
+    @Override
+    public void copyTo(int start, double[] dest, int destOffset, int length) {
+        Arrays.fill(dest, destOffset, destOffset + length, value);
+    }
+
+    @Override
+    public void copyTo(int start, int[] dest, int destOffset, int length) {
+        Arrays.fill(dest, destOffset, destOffset + length, (int) value);
+    }
+
+    @Override
+    public int getByteSize() {
+        return 0;
+    }
+
+    @Override
+    public boolean tryRetain() {
+        return true;
+    }
+
+    @Override
+    public void release() {
+    }
+}
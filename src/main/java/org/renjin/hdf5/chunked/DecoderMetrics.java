@@ -0,0 +1,78 @@
+package org.renjin.hdf5.chunked;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts the chunks decoded from a file and the time spent decoding them, including the part of that time
+ * spent verifying checksums.
+ */
+public class DecoderMetrics {
+
+    private final AtomicLong chunksDecoded = new AtomicLong();
+    private final AtomicLong decodeNanos = new AtomicLong();
+
+    private final AtomicLong checksumsVerified = new AtomicLong();
+    private final AtomicLong checksumsSkipped = new AtomicLong();
+    private final AtomicLong checksumBytes = new AtomicLong();
+    private final AtomicLong checksumNanos = new AtomicLong();
+
+    public void recordDecode(long nanos) {
+        chunksDecoded.incrementAndGet();
+        decodeNanos.addAndGet(nanos);
+    }
+
+    public void recordChecksumVerified(int bytes, long nanos) {
+        checksumsVerified.incrementAndGet();
+        checksumBytes.addAndGet(bytes);
+        checksumNanos.addAndGet(nanos);
+    }
+
+    public void recordChecksumSkipped() {
+        checksumsSkipped.incrementAndGet();
+    }
+
+    public long getChunksDecoded() {
+        return chunksDecoded.get();
+    }
+
+    /**
+     * @return the total time spent running chunks through their filter pipelines.
+     */
+    public long getDecodeNanos() {
+        return decodeNanos.get();
+    }
+
+    public long getChecksumsVerified() {
+        return checksumsVerified.get();
+    }
+
+    public long getChecksumsSkipped() {
+        return checksumsSkipped.get();
+    }
+
+    /**
+     * @return the total size of the chunk data covered by the checksums verified.
+     */
+    public long getChecksumBytes() {
+        return checksumBytes.get();
+    }
+
+    /**
+     * @return the part of {@link #getDecodeNanos()} spent computing checksums.
+     */
+    public long getChecksumNanos() {
+        return checksumNanos.get();
+    }
+
+    @Override
+    public String toString() {
+        return "DecoderMetrics{" +
+            "chunksDecoded=" + getChunksDecoded() +
+            ", decodeNanos=" + getDecodeNanos() +
+            ", checksumsVerified=" + getChecksumsVerified() +
+            ", checksumsSkipped=" + getChecksumsSkipped() +
+            ", checksumBytes=" + getChecksumBytes() +
+            ", checksumNanos=" + getChecksumNanos() +
+            '}';
+    }
+}
@@ -1,18 +1,117 @@
 package org.renjin.hdf5.chunked;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.nio.DoubleBuffer;
+import java.nio.LongBuffer;
 
+/**
+ * Chunk of 64-bit floating point values.
+ *
+ * <p>Chunks on the heap are converted once into a {@code double[]}, so that reading an element is a plain
+ * array load. Chunks held off-heap stay in their direct buffer, but are put into the platform's byte order
+ * when wrapped, so that reads need no byte swapping.</p>
+ */
 public class DoubleChunk extends Chunk {
 
+  private final double[] values;
   private final DoubleBuffer buffer;
 
-  public DoubleChunk(long[] chunkOffset, DoubleBuffer buffer) {
+  /**
+   * The store to which {@link #values} are returned once the chunk is released, if any.
+   */
+  private final ChunkStore store;
+
+  public DoubleChunk(long[] chunkOffset, double[] values) {
+    this(chunkOffset, values, null);
+  }
+
+  private DoubleChunk(long[] chunkOffset, double[] values, ChunkStore store) {
     super(chunkOffset);
+    this.values = values;
+    this.buffer = null;
+    this.store = store;
+  }
+
+  public DoubleChunk(long[] chunkOffset, DoubleBuffer buffer) {
+    this(chunkOffset, buffer, null);
+  }
+
+  public DoubleChunk(long[] chunkOffset, DoubleBuffer buffer, ChunkStore.Allocation allocation) {
+    super(chunkOffset, allocation);
+    this.values = null;
     this.buffer = buffer;
+    this.store = null;
+  }
+
+  /**
+   * Creates a chunk from a copy of the values in {@code buffer}, stored in the given byte order.
+   */
+  public static DoubleChunk copyOf(long[] chunkOffset, ByteBuffer buffer, ByteOrder order) {
+    return new DoubleChunk(chunkOffset, toArray(buffer, order));
+  }
+
+  /**
+   * Creates a chunk from the values in {@code allocation}, stored in the given byte order. Heap allocations
+   * are copied into an array from the allocation's store, and freed straight away; the array is returned to
+   * the store when the chunk is released. Direct allocations are kept by the chunk.
+   */
+  public static DoubleChunk of(long[] chunkOffset, ChunkStore.Allocation allocation, ByteOrder order) {
+    if(allocation.isDirect()) {
+      ByteBuffer buffer = allocation.getBuffer();
+      if(order != ByteOrder.nativeOrder()) {
+        LongBuffer source = buffer.duplicate().order(order).asLongBuffer();
+        LongBuffer target = buffer.duplicate().order(ByteOrder.nativeOrder()).asLongBuffer();
+        for (int i = 0; i < source.limit(); i++) {
+          target.put(i, source.get(i));
+        }
+      }
+      return new DoubleChunk(chunkOffset, buffer.duplicate().order(ByteOrder.nativeOrder()).asDoubleBuffer(),
+          allocation);
+    }
+    ChunkStore store = allocation.getStore();
+    DoubleBuffer source = allocation.getBuffer().duplicate().order(order).asDoubleBuffer();
+    double[] values = store.allocateDoubles(source.remaining());
+    source.get(values);
+    allocation.free();
+    return new DoubleChunk(chunkOffset, values, store);
+  }
+
+  private static double[] toArray(ByteBuffer buffer, ByteOrder order) {
+    DoubleBuffer source = buffer.duplicate().order(order).asDoubleBuffer();
+    double[] values = new double[source.remaining()];
+    source.get(values);
+    return values;
   }
 
   @Override
   public double getDoubleAt(int i) {
+    if(values != null) {
+      return values[i];
+    }
     return buffer.get(i);
   }
+
+  @Override
+  public void copyTo(int start, double[] dest, int destOffset, int length) {
+    if(values != null) {
+      System.arraycopy(values, start, dest, destOffset, length);
+    } else {
+      DoubleBuffer source = buffer.duplicate();
+      source.position(start);
+      source.get(dest, destOffset, length);
+    }
+  }
+
+  @Override
+  protected void dispose() {
+    if(store != null) {
+      store.freeDoubles(values);
+    }
+  }
+
+  @Override
+  public int getByteSize() {
+    return (values != null ? values.length : buffer.capacity()) * 8;
+  }
 }
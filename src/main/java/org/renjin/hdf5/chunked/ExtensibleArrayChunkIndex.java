@@ -7,7 +7,7 @@ import org.renjin.hdf5.message.DataspaceMessage;
 import org.renjin.repackaged.guava.primitives.Ints;
 
 import java.io.IOException;
-import java.nio.ByteBuffer;
+import java.util.Arrays;
 
 /**
  * The Extensible Array (EA) is a data structure that is used as a chunk index in datasets where the dataspace has a
@@ -29,30 +29,45 @@ import java.nio.ByteBuffer;
  * are initialized as needed, and are tracked via bitmaps stored in the secondary block.
  * The number of secondary and data blocks/pages in a chunk index varies as they are allocated as needed
  * and the first few are (conceptually) stored in parent elements as an optimization.
+ *
+ * <p>The addresses of the secondary and data blocks, and the elements of each data block or page, are decoded into
+ * primitive arrays the first time they are needed, so that once the blocks covering a region of the dataset have been
+ * read, locating its chunks requires no further reads of the index.</p>
  */
 public class ExtensibleArrayChunkIndex extends ChunkIndex {
 
-  private int clientId;
+  private static final int FILTERED_CLIENT_ID = 1;
+
+  private static final int CHECKSUM_SIZE = 4;
+
+  /**
+   * Marks an element which has not yet been read from its data block.
+   */
+  private static final long UNRESOLVED = -2;
+
+  private final int offsetSize;
+
+  private final int clientId;
 
   /**
    * The size in bytes of an element in the Extensible Array.
    */
-  private int elementSize;
+  private final int elementSize;
 
   /**
-   * The number of bits needed to store the maximum number of elements in the Extensible Array.
+   * The number of bytes used to encode the size of a filtered chunk.
    */
-  private int maxNelementsBits;
+  private final int chunkSizeLength;
 
   /**
-   * The number of elements to store in the index block.
+   * The size of a chunk which has not been filtered.
    */
-  private int indexBlockElements;
+  private final int unfilteredChunkSize;
 
   /**
-   * The number of data block pointers to store in the index block.
+   * The number of elements to store in the index block.
    */
-  private int indexBlockDataPointers;
+  private int indexBlockElements;
 
   /**
    * The minimum number of elements per data block.
@@ -60,149 +75,400 @@ public class ExtensibleArrayChunkIndex extends ChunkIndex {
   private int dataBlockMinElements;
 
   /**
-   * The minimum number of data block pointers for a secondary block.
+   * The number of elements per data block page.
    */
-  private int secondaryBlockMinDataPointers;
+  private long dataBlockPageElements;
 
   /**
-   * The number of bits needed to store the maximum number of elements in a data block page.
+   * The size in bytes of a data block's prefix: its signature, version, client id, header address and block offset.
    */
-  private int maxDataBlockPageNelmtsBits;
-
+  private int dataBlockPrefixSize;
 
   /**
-   * The number of secondary blocks created.
+   * The size in bytes of the offset of a block within the array.
    */
-  private long numSecondaryBlocks;
+  private int blockOffsetSize;
 
   /**
-   * The size of the secondary blocks created.
+   * The number of super blocks whose data blocks are referenced directly by the index block.
+   */
+  private int indexBlockSuperBlocks;
+
+  /*
+   * The elements of the array are divided into super blocks of data blocks, each super block having the same number
+   * or twice as many data blocks as the one before, and its data blocks holding the same number or twice as many
+   * elements as those before.
    */
-  private long secondaryBlockSize;
+  private int[] superBlockDataBlocks;
+  private long[] superBlockDataBlockElements;
+  private long[] superBlockStartIndex;
+  private int[] superBlockStartDataBlock;
 
   /**
-   * The number of data blocks created.
+   * The address of the secondary block of each super block which is not covered by the index block.
    */
-  private long numDataBlocks;
+  private long[] secondaryBlockAddresses;
 
   /**
-   * The size of the data blocks created.
+   * The addresses of each super block's data blocks, or {@code null} if its secondary block has not been read.
    */
-  private long dataBlockSize;
+  private long[][] dataBlockAddresses;
 
   /**
-   * The maximum index set.
+   * For each super block whose data blocks are paged, a bitmap of the pages which have been initialized.
+   */
+  private byte[][] pageInitialized;
+
+  /*
+   * The address, size and filter mask of each chunk, indexed by its position in the array.
    */
-  private long maxIndexSet;
+  private long[] chunkAddresses;
+  private int[] chunkSizes;
+  private int[] filterMasks;
 
   /**
-   * The number of elements realized.
+   * The dimensions of the dataset in the order used to number chunks: the unlimited dimension first,
+   * followed by the others.
    */
-  private long numElements;
+  private final int[] dimensionOrder;
 
   /**
-   * The address of the index block.
+   * The number of chunks by which the array index increases for each step along the corresponding dimension in
+   * {@link #dimensionOrder}.
    */
-  private long indexBlockAddress;
+  private final long[] chunkStride;
+
+  private final int[] chunkSize;
 
-  private int dimensions;
-  private ChunkFactory chunkDecoder;
+  public ExtensibleArrayChunkIndex(Hdf5Data file, DataspaceMessage dataspace, DataLayoutMessage layout,
+                                   ChunkDecoder decoder) throws IOException {
+    this(file, dimensionSize(dataspace), maximumSize(dataspace), layout.getChunkSize(),
+        layout.getDatasetElementSize(), layout.getChunkIndexAddress(), decoder);
+  }
 
   /**
-   * The checksum for the header.
+   * @param maximumSize the maximum size of each dimension, or -1 for the unlimited dimension.
    */
-  private int checksum;
-  private long[] dataBlockAddresses;
-  private long[] secondaryBlockAddresses;
-  private Hdf5Data file;
-  private DataspaceMessage dataspace;
+  ExtensibleArrayChunkIndex(Hdf5Data file, long[] dimensionSize, long[] maximumSize, int[] chunkSize,
+                            int datasetElementSize, long headerAddress, ChunkDecoder decoder) throws IOException {
+    super(file, dimensionSize, chunkSize, decoder);
+    this.chunkSize = chunkSize;
+    this.offsetSize = file.getSuperblock().getOffsetSize();
+
+    long chunkElements = 1;
+    for (int i = 0; i < chunkSize.length; i++) {
+      chunkElements *= chunkSize[i];
+    }
+    this.unfilteredChunkSize = Ints.checkedCast(chunkElements * datasetElementSize);
 
-  public ExtensibleArrayChunkIndex(Hdf5Data file, DataspaceMessage dataspace, DataLayoutMessage layout, ChunkFactory chunkDecoder) throws IOException {
-    this.file = file;
-    this.dataspace = dataspace;
-    this.dimensions = dataspace.getDimensionality();
-    this.chunkDecoder = chunkDecoder;
-    readHeader(file, layout);
-    readIndex(file);
-  }
+    int unlimitedDimension = 0;
+    for (int i = 0; i < maximumSize.length; i++) {
+      if(maximumSize[i] == -1) {
+        unlimitedDimension = i;
+      }
+    }
+    dimensionOrder = new int[chunkSize.length];
+    dimensionOrder[0] = unlimitedDimension;
+    for (int i = 0, j = 1; i < chunkSize.length; i++) {
+      if(i != unlimitedDimension) {
+        dimensionOrder[j++] = i;
+      }
+    }
+    chunkStride = new long[chunkSize.length];
+    chunkStride[chunkSize.length - 1] = 1;
+    for (int i = chunkSize.length - 2; i >= 0; i--) {
+      int d = dimensionOrder[i + 1];
+      long maxChunks = (maximumSize[d] + chunkSize[d] - 1) / chunkSize[d];
+      chunkStride[i] = chunkStride[i + 1] * maxChunks;
+    }
 
-  private void readHeader(Hdf5Data file, DataLayoutMessage layout) throws IOException {
-    int headerSize = 12 + 6 * file.getSuperblock().getLengthSize() + file.getSuperblock().getOffsetSize() + 4;
-    HeaderReader reader = file.readerAt(layout.getChunkIndexAddress(), headerSize);
+    HeaderReader reader = file.readerAt(headerAddress, headerSize());
     reader.checkSignature("EAHD");
-
     int version = reader.readUInt8();
     if(version != 0) {
-      throw new UnsupportedOperationException("Version: " + version);
+      throw new UnsupportedOperationException("EAHD version: " + version);
     }
     clientId = reader.readUInt8();
     elementSize = reader.readUInt8();
-    maxNelementsBits = reader.readUInt8();
+    chunkSizeLength = elementSize - offsetSize - 4;
+    if(clientId == FILTERED_CLIENT_ID && (chunkSizeLength < 1 || chunkSizeLength > 8)) {
+      throw new IOException("Invalid filtered chunk element size: " + elementSize);
+    }
 
+    readHeader(reader);
+  }
+
+  private int headerSize() {
+    return 4 + // signature
+        8 + // version, client id and array parameters
+        6 * file.getSuperblock().getLengthSize() + // statistics
+        offsetSize + // index block address
+        CHECKSUM_SIZE;
+  }
+
+  private void readHeader(HeaderReader reader) throws IOException {
+    int maxNelementsBits = reader.readUInt8();
     indexBlockElements = reader.readUInt8();
     dataBlockMinElements = reader.readUInt8();
-    secondaryBlockMinDataPointers = reader.readUInt8();
-    indexBlockDataPointers = 2 * (secondaryBlockMinDataPointers - 1);
-    maxDataBlockPageNelmtsBits = reader.readUInt8();
+    int secondaryBlockMinDataPointers = reader.readUInt8();
+    int maxDataBlockPageNelmtsBits = reader.readUInt8();
+
+    // Statistics: the number and size of secondary blocks and data blocks created
+    reader.readLength();
+    reader.readLength();
+    reader.readLength();
+    reader.readLength();
+
+    // One more than the highest index of an element which has been set
+    long maxIndexSet = reader.readLength();
+
+    // The number of elements realized
+    reader.readLength();
+
+    long indexBlockAddress = reader.readOffset();
+
+    if(Integer.bitCount(dataBlockMinElements) != 1 || Integer.bitCount(secondaryBlockMinDataPointers) != 1) {
+      throw new IOException("Invalid extensible array parameters");
+    }
+
+    dataBlockPageElements = 1L << maxDataBlockPageNelmtsBits;
+    blockOffsetSize = (maxNelementsBits + 7) / 8;
+    dataBlockPrefixSize = 6 + offsetSize + blockOffsetSize;
+
+    int superBlockCount = 1 + maxNelementsBits - Integer.numberOfTrailingZeros(dataBlockMinElements);
+    superBlockDataBlocks = new int[superBlockCount];
+    superBlockDataBlockElements = new long[superBlockCount];
+    superBlockStartIndex = new long[superBlockCount];
+    superBlockStartDataBlock = new int[superBlockCount];
+    long startIndex = 0;
+    int startDataBlock = 0;
+    for (int i = 0; i < superBlockCount; i++) {
+      superBlockDataBlocks[i] = 1 << (i / 2);
+      superBlockDataBlockElements[i] = (1L << ((i + 1) / 2)) * dataBlockMinElements;
+      superBlockStartIndex[i] = startIndex;
+      superBlockStartDataBlock[i] = startDataBlock;
+      startIndex += superBlockDataBlocks[i] * superBlockDataBlockElements[i];
+      startDataBlock += superBlockDataBlocks[i];
+    }
+    indexBlockSuperBlocks = Math.min(superBlockCount, 2 * Integer.numberOfTrailingZeros(secondaryBlockMinDataPointers));
+
+    dataBlockAddresses = new long[superBlockCount][];
+    pageInitialized = new byte[superBlockCount][];
+
+    chunkAddresses = new long[Ints.checkedCast(maxIndexSet)];
+    Arrays.fill(chunkAddresses, UNRESOLVED);
+    if(clientId == FILTERED_CLIENT_ID) {
+      chunkSizes = new int[chunkAddresses.length];
+      filterMasks = new int[chunkAddresses.length];
+    }
 
-    numSecondaryBlocks = reader.readLength();
-    secondaryBlockSize = reader.readLength();
-    numDataBlocks = reader.readLength();
-    dataBlockSize = reader.readLength();
-    maxIndexSet = reader.readLength();
-    numElements = reader.readLength();
-    indexBlockAddress = reader.readLength();
-    checksum = reader.readInt();
+    int indexBlockDataPointers = 2 * (secondaryBlockMinDataPointers - 1);
+    if(isUndefined(indexBlockAddress)) {
+      // Nothing has been written yet
+      Arrays.fill(chunkAddresses, -1);
+      secondaryBlockAddresses = new long[0];
+    } else {
+      readIndexBlock(indexBlockAddress, indexBlockDataPointers, superBlockCount - indexBlockSuperBlocks);
+    }
   }
 
-  private void readIndex(Hdf5Data file) throws IOException {
+  private void readIndexBlock(long address, int dataPointers, int secondaryPointers) throws IOException {
     long indexSize = 6 +                        // signature, version, client id
-        file.getSuperblock().getOffsetSize() +  // header address
+        offsetSize +                            // header address
         indexBlockElements * elementSize +      // elements
-        indexBlockDataPointers * file.getSuperblock().getOffsetSize() +
-        numSecondaryBlocks * file.getSuperblock().getOffsetSize() +
-        4;                                      // checksum
+        dataPointers * offsetSize +             // data block addresses
+        secondaryPointers * offsetSize +        // secondary block addresses
+        CHECKSUM_SIZE;
 
-    HeaderReader reader = file.readerAt(indexBlockAddress, indexSize);
+    HeaderReader reader = file.readerAt(address, indexSize);
     reader.checkSignature("EAIB");
     int version = reader.readUInt8();
     if(version != 0) {
-      throw new UnsupportedOperationException("Version: " + version);
+      throw new UnsupportedOperationException("EAIB version: " + version);
     }
-    int clientId = reader.readUInt8();
+    int blockClientId = reader.readUInt8();
     long headerAddress = reader.readOffset();
 
-    byte[] elements = reader.readBytes(indexBlockElements * elementSize);
-    dataBlockAddresses = reader.readOffsets(indexBlockDataPointers);
-    secondaryBlockAddresses = reader.readOffsets(Ints.checkedCast(numSecondaryBlocks));
-    int checksum = reader.readInt();
+    readElements(reader, 0, indexBlockElements);
 
+    long[] indexBlockDataBlocks = reader.readOffsets(dataPointers);
+    for (int i = 0; i < indexBlockSuperBlocks; i++) {
+      int start = superBlockStartDataBlock[i];
+      dataBlockAddresses[i] = Arrays.copyOfRange(indexBlockDataBlocks, start, start + superBlockDataBlocks[i]);
+    }
+    secondaryBlockAddresses = reader.readOffsets(secondaryPointers);
   }
 
-
   @Override
-  public Chunk chunkAt(long[] arrayIndex) throws IOException {
-    return readDataBlock(dataBlockAddresses[0]);
+  protected synchronized ChunkLocation locate(long[] chunkOffset) throws IOException {
+    long index = arrayIndex(chunkOffset);
+    long address = -1;
+    if(index < chunkAddresses.length) {
+      if(chunkAddresses[(int) index] == UNRESOLVED) {
+        resolve((int) index);
+      }
+      address = chunkAddresses[(int) index];
+    }
+    if(isUndefined(address)) {
+      return null;
+    }
+    if(clientId == FILTERED_CLIENT_ID) {
+      return new ChunkLocation(chunkOffset, address, chunkSizes[(int) index], filterMasks[(int) index]);
+    } else {
+      return new ChunkLocation(chunkOffset, address, unfilteredChunkSize, 0);
+    }
+  }
+
+  /**
+   * @return the position in the array of the element describing the chunk at {@code chunkOffset}.
+   */
+  long arrayIndex(long[] chunkOffset) {
+    long index = 0;
+    for (int i = 0; i < dimensionOrder.length; i++) {
+      int d = dimensionOrder[i];
+      index += (chunkOffset[d] / chunkSize[d]) * chunkStride[i];
+    }
+    return index;
   }
 
-  private Chunk readDataBlock(long address) throws IOException {
-    ByteBuffer buffer = file.bufferAt(address, dataBlockSize);
+  /**
+   * Reads the data block, or data block page, which holds the element at {@code index}.
+   */
+  private void resolve(int index) throws IOException {
+    long offset = index - indexBlockElements;
+    int superBlock = 63 - Long.numberOfLeadingZeros(offset / dataBlockMinElements + 1);
+    long elementsPerBlock = superBlockDataBlockElements[superBlock];
+    long element = offset - superBlockStartIndex[superBlock];
+    int dataBlock = (int) (element / elementsPerBlock);
+    long firstElement = indexBlockElements + superBlockStartIndex[superBlock] + dataBlock * elementsPerBlock;
+
+    long dataBlockAddress = dataBlockAddresses(superBlock)[dataBlock];
+    if(isUndefined(dataBlockAddress)) {
+      setUndefined(firstElement, elementsPerBlock);
+      return;
+    }
+
+    if(elementsPerBlock > dataBlockPageElements) {
+      int page = (int) ((element % elementsPerBlock) / dataBlockPageElements);
+      long firstPageElement = firstElement + page * dataBlockPageElements;
+      if(!isPageInitialized(superBlock, dataBlock, page)) {
+        setUndefined(firstPageElement, dataBlockPageElements);
+        return;
+      }
+      long pageSize = dataBlockPageElements * elementSize + CHECKSUM_SIZE;
+      long pageAddress = dataBlockAddress + dataBlockPrefixSize + CHECKSUM_SIZE + page * pageSize;
+      int count = elementCount(firstPageElement, dataBlockPageElements);
+      HeaderReader reader = file.readerAt(pageAddress, count * elementSize);
+      readElements(reader, (int) firstPageElement, count);
+
+    } else {
+      int count = elementCount(firstElement, elementsPerBlock);
+      HeaderReader reader = file.readerAt(dataBlockAddress, dataBlockPrefixSize + count * elementSize);
+      reader.checkSignature("EADB");
+      int version = reader.readUInt8();
+      if(version != 0) {
+        throw new UnsupportedOperationException("EADB version: " + version);
+      }
+      // client id, header address and block offset
+      reader.readReserved(1 + offsetSize + blockOffsetSize);
+      readElements(reader, (int) firstElement, count);
+    }
+  }
+
+  /**
+   * @return the addresses of the data blocks in {@code superBlock}, reading its secondary block if needed.
+   */
+  private long[] dataBlockAddresses(int superBlock) throws IOException {
+    long[] addresses = dataBlockAddresses[superBlock];
+    if(addresses == null) {
+      addresses = new long[superBlockDataBlocks[superBlock]];
+      long secondaryBlockAddress = secondaryBlockAddresses[superBlock - indexBlockSuperBlocks];
+      if(isUndefined(secondaryBlockAddress)) {
+        Arrays.fill(addresses, -1);
+      } else {
+        readSecondaryBlock(superBlock, secondaryBlockAddress, addresses);
+      }
+      dataBlockAddresses[superBlock] = addresses;
+    }
+    return addresses;
+  }
 
-    int prefixSize = 6 +  // signature, version, client id
-        file.getSuperblock().getOffsetSize() + // header address
-        dimensions * file.getSuperblock().getOffsetSize(); // block offset
+  private void readSecondaryBlock(int superBlock, long address, long[] addresses) throws IOException {
+    int pageBitmapSize = (int) ((addresses.length * pagesPerDataBlock(superBlock) + 7) / 8);
+    int blockSize = 6 + offsetSize + blockOffsetSize + pageBitmapSize + addresses.length * offsetSize;
 
-    HeaderReader reader = new HeaderReader(file.getSuperblock(), buffer);
-    reader.checkSignature("EADB");
+    HeaderReader reader = file.readerAt(address, blockSize);
+    reader.checkSignature("EASB");
     int version = reader.readUInt8();
     if(version != 0) {
-      throw new UnsupportedOperationException("Version: " + version);
+      throw new UnsupportedOperationException("EASB version: " + version);
     }
-    int clientId = reader.readUInt8();
-    long headerAddress = reader.readOffset();
-    int[] blockOffset = reader.readIntArray(dimensions);
+    // client id, header address and block offset
+    reader.readReserved(1 + offsetSize + blockOffsetSize);
+    if(pageBitmapSize > 0) {
+      pageInitialized[superBlock] = reader.readBytes(pageBitmapSize);
+    }
+    for (int i = 0; i < addresses.length; i++) {
+      addresses[i] = reader.readOffset();
+    }
+  }
 
+  private long pagesPerDataBlock(int superBlock) {
+    long elements = superBlockDataBlockElements[superBlock];
+    return elements > dataBlockPageElements ? elements / dataBlockPageElements : 0;
+  }
 
-    throw new UnsupportedOperationException("TODO");
+  private boolean isPageInitialized(int superBlock, int dataBlock, int page) {
+    byte[] bitmap = pageInitialized[superBlock];
+    if(bitmap == null) {
+      // The pages of data blocks referenced by the index block are always initialized.
+      return true;
+    }
+    long bit = dataBlock * pagesPerDataBlock(superBlock) + page;
+    return (bitmap[(int) (bit / 8)] & (0x80 >>> (bit % 8))) != 0;
+  }
+
+  /**
+   * @return the number of elements, starting at {@code first}, which lie within the elements that have been set.
+   */
+  private int elementCount(long first, long count) {
+    return (int) Math.max(0, Math.min(count, chunkAddresses.length - first));
+  }
+
+  private void setUndefined(long first, long count) {
+    int from = (int) first;
+    Arrays.fill(chunkAddresses, from, from + elementCount(first, count), -1);
+  }
+
+  private void readElements(HeaderReader reader, int first, int count) throws IOException {
+    for (int i = 0; i < count; i++) {
+      long address = reader.readOffset();
+      int size = 0;
+      int filterMask = 0;
+      if(clientId == FILTERED_CLIENT_ID) {
+        size = Ints.checkedCast(reader.readUInt(chunkSizeLength));
+        filterMask = reader.readInt();
+      }
+      int index = first + i;
+      if(index < chunkAddresses.length) {
+        chunkAddresses[index] = address;
+        if(clientId == FILTERED_CLIENT_ID) {
+          chunkSizes[index] = size;
+          filterMasks[index] = filterMask;
+        }
+      }
+    }
+  }
+
+  private boolean isUndefined(long address) {
+    return address == -1 || (offsetSize == 4 && address == 0xFFFFFFFFL);
+  }
+
+  private static long[] maximumSize(DataspaceMessage dataspace) {
+    long[] size = new long[dataspace.getDimensionality()];
+    for (int i = 0; i < size.length; i++) {
+      size[i] = dataspace.isUnlimited(i) ? -1 : dataspace.getMaximumSize(i);
+    }
+    return size;
   }
 }
@@ -0,0 +1,70 @@
+package org.renjin.hdf5.chunked;
+
+import org.renjin.hdf5.filters.FilterContext;
+import org.renjin.hdf5.filters.FilterStage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * Decodes chunks by running them backwards through the dataset's filter pipeline.
+ *
+ * <p>Filters are listed in the order they were applied when the chunk was written, and are reversed here
+ * starting from the last. A filter whose bit is set in a chunk's filter mask was skipped for that chunk,
+ * and its stage is not run.</p>
+ */
+public class FilterPipelineDecoder implements ChunkDecoder {
+
+    private final FilterStage[] stages;
+    private final ChunkFactory factory;
+    private final int chunkSizeBytes;
+    private final DecoderMetrics metrics;
+
+    public FilterPipelineDecoder(List<FilterStage> stages, ChunkFactory factory, int chunkSizeBytes) {
+        this(stages, factory, chunkSizeBytes, new DecoderMetrics());
+    }
+
+    public FilterPipelineDecoder(List<FilterStage> stages, ChunkFactory factory, int chunkSizeBytes,
+                                 DecoderMetrics metrics) {
+        this.stages = stages.toArray(new FilterStage[stages.size()]);
+        this.factory = factory;
+        this.chunkSizeBytes = chunkSizeBytes;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public Chunk decode(ChunkLocation location, ByteBuffer buffer) throws IOException {
+
+        int filterMask = location.getFilterMask();
+        int lastStage = -1;
+        for (int i = 0; i < stages.length; i++) {
+            if(!isSkipped(filterMask, i)) {
+                lastStage = i;
+                break;
+            }
+        }
+
+        long startTime = System.nanoTime();
+        FilterContext context = FilterContext.acquire(ChunkStore.getShared(), location, chunkSizeBytes);
+        try {
+            ByteBuffer data = buffer;
+            for (int i = stages.length - 1; i >= 0; i--) {
+                if(!isSkipped(filterMask, i)) {
+                    context.setLastStage(i == lastStage);
+                    data = stages[i].decode(data, context);
+                }
+            }
+            Chunk chunk = factory.wrap(location.getChunkOffset(), context.finish(data));
+            metrics.recordDecode(System.nanoTime() - startTime);
+            return chunk;
+
+        } finally {
+            context.release();
+        }
+    }
+
+    private static boolean isSkipped(int filterMask, int filterIndex) {
+        return (filterMask & (1 << filterIndex)) != 0;
+    }
+}
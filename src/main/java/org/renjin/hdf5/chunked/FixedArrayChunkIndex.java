@@ -2,17 +2,11 @@ package org.renjin.hdf5.chunked;
 
 import org.renjin.hdf5.Hdf5Data;
 import org.renjin.hdf5.HeaderReader;
-import org.renjin.hdf5.Superblock;
 import org.renjin.hdf5.message.DataLayoutMessage;
 import org.renjin.hdf5.message.DataspaceMessage;
-import org.renjin.repackaged.guava.cache.Cache;
-import org.renjin.repackaged.guava.cache.CacheBuilder;
 import org.renjin.repackaged.guava.primitives.Ints;
 
 import java.io.IOException;
-import java.nio.ByteOrder;
-import java.nio.MappedByteBuffer;
-import java.nio.channels.FileChannel;
 import java.util.Arrays;
 
 /**
@@ -34,150 +28,236 @@ import java.util.Arrays;
  * elements that describe the chunks are stored in the data block. If paging is turned on, the data block
  * contains a bitmap indicating which pages are initialized. Then subsequent data block pages will contain
  * the entries that describe the chunks.
+ *
+ * <p>The entries of filtered datasets hold the size of each chunk as stored, and its filter mask, as well as its
+ * address. Entries are decoded into primitive arrays a page at a time, when a chunk in the page is first located,
+ * and pages which have not been initialized are not read at all.</p>
  */
 public class FixedArrayChunkIndex extends ChunkIndex {
 
+    private static final int FILTERED_CLIENT_ID = 1;
+
     private static final int CHECKSUM_SIZE = 4;
 
-    private Hdf5Data file;
-    private final DataLayoutMessage layout;
-    private final long maxNumEntries;
-    private final int dataBlockHeaderSize;
-    private MappedByteBuffer dataBlockBuffer;
-    private final byte entrySize;
+    /**
+     * Marks an entry which has not yet been read from its page.
+     */
+    private static final long UNRESOLVED = -2;
+
+    private final int offsetSize;
+    private final int clientId;
+
+    /**
+     * The size in bytes of each entry in the array.
+     */
+    private final int entrySize;
+
+    /**
+     * The number of bytes used to encode the size of a filtered chunk.
+     */
+    private final int chunkSizeLength;
+
+    /**
+     * The size of a chunk which has not been filtered.
+     */
+    private final int unfilteredChunkSize;
+
+    private final long dataBlockAddress;
+
+    /**
+     * The number of entries in each page, or in the data block if it is not paged.
+     */
+    private final int pageEntries;
+    private final boolean paged;
+
+    /**
+     * The offset of the first entry, or of the first page, from the start of the data block.
+     */
+    private int entriesOffset;
 
-    private int[] chunkSize;
-    private int[] chunkDims;
-    private final int numberElementsPerDataBlockPage;
-    private final int numberOfPages;
-    private final int dataBlockPageSize;
+    /**
+     * A bitmap of the pages which have been initialized, with the first page in the most significant bit.
+     */
+    private byte[] pageInitialized;
 
-    private final Cache<Integer, Chunk> chunkCache;
+    /*
+     * The address, size and filter mask of each chunk, indexed by its position in the array.
+     */
+    private final long[] chunkAddresses;
+    private int[] chunkSizes;
+    private int[] filterMasks;
 
-    private final ChunkDecoder decoder;
+    private final int[] chunkSize;
+
+    /**
+     * The number of chunks by which the array index increases for each step along each dimension.
+     */
+    private final long[] chunkStride;
 
     public FixedArrayChunkIndex(Hdf5Data file,
                                 DataspaceMessage dataspace,
                                 DataLayoutMessage layout, ChunkDecoder decoder) throws IOException {
-        this.file = file;
-        this.layout = layout;
-        this.decoder = decoder;
+        this(file, dimensionSize(dataspace), maximumSize(dataspace), layout.getChunkSize(),
+            layout.getDatasetElementSize(), layout.getChunkIndexAddress(), decoder);
+    }
 
-        HeaderReader reader =  file.readerAt(layout.getChunkIndexAddress(), headerSize(file.getSuperblock()));
+    FixedArrayChunkIndex(Hdf5Data file, long[] dimensionSize, long[] maximumSize, int[] chunkSize,
+                         int datasetElementSize, long headerAddress, ChunkDecoder decoder) throws IOException {
+        super(file, dimensionSize, chunkSize, decoder);
+        this.chunkSize = chunkSize;
+        this.offsetSize = file.getSuperblock().getOffsetSize();
+
+        long chunkElements = 1;
+        for (int i = 0; i < chunkSize.length; i++) {
+            chunkElements *= chunkSize[i];
+        }
+        this.unfilteredChunkSize = Ints.checkedCast(chunkElements * datasetElementSize);
+
+        // Chunks are numbered in row-major order over the maximum size of the dataset
+        chunkStride = new long[chunkSize.length];
+        long stride = 1;
+        for (int i = chunkSize.length - 1; i >= 0; i--) {
+            chunkStride[i] = stride;
+            stride *= ceilDiv(maximumSize[i], chunkSize[i]);
+        }
+
+        HeaderReader reader = file.readerAt(headerAddress, headerSize());
 
         reader.checkSignature("FAHD");
-        byte version = reader.readByte();
+        int version = reader.readUInt8();
         if(version != 0) {
             throw new UnsupportedOperationException("FAHD version: " + version);
         }
-        byte clientId = reader.readByte();
-        if(clientId != 0) {
-            throw new UnsupportedOperationException("client id: " + clientId);
-        }
-        entrySize = reader.readByte();
-        byte pageBits = reader.readByte();
-        maxNumEntries = reader.readLength();
-
-        numberElementsPerDataBlockPage = (1 << pageBits);
-        numberOfPages = ceilDiv(maxNumEntries, numberElementsPerDataBlockPage);
-        dataBlockPageSize = numberElementsPerDataBlockPage * entrySize + CHECKSUM_SIZE;
-
-        long dataBlockAddress = reader.readOffset();
-        int checkSum = reader.readInt();
-
-        int pagingBitMapSize = ceilDiv(numberOfPages, 8);
-        dataBlockHeaderSize = 6 + file.getSuperblock().getOffsetSize() + pagingBitMapSize + CHECKSUM_SIZE;
-
-        long datablockSize = dataBlockHeaderSize +
-            dataBlockPageSize * numberOfPages;
-
-        dataBlockBuffer = file.map(FileChannel.MapMode.READ_ONLY, dataBlockAddress, datablockSize);
-        dataBlockBuffer.order(ByteOrder.LITTLE_ENDIAN);
-
-        HeaderReader dataBlockHeaderReader = new HeaderReader(file.getSuperblock(), dataBlockBuffer);
-        dataBlockHeaderReader.checkSignature("FADB");
-        byte dataBlockVersion = dataBlockHeaderReader.readByte();
-        byte dataBlockClientId = dataBlockHeaderReader.readByte();
-        long dataBlockHeaderAddress = dataBlockHeaderReader.readOffset();
-        byte[] pagingBitmask = dataBlockHeaderReader.readBytes(pagingBitMapSize);
-        int dataBlockHeaderChecksum = dataBlockHeaderReader.readInt();
-
-        chunkSize = layout.getChunkSize();
-        chunkDims = new int[layout.getDimensionality()];
-        for (int i = 0; i < layout.getDimensionality(); i++) {
-            chunkDims[i] = ceilDiv(dataspace.getDimensionSize(i), layout.getChunkSize(i));
+        clientId = reader.readUInt8();
+        entrySize = reader.readUInt8();
+        chunkSizeLength = entrySize - offsetSize - 4;
+        if(clientId == FILTERED_CLIENT_ID && (chunkSizeLength < 1 || chunkSizeLength > 8)) {
+            throw new IOException("Invalid filtered chunk entry size: " + entrySize);
+        } else if(clientId != FILTERED_CLIENT_ID && entrySize != offsetSize) {
+            throw new IOException("Invalid chunk entry size: " + entrySize);
         }
+        int pageBits = reader.readUInt8();
+        long maxNumEntries = reader.readLength();
+        dataBlockAddress = reader.readOffset();
 
-        this.chunkCache = CacheBuilder.newBuilder()
-            .softValues()
-            .build();
-    }
+        // The data block is only divided into pages if it holds more entries than a page
+        paged = maxNumEntries > (1L << pageBits);
+        pageEntries = paged ? (1 << pageBits) : Ints.checkedCast(maxNumEntries);
 
-    private int ceilDiv(long dimensionSize, int chunkSize) {
-        int count = (int)(dimensionSize / chunkSize);
-        if(dimensionSize % chunkSize != 0) {
-            count = count + 1;
+        chunkAddresses = new long[Ints.checkedCast(maxNumEntries)];
+        if(clientId == FILTERED_CLIENT_ID) {
+            chunkSizes = new int[chunkAddresses.length];
+            filterMasks = new int[chunkAddresses.length];
+        }
+
+        if(isUndefined(dataBlockAddress)) {
+            // Nothing has been written yet
+            Arrays.fill(chunkAddresses, -1);
+        } else {
+            Arrays.fill(chunkAddresses, UNRESOLVED);
+            readDataBlockPrefix();
         }
-        return count;
     }
 
-    private static int headerSize(Superblock superblock) {
+    private int headerSize() {
         return  4 + // signature
-                4 + // version + client id ...
-                superblock.getLengthSize() + // max num entries
-                superblock.getOffsetSize() + // data block adddres
-                4; // checksum
+                4 + // version, client id, entry size and page bits
+                file.getSuperblock().getLengthSize() + // max num entries
+                offsetSize + // data block address
+                CHECKSUM_SIZE;
+    }
+
+    private void readDataBlockPrefix() throws IOException {
+        int pageCount = paged ? Ints.checkedCast(ceilDiv(chunkAddresses.length, pageEntries)) : 0;
+        int pageBitmapSize = (pageCount + 7) / 8;
+        int prefixSize = 6 + offsetSize + pageBitmapSize;
+
+        HeaderReader reader = file.readerAt(dataBlockAddress, prefixSize);
+        reader.checkSignature("FADB");
+        int version = reader.readUInt8();
+        if(version != 0) {
+            throw new UnsupportedOperationException("FADB version: " + version);
+        }
+        // client id and header address
+        reader.readReserved(1 + offsetSize);
+        if(paged) {
+            pageInitialized = reader.readBytes(pageBitmapSize);
+            // Pages follow the checksum of the data block
+            entriesOffset = prefixSize + CHECKSUM_SIZE;
+        } else {
+            entriesOffset = prefixSize;
+        }
     }
 
     @Override
-    public Chunk chunkAt(long[] arrayIndex) throws IOException {
-        int chunkIndex = arrayIndexToChunkIndex(arrayIndex);
-
-        Chunk chunk = chunkCache.getIfPresent(chunkIndex);
-        if(chunk == null) {
-            int pageIndex = chunkIndex / numberElementsPerDataBlockPage;
-            int addressOffset =
-                dataBlockHeaderSize +
-                    pageIndex * dataBlockPageSize +
-                    (chunkIndex % numberElementsPerDataBlockPage) * entrySize;
-
-            long chunkAddress;
-            if (entrySize == 8) {
-                chunkAddress = dataBlockBuffer.getLong(addressOffset);
-            } else {
-                throw new UnsupportedOperationException("entrySize: " + entrySize);
+    protected synchronized ChunkLocation locate(long[] chunkOffset) throws IOException {
+        long index = arrayIndex(chunkOffset);
+        long address = -1;
+        if(index < chunkAddresses.length) {
+            if(chunkAddresses[(int) index] == UNRESOLVED) {
+                resolve((int) index);
             }
+            address = chunkAddresses[(int) index];
+        }
+        if(isUndefined(address)) {
+            return null;
+        }
+        if(clientId == FILTERED_CLIENT_ID) {
+            return new ChunkLocation(chunkOffset, address, chunkSizes[(int) index], filterMasks[(int) index]);
+        } else {
+            return new ChunkLocation(chunkOffset, address, unfilteredChunkSize, 0);
+        }
+    }
 
-            chunk = readChunk(arrayIndex, chunkAddress);
-            chunkCache.put(chunkIndex, chunk);
+    /**
+     * @return the position in the array of the entry describing the chunk at {@code chunkOffset}.
+     */
+    long arrayIndex(long[] chunkOffset) {
+        long index = 0;
+        for (int i = 0; i < chunkStride.length; i++) {
+            index += (chunkOffset[i] / chunkSize[i]) * chunkStride[i];
         }
-        return chunk;
+        return index;
     }
 
-    private Chunk readChunk(long[] arrayIndex, long chunkAddress) throws IOException {
+    /**
+     * Reads the page, or the unpaged data block, which holds the entry at {@code index}.
+     */
+    private void resolve(int index) throws IOException {
+        int page = index / pageEntries;
+        int first = page * pageEntries;
+        int count = Math.min(pageEntries, chunkAddresses.length - first);
 
-        long[] chunkOffset = elementToChunk(arrayIndex);
-        long chunkSize = layout.getChunkElementCount() * layout.getDatasetElementSize();
+        if(paged && (pageInitialized[page / 8] & (0x80 >>> (page % 8))) == 0) {
+            Arrays.fill(chunkAddresses, first, first + count, -1);
+            return;
+        }
 
-        return decoder.read(chunkOffset, chunkAddress, Ints.checkedCast(chunkSize));
+        long pageSize = (long) pageEntries * entrySize + (paged ? CHECKSUM_SIZE : 0);
+        HeaderReader reader = file.readerAt(dataBlockAddress + entriesOffset + page * pageSize,
+            count * entrySize);
+        for (int i = first; i < first + count; i++) {
+            chunkAddresses[i] = reader.readOffset();
+            if(clientId == FILTERED_CLIENT_ID) {
+                chunkSizes[i] = Ints.checkedCast(reader.readUInt(chunkSizeLength));
+                filterMasks[i] = reader.readInt();
+            }
+        }
     }
 
-    private long[] elementToChunk(long[] arrayIndex) {
-        long chunkOffset[] = Arrays.copyOf(arrayIndex, arrayIndex.length);
-        for (int i = 0; i < chunkOffset.length; i++) {
-            chunkOffset[i] = (chunkOffset[i] / chunkSize[i]) * chunkSize[i];
-        }
-        return chunkOffset;
+    private boolean isUndefined(long address) {
+        return address == -1 || (offsetSize == 4 && address == 0xFFFFFFFFL);
+    }
+
+    private static long ceilDiv(long size, int divisor) {
+        return (size + divisor - 1) / divisor;
     }
 
-    public int arrayIndexToChunkIndex(long arrayIndex[]) {
-        long chunkIndex = 0;
-        long offset = 1;
-        for(int i=chunkDims.length-1;i>=0;i--) {
-            long chunkOffset = arrayIndex[i] / chunkSize[i];
-            chunkIndex += chunkOffset * offset;
-            offset *= chunkDims[i];
+    private static long[] maximumSize(DataspaceMessage dataspace) {
+        long[] size = new long[dataspace.getDimensionality()];
+        for (int i = 0; i < size.length; i++) {
+            size[i] = dataspace.getMaximumSize(i);
         }
-        return (int)chunkIndex;
+        return size;
     }
 }
@@ -0,0 +1,104 @@
+package org.renjin.hdf5.chunked;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Holds decoded chunks in heap arrays, recycling the arrays of chunks released after eviction from
+ * the {@link ChunkCache}.
+ *
+ * <p>Chunks of the same dataset all have the same size, so freed arrays are kept on a free list for their
+ * type and exact length, up to {@code maxRetainedBytes} in total. Arrays beyond that are left to the garbage
+ * collector. Both the byte arrays that chunks are decoded into and the {@code double[]} and {@code int[]}
+ * arrays they are then converted into are recycled.</p>
+ */
+public class HeapChunkStore extends ChunkStore {
+
+    private final long maxRetainedBytes;
+    private long retainedBytes;
+
+    private final Map<Integer, ArrayDeque<byte[]>> freeArrays = new HashMap<>();
+    private final Map<Integer, ArrayDeque<double[]>> freeDoubles = new HashMap<>();
+    private final Map<Integer, ArrayDeque<int[]>> freeInts = new HashMap<>();
+
+    public HeapChunkStore(long maxRetainedBytes) {
+        this.maxRetainedBytes = maxRetainedBytes;
+    }
+
+    @Override
+    public Allocation allocate(int size) {
+        byte[] array = take(freeArrays, size, size);
+        if(array == null) {
+            array = new byte[size];
+        }
+        return new RecycledAllocation(array);
+    }
+
+    @Override
+    public double[] allocateDoubles(int length) {
+        double[] values = take(freeDoubles, length, length * 8L);
+        return values != null ? values : new double[length];
+    }
+
+    @Override
+    public void freeDoubles(double[] values) {
+        recycle(freeDoubles, values, values.length, values.length * 8L);
+    }
+
+    @Override
+    public int[] allocateInts(int length) {
+        int[] values = take(freeInts, length, length * 4L);
+        return values != null ? values : new int[length];
+    }
+
+    @Override
+    public void freeInts(int[] values) {
+        recycle(freeInts, values, values.length, values.length * 4L);
+    }
+
+    /**
+     * @return the total size of the arrays waiting to be reused.
+     */
+    public synchronized long getRetainedBytes() {
+        return retainedBytes;
+    }
+
+    private synchronized <T> T take(Map<Integer, ArrayDeque<T>> freeLists, int length, long byteSize) {
+        ArrayDeque<T> free = freeLists.get(length);
+        if(free == null) {
+            return null;
+        }
+        T array = free.poll();
+        if(array != null) {
+            retainedBytes -= byteSize;
+        }
+        return array;
+    }
+
+    private synchronized <T> void recycle(Map<Integer, ArrayDeque<T>> freeLists, T array, int length,
+                                          long byteSize) {
+        if(retainedBytes + byteSize <= maxRetainedBytes) {
+            ArrayDeque<T> free = freeLists.get(length);
+            if(free == null) {
+                free = new ArrayDeque<>();
+                freeLists.put(length, free);
+            }
+            free.add(array);
+            retainedBytes += byteSize;
+        }
+    }
+
+    private class RecycledAllocation extends Allocation {
+        private RecycledAllocation(byte[] array) {
+            super(HeapChunkStore.this, ByteBuffer.wrap(array));
+        }
+
+        @Override
+        public void free() {
+            byte[] array = getBuffer().array();
+            recycle(freeArrays, array, array.length, array.length);
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package org.renjin.hdf5.chunked;
+
+import org.renjin.hdf5.Hdf5Data;
+import org.renjin.hdf5.Hdf5File;
+import org.renjin.hdf5.message.DataLayoutMessage;
+import org.renjin.hdf5.message.DataspaceMessage;
+import org.renjin.repackaged.guava.primitives.Ints;
+
+import java.io.IOException;
+
+/**
+ * The index of a dataset whose chunks were all allocated when it was created, and are stored one after another
+ * in row-major order of their position in the grid of chunks spanning the dataset's maximum dimensions.
+ *
+ * <p>The address of each chunk is computed from its position, so there is no index structure to read. Chunks
+ * indexed this way are never filtered.</p>
+ */
+public class ImplicitChunkIndex extends ChunkIndex {
+
+    private final long address;
+    private final int[] chunkSize;
+    private final int chunkBytes;
+
+    /**
+     * The number of chunks between neighbouring chunks along each dimension.
+     */
+    private final long[] chunkStride;
+
+    public ImplicitChunkIndex(Hdf5Data file, DataspaceMessage dataspace, DataLayoutMessage layout,
+                              ChunkDecoder decoder) throws IOException {
+        this(file, dimensionSize(dataspace), maximumSize(dataspace), layout.getChunkSize(),
+            layout.getDatasetElementSize(), layout.getChunkIndexAddress(), decoder);
+    }
+
+    ImplicitChunkIndex(Hdf5Data file, long[] dimensionSize, long[] maximumSize, int[] chunkSize,
+                       int datasetElementSize, long address, ChunkDecoder decoder) {
+        super(file, dimensionSize, chunkSize, decoder);
+        this.address = address;
+        this.chunkSize = chunkSize;
+
+        long chunkElements = 1;
+        for (int i = 0; i < chunkSize.length; i++) {
+            chunkElements *= chunkSize[i];
+        }
+        this.chunkBytes = Ints.checkedCast(chunkElements * datasetElementSize);
+
+        chunkStride = new long[chunkSize.length];
+        long stride = 1;
+        for (int i = chunkSize.length - 1; i >= 0; i--) {
+            chunkStride[i] = stride;
+            stride *= (maximumSize[i] + chunkSize[i] - 1) / chunkSize[i];
+        }
+    }
+
+    private static long[] maximumSize(DataspaceMessage dataspace) throws IOException {
+        long[] size = new long[dataspace.getDimensionality()];
+        for (int i = 0; i < size.length; i++) {
+            if(dataspace.isUnlimited(i)) {
+                throw new IOException("Implicit chunk index of a dataset with an unlimited dimension");
+            }
+            size[i] = dataspace.getMaximumSize(i);
+        }
+        return size;
+    }
+
+    @Override
+    protected ChunkLocation locate(long[] chunkOffset) throws IOException {
+        if(address == Hdf5File.UNDEFINED_ADDRESS) {
+            return null;
+        }
+        long index = 0;
+        for (int i = 0; i < chunkStride.length; i++) {
+            index += (chunkOffset[i] / chunkSize[i]) * chunkStride[i];
+        }
+        return new ChunkLocation(chunkOffset, address + index * chunkBytes, chunkBytes, 0);
+    }
+}
@@ -1,20 +1,119 @@
 package org.renjin.hdf5.chunked;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.nio.IntBuffer;
 
+/**
+ * Chunk of signed 32-bit integers.
+ *
+ * <p>Like {@link DoubleChunk}, chunks on the heap are converted once into an {@code int[]}, while chunks
+ * held off-heap are put into the platform's byte order in place.</p>
+ */
 public class Int32Chunk extends Chunk {
 
+  private final int[] values;
   private final IntBuffer buffer;
-  private final long[] chunkOffset;
 
-  public Int32Chunk(long[] chunkOffset, IntBuffer buffer) {
+  /**
+   * The store to which {@link #values} are returned once the chunk is released, if any.
+   */
+  private final ChunkStore store;
+
+  public Int32Chunk(long[] chunkOffset, int[] values) {
+    this(chunkOffset, values, null);
+  }
+
+  private Int32Chunk(long[] chunkOffset, int[] values, ChunkStore store) {
     super(chunkOffset);
-    this.chunkOffset = chunkOffset;
+    this.values = values;
+    this.buffer = null;
+    this.store = store;
+  }
+
+  public Int32Chunk(long[] chunkOffset, IntBuffer buffer) {
+    this(chunkOffset, buffer, null);
+  }
+
+  public Int32Chunk(long[] chunkOffset, IntBuffer buffer, ChunkStore.Allocation allocation) {
+    super(chunkOffset, allocation);
+    this.values = null;
     this.buffer = buffer;
+    this.store = null;
+  }
+
+  /**
+   * Creates a chunk from a copy of the values in {@code buffer}, stored in the given byte order.
+   */
+  public static Int32Chunk copyOf(long[] chunkOffset, ByteBuffer buffer, ByteOrder order) {
+    return new Int32Chunk(chunkOffset, toArray(buffer, order));
+  }
+
+  /**
+   * Creates a chunk from the values in {@code allocation}, stored in the given byte order. Heap allocations
+   * are copied into an array from the allocation's store, and freed straight away; the array is returned to
+   * the store when the chunk is released. Direct allocations are kept by the chunk.
+   */
+  public static Int32Chunk of(long[] chunkOffset, ChunkStore.Allocation allocation, ByteOrder order) {
+    if(allocation.isDirect()) {
+      ByteBuffer buffer = allocation.getBuffer();
+      if(order != ByteOrder.nativeOrder()) {
+        IntBuffer source = buffer.duplicate().order(order).asIntBuffer();
+        IntBuffer target = buffer.duplicate().order(ByteOrder.nativeOrder()).asIntBuffer();
+        for (int i = 0; i < source.limit(); i++) {
+          target.put(i, source.get(i));
+        }
+      }
+      return new Int32Chunk(chunkOffset, buffer.duplicate().order(ByteOrder.nativeOrder()).asIntBuffer(),
+          allocation);
+    }
+    ChunkStore store = allocation.getStore();
+    IntBuffer source = allocation.getBuffer().duplicate().order(order).asIntBuffer();
+    int[] values = store.allocateInts(source.remaining());
+    source.get(values);
+    allocation.free();
+    return new Int32Chunk(chunkOffset, values, store);
+  }
+
+  private static int[] toArray(ByteBuffer buffer, ByteOrder order) {
+    IntBuffer source = buffer.duplicate().order(order).asIntBuffer();
+    int[] values = new int[source.remaining()];
+    source.get(values);
+    return values;
+  }
+
+  public int getIntAt(int i) {
+    if(values != null) {
+      return values[i];
+    }
+    return buffer.get(i);
   }
 
   @Override
   public double getDoubleAt(int i) {
-    return buffer.get(i);
+    return getIntAt(i);
+  }
+
+  @Override
+  public void copyTo(int start, int[] dest, int destOffset, int length) {
+    if(values != null) {
+      System.arraycopy(values, start, dest, destOffset, length);
+    } else {
+      IntBuffer source = buffer.duplicate();
+      source.position(start);
+      source.get(dest, destOffset, length);
+    }
+  }
+
+  @Override
+  protected void dispose() {
+    if(store != null) {
+      store.freeInts(values);
+    }
+  }
+
+  @Override
+  public int getByteSize() {
+    return (values != null ? values.length : buffer.capacity()) * 4;
   }
 }
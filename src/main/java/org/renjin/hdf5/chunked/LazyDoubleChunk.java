@@ -0,0 +1,34 @@
+package org.renjin.hdf5.chunked;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Chunk of 64-bit floating point values which are inflated only as far as they are read.
+ */
+public class LazyDoubleChunk extends LazyInflatedChunk {
+
+  private final double[] values;
+
+  LazyDoubleChunk(long[] chunkOffset, PartialInflater inflater, int elementCount, ByteOrder order) {
+    super(chunkOffset, inflater, elementCount, 8, order);
+    this.values = new double[elementCount];
+  }
+
+  @Override
+  protected void store(ByteBuffer elements, int first, int count) {
+    elements.asDoubleBuffer().get(values, first, count);
+  }
+
+  @Override
+  public double getDoubleAt(int i) {
+    ensureInflated(i + 1);
+    return values[i];
+  }
+
+  @Override
+  public void copyTo(int start, double[] dest, int destOffset, int length) {
+    ensureInflated(start + length);
+    System.arraycopy(values, start, dest, destOffset, length);
+  }
+}
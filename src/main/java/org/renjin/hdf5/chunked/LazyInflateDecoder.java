@@ -0,0 +1,104 @@
+package org.renjin.hdf5.chunked;
+
+import org.renjin.hdf5.filters.FilterContext;
+import org.renjin.hdf5.filters.FilterStage;
+import org.renjin.hdf5.filters.InflaterPool;
+import org.renjin.hdf5.message.DatatypeMessage;
+import org.renjin.hdf5.message.Filter;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * Decodes deflated chunks into chunks that inflate their data only as far as it is read, so that looking up
+ * a single element of a large chunk does not inflate the whole chunk.
+ *
+ * <p>Only pipelines that end with deflate, after undoing any Fletcher-32 checksum, are decoded lazily; the
+ * checksum is verified on the compressed data as usual. Chunks whose deflate filter was skipped are passed
+ * to the eager decoder.</p>
+ */
+public class LazyInflateDecoder implements ChunkDecoder {
+
+    private final FilterStage[] stages;
+    private final ChunkDecoder eagerDecoder;
+    private final DatatypeMessage datatype;
+    private final int chunkSizeBytes;
+    private final DecoderMetrics metrics;
+
+    /**
+     * @param stages the stages of the dataset's filter pipeline, of which the first must reverse deflate.
+     * @param eagerDecoder the decoder used for chunks stored without deflate.
+     */
+    public LazyInflateDecoder(List<FilterStage> stages, ChunkDecoder eagerDecoder, DatatypeMessage datatype,
+                              int chunkSizeBytes, DecoderMetrics metrics) {
+        this.stages = stages.toArray(new FilterStage[stages.size()]);
+        this.eagerDecoder = eagerDecoder;
+        this.datatype = datatype;
+        this.chunkSizeBytes = chunkSizeBytes;
+        this.metrics = metrics;
+    }
+
+    /**
+     * @return true if chunks filtered by {@code filters} and holding elements of {@code datatype} can be
+     * inflated lazily.
+     */
+    public static boolean supports(List<Filter> filters, DatatypeMessage datatype) {
+        if(!datatype.isDoubleIEE754() && !datatype.isSignedInteger32()) {
+            return false;
+        }
+        if(filters.isEmpty() || filters.get(0).getFilterId() != Filter.FILTER_DEFLATE) {
+            return false;
+        }
+        for (int i = 1; i < filters.size(); i++) {
+            if(filters.get(i).getFilterId() != Filter.FILTER_FLETCHER32) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public Chunk decode(ChunkLocation location, ByteBuffer buffer) throws IOException {
+        int filterMask = location.getFilterMask();
+        if(isSkipped(filterMask, 0)) {
+            return eagerDecoder.decode(location, buffer);
+        }
+
+        long startTime = System.nanoTime();
+        FilterContext context = FilterContext.acquire(ChunkStore.getShared(), location, chunkSizeBytes);
+        try {
+            ByteBuffer data = buffer;
+            for (int i = stages.length - 1; i >= 1; i--) {
+                if(!isSkipped(filterMask, i)) {
+                    data = stages[i].decode(data, context);
+                }
+            }
+
+            // The chunk outlives the buffer it was read into, so keeps its own copy of the compressed data
+            byte[] compressed = new byte[data.remaining()];
+            data.duplicate().get(compressed);
+
+            Chunk chunk;
+            long[] chunkOffset = location.getChunkOffset();
+            if(datatype.isDoubleIEE754()) {
+                int count = chunkSizeBytes / 8;
+                PartialInflater inflater = new PartialInflater(InflaterPool.getShared(), compressed, 8, count);
+                chunk = new LazyDoubleChunk(chunkOffset, inflater, count, datatype.getByteOrder());
+            } else {
+                int count = chunkSizeBytes / 4;
+                PartialInflater inflater = new PartialInflater(InflaterPool.getShared(), compressed, 4, count);
+                chunk = new LazyInt32Chunk(chunkOffset, inflater, count, datatype.getByteOrder());
+            }
+            metrics.recordDecode(System.nanoTime() - startTime);
+            return chunk;
+
+        } finally {
+            context.release();
+        }
+    }
+
+    private static boolean isSkipped(int filterMask, int filterIndex) {
+        return (filterMask & (1 << filterIndex)) != 0;
+    }
+}
@@ -0,0 +1,79 @@
+package org.renjin.hdf5.chunked;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Chunk whose elements are inflated only as far as they are read. Subclasses hold the inflated elements in
+ * an array of their type, and inflate at least as far as the elements they read.
+ *
+ * @see PartialInflater
+ */
+public abstract class LazyInflatedChunk extends Chunk {
+
+  private final PartialInflater inflater;
+  private final int byteSize;
+
+  /**
+   * The number of leading elements which have been inflated.
+   */
+  private volatile int available;
+
+  private final PartialInflater.ElementSink sink;
+
+  LazyInflatedChunk(long[] chunkOffset, PartialInflater inflater, int elementCount, int elementSize,
+                    final ByteOrder order) {
+    super(chunkOffset);
+    this.inflater = inflater;
+    this.byteSize = elementCount * elementSize + inflater.getCompressedSize();
+    this.sink = new PartialInflater.ElementSink() {
+      @Override
+      public void accept(ByteBuffer elements, int first, int count) {
+        store(elements.order(order), first, count);
+      }
+    };
+  }
+
+  /**
+   * Copies {@code count} newly inflated elements, starting at element {@code first}, into this chunk's array.
+   */
+  protected abstract void store(ByteBuffer elements, int first, int count);
+
+  /**
+   * @return the number of leading elements inflated so far.
+   */
+  public int getAvailable() {
+    return available;
+  }
+
+  /**
+   * Ensures that at least the first {@code count} elements have been inflated.
+   */
+  protected final void ensureInflated(int count) {
+    if(count > available) {
+      inflateTo(count);
+    }
+  }
+
+  private synchronized void inflateTo(int count) {
+    if(count <= available) {
+      return;
+    }
+    try {
+      available = inflater.inflateTo(count, sink);
+    } catch (IOException e) {
+      throw new ChunkDecodeException(e);
+    }
+  }
+
+  @Override
+  public int getByteSize() {
+    return byteSize;
+  }
+
+  @Override
+  protected synchronized void dispose() {
+    inflater.dispose();
+  }
+}
@@ -0,0 +1,38 @@
+package org.renjin.hdf5.chunked;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Chunk of signed 32-bit integers which are inflated only as far as they are read.
+ */
+public class LazyInt32Chunk extends LazyInflatedChunk {
+
+  private final int[] values;
+
+  LazyInt32Chunk(long[] chunkOffset, PartialInflater inflater, int elementCount, ByteOrder order) {
+    super(chunkOffset, inflater, elementCount, 4, order);
+    this.values = new int[elementCount];
+  }
+
+  @Override
+  protected void store(ByteBuffer elements, int first, int count) {
+    elements.asIntBuffer().get(values, first, count);
+  }
+
+  public int getIntAt(int i) {
+    ensureInflated(i + 1);
+    return values[i];
+  }
+
+  @Override
+  public double getDoubleAt(int i) {
+    return getIntAt(i);
+  }
+
+  @Override
+  public void copyTo(int start, int[] dest, int destOffset, int length) {
+    ensureInflated(start + length);
+    System.arraycopy(values, start, dest, destOffset, length);
+  }
+}
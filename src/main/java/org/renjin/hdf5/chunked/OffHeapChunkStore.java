@@ -0,0 +1,167 @@
+package org.renjin.hdf5.chunked;
+
+import java.lang.ref.PhantomReference;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Holds decoded chunks in pooled, direct buffers outside of the Java heap.
+ *
+ * <p>Memory is reserved from the operating system in slabs of {@value #SLAB_SIZE} bytes, which are split into
+ * blocks of equal, power-of-two size. Freed blocks are kept on a free list for their size and reused by
+ * later allocations. Once {@code maxBytes} have been reserved, larger free blocks are split up to satisfy
+ * smaller allocations, and if none remain, allocations fall back to the heap.</p>
+ *
+ * <p>Blocks are normally freed when the last reference to their {@link Chunk} is released. As a safety
+ * net, blocks belonging to chunks that are garbage collected without having been released are also
+ * returned to the pool.</p>
+ */
+public class OffHeapChunkStore extends ChunkStore {
+
+    public static final int SLAB_SIZE = 16 * 1024 * 1024;
+
+    private static final int MIN_BLOCK_SIZE = 4096;
+
+    private final long maxBytes;
+    private long reservedBytes;
+    private long allocatedBytes;
+
+    private final Map<Integer, ArrayDeque<ByteBuffer>> freeBlocks = new HashMap<>();
+
+    private final Set<BlockReference> liveBlocks = new HashSet<>();
+    private final ReferenceQueue<Allocation> unreachable = new ReferenceQueue<>();
+
+    public OffHeapChunkStore(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    @Override
+    public synchronized Allocation allocate(int size) {
+        reclaimUnreachable();
+
+        int blockSize = blockSize(size);
+        ByteBuffer block = takeBlock(blockSize);
+        if(block == null) {
+            return onHeap(size);
+        }
+
+        ByteBuffer buffer = block.duplicate();
+        buffer.limit(size);
+        buffer = buffer.slice();
+
+        DirectAllocation allocation = new DirectAllocation(buffer);
+        allocation.reference = new BlockReference(allocation, block, unreachable);
+        liveBlocks.add(allocation.reference);
+        allocatedBytes += blockSize;
+
+        return allocation;
+    }
+
+    /**
+     * @return the number of bytes reserved from the operating system.
+     */
+    public synchronized long getReservedBytes() {
+        return reservedBytes;
+    }
+
+    /**
+     * @return the number of bytes in blocks currently holding chunks.
+     */
+    public synchronized long getAllocatedBytes() {
+        return allocatedBytes;
+    }
+
+    private static int blockSize(int size) {
+        if(size <= MIN_BLOCK_SIZE) {
+            return MIN_BLOCK_SIZE;
+        }
+        int blockSize = Integer.highestOneBit(size);
+        if(blockSize < size) {
+            blockSize <<= 1;
+        }
+        return blockSize;
+    }
+
+    private ByteBuffer takeBlock(int blockSize) {
+        ArrayDeque<ByteBuffer> free = freeBlocks.get(blockSize);
+        if(free == null) {
+            free = new ArrayDeque<>();
+            freeBlocks.put(blockSize, free);
+        }
+        if(free.isEmpty()) {
+            int slabSize = Math.max(SLAB_SIZE, blockSize);
+            if(reservedBytes + slabSize <= maxBytes) {
+                split(ByteBuffer.allocateDirect(slabSize), blockSize, free);
+                reservedBytes += slabSize;
+            } else {
+                // Out of budget: break up a larger free block instead
+                ByteBuffer larger = takeLargerFreeBlock(blockSize);
+                if(larger == null) {
+                    return null;
+                }
+                split(larger, blockSize, free);
+            }
+        }
+        return free.poll();
+    }
+
+    private ByteBuffer takeLargerFreeBlock(int blockSize) {
+        for (Map.Entry<Integer, ArrayDeque<ByteBuffer>> entry : freeBlocks.entrySet()) {
+            if(entry.getKey() > blockSize && !entry.getValue().isEmpty()) {
+                return entry.getValue().poll();
+            }
+        }
+        return null;
+    }
+
+    private static void split(ByteBuffer region, int blockSize, ArrayDeque<ByteBuffer> free) {
+        for (int offset = 0; offset < region.capacity(); offset += blockSize) {
+            region.limit(offset + blockSize);
+            region.position(offset);
+            free.add(region.slice());
+        }
+    }
+
+    private synchronized void free(BlockReference reference) {
+        if(liveBlocks.remove(reference)) {
+            reference.clear();
+            freeBlocks.get(reference.block.capacity()).add(reference.block);
+            allocatedBytes -= reference.block.capacity();
+        }
+    }
+
+    private void reclaimUnreachable() {
+        Reference<? extends Allocation> reference;
+        while((reference = unreachable.poll()) != null) {
+            free((BlockReference) reference);
+        }
+    }
+
+    private class DirectAllocation extends Allocation {
+        private BlockReference reference;
+
+        private DirectAllocation(ByteBuffer buffer) {
+            super(OffHeapChunkStore.this, buffer);
+        }
+
+        @Override
+        public void free() {
+            OffHeapChunkStore.this.free(reference);
+        }
+    }
+
+    private static class BlockReference extends PhantomReference<Allocation> {
+        private final ByteBuffer block;
+
+        private BlockReference(Allocation allocation, ByteBuffer block, ReferenceQueue<Allocation> queue) {
+            super(allocation, queue);
+            this.block = block;
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package org.renjin.hdf5.chunked;
+
+import org.renjin.hdf5.filters.InflaterPool;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Inflates a deflated chunk a little at a time, as far as its elements are needed.
+ *
+ * <p>The {@link Inflater} keeps its state between calls, so that reading the first few elements of a large
+ * chunk only costs inflating its first few kilobytes. The inflated bytes pass through a small window and are
+ * handed to an {@link ElementSink} as whole elements; a partial element at the end of the window is carried
+ * over to the next call.</p>
+ *
+ * <p>Once the whole chunk has been inflated, the inflater is returned to its pool and the compressed data is
+ * dropped. A deflate stream that ends early leaves the remaining elements untouched, which, as in the
+ * eager decoder, leaves them zero.</p>
+ *
+ * <p>Not thread-safe: callers must synchronize.</p>
+ */
+final class PartialInflater {
+
+    /**
+     * Receives inflated elements.
+     */
+    interface ElementSink {
+
+        /**
+         * Receives {@code count} elements, starting at element {@code first} of the chunk, which are the
+         * remaining bytes of {@code elements}.
+         */
+        void accept(ByteBuffer elements, int first, int count);
+    }
+
+    /**
+     * The number of bytes inflated at a time.
+     */
+    static final int WINDOW_SIZE = 16 * 1024;
+
+    private final InflaterPool inflaters;
+    private final int elementSize;
+    private final int elementCount;
+
+    private byte[] compressed;
+    private Inflater inflater;
+    private byte[] window;
+
+    /**
+     * Bytes of a partial element at the start of the window.
+     */
+    private int carried;
+
+    private int elementsInflated;
+
+    PartialInflater(InflaterPool inflaters, byte[] compressed, int elementSize, int elementCount) {
+        this.inflaters = inflaters;
+        this.compressed = compressed;
+        this.elementSize = elementSize;
+        this.elementCount = elementCount;
+        int windowSize = Math.min(WINDOW_SIZE, elementSize * elementCount);
+        this.window = new byte[Math.max(windowSize - windowSize % elementSize, elementSize)];
+    }
+
+    /**
+     * @return the number of elements inflated so far.
+     */
+    int getElementsInflated() {
+        return elementsInflated;
+    }
+
+    /**
+     * @return the size of the compressed data still held, in bytes.
+     */
+    int getCompressedSize() {
+        return compressed == null ? 0 : compressed.length;
+    }
+
+    /**
+     * Inflates until at least {@code count} elements have been passed to {@code sink}, or the whole chunk
+     * has been inflated.
+     *
+     * @return the number of elements inflated so far.
+     */
+    int inflateTo(int count, ElementSink sink) throws IOException {
+        count = Math.min(count, elementCount);
+        if(elementsInflated < count && inflater == null && compressed != null) {
+            inflater = inflaters.acquire();
+            inflater.setInput(compressed);
+        }
+        if(elementsInflated < count && inflater == null) {
+            throw new IOException("Deflated chunk has been disposed");
+        }
+        try {
+            while(elementsInflated < count) {
+                int n = inflater.inflate(window, carried, window.length - carried);
+                if(n == 0) {
+                    if(inflater.finished() || inflater.needsDictionary()) {
+                        elementsInflated = elementCount;
+                        break;
+                    }
+                    if(inflater.needsInput()) {
+                        throw new EOFException("Unexpected end of deflated chunk.");
+                    }
+                }
+                int available = carried + n;
+                int whole = Math.min(available / elementSize, elementCount - elementsInflated);
+                if(whole > 0) {
+                    sink.accept(ByteBuffer.wrap(window, 0, whole * elementSize), elementsInflated, whole);
+                    elementsInflated += whole;
+                }
+                carried = available - whole * elementSize;
+                if(elementsInflated == elementCount) {
+                    break;
+                }
+                System.arraycopy(window, whole * elementSize, window, 0, carried);
+            }
+        } catch (DataFormatException e) {
+            dispose();
+            throw new IOException(e);
+        } catch (IOException e) {
+            dispose();
+            throw e;
+        }
+        if(elementsInflated == elementCount) {
+            dispose();
+        }
+        return elementsInflated;
+    }
+
+    /**
+     * Returns the inflater to its pool and drops the compressed data. No further elements can be inflated.
+     */
+    void dispose() {
+        if(inflater != null) {
+            inflaters.release(inflater);
+            inflater = null;
+        }
+        compressed = null;
+        window = null;
+    }
+}
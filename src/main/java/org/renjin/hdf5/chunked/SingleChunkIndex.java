@@ -0,0 +1,51 @@
+package org.renjin.hdf5.chunked;
+
+import org.renjin.hdf5.Hdf5Data;
+import org.renjin.hdf5.Hdf5File;
+import org.renjin.hdf5.message.DataLayoutMessage;
+import org.renjin.hdf5.message.DataspaceMessage;
+import org.renjin.repackaged.guava.primitives.Ints;
+
+import java.io.IOException;
+
+/**
+ * The index of a dataset stored in a single chunk, which spans the whole dataset.
+ *
+ * <p>The layout message holds the address of the chunk, and its size and filter mask if it is filtered, so
+ * there is no index structure to read.</p>
+ */
+public class SingleChunkIndex extends ChunkIndex {
+
+    private final long address;
+    private final int size;
+    private final int filterMask;
+
+    public SingleChunkIndex(Hdf5Data file, DataspaceMessage dataspace, DataLayoutMessage layout,
+                            ChunkDecoder decoder) throws IOException {
+        this(file, dimensionSize(dataspace), layout.getChunkSize(), layout.getChunkIndexAddress(),
+            Ints.checkedCast(chunkSize(layout)), layout.getSingleChunkFilterMask(), decoder);
+    }
+
+    SingleChunkIndex(Hdf5Data file, long[] dimensionSize, int[] chunkSize, long address, int size, int filterMask,
+                     ChunkDecoder decoder) {
+        super(file, dimensionSize, chunkSize, decoder);
+        this.address = address;
+        this.size = size;
+        this.filterMask = filterMask;
+    }
+
+    private static long chunkSize(DataLayoutMessage layout) {
+        if(layout.getSingleChunkFilteredSize() != -1) {
+            return layout.getSingleChunkFilteredSize();
+        }
+        return layout.getChunkElementCount() * layout.getDatasetElementSize();
+    }
+
+    @Override
+    protected ChunkLocation locate(long[] chunkOffset) throws IOException {
+        if(address == Hdf5File.UNDEFINED_ADDRESS) {
+            return null;
+        }
+        return new ChunkLocation(chunkOffset, address, size, filterMask);
+    }
+}
@@ -0,0 +1,34 @@
+package org.renjin.hdf5.chunked;
+
+import org.renjin.hdf5.Hdf5Data;
+import org.renjin.hdf5.message.DataLayoutMessage;
+import org.renjin.hdf5.message.DataspaceMessage;
+
+import java.io.IOException;
+
+/**
+ * Locates chunks through a {@link ChunkTable} which has already been read, for example from a
+ * {@link org.renjin.hdf5.SidecarIndex}, without reading the dataset's own chunk index.
+ */
+public class TableChunkIndex extends ChunkIndex {
+
+    private final ChunkTable table;
+
+    public TableChunkIndex(Hdf5Data file, DataspaceMessage dataspace, DataLayoutMessage layout,
+                           ChunkTable table, ChunkDecoder decoder) throws IOException {
+        super(file, dimensionSize(dataspace), layout.getChunkSize(), decoder);
+        if(!table.hasShape(layout.getChunkSize(), getGridSize())) {
+            throw new IOException("Chunk table does not match the layout of the dataset");
+        }
+        this.table = table;
+    }
+
+    @Override
+    protected ChunkLocation locate(long[] chunkOffset) throws IOException {
+        int i = table.find(chunkOffset);
+        if(i < 0) {
+            return null;
+        }
+        return new ChunkLocation(chunkOffset, table.getAddress(i), table.getSize(i), table.getFilterMask(i));
+    }
+}
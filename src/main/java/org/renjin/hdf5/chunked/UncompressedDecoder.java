@@ -1,26 +1,27 @@
 package org.renjin.hdf5.chunked;
 
-import org.renjin.hdf5.Hdf5Data;
-import org.renjin.hdf5.Hdf5File;
-
 import java.io.IOException;
-import java.nio.MappedByteBuffer;
-import java.nio.channels.FileChannel;
-import java.util.zip.DataFormatException;
+import java.nio.ByteBuffer;
 
 public class UncompressedDecoder implements ChunkDecoder {
 
-  private final Hdf5Data file;
   private final ChunkFactory factory;
 
-  public UncompressedDecoder(Hdf5Data file, ChunkFactory factory) {
-    this.file = file;
+  public UncompressedDecoder(ChunkFactory factory) {
     this.factory = factory;
   }
 
   @Override
-  public Chunk read(long[] chunkOffset, long address, int size) throws IOException {
-    MappedByteBuffer buffer = file.map(FileChannel.MapMode.READ_ONLY, address, size);
-    return factory.wrap(chunkOffset, buffer);
+  public Chunk decode(ChunkLocation location, ByteBuffer buffer) throws IOException {
+    ChunkStore store = ChunkStore.getShared();
+    if(store == ChunkStore.HEAP) {
+      // Converted straight from the storage's buffer into an array
+      return factory.wrap(location.getChunkOffset(), buffer);
+    }
+
+    // Move the chunk into the off-heap store, rather than keeping a view of the storage's buffer
+    ChunkStore.Allocation allocation = store.allocate(buffer.remaining());
+    allocation.getBuffer().duplicate().put(buffer.duplicate());
+    return factory.wrap(location.getChunkOffset(), allocation);
   }
 }
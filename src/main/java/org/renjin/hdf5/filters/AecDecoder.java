@@ -0,0 +1,393 @@
+package org.renjin.hdf5.filters;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Decodes Adaptive Entropy Coding (CCSDS 121.0-B) streams, as written by libaec and the SZIP library.
+ *
+ * <p>The stream is a sequence of coded blocks of {@code blockSize} samples. Each block starts with an option
+ * identifier which selects one of: a run of zero blocks, the second extension (pairs of small values coded
+ * together), a Rice code splitting each value into a unary high part and {@code k} low bits, or uncompressed
+ * samples. Blocks are grouped into reference sample intervals (RSIs) of {@code rsi} blocks. With
+ * preprocessing, the first sample of each interval is stored verbatim, and the remaining samples are mapped
+ * differences from the previous sample.</p>
+ *
+ * <p>Instances hold a buffer for one interval and are not thread safe. They allocate nothing while
+ * decoding.</p>
+ */
+public final class AecDecoder {
+
+    public static final int DATA_SIGNED = 1;
+    public static final int DATA_3BYTE = 2;
+    public static final int DATA_MSB = 4;
+    public static final int DATA_PREPROCESS = 8;
+    public static final int RESTRICTED = 16;
+    public static final int PAD_RSI = 32;
+
+    /**
+     * The number of blocks in a segment, the unit of the "remainder of segment" zero block run.
+     */
+    private static final int SEGMENT_BLOCKS = 64;
+
+    /**
+     * The zero block count which stands for the remainder of the segment.
+     */
+    private static final int ROS = 5;
+
+    /**
+     * The second extension codes pairs of values whose sum is less than this.
+     */
+    private static final int SE_SUMS = 13;
+
+    private static final int[] SE_SUM;
+    private static final int[] SE_FIRST;
+
+    static {
+        int size = SE_SUMS * (SE_SUMS + 1) / 2;
+        SE_SUM = new int[size];
+        SE_FIRST = new int[size];
+        int m = 0;
+        for (int sum = 0; sum < SE_SUMS; sum++) {
+            int first = m;
+            for (int j = 0; j <= sum; j++) {
+                SE_SUM[m] = sum;
+                SE_FIRST[m] = first;
+                m++;
+            }
+        }
+    }
+
+    private final int bitsPerSample;
+    private final int blockSize;
+    private final int rsi;
+    private final int flags;
+
+    private final int idLength;
+    private final int uncompressedId;
+    private final int sampleBytes;
+    private final long minValue;
+    private final long maxValue;
+
+    private final int[] rsiBuffer;
+
+    private byte[] input;
+    private int inputPosition;
+    private int inputEnd;
+    /**
+     * The next {@code bitCount} bits of the stream, aligned to the most significant bit.
+     */
+    private long bits;
+    private int bitCount;
+    private boolean exhausted;
+
+    public AecDecoder(int bitsPerSample, int blockSize, int rsi, int flags) {
+        if(bitsPerSample < 1 || bitsPerSample > 32) {
+            throw new IllegalArgumentException("bitsPerSample: " + bitsPerSample);
+        }
+        if(blockSize != 8 && blockSize != 16 && blockSize != 32 && blockSize != 64) {
+            throw new IllegalArgumentException("blockSize: " + blockSize);
+        }
+        if(rsi < 1 || rsi > 4096) {
+            throw new IllegalArgumentException("rsi: " + rsi);
+        }
+        this.bitsPerSample = bitsPerSample;
+        this.blockSize = blockSize;
+        this.rsi = rsi;
+        this.flags = flags;
+
+        if(bitsPerSample > 16) {
+            idLength = 5;
+            sampleBytes = (bitsPerSample <= 24 && (flags & DATA_3BYTE) != 0) ? 3 : 4;
+        } else if(bitsPerSample > 8) {
+            idLength = 4;
+            sampleBytes = 2;
+        } else {
+            if((flags & RESTRICTED) != 0 && bitsPerSample <= 4) {
+                idLength = bitsPerSample <= 2 ? 1 : 2;
+            } else {
+                idLength = 3;
+            }
+            sampleBytes = 1;
+        }
+        uncompressedId = (1 << idLength) - 1;
+
+        if((flags & DATA_SIGNED) != 0) {
+            minValue = -(1L << (bitsPerSample - 1));
+            maxValue = (1L << (bitsPerSample - 1)) - 1;
+        } else {
+            minValue = 0;
+            maxValue = (1L << bitsPerSample) - 1;
+        }
+
+        rsiBuffer = new int[rsi * blockSize];
+    }
+
+    /**
+     * @return the number of bytes used to write each decoded sample.
+     */
+    public int getSampleBytes() {
+        return sampleBytes;
+    }
+
+    /**
+     * Decodes the stream in {@code in[offset, offset + length)} into {@code out}, stopping when {@code maxBytes}
+     * have been written or the stream ends.
+     *
+     * @return the number of bytes written to {@code out}
+     */
+    public int decode(byte[] in, int offset, int length, byte[] out, int outOffset, int maxBytes) throws IOException {
+        input = in;
+        inputPosition = offset;
+        inputEnd = offset + length;
+        bits = 0;
+        bitCount = 0;
+        exhausted = false;
+
+        boolean preprocess = (flags & DATA_PREPROCESS) != 0;
+        int rsiSize = rsi * blockSize;
+        int maxSamples = maxBytes / sampleBytes;
+        int samples = 0;
+        int outPosition = outOffset;
+
+        try {
+            while(samples < maxSamples && !exhausted) {
+                int used = 0;
+                boolean reference = preprocess;
+                while(used < rsiSize && samples + used < maxSamples) {
+                    int next = decodeBlock(used, reference);
+                    if(exhausted) {
+                        break;
+                    }
+                    used = next;
+                    reference = false;
+                }
+                int count = Math.min(used, maxSamples - samples);
+                if(preprocess) {
+                    postprocess(count);
+                }
+                outPosition = writeSamples(count, out, outPosition);
+                samples += count;
+
+                if((flags & PAD_RSI) != 0) {
+                    int padding = bitCount % 8;
+                    bits <<= padding;
+                    bitCount -= padding;
+                }
+            }
+        } finally {
+            input = null;
+        }
+        return outPosition - outOffset;
+    }
+
+    /**
+     * Decodes one coded block into the interval buffer, starting at {@code position}.
+     *
+     * @return the position in the interval buffer following the block.
+     */
+    private int decodeBlock(int position, boolean reference) throws IOException {
+        int[] buffer = rsiBuffer;
+        int pos = position;
+        int id = readBits(idLength);
+
+        if(id == 0) {
+            boolean secondExtension = readBits(1) == 1;
+            if(reference) {
+                buffer[pos++] = readBits(bitsPerSample);
+            }
+            if(secondExtension) {
+                int i = reference ? 1 : 0;
+                while(i < blockSize) {
+                    int m = readFundamentalSequence();
+                    if(m >= SE_SUM.length) {
+                        throw new IOException("Invalid second extension code: " + m);
+                    }
+                    int second = m - SE_FIRST[m];
+                    if((i & 1) == 0) {
+                        buffer[pos++] = SE_SUM[m] - second;
+                        i++;
+                    }
+                    buffer[pos++] = second;
+                    i++;
+                }
+            } else {
+                int zeroBlocks = readFundamentalSequence() + 1;
+                if(zeroBlocks == ROS) {
+                    int block = pos / blockSize;
+                    zeroBlocks = Math.min(rsi - block, SEGMENT_BLOCKS - (block % SEGMENT_BLOCKS));
+                } else if(zeroBlocks > ROS) {
+                    zeroBlocks--;
+                }
+                int count = zeroBlocks * blockSize - (reference ? 1 : 0);
+                if(exhausted) {
+                    return pos;
+                }
+                if(pos + count > buffer.length) {
+                    throw new IOException("Zero block run extends past the reference sample interval");
+                }
+                Arrays.fill(buffer, pos, pos + count, 0);
+                pos += count;
+            }
+
+        } else if(id == uncompressedId) {
+            for (int i = 0; i < blockSize; i++) {
+                buffer[pos++] = readBits(bitsPerSample);
+            }
+
+        } else {
+            int k = id - 1;
+            if(reference) {
+                buffer[pos++] = readBits(bitsPerSample);
+            }
+            int start = pos;
+            int end = position + blockSize;
+            while(pos < end) {
+                buffer[pos++] = readFundamentalSequence() << k;
+            }
+            if(k > 0) {
+                for (int i = start; i < end; i++) {
+                    buffer[i] |= readBits(k);
+                }
+            }
+        }
+        return pos;
+    }
+
+    /**
+     * Reverses the preprocessor in place, which replaces each sample after the reference with the difference
+     * from its predecessor, mapped onto the non-negative integers within the range of a sample.
+     */
+    private void postprocess(int count) {
+        if(count == 0) {
+            return;
+        }
+        int[] buffer = rsiBuffer;
+        if(minValue == 0 && bitsPerSample < 32) {
+            // Unsigned samples: theta is the distance to the nearer end of the range, which is the upper end
+            // when the high bit of the previous value is set.
+            int highBit = 1 << (bitsPerSample - 1);
+            int max = (int) maxValue;
+            int value = buffer[0];
+            for (int i = 1; i < count; i++) {
+                int mapped = buffer[i];
+                int half = (mapped >>> 1) + (mapped & 1);
+                int nearerEnd = (value & highBit) != 0 ? max : 0;
+                if(half <= (nearerEnd ^ value)) {
+                    value += (mapped & 1) == 0 ? half : -half;
+                } else {
+                    value = nearerEnd ^ mapped;
+                }
+                buffer[i] = value;
+            }
+            return;
+        }
+
+        long value = buffer[0] & 0xFFFFFFFFL;
+        if(minValue < 0) {
+            value = (value << (64 - bitsPerSample)) >> (64 - bitsPerSample);
+            buffer[0] = (int) value;
+        }
+        for (int i = 1; i < count; i++) {
+            long mapped = buffer[i] & 0xFFFFFFFFL;
+            long belowRange = value - minValue;
+            long aboveRange = maxValue - value;
+            long theta = Math.min(belowRange, aboveRange);
+            if(mapped <= 2 * theta) {
+                if((mapped & 1) == 0) {
+                    value += mapped >>> 1;
+                } else {
+                    value -= (mapped + 1) >>> 1;
+                }
+            } else if(theta == belowRange) {
+                value = minValue + mapped;
+            } else {
+                value = maxValue - mapped;
+            }
+            buffer[i] = (int) value;
+        }
+    }
+
+    private int writeSamples(int count, byte[] out, int outPosition) {
+        int[] buffer = rsiBuffer;
+        int pos = outPosition;
+        boolean msb = (flags & DATA_MSB) != 0;
+        switch (sampleBytes) {
+            case 1:
+                for (int i = 0; i < count; i++) {
+                    out[pos++] = (byte) buffer[i];
+                }
+                break;
+            case 2:
+                for (int i = 0; i < count; i++) {
+                    int value = buffer[i];
+                    out[pos++] = (byte) (msb ? value >>> 8 : value);
+                    out[pos++] = (byte) (msb ? value : value >>> 8);
+                }
+                break;
+            default:
+                for (int i = 0; i < count; i++) {
+                    int value = buffer[i];
+                    for (int b = 0; b < sampleBytes; b++) {
+                        int shift = msb ? 8 * (sampleBytes - 1 - b) : 8 * b;
+                        out[pos++] = (byte) (value >>> shift);
+                    }
+                }
+                break;
+        }
+        return pos;
+    }
+
+    /**
+     * Tops up the bit window with whole bytes, holding at least 57 bits while input remains.
+     */
+    private void fill() {
+        while(bitCount <= 56 && inputPosition < inputEnd) {
+            bits |= (input[inputPosition++] & 0xFFL) << (56 - bitCount);
+            bitCount += 8;
+        }
+    }
+
+    /**
+     * Reads the next {@code n} bits, most significant first, where {@code n} is between 1 and 32. At the end of
+     * the stream, sets {@link #exhausted} and returns zero.
+     */
+    private int readBits(int n) {
+        if(bitCount < n) {
+            fill();
+            if(bitCount < n) {
+                exhausted = true;
+                bitCount = 0;
+                return 0;
+            }
+        }
+        int value = (int) (bits >>> (64 - n));
+        bits <<= n;
+        bitCount -= n;
+        return value;
+    }
+
+    /**
+     * Reads a fundamental sequence code: the number of zero bits preceding the next one bit.
+     */
+    private int readFundamentalSequence() {
+        int count = 0;
+        while(true) {
+            int zeros = Long.numberOfLeadingZeros(bits);
+            if(zeros < bitCount) {
+                bits <<= zeros;
+                bits <<= 1;
+                bitCount -= zeros + 1;
+                return count + zeros;
+            }
+            count += bitCount;
+            bits = 0;
+            bitCount = 0;
+            fill();
+            if(bitCount == 0) {
+                exhausted = true;
+                return 0;
+            }
+        }
+    }
+}
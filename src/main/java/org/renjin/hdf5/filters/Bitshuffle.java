@@ -0,0 +1,72 @@
+package org.renjin.hdf5.filters;
+
+/**
+ * Reverses the bit transposition applied by the Bitshuffle filter.
+ *
+ * <p>Where the shuffle filter groups the bytes of each element, bitshuffle groups their bits: a block of
+ * {@code n} elements is stored as a row of {@code n / 8} bytes holding the lowest bit of the first byte of
+ * every element, then a row holding the next bit, and so on through every bit of every byte. Element
+ * {@code i} is bit {@code i % 8} of byte {@code i / 8} in each row.</p>
+ *
+ * <p>The eight rows for one byte of eight consecutive elements form an 8 x 8 bit matrix, which is gathered
+ * into a {@code long} and transposed with a few shifts and masks rather than moved bit by bit.</p>
+ */
+public final class Bitshuffle {
+
+    /**
+     * Blocks always hold a multiple of this many elements.
+     */
+    public static final int BLOCKED_MULT = 8;
+
+    private static final int TARGET_BLOCK_SIZE_BYTES = 8192;
+    private static final int MIN_RECOMMENDED_BLOCK = 128;
+
+    private Bitshuffle() {
+    }
+
+    /**
+     * The number of elements per block used when the writer did not choose one, which must match
+     * the Bitshuffle library exactly.
+     */
+    public static int defaultBlockSize(int elementSize) {
+        int blockSize = TARGET_BLOCK_SIZE_BYTES / elementSize;
+        blockSize = (blockSize / BLOCKED_MULT) * BLOCKED_MULT;
+        return Math.max(blockSize, MIN_RECOMMENDED_BLOCK);
+    }
+
+    /**
+     * Untransposes a block of {@code count} elements, a multiple of eight, from {@code src} into {@code dest}.
+     */
+    public static void untranspose(byte[] src, int srcOffset, byte[] dest, int destOffset, int count, int elementSize) {
+        int rowLength = count / BLOCKED_MULT;
+        for (int b = 0; b < elementSize; b++) {
+            int rows = srcOffset + b * BLOCKED_MULT * rowLength;
+            for (int g = 0; g < rowLength; g++) {
+                long x = 0;
+                for (int k = 0; k < 8; k++) {
+                    x |= (src[rows + k * rowLength + g] & 0xFFL) << (8 * k);
+                }
+                x = transpose8x8(x);
+                int d = destOffset + 8 * g * elementSize + b;
+                for (int m = 0; m < 8; m++) {
+                    dest[d] = (byte) (x >>> (8 * m));
+                    d += elementSize;
+                }
+            }
+        }
+    }
+
+    /**
+     * Transposes the 8 x 8 bit matrix whose rows are the bytes of {@code x}, so that bit {@code k} of
+     * byte {@code m} becomes bit {@code m} of byte {@code k}.
+     */
+    static long transpose8x8(long x) {
+        long t = (x ^ (x >>> 7)) & 0x00AA00AA00AA00AAL;
+        x = x ^ t ^ (t << 7);
+        t = (x ^ (x >>> 14)) & 0x0000CCCC0000CCCCL;
+        x = x ^ t ^ (t << 14);
+        t = (x ^ (x >>> 28)) & 0x00000000F0F0F0F0L;
+        x = x ^ t ^ (t << 28);
+        return x;
+    }
+}
@@ -0,0 +1,159 @@
+package org.renjin.hdf5.filters;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Reverses the Bitshuffle filter (registered as filter 32008), which transposes the bits of each block of
+ * elements, optionally followed by LZ4 compression of each block.
+ *
+ * <p>Without compression the chunk is a series of bit-transposed blocks. With LZ4, the chunk starts with
+ * its decompressed size, as a big-endian 64-bit integer, and the block size in bytes, as a big-endian 32-bit
+ * integer, and each block is preceded by its compressed size. In both cases the elements left over after the
+ * last multiple of eight are stored as they are.</p>
+ *
+ * <p>Blocks compressed with Zstd are not supported here, but can be read by registering a
+ * {@link FilterProvider} for this filter that takes precedence.</p>
+ */
+public class BitshuffleFilter implements FilterStage {
+
+    public static final int FILTER_ID = 32008;
+
+    public static final int COMPRESS_NONE = 0;
+    public static final int COMPRESS_LZ4 = 2;
+    public static final int COMPRESS_ZSTD = 3;
+
+    private static final int HEADER_SIZE = 12;
+
+    private final int elementSize;
+    private final int blockSize;
+    private final boolean lz4;
+
+    /**
+     * @param clientData the filter's client data: the major and minor version of the filter, the element size,
+     *                   the block size in elements, or zero for the default, and the compression.
+     * @param elementSize the size of the dataset's elements, used when the client data does not record it.
+     */
+    public BitshuffleFilter(int[] clientData, int elementSize) {
+        if(clientData != null && clientData.length > 2 && clientData[2] > 0) {
+            elementSize = clientData[2];
+        }
+        if(elementSize <= 0) {
+            throw new IllegalArgumentException("Bitshuffle filter requires an element size");
+        }
+        this.elementSize = elementSize;
+        this.blockSize = clientData != null && clientData.length > 3 ? clientData[3] : 0;
+
+        int compression = clientData != null && clientData.length > 4 ? clientData[4] : COMPRESS_NONE;
+        if(compression == COMPRESS_ZSTD) {
+            throw new UnsupportedOperationException("Bitshuffle filter with Zstd compression");
+        } else if(compression != COMPRESS_NONE && compression != COMPRESS_LZ4) {
+            throw new UnsupportedOperationException("Bitshuffle compression: " + compression);
+        }
+        this.lz4 = compression == COMPRESS_LZ4;
+    }
+
+    @Override
+    public ByteBuffer decode(ByteBuffer input, FilterContext context) throws IOException {
+        int size = input.remaining();
+
+        byte[] src;
+        int srcOffset;
+        if(input.hasArray()) {
+            src = input.array();
+            srcOffset = input.arrayOffset() + input.position();
+        } else {
+            src = context.scratch(0, size);
+            srcOffset = 0;
+            input.duplicate().get(src, 0, size);
+        }
+
+        int position = srcOffset;
+        int end = srcOffset + size;
+        int totalSize;
+        int blockElements;
+        if(lz4) {
+            if(size < HEADER_SIZE) {
+                throw new IOException("Bitshuffle chunk too small to hold its header");
+            }
+            ByteBuffer header = ByteBuffer.wrap(src, srcOffset, HEADER_SIZE).order(ByteOrder.BIG_ENDIAN);
+            long decompressedSize = header.getLong();
+            if(decompressedSize < 0 || decompressedSize > Integer.MAX_VALUE) {
+                throw new IOException("Invalid Bitshuffle chunk size: " + decompressedSize);
+            }
+            totalSize = (int) decompressedSize;
+            blockElements = header.getInt() / elementSize;
+            position += HEADER_SIZE;
+        } else {
+            totalSize = size;
+            blockElements = blockSize == 0 ? Bitshuffle.defaultBlockSize(elementSize) : blockSize;
+        }
+        if(totalSize % elementSize != 0) {
+            throw new IOException("Bitshuffle chunk of " + totalSize + " bytes is not a whole number of elements");
+        }
+        if(blockElements <= 0 || blockElements % Bitshuffle.BLOCKED_MULT != 0) {
+            throw new IOException("Invalid Bitshuffle block size: " + blockElements);
+        }
+
+        ByteBuffer output = context.allocate(totalSize);
+        byte[] dest;
+        int destOffset;
+        if(output.hasArray()) {
+            dest = output.array();
+            destOffset = output.arrayOffset() + output.position();
+        } else {
+            dest = context.scratch(1, totalSize);
+            destOffset = 0;
+        }
+        byte[] block = lz4 ? context.scratch(2, blockElements * elementSize) : null;
+
+        int elementCount = totalSize / elementSize;
+        int lastBlockElements = elementCount % blockElements;
+        lastBlockElements -= lastBlockElements % Bitshuffle.BLOCKED_MULT;
+        int fullBlocks = elementCount / blockElements;
+
+        int written = 0;
+        for (int i = 0; i <= fullBlocks; i++) {
+            int count = i < fullBlocks ? blockElements : lastBlockElements;
+            if(count == 0) {
+                break;
+            }
+            int blockBytes = count * elementSize;
+            if(lz4) {
+                if(end - position < 4) {
+                    throw new IOException("Truncated Bitshuffle chunk");
+                }
+                int compressedLength = Lz4Filter.readBigEndianInt(src, position);
+                position += 4;
+                if(compressedLength < 0 || compressedLength > end - position) {
+                    throw new IOException("Invalid Bitshuffle block size: " + compressedLength);
+                }
+                int n = Lz4.decompress(src, position, compressedLength, block, 0, blockBytes);
+                if(n != blockBytes) {
+                    throw new IOException("Bitshuffle block decompressed to " + n + " bytes, expected " + blockBytes);
+                }
+                Bitshuffle.untranspose(block, 0, dest, destOffset + written, count, elementSize);
+                position += compressedLength;
+            } else {
+                if(end - position < blockBytes) {
+                    throw new IOException("Truncated Bitshuffle chunk");
+                }
+                Bitshuffle.untranspose(src, position, dest, destOffset + written, count, elementSize);
+                position += blockBytes;
+            }
+            written += blockBytes;
+        }
+
+        int leftover = totalSize - written;
+        if(leftover > end - position) {
+            throw new IOException("Truncated Bitshuffle chunk");
+        }
+        System.arraycopy(src, position, dest, destOffset + written, leftover);
+
+        if(!output.hasArray()) {
+            output.duplicate().put(dest, 0, totalSize);
+        }
+        return output;
+    }
+}
@@ -0,0 +1,20 @@
+package org.renjin.hdf5.filters;
+
+import org.renjin.hdf5.message.DatatypeMessage;
+import org.renjin.hdf5.message.Filter;
+
+/**
+ * Provides the bundled {@link BitshuffleFilter}.
+ */
+public class BitshuffleFilterProvider implements FilterProvider {
+
+    @Override
+    public int getFilterId() {
+        return BitshuffleFilter.FILTER_ID;
+    }
+
+    @Override
+    public FilterStage create(Filter filter, DatatypeMessage datatype, int chunkSizeBytes) {
+        return new BitshuffleFilter(filter.getClientData(), datatype.getSize());
+    }
+}
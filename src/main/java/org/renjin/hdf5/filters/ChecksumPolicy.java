@@ -0,0 +1,109 @@
+package org.renjin.hdf5.filters;
+
+import java.util.Arrays;
+
+/**
+ * Controls how much of a file's chunk checksums are verified when chunks are decoded.
+ *
+ * <p>Verifying every checksum guards against corrupt files, but costs a pass over each chunk. Jobs that
+ * trust their input can sample a fraction of chunks, or skip verification and only strip the checksums.</p>
+ */
+public final class ChecksumPolicy {
+
+    public enum Mode {
+        VERIFY,
+        SAMPLE,
+        SKIP
+    }
+
+    public static final ChecksumPolicy VERIFY = new ChecksumPolicy(Mode.VERIFY, 1);
+
+    public static final ChecksumPolicy SKIP = new ChecksumPolicy(Mode.SKIP, 0);
+
+    private final Mode mode;
+    private final int interval;
+
+    private ChecksumPolicy(Mode mode, int interval) {
+        this.mode = mode;
+        this.interval = interval;
+    }
+
+    /**
+     * Verifies the checksum of every {@code interval}-th chunk decoded.
+     */
+    public static ChecksumPolicy sampled(int interval) {
+        if(interval < 1) {
+            throw new IllegalArgumentException("interval must be at least 1");
+        }
+        if(interval == 1) {
+            return VERIFY;
+        }
+        return new ChecksumPolicy(Mode.SAMPLE, interval);
+    }
+
+    /**
+     * Finds a policy by its case-insensitive mode name: "verify", "sample", or "skip".
+     *
+     * @param interval the sampling interval, used only by the "sample" mode.
+     */
+    public static ChecksumPolicy fromName(String name, int interval) {
+        for (Mode mode : Mode.values()) {
+            if(mode.name().equalsIgnoreCase(name)) {
+                switch (mode) {
+                    case VERIFY:
+                        return VERIFY;
+                    case SKIP:
+                        return SKIP;
+                    default:
+                        return sampled(interval);
+                }
+            }
+        }
+        throw new IllegalArgumentException("Unknown checksum mode: '" + name + "'. Expected one of " +
+            Arrays.toString(Mode.values()));
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    /**
+     * @return the number of chunks decoded per checksum verified, or zero if checksums are never verified.
+     */
+    public int getInterval() {
+        return interval;
+    }
+
+    /**
+     * @param sequence the number of chunks decoded before this one
+     * @return true if the checksum of this chunk should be verified.
+     */
+    public boolean shouldVerify(long sequence) {
+        return interval != 0 && sequence % interval == 0;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if(this == o) {
+            return true;
+        }
+        if(!(o instanceof ChecksumPolicy)) {
+            return false;
+        }
+        ChecksumPolicy that = (ChecksumPolicy) o;
+        return mode == that.mode && interval == that.interval;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * mode.hashCode() + interval;
+    }
+
+    @Override
+    public String toString() {
+        if(mode == Mode.SAMPLE) {
+            return "SAMPLE(1/" + interval + ")";
+        }
+        return mode.name();
+    }
+}
@@ -0,0 +1,85 @@
+package org.renjin.hdf5.filters;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reverses the deflate (gzip) filter, using pooled {@link Inflater}s.
+ */
+public class DeflateFilter implements FilterStage {
+
+    private final InflaterPool inflaters = InflaterPool.getShared();
+
+    /**
+     * The expected size of the inflated data.
+     */
+    private final int inflatedSize;
+
+    public DeflateFilter(int inflatedSize) {
+        this.inflatedSize = inflatedSize;
+    }
+
+    @Override
+    public ByteBuffer decode(ByteBuffer input, FilterContext context) throws IOException {
+
+        ByteBuffer output = context.allocate(inflatedSize);
+
+        // The Inflater only works with arrays, so stage the input and output through
+        // scratch arrays if they are held in direct buffers.
+        Inflater inf = inflaters.acquire();
+        try {
+            int size = input.remaining();
+            if (input.hasArray()) {
+                inf.setInput(input.array(), input.arrayOffset() + input.position(), size);
+            } else {
+                byte[] staged = context.scratch(0, size);
+                input.duplicate().get(staged, 0, size);
+                inf.setInput(staged, 0, size);
+            }
+
+            int inflated;
+            if (output.hasArray()) {
+                inflated = inflate(inf, output.array(), output.arrayOffset() + output.position());
+            } else {
+                byte[] staged = context.scratch(1, inflatedSize);
+                inflated = inflate(inf, staged, 0);
+                output.duplicate().put(staged, 0, inflated);
+            }
+            output.limit(output.position() + inflated);
+            return output;
+
+        } finally {
+            inflaters.release(inf);
+        }
+    }
+
+    /**
+     * Inflates up to {@code inflatedSize} bytes into {@code buffer}, starting at {@code offset}.
+     *
+     * @return the number of bytes inflated
+     */
+    private int inflate(Inflater inf, byte[] buffer, int offset) throws IOException {
+        int off = offset;
+        int end = offset + inflatedSize;
+        try {
+            while (off < end) {
+                int n = inf.inflate(buffer, off, end - off);
+                if (n == 0) {
+                    if (inf.finished() || inf.needsDictionary()) {
+                        break;
+                    }
+                    if (inf.needsInput()) {
+                        throw new EOFException("Unexpected end of deflated chunk.");
+                    }
+                }
+                off += n;
+            }
+        } catch (DataFormatException e) {
+            throw new IOException(e);
+        }
+        return off - offset;
+    }
+}
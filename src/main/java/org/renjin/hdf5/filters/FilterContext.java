@@ -0,0 +1,162 @@
+package org.renjin.hdf5.filters;
+
+import org.renjin.hdf5.chunked.ChunkLocation;
+import org.renjin.hdf5.chunked.ChunkStore;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * Buffers used while running a chunk through a filter pipeline.
+ *
+ * <p>Each stage writes its output into a buffer from {@link #allocate(int)}. Intermediate stages alternate
+ * between two pooled arrays, so that a stage never overwrites its own input. The last stage that produces
+ * output of the decoded chunk's size writes straight into memory allocated from the {@link ChunkStore}, so
+ * that the decoded chunk is never copied.</p>
+ *
+ * <p>Contexts, along with their arrays, are pooled and reused between chunks.</p>
+ */
+public final class FilterContext {
+
+    /**
+     * Arrays larger than this are dropped rather than kept with a pooled context.
+     */
+    private static final int MAX_RETAINED_ARRAY = 4 * 1024 * 1024;
+
+    private static final byte[] EMPTY = new byte[0];
+
+    private static final ArrayBlockingQueue<FilterContext> POOL =
+        new ArrayBlockingQueue<>(2 * Runtime.getRuntime().availableProcessors());
+
+    private final byte[][] intermediate = { EMPTY, EMPTY };
+    private int nextIntermediate;
+
+    private final byte[][] scratch = { EMPTY, EMPTY, EMPTY };
+
+    private ChunkStore store;
+    private ChunkLocation location;
+    private int chunkSizeBytes;
+    private boolean lastStage;
+    private ChunkStore.Allocation allocation;
+    private ByteBuffer allocationView;
+
+    private FilterContext() {
+    }
+
+    /**
+     * Borrows a context for decoding the chunk at {@code location}, which must be returned with {@link #release()}.
+     */
+    public static FilterContext acquire(ChunkStore store, ChunkLocation location, int chunkSizeBytes) {
+        FilterContext context = POOL.poll();
+        if(context == null) {
+            context = new FilterContext();
+        }
+        context.store = store;
+        context.location = location;
+        context.chunkSizeBytes = chunkSizeBytes;
+        return context;
+    }
+
+    /**
+     * Returns this context to the pool, freeing any allocation which has not been taken.
+     */
+    public void release() {
+        if(allocation != null) {
+            allocation.free();
+            allocation = null;
+        }
+        allocationView = null;
+        for (int i = 0; i < intermediate.length; i++) {
+            if(intermediate[i].length > MAX_RETAINED_ARRAY) {
+                intermediate[i] = EMPTY;
+            }
+        }
+        for (int i = 0; i < scratch.length; i++) {
+            if(scratch[i].length > MAX_RETAINED_ARRAY) {
+                scratch[i] = EMPTY;
+            }
+        }
+        store = null;
+        location = null;
+        lastStage = false;
+        nextIntermediate = 0;
+        POOL.offer(this);
+    }
+
+    /**
+     * @return the location of the chunk being decoded.
+     */
+    public ChunkLocation getLocation() {
+        return location;
+    }
+
+    /**
+     * @return the size, in bytes, of the fully decoded chunk.
+     */
+    public int getChunkSizeBytes() {
+        return chunkSizeBytes;
+    }
+
+    /**
+     * Marks whether the next stage is the last one to run.
+     */
+    public void setLastStage(boolean lastStage) {
+        this.lastStage = lastStage;
+    }
+
+    /**
+     * Provides a buffer of exactly {@code size} bytes for a stage's output. Each stage may call this at most once.
+     * The buffer may be on the heap or a direct buffer.
+     */
+    public ByteBuffer allocate(int size) {
+        if(lastStage && size == chunkSizeBytes && allocation == null) {
+            allocation = store.allocate(size);
+            allocationView = allocation.getBuffer().duplicate();
+            return allocationView;
+        }
+        int index = nextIntermediate;
+        nextIntermediate = 1 - nextIntermediate;
+        if(intermediate[index].length < size) {
+            intermediate[index] = new byte[size];
+        }
+        return ByteBuffer.wrap(intermediate[index], 0, size).slice();
+    }
+
+    /**
+     * Provides an array of at least {@code size} bytes for a stage's private use, such as staging data held in
+     * direct buffers. Three independent slots are available; their contents are not preserved between stages.
+     */
+    public byte[] scratch(int slot, int size) {
+        if(scratch[slot].length < size) {
+            scratch[slot] = new byte[size];
+        }
+        return scratch[slot];
+    }
+
+    /**
+     * Moves the output of the last stage into memory from the chunk store, unless it was already written there,
+     * and hands ownership of that memory to the caller. Output shorter than the chunk is padded with zeros.
+     */
+    public ChunkStore.Allocation finish(ByteBuffer output) {
+        ChunkStore.Allocation result = allocation;
+        allocation = null;
+        if(result == null || output != allocationView || output.remaining() != chunkSizeBytes) {
+            ChunkStore.Allocation copy = store.allocate(chunkSizeBytes);
+            ByteBuffer target = copy.getBuffer().duplicate();
+            ByteBuffer source = output.duplicate();
+            if(source.remaining() > chunkSizeBytes) {
+                source.limit(source.position() + chunkSizeBytes);
+            }
+            target.put(source);
+            while(target.hasRemaining()) {
+                target.put((byte) 0);
+            }
+            if(result != null) {
+                result.free();
+            }
+            result = copy;
+        }
+        allocationView = null;
+        return result;
+    }
+}
@@ -0,0 +1,32 @@
+package org.renjin.hdf5.filters;
+
+import org.renjin.hdf5.message.DatatypeMessage;
+import org.renjin.hdf5.message.Filter;
+
+/**
+ * Creates the decoding stage for a filter that is not built into the HDF5 library, such as the
+ * third-party compression filters registered with The HDF Group.
+ *
+ * <p>Providers are found with {@link java.util.ServiceLoader}: a jar makes its providers available by
+ * listing their class names in {@code META-INF/services/org.renjin.hdf5.filters.FilterProvider}. Each
+ * provider needs a public no-argument constructor.</p>
+ *
+ * @see FilterRegistry
+ */
+public interface FilterProvider {
+
+    /**
+     * @return the filter identifier, as registered with The HDF Group, which this provider decodes.
+     */
+    int getFilterId();
+
+    /**
+     * Creates a stage which reverses {@code filter} for one dataset. The stage may be used by several threads
+     * at once.
+     *
+     * @param filter the filter, with the client data recorded in the dataset's filter pipeline.
+     * @param datatype the dataset's element type.
+     * @param chunkSizeBytes the size, in bytes, of a fully decoded chunk.
+     */
+    FilterStage create(Filter filter, DatatypeMessage datatype, int chunkSizeBytes);
+}
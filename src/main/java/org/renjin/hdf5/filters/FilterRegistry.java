@@ -0,0 +1,172 @@
+package org.renjin.hdf5.filters;
+
+import org.renjin.hdf5.message.DatatypeMessage;
+import org.renjin.hdf5.message.Filter;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+
+/**
+ * Looks up {@link FilterProvider}s by filter identifier, for filters outside the HDF5 library.
+ *
+ * <p>The shared registry is populated with {@link ServiceLoader} from both this library's class loader and
+ * the thread's context class loader, which picks up providers from any other jar on the Renjin classpath.
+ * When a dataset uses a filter with no provider, the current context class loader is searched if it has not
+ * been already, so that providers from a class loader set up after the first dataset was opened are still
+ * found. Each class loader is only searched once.</p>
+ *
+ * <p>Providers bundled with this library give way to any other provider for the same filter, so that,
+ * for example, a native LZ4 binding can replace the pure Java decoder. Otherwise the first provider found for
+ * a filter is kept, and providers passed to {@link #register(FilterProvider)} are never replaced by those
+ * found later.</p>
+ */
+public final class FilterRegistry {
+
+    private static final String BUNDLED_PACKAGE = FilterRegistry.class.getPackage().getName();
+
+    private static volatile FilterRegistry shared;
+
+    private final ConcurrentHashMap<Integer, FilterProvider> providers = new ConcurrentHashMap<>();
+
+    private final Set<Integer> registered = Collections.newSetFromMap(new ConcurrentHashMap<Integer, Boolean>());
+
+    private final Set<ClassLoader> scannedLoaders =
+        Collections.synchronizedSet(Collections.newSetFromMap(new WeakHashMap<ClassLoader, Boolean>()));
+
+    private final Set<String> loadErrors = new CopyOnWriteArraySet<>();
+
+    /**
+     * Creates an empty registry.
+     */
+    public FilterRegistry() {
+    }
+
+    /**
+     * @return the registry used when opening datasets.
+     */
+    public static FilterRegistry getShared() {
+        if(shared == null) {
+            synchronized (FilterRegistry.class) {
+                if(shared == null) {
+                    FilterRegistry registry = new FilterRegistry();
+                    registry.loadProviders(FilterRegistry.class.getClassLoader());
+                    registry.loadProviders(Thread.currentThread().getContextClassLoader());
+                    shared = registry;
+                }
+            }
+        }
+        return shared;
+    }
+
+    /**
+     * Registers every provider listed in {@code META-INF/services} by jars visible to {@code classLoader}.
+     * Providers that fail to load are skipped, and reported if their filter is later needed.
+     */
+    public void loadProviders(ClassLoader classLoader) {
+        if(classLoader == null) {
+            return;
+        }
+        scannedLoaders.add(classLoader);
+        Iterator<FilterProvider> it = ServiceLoader.load(FilterProvider.class, classLoader).iterator();
+        while(true) {
+            FilterProvider provider;
+            try {
+                if(!it.hasNext()) {
+                    break;
+                }
+                provider = it.next();
+            } catch (ServiceConfigurationError e) {
+                loadErrors.add(e.getMessage());
+                continue;
+            }
+            add(provider);
+        }
+    }
+
+    /**
+     * Registers {@code provider} unless a provider for the same filter has already been registered or loaded,
+     * in which case it replaces the earlier provider only if that was bundled with this library.
+     */
+    private void add(FilterProvider provider) {
+        int filterId = provider.getFilterId();
+        if(registered.contains(filterId)) {
+            return;
+        }
+        FilterProvider existing = providers.putIfAbsent(filterId, provider);
+        if(existing != null && isBundled(existing) && !isBundled(provider)) {
+            providers.replace(filterId, existing, provider);
+        }
+    }
+
+    /**
+     * Registers {@code provider}, replacing any earlier provider for the same filter.
+     */
+    public void register(FilterProvider provider) {
+        registered.add(provider.getFilterId());
+        providers.put(provider.getFilterId(), provider);
+    }
+
+    /**
+     * @return the provider for {@code filterId}, or {@code null} if there is none.
+     */
+    public FilterProvider get(int filterId) {
+        return providers.get(filterId);
+    }
+
+    /**
+     * @return the distinct errors met while loading providers, such as providers listed by a jar that could
+     * not be instantiated.
+     */
+    public Collection<String> getLoadErrors() {
+        return Collections.unmodifiableSet(loadErrors);
+    }
+
+    /**
+     * Returns the provider for {@code filterId}, first searching the thread's context class loader if there is
+     * none and that loader has not been searched yet.
+     *
+     * @return the provider, or {@code null} if there is none.
+     */
+    FilterProvider find(int filterId) {
+        FilterProvider provider = providers.get(filterId);
+        if(provider == null) {
+            ClassLoader contextLoader = Thread.currentThread().getContextClassLoader();
+            if(contextLoader != null && !scannedLoaders.contains(contextLoader)) {
+                loadProviders(contextLoader);
+                provider = providers.get(filterId);
+            }
+        }
+        return provider;
+    }
+
+    /**
+     * Creates the stage which reverses {@code filter}.
+     *
+     * @throws UnsupportedOperationException if no provider is registered for the filter.
+     */
+    public FilterStage create(Filter filter, DatatypeMessage datatype, int chunkSizeBytes) {
+        FilterProvider provider = find(filter.getFilterId());
+        if(provider == null) {
+            StringBuilder message = new StringBuilder("Filter: " + filter.getFilterId());
+            if(filter.getName() != null && !filter.getName().isEmpty()) {
+                message.append(" (").append(filter.getName()).append(")");
+            }
+            if(!loadErrors.isEmpty()) {
+                message.append("; providers that failed to load: ").append(loadErrors);
+            }
+            throw new UnsupportedOperationException(message.toString());
+        }
+        return provider.create(filter, datatype, chunkSizeBytes);
+    }
+
+    private static boolean isBundled(FilterProvider provider) {
+        return provider.getClass().getName().startsWith(BUNDLED_PACKAGE + ".");
+    }
+}
@@ -0,0 +1,20 @@
+package org.renjin.hdf5.filters;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * One stage of a dataset's filter pipeline, which reverses a single filter applied when the chunk was written.
+ */
+public interface FilterStage {
+
+    /**
+     * Reverses this stage's filter.
+     *
+     * @param input the filtered bytes, from the buffer's position to its limit.
+     * @param context supplies the buffer for the unfiltered bytes, and scratch space.
+     * @return the unfiltered bytes, from the buffer's position to its limit. This is either a view of
+     * {@code input}, or a buffer obtained from {@link FilterContext#allocate(int)}.
+     */
+    ByteBuffer decode(ByteBuffer input, FilterContext context) throws IOException;
+}
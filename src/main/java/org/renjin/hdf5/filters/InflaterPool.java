@@ -0,0 +1,49 @@
+package org.renjin.hdf5.filters;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.zip.Inflater;
+
+/**
+ * Pool of {@link Inflater}s, so that decompressing a chunk does not allocate new native zlib state.
+ *
+ * <p>Any number of inflaters may be borrowed at once; at most {@code maxIdle} are kept between uses.</p>
+ */
+public class InflaterPool {
+
+    private static final InflaterPool SHARED = new InflaterPool(2 * Runtime.getRuntime().availableProcessors());
+
+    private final ArrayBlockingQueue<Inflater> idle;
+
+    public InflaterPool(int maxIdle) {
+        this.idle = new ArrayBlockingQueue<>(maxIdle);
+    }
+
+    public static InflaterPool getShared() {
+        return SHARED;
+    }
+
+    /**
+     * Borrows an inflater, which must be returned with {@link #release(Inflater)}.
+     */
+    public Inflater acquire() {
+        Inflater inflater = idle.poll();
+        if(inflater == null) {
+            inflater = new Inflater();
+        }
+        return inflater;
+    }
+
+    public void release(Inflater inflater) {
+        inflater.reset();
+        if(!idle.offer(inflater)) {
+            inflater.end();
+        }
+    }
+
+    /**
+     * @return the number of inflaters currently waiting to be reused.
+     */
+    public int getIdleCount() {
+        return idle.size();
+    }
+}
@@ -0,0 +1,95 @@
+package org.renjin.hdf5.filters;
+
+import java.io.IOException;
+
+/**
+ * Decompresses blocks in the LZ4 block format, as written by the LZ4 and Bitshuffle filters.
+ *
+ * <p>A block is a series of sequences, each a run of literal bytes followed by a copy of earlier output
+ * at a given distance back. The last sequence has literals only. Every length and offset is checked
+ * against the bounds of both arrays, so corrupt input fails with an exception rather than reading or
+ * writing out of bounds.</p>
+ */
+final class Lz4 {
+
+    private static final int MIN_MATCH = 4;
+
+    private Lz4() {
+    }
+
+    /**
+     * Decompresses {@code length} bytes of {@code src} into {@code dest}, writing at most {@code maxBytes}.
+     *
+     * @return the number of bytes written to {@code dest}
+     */
+    static int decompress(byte[] src, int offset, int length, byte[] dest, int destOffset, int maxBytes)
+        throws IOException {
+
+        int sp = offset;
+        int srcEnd = offset + length;
+        int dp = destOffset;
+        int destEnd = destOffset + maxBytes;
+
+        while(sp < srcEnd) {
+            int token = src[sp++] & 0xFF;
+
+            int literalLength = token >>> 4;
+            if(literalLength == 15) {
+                int b;
+                do {
+                    if(sp >= srcEnd) {
+                        throw new IOException("Truncated LZ4 literal length");
+                    }
+                    b = src[sp++] & 0xFF;
+                    literalLength += b;
+                } while(b == 255);
+            }
+            if(literalLength > srcEnd - sp || literalLength > destEnd - dp) {
+                throw new IOException("LZ4 literals overrun the block");
+            }
+            System.arraycopy(src, sp, dest, dp, literalLength);
+            sp += literalLength;
+            dp += literalLength;
+
+            if(sp == srcEnd) {
+                break;
+            }
+
+            if(srcEnd - sp < 2) {
+                throw new IOException("Truncated LZ4 match offset");
+            }
+            int matchOffset = (src[sp] & 0xFF) | (src[sp + 1] & 0xFF) << 8;
+            sp += 2;
+            if(matchOffset == 0 || matchOffset > dp - destOffset) {
+                throw new IOException("Invalid LZ4 match offset: " + matchOffset);
+            }
+
+            int matchLength = token & 0xF;
+            if(matchLength == 15) {
+                int b;
+                do {
+                    if(sp >= srcEnd) {
+                        throw new IOException("Truncated LZ4 match length");
+                    }
+                    b = src[sp++] & 0xFF;
+                    matchLength += b;
+                } while(b == 255);
+            }
+            matchLength += MIN_MATCH;
+            if(matchLength > destEnd - dp) {
+                throw new IOException("LZ4 match overruns the block");
+            }
+
+            // A match may overlap its own output, repeating the last matchOffset bytes. Copying from the
+            // start of the match doubles the length that can be copied in one go each time.
+            int from = dp - matchOffset;
+            int matchEnd = dp + matchLength;
+            while(dp < matchEnd) {
+                int n = Math.min(dp - from, matchEnd - dp);
+                System.arraycopy(dest, from, dest, dp, n);
+                dp += n;
+            }
+        }
+        return dp - destOffset;
+    }
+}
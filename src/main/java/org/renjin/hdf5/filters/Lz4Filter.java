@@ -0,0 +1,97 @@
+package org.renjin.hdf5.filters;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Reverses the LZ4 filter (registered as filter 32004), a fast compressor that trades compression ratio for speed.
+ *
+ * <p>Each chunk starts with its decompressed size, as a big-endian 64-bit integer, and the block size, as a
+ * big-endian 32-bit integer. Then follows each block of the chunk: its compressed size, and the compressed
+ * bytes. A block whose compressed size equals its decompressed size was incompressible and is stored as is.</p>
+ */
+public class Lz4Filter implements FilterStage {
+
+    public static final int FILTER_ID = 32004;
+
+    private static final int HEADER_SIZE = 12;
+
+    @Override
+    public ByteBuffer decode(ByteBuffer input, FilterContext context) throws IOException {
+        int size = input.remaining();
+        if(size < HEADER_SIZE) {
+            throw new IOException("LZ4 chunk too small to hold its header");
+        }
+
+        byte[] compressed;
+        int offset;
+        if(input.hasArray()) {
+            compressed = input.array();
+            offset = input.arrayOffset() + input.position();
+        } else {
+            compressed = context.scratch(0, size);
+            offset = 0;
+            input.duplicate().get(compressed, 0, size);
+        }
+
+        ByteBuffer header = ByteBuffer.wrap(compressed, offset, HEADER_SIZE).order(ByteOrder.BIG_ENDIAN);
+        long decompressedSize = header.getLong();
+        int blockSize = header.getInt();
+        if(decompressedSize < 0 || decompressedSize > Integer.MAX_VALUE) {
+            throw new IOException("Invalid LZ4 chunk size: " + decompressedSize);
+        }
+        int totalSize = (int) decompressedSize;
+        if(blockSize <= 0 || blockSize > totalSize) {
+            blockSize = totalSize;
+        }
+
+        ByteBuffer output = context.allocate(totalSize);
+        byte[] target;
+        int targetOffset;
+        if(output.hasArray()) {
+            target = output.array();
+            targetOffset = output.arrayOffset() + output.position();
+        } else {
+            target = context.scratch(1, totalSize);
+            targetOffset = 0;
+        }
+
+        int position = offset + HEADER_SIZE;
+        int end = offset + size;
+        int written = 0;
+        while(written < totalSize) {
+            int blockLength = Math.min(blockSize, totalSize - written);
+            if(end - position < 4) {
+                throw new IOException("Truncated LZ4 chunk");
+            }
+            int compressedLength = readBigEndianInt(compressed, position);
+            position += 4;
+            if(compressedLength < 0 || compressedLength > end - position) {
+                throw new IOException("Invalid LZ4 block size: " + compressedLength);
+            }
+            if(compressedLength == blockLength) {
+                System.arraycopy(compressed, position, target, targetOffset + written, blockLength);
+            } else {
+                int n = Lz4.decompress(compressed, position, compressedLength, target, targetOffset + written, blockLength);
+                if(n != blockLength) {
+                    throw new IOException("LZ4 block decompressed to " + n + " bytes, expected " + blockLength);
+                }
+            }
+            position += compressedLength;
+            written += blockLength;
+        }
+
+        if(!output.hasArray()) {
+            output.duplicate().put(target, 0, totalSize);
+        }
+        return output;
+    }
+
+    static int readBigEndianInt(byte[] buffer, int offset) {
+        return (buffer[offset] & 0xFF) << 24 |
+            (buffer[offset + 1] & 0xFF) << 16 |
+            (buffer[offset + 2] & 0xFF) << 8 |
+            (buffer[offset + 3] & 0xFF);
+    }
+}
@@ -0,0 +1,146 @@
+package org.renjin.hdf5.filters;
+
+import org.renjin.hdf5.message.DatatypeMessage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Reverses the N-bit filter, which stores only the significant bits of each element, packed end to end.
+ *
+ * <p>Fixed-point elements are expanded straight into plain integers of the element's size: the significant
+ * bits are moved down to bit zero and sign-extended when the type is signed, so that the chunk can be read
+ * as ordinary ints without any further shifting. Other elements are expanded to their stored layout, with
+ * the significant bits at their offset and the padding bits cleared.</p>
+ *
+ * <p>Only atomic datatypes are supported, not compound or array types.</p>
+ */
+public class NBitFilter implements FilterStage {
+
+    /**
+     * Datatype classes in the filter's client data, from H5Znbit.c.
+     */
+    private static final int CLASS_ATOMIC = 1;
+    private static final int CLASS_NOOPTYPE = 4;
+
+    private static final int ORDER_BIG_ENDIAN = 1;
+
+    private final boolean stored;
+    private final int elementCount;
+    private final int elementSize;
+    private final ByteOrder byteOrder;
+    private final int precision;
+    private final int offset;
+    private final boolean integer;
+    private final boolean signed;
+
+    /**
+     * @param clientData the filter's client data: the number of values, a flag set when the data is stored
+     *                   unpacked, the number of elements, and then the datatype's class, size, byte order,
+     *                   precision and offset.
+     */
+    public NBitFilter(int[] clientData, DatatypeMessage datatype) {
+        if(clientData == null || clientData.length < 5) {
+            throw new IllegalArgumentException("N-bit filter requires at least 5 client data values");
+        }
+        this.stored = clientData[1] != 0;
+        this.elementCount = clientData[2];
+
+        int typeClass = clientData[3];
+        this.elementSize = clientData[4];
+        if(typeClass == CLASS_ATOMIC) {
+            this.byteOrder = clientData[5] == ORDER_BIG_ENDIAN ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN;
+            this.precision = clientData[6];
+            this.offset = clientData[7];
+        } else if(typeClass == CLASS_NOOPTYPE) {
+            this.byteOrder = ByteOrder.BIG_ENDIAN;
+            this.precision = elementSize * 8;
+            this.offset = 0;
+        } else {
+            throw new UnsupportedOperationException("N-bit filter on compound or array datatypes");
+        }
+        if(elementSize > 8 || precision < 1 || precision + offset > elementSize * 8) {
+            throw new UnsupportedOperationException(String.format("N-bit filter with size %d, precision %d, offset %d",
+                elementSize, precision, offset));
+        }
+
+        this.integer = typeClass == CLASS_ATOMIC && datatype.getDataClass() == DatatypeMessage.DataClass.FIXED_POINT;
+        this.signed = integer && datatype.isSigned();
+    }
+
+    @Override
+    public ByteBuffer decode(ByteBuffer input, FilterContext context) throws IOException {
+        if(stored) {
+            return input;
+        }
+
+        int size = input.remaining();
+        byte[] packed;
+        int packedOffset;
+        if(input.hasArray()) {
+            packed = input.array();
+            packedOffset = input.arrayOffset() + input.position();
+        } else {
+            packed = context.scratch(0, size);
+            packedOffset = 0;
+            input.duplicate().get(packed, 0, size);
+        }
+
+        ByteBuffer output = context.allocate(elementCount * elementSize);
+        ByteBuffer out = output.duplicate().order(byteOrder);
+        PackedBitReader bits = new PackedBitReader(packed, packedOffset, size);
+
+        int shift = integer ? 64 - precision : 0;
+        int position = out.position();
+        switch (elementSize) {
+            case 8:
+                for (int i = 0; i < elementCount; i++) {
+                    out.putLong(position, expand(bits.read(precision), shift));
+                    position += 8;
+                }
+                break;
+            case 4:
+                for (int i = 0; i < elementCount; i++) {
+                    out.putInt(position, (int) expand(bits.read(precision), shift));
+                    position += 4;
+                }
+                break;
+            case 2:
+                for (int i = 0; i < elementCount; i++) {
+                    out.putShort(position, (short) expand(bits.read(precision), shift));
+                    position += 2;
+                }
+                break;
+            case 1:
+                for (int i = 0; i < elementCount; i++) {
+                    out.put(position, (byte) expand(bits.read(precision), shift));
+                    position += 1;
+                }
+                break;
+            default:
+                for (int i = 0; i < elementCount; i++) {
+                    long value = expand(bits.read(precision), shift);
+                    for (int b = 0; b < elementSize; b++) {
+                        int byteShift = byteOrder == ByteOrder.LITTLE_ENDIAN ? 8 * b : 8 * (elementSize - 1 - b);
+                        out.put(position + b, (byte) (value >>> byteShift));
+                    }
+                    position += elementSize;
+                }
+                break;
+        }
+        return output;
+    }
+
+    /**
+     * Expands the significant bits of an element: to an integer value, or back to their offset.
+     */
+    private long expand(long value, int shift) {
+        if(integer) {
+            value <<= shift;
+            return signed ? value >> shift : value >>> shift;
+        } else {
+            return value << offset;
+        }
+    }
+}
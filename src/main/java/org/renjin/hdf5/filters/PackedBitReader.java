@@ -0,0 +1,51 @@
+package org.renjin.hdf5.filters;
+
+/**
+ * Reads values packed end to end into a stream of bits, most significant bit first, as written by the
+ * N-bit and scale-offset filters.
+ *
+ * <p>Bits are extracted from a 64-bit window, refilled a byte at a time, so that each value is read
+ * with a single shift rather than bit by bit. Bits beyond the end of the stream read as zero.</p>
+ */
+final class PackedBitReader {
+
+    private final byte[] data;
+    private int position;
+    private final int end;
+
+    /**
+     * The next {@code count} bits of the stream, aligned to the most significant bit, followed by zeros.
+     */
+    private long window;
+    private int count;
+
+    PackedBitReader(byte[] data, int offset, int length) {
+        this.data = data;
+        this.position = offset;
+        this.end = offset + length;
+    }
+
+    /**
+     * Reads the next {@code n} bits as an unsigned value, where {@code n} is between 1 and 64.
+     */
+    long read(int n) {
+        if(n > 56) {
+            long high = read(n - 32);
+            return (high << 32) | read(32);
+        }
+        if(count < n) {
+            fill();
+        }
+        long value = window >>> (64 - n);
+        window <<= n;
+        count = Math.max(0, count - n);
+        return value;
+    }
+
+    private void fill() {
+        while(count <= 56 && position < end) {
+            window |= (data[position++] & 0xFFL) << (56 - count);
+            count += 8;
+        }
+    }
+}
@@ -0,0 +1,205 @@
+package org.renjin.hdf5.filters;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Reverses the scale-offset filter, which stores each element as its difference from the chunk's minimum,
+ * packed into the fewest bits that can hold the largest difference.
+ *
+ * <p>Integers are stored exactly. Floating-point values are first scaled by a power of ten and rounded
+ * ("D-scaling"), so are only as precise as the scale factor allows. When the dataset has a fill value,
+ * elements equal to it are stored as the largest packed value.</p>
+ *
+ * <p>Each element is unpacked, offset and scaled in a single pass, directly into the output.</p>
+ */
+public class ScaleOffsetFilter implements FilterStage {
+
+    /**
+     * Each chunk starts with the number of bits per value, the size of the minimum, and then
+     * space for the minimum itself.
+     */
+    private static final int HEADER_SIZE = 21;
+
+    private static final int SCALE_FLOAT_DSCALE = 0;
+    private static final int SCALE_INT = 2;
+
+    private static final int CLASS_FLOAT = 1;
+
+    private static final int ORDER_BIG_ENDIAN = 1;
+
+    private final int scaleType;
+    private final int scaleFactor;
+    private final int elementCount;
+    private final boolean floatingPoint;
+    private final int elementSize;
+    private final ByteOrder byteOrder;
+    private final boolean fillDefined;
+    private final long fillBits;
+
+    /**
+     * @param clientData the filter's client data: the scale type, scale factor, number of elements,
+     *                   datatype class, size, sign and byte order, a flag set when there is a fill value,
+     *                   and then the fill value's bytes.
+     */
+    public ScaleOffsetFilter(int[] clientData) {
+        if(clientData == null || clientData.length < 8) {
+            throw new IllegalArgumentException("Scale-offset filter requires at least 8 client data values");
+        }
+        this.scaleType = clientData[0];
+        this.scaleFactor = clientData[1];
+        this.elementCount = clientData[2];
+        this.floatingPoint = clientData[3] == CLASS_FLOAT;
+        this.elementSize = clientData[4];
+        this.byteOrder = clientData[6] == ORDER_BIG_ENDIAN ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN;
+        this.fillDefined = clientData[7] != 0 && clientData.length > 8;
+
+        // The fill value's bytes are packed into the following values in little-endian order
+        long fill = 0;
+        for (int i = 0; i < elementSize && 8 + i / 4 < clientData.length; i++) {
+            long b = (clientData[8 + i / 4] >>> (8 * (i % 4))) & 0xFF;
+            fill |= b << (8 * i);
+        }
+        this.fillBits = fill;
+
+        if(floatingPoint) {
+            if(scaleType != SCALE_FLOAT_DSCALE) {
+                throw new UnsupportedOperationException("Scale-offset filter with E-scaling");
+            }
+            if(elementSize != 4 && elementSize != 8) {
+                throw new UnsupportedOperationException("Scale-offset filter on floating-point size " + elementSize);
+            }
+        } else {
+            if(scaleType != SCALE_INT) {
+                throw new UnsupportedOperationException("Scale-offset scale type " + scaleType + " on integers");
+            }
+            if(elementSize != 1 && elementSize != 2 && elementSize != 4 && elementSize != 8) {
+                throw new UnsupportedOperationException("Scale-offset filter on integer size " + elementSize);
+            }
+        }
+    }
+
+    @Override
+    public ByteBuffer decode(ByteBuffer input, FilterContext context) throws IOException {
+        int size = input.remaining();
+        if(size < HEADER_SIZE) {
+            throw new IOException("Scale-offset chunk too small to hold its header");
+        }
+
+        byte[] packed;
+        int packedOffset;
+        if(input.hasArray()) {
+            packed = input.array();
+            packedOffset = input.arrayOffset() + input.position();
+        } else {
+            packed = context.scratch(0, size);
+            packedOffset = 0;
+            input.duplicate().get(packed, 0, size);
+        }
+
+        int minBits = readLittleEndian(packed, packedOffset, 4);
+        int minSize = Math.min(8, packed[packedOffset + 4] & 0xFF);
+        long min = 0;
+        for (int i = 0; i < minSize; i++) {
+            min |= (packed[packedOffset + 5 + i] & 0xFFL) << (8 * i);
+        }
+        if(minBits < 0 || minBits > elementSize * 8) {
+            throw new IOException("Invalid scale-offset bits per value: " + minBits);
+        }
+
+        int dataOffset = packedOffset + HEADER_SIZE;
+        int dataLength = size - HEADER_SIZE;
+
+        ByteBuffer output = context.allocate(elementCount * elementSize);
+        ByteBuffer out = output.duplicate().order(byteOrder);
+
+        if(minBits == elementSize * 8) {
+            // Stored without packing, in the writer's (little-endian) order
+            ByteBuffer in = ByteBuffer.wrap(packed, dataOffset, dataLength).slice().order(ByteOrder.LITTLE_ENDIAN);
+            int position = out.position();
+            for (int i = 0; i < elementCount; i++) {
+                int index = i * elementSize;
+                switch (elementSize) {
+                    case 8:
+                        out.putLong(position + index, in.getLong(index));
+                        break;
+                    case 4:
+                        out.putInt(position + index, in.getInt(index));
+                        break;
+                    case 2:
+                        out.putShort(position + index, in.getShort(index));
+                        break;
+                    default:
+                        out.put(position + index, in.get(index));
+                        break;
+                }
+            }
+            return output;
+        }
+
+        PackedBitReader bits = new PackedBitReader(packed, dataOffset, dataLength);
+        if(floatingPoint) {
+            decodeFloatingPoint(bits, minBits, min, out);
+        } else {
+            decodeInteger(bits, minBits, min, out);
+        }
+        return output;
+    }
+
+    private void decodeInteger(PackedBitReader bits, int minBits, long min, ByteBuffer out) {
+        long fillCode = (1L << minBits) - 1;
+        int position = out.position();
+        for (int i = 0; i < elementCount; i++) {
+            long code = minBits == 0 ? 0 : bits.read(minBits);
+            long value = (fillDefined && code == fillCode) ? fillBits : code + min;
+            switch (elementSize) {
+                case 8:
+                    out.putLong(position, value);
+                    break;
+                case 4:
+                    out.putInt(position, (int) value);
+                    break;
+                case 2:
+                    out.putShort(position, (short) value);
+                    break;
+                default:
+                    out.put(position, (byte) value);
+                    break;
+            }
+            position += elementSize;
+        }
+    }
+
+    private void decodeFloatingPoint(PackedBitReader bits, int minBits, long min, ByteBuffer out) {
+        long fillCode = (1L << minBits) - 1;
+        int position = out.position();
+        if(elementSize == 8) {
+            double minValue = Double.longBitsToDouble(min);
+            double divisor = Math.pow(10, scaleFactor);
+            double fillValue = Double.longBitsToDouble(fillBits);
+            for (int i = 0; i < elementCount; i++) {
+                long code = minBits == 0 ? 0 : bits.read(minBits);
+                out.putDouble(position, (fillDefined && code == fillCode) ? fillValue : code / divisor + minValue);
+                position += 8;
+            }
+        } else {
+            float minValue = Float.intBitsToFloat((int) min);
+            float divisor = (float) Math.pow(10, scaleFactor);
+            float fillValue = Float.intBitsToFloat((int) fillBits);
+            for (int i = 0; i < elementCount; i++) {
+                long code = minBits == 0 ? 0 : bits.read(minBits);
+                out.putFloat(position, (fillDefined && code == fillCode) ? fillValue : (float) code / divisor + minValue);
+                position += 4;
+            }
+        }
+    }
+
+    private static int readLittleEndian(byte[] buffer, int offset, int length) {
+        int value = 0;
+        for (int i = 0; i < length; i++) {
+            value |= (buffer[offset + i] & 0xFF) << (8 * i);
+        }
+        return value;
+    }
+}
@@ -0,0 +1,103 @@
+package org.renjin.hdf5.filters;
+
+/**
+ * Reverses the HDF5 shuffle filter.
+ *
+ * <p>The shuffle filter stores the first byte of every element, followed by the second byte of every
+ * element, and so on, which makes numeric data more compressible. Any bytes left over after the last
+ * whole element are stored unchanged.</p>
+ */
+public final class Shuffle {
+
+    /**
+     * The number of elements unshuffled at a time, chosen so that the output block stays in the L1 cache
+     * while each of its byte planes is read sequentially.
+     */
+    private static final int BLOCK_ELEMENTS = 512;
+
+    private Shuffle() {
+    }
+
+    /**
+     * Unshuffles {@code size} bytes of elements of {@code elementSize} bytes from {@code src} into {@code dest}.
+     */
+    public static void unshuffle(byte[] src, int srcOffset, byte[] dest, int destOffset, int size, int elementSize) {
+        int elementCount = size / elementSize;
+
+        if(elementSize == 1 || elementCount <= 1) {
+            System.arraycopy(src, srcOffset, dest, destOffset, size);
+            return;
+        }
+
+        switch (elementSize) {
+            case 4:
+                unshuffle4(src, srcOffset, dest, destOffset, elementCount);
+                break;
+            case 8:
+                unshuffle8(src, srcOffset, dest, destOffset, elementCount);
+                break;
+            default:
+                unshuffleBlocked(src, srcOffset, dest, destOffset, elementCount, elementSize);
+                break;
+        }
+
+        int leftover = size - elementCount * elementSize;
+        if(leftover > 0) {
+            int offset = elementCount * elementSize;
+            System.arraycopy(src, srcOffset + offset, dest, destOffset + offset, leftover);
+        }
+    }
+
+    private static void unshuffle4(byte[] src, int srcOffset, byte[] dest, int destOffset, int n) {
+        int p0 = srcOffset;
+        int p1 = p0 + n;
+        int p2 = p1 + n;
+        int p3 = p2 + n;
+        int d = destOffset;
+        for (int e = 0; e < n; e++) {
+            dest[d] = src[p0 + e];
+            dest[d + 1] = src[p1 + e];
+            dest[d + 2] = src[p2 + e];
+            dest[d + 3] = src[p3 + e];
+            d += 4;
+        }
+    }
+
+    private static void unshuffle8(byte[] src, int srcOffset, byte[] dest, int destOffset, int n) {
+        int p0 = srcOffset;
+        int p1 = p0 + n;
+        int p2 = p1 + n;
+        int p3 = p2 + n;
+        int p4 = p3 + n;
+        int p5 = p4 + n;
+        int p6 = p5 + n;
+        int p7 = p6 + n;
+        int d = destOffset;
+        for (int e = 0; e < n; e++) {
+            dest[d] = src[p0 + e];
+            dest[d + 1] = src[p1 + e];
+            dest[d + 2] = src[p2 + e];
+            dest[d + 3] = src[p3 + e];
+            dest[d + 4] = src[p4 + e];
+            dest[d + 5] = src[p5 + e];
+            dest[d + 6] = src[p6 + e];
+            dest[d + 7] = src[p7 + e];
+            d += 8;
+        }
+    }
+
+    private static void unshuffleBlocked(byte[] src, int srcOffset, byte[] dest, int destOffset, int n,
+                                         int elementSize) {
+        for (int blockStart = 0; blockStart < n; blockStart += BLOCK_ELEMENTS) {
+            int blockEnd = Math.min(n, blockStart + BLOCK_ELEMENTS);
+            for (int b = 0; b < elementSize; b++) {
+                int s = srcOffset + b * n + blockStart;
+                int d = destOffset + blockStart * elementSize + b;
+                for (int e = blockStart; e < blockEnd; e++) {
+                    dest[d] = src[s++];
+                    d += elementSize;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package org.renjin.hdf5.filters;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Reverses the shuffle filter, which groups the bytes of each element by their significance.
+ */
+public class ShuffleFilter implements FilterStage {
+
+    private final int elementSize;
+
+    public ShuffleFilter(int elementSize) {
+        this.elementSize = elementSize;
+    }
+
+    @Override
+    public ByteBuffer decode(ByteBuffer input, FilterContext context) throws IOException {
+        int size = input.remaining();
+
+        byte[] shuffled;
+        int shuffledOffset;
+        if(input.hasArray()) {
+            shuffled = input.array();
+            shuffledOffset = input.arrayOffset() + input.position();
+        } else {
+            shuffled = context.scratch(0, size);
+            shuffledOffset = 0;
+            input.duplicate().get(shuffled, 0, size);
+        }
+
+        ByteBuffer output = context.allocate(size);
+        if(output.hasArray()) {
+            Shuffle.unshuffle(shuffled, shuffledOffset, output.array(), output.arrayOffset() + output.position(),
+                size, elementSize);
+        } else {
+            byte[] unshuffled = context.scratch(1, size);
+            Shuffle.unshuffle(shuffled, shuffledOffset, unshuffled, 0, size, elementSize);
+            output.duplicate().put(unshuffled, 0, size);
+        }
+        return output;
+    }
+}
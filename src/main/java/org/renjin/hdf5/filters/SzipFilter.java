@@ -0,0 +1,165 @@
+package org.renjin.hdf5.filters;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * Reverses the SZIP filter, decoding with the pure Java {@link AecDecoder} in the same way as libaec's SZIP
+ * compatibility layer.
+ *
+ * <p>Each filtered chunk starts with its unfiltered size as a little-endian 32-bit integer. SZIP only codes
+ * samples of up to 24 bits directly, so 32- and 64-bit pixels are coded as byte samples after the bytes of
+ * each pixel have been shuffled. When a scanline is not a whole number of blocks, each scanline is padded
+ * to the next block.</p>
+ */
+public class SzipFilter implements FilterStage {
+
+    /**
+     * Options in the filter's client data, from szlib.h.
+     */
+    static final int OPTION_MSB = 16;
+    static final int OPTION_NN = 32;
+
+    private static final int HEADER_SIZE = 4;
+
+    private final int optionMask;
+    private final int pixelsPerBlock;
+    private final int bitsPerPixel;
+    private final int pixelsPerScanline;
+
+    private final boolean deinterleave;
+    private final int bitsPerSample;
+    private final int rsi;
+    private final int flags;
+
+    private final ArrayBlockingQueue<AecDecoder> decoders =
+        new ArrayBlockingQueue<>(Runtime.getRuntime().availableProcessors());
+
+    /**
+     * @param clientData the filter's client data: the option mask, pixels per block, bits per pixel, and
+     *                   pixels per scanline.
+     */
+    public SzipFilter(int[] clientData) {
+        if(clientData == null || clientData.length < 4) {
+            throw new IllegalArgumentException("SZIP filter requires 4 client data values");
+        }
+        this.optionMask = clientData[0];
+        this.pixelsPerBlock = clientData[1];
+        this.bitsPerPixel = clientData[2];
+        this.pixelsPerScanline = clientData[3];
+
+        this.deinterleave = bitsPerPixel == 32 || bitsPerPixel == 64;
+        this.bitsPerSample = deinterleave ? 8 : bitsPerPixel;
+        this.rsi = (pixelsPerScanline + pixelsPerBlock - 1) / pixelsPerBlock;
+
+        int flags = 0;
+        if((optionMask & OPTION_MSB) != 0) {
+            flags |= AecDecoder.DATA_MSB;
+        }
+        if((optionMask & OPTION_NN) != 0) {
+            flags |= AecDecoder.DATA_PREPROCESS;
+        }
+        this.flags = flags;
+
+        // Fail early on unsupported parameters
+        decoders.offer(new AecDecoder(bitsPerSample, pixelsPerBlock, rsi, flags));
+    }
+
+    @Override
+    public ByteBuffer decode(ByteBuffer input, FilterContext context) throws IOException {
+        int size = input.remaining();
+        if(size < HEADER_SIZE) {
+            throw new IOException("SZIP chunk too small to hold its header");
+        }
+
+        byte[] coded;
+        int codedOffset;
+        if(input.hasArray()) {
+            coded = input.array();
+            codedOffset = input.arrayOffset() + input.position();
+        } else {
+            coded = context.scratch(0, size);
+            codedOffset = 0;
+            input.duplicate().get(coded, 0, size);
+        }
+
+        int unfilteredSize = (coded[codedOffset] & 0xFF) |
+            (coded[codedOffset + 1] & 0xFF) << 8 |
+            (coded[codedOffset + 2] & 0xFF) << 16 |
+            (coded[codedOffset + 3] & 0xFF) << 24;
+        if(unfilteredSize < 0) {
+            throw new IOException("Invalid SZIP unfiltered size: " + (unfilteredSize & 0xFFFFFFFFL));
+        }
+
+        AecDecoder decoder = decoders.poll();
+        if(decoder == null) {
+            decoder = new AecDecoder(bitsPerSample, pixelsPerBlock, rsi, flags);
+        }
+
+        int sampleBytes = decoder.getSampleBytes();
+        boolean padded = pixelsPerScanline % pixelsPerBlock != 0;
+        int decodedLength;
+        byte[] decoded;
+        try {
+            if(padded || deinterleave) {
+                long scanlines = ((long) unfilteredSize / sampleBytes + pixelsPerScanline - 1) / pixelsPerScanline;
+                long bufferSize = (long) rsi * pixelsPerBlock * sampleBytes * scanlines;
+                if(bufferSize > Integer.MAX_VALUE) {
+                    throw new IOException("SZIP chunk too large: " + bufferSize);
+                }
+                decoded = context.scratch(1, (int) bufferSize);
+                decodedLength = decoder.decode(coded, codedOffset + HEADER_SIZE, size - HEADER_SIZE,
+                    decoded, 0, (int) bufferSize);
+                if(padded) {
+                    decodedLength = removePadding(decoded, decodedLength, sampleBytes);
+                }
+            } else {
+                decoded = context.scratch(1, unfilteredSize);
+                decodedLength = decoder.decode(coded, codedOffset + HEADER_SIZE, size - HEADER_SIZE,
+                    decoded, 0, unfilteredSize);
+            }
+        } finally {
+            decoders.offer(decoder);
+        }
+
+        if(decodedLength < unfilteredSize) {
+            throw new IOException(String.format("SZIP chunk at %d decoded to %d bytes, expected %d",
+                context.getLocation().getAddress(), decodedLength, unfilteredSize));
+        }
+
+        ByteBuffer output = context.allocate(unfilteredSize);
+        if(deinterleave) {
+            if(output.hasArray()) {
+                Shuffle.unshuffle(decoded, 0, output.array(), output.arrayOffset() + output.position(),
+                    unfilteredSize, bitsPerPixel / 8);
+            } else {
+                byte[] unshuffled = context.scratch(0, unfilteredSize);
+                Shuffle.unshuffle(decoded, 0, unshuffled, 0, unfilteredSize, bitsPerPixel / 8);
+                output.duplicate().put(unshuffled, 0, unfilteredSize);
+            }
+        } else {
+            output.duplicate().put(decoded, 0, unfilteredSize);
+        }
+        return output;
+    }
+
+    /**
+     * Removes the samples padding each scanline to a whole number of blocks.
+     *
+     * @return the length of the data without padding.
+     */
+    private int removePadding(byte[] buffer, int length, int sampleBytes) {
+        int lineLength = pixelsPerScanline * sampleBytes;
+        int paddedLineLength = rsi * pixelsPerBlock * sampleBytes;
+        int from = 0;
+        int to = 0;
+        while(from < length) {
+            int count = Math.min(lineLength, length - from);
+            System.arraycopy(buffer, from, buffer, to, count);
+            from += paddedLineLength;
+            to += count;
+        }
+        return to;
+    }
+}
@@ -9,6 +9,8 @@ public class DataLayoutMessage extends Message {
 
     public static final int MESSAGE_TYPE = 0x0008;
 
+    private static final int SINGLE_INDEX_WITH_FILTER = 1;
+
 
     public enum LayoutClass {
         COMPACT,
@@ -45,6 +47,20 @@ public class DataLayoutMessage extends Message {
      */
     private int pageBits;
 
+    /**
+     * The size and filter mask of a filtered chunk indexed as a single chunk, or -1 if the chunk is not filtered.
+     */
+    private long singleChunkFilteredSize = -1;
+    private int singleChunkFilterMask;
+
+    /**
+     * The size in bytes of the nodes of a version 2 B-tree index, and the percentages of a node's capacity
+     * at which it is split and merged.
+     */
+    private int nodeSize;
+    private int splitPercent;
+    private int mergePercent;
+
     public DataLayoutMessage(HeaderReader reader) throws IOException {
         version = reader.readByte();
         if(version == 3) {
@@ -100,12 +116,20 @@ public class DataLayoutMessage extends Message {
         int chunkIndexingTypeIndex = reader.readUInt8();
         chunkIndexingType = ChunkIndexingType.values()[chunkIndexingTypeIndex - 1];
         switch (chunkIndexingType) {
+            case SINGLE:
+                readSingleChunkProperties(reader, flags);
+                break;
+            case IMPLICIT:
+                break;
             case FIXED_ARRAY:
                 readFixedArrayProperties(reader);
                 break;
             case EXTENSIBLE_ARRAY:
                 readExtensibleArrayProperties(reader);
                 break;
+            case BTREE:
+                readBTreeProperties(reader);
+                break;
             default:
                 throw new UnsupportedOperationException("chunkIndexingType: " + chunkIndexingType);
         }
@@ -113,6 +137,13 @@ public class DataLayoutMessage extends Message {
         chunkIndexAddress = reader.readOffset();
     }
 
+    private void readSingleChunkProperties(HeaderReader reader, Flags flags) throws IOException {
+        if(flags.isSet(SINGLE_INDEX_WITH_FILTER)) {
+            singleChunkFilteredSize = reader.readLength();
+            singleChunkFilterMask = reader.readInt();
+        }
+    }
+
     private void readFixedArrayProperties(HeaderReader reader) {
         pageBits = reader.readUInt8();
     }
@@ -126,6 +157,12 @@ public class DataLayoutMessage extends Message {
 
     }
 
+    private void readBTreeProperties(HeaderReader reader) {
+        nodeSize = reader.readInt();
+        splitPercent = reader.readUInt8();
+        mergePercent = reader.readUInt8();
+    }
+
     public byte getVersion() {
         return version;
     }
@@ -150,6 +187,21 @@ public class DataLayoutMessage extends Message {
         return dimensionSize[dimensionIndex];
     }
 
+    /**
+     * @return the size in bytes of the filtered chunk of a dataset indexed as a single chunk, or -1 if the
+     * chunk is not filtered.
+     */
+    public long getSingleChunkFilteredSize() {
+        return singleChunkFilteredSize;
+    }
+
+    /**
+     * @return the filter mask of the filtered chunk of a dataset indexed as a single chunk.
+     */
+    public int getSingleChunkFilterMask() {
+        return singleChunkFilterMask;
+    }
+
     public ChunkIndexingType getChunkIndexingType() {
         return chunkIndexingType;
     }
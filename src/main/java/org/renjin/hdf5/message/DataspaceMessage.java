@@ -117,6 +117,25 @@ public class DataspaceMessage extends Message {
         return dimensionSize[d];
     }
 
+    /**
+     * @return the maximum size of dimension {@code d}, which is its current size if the dataspace
+     * does not record maximum sizes.
+     */
+    public long getMaximumSize(int d) {
+        if(maximumSize == null) {
+            return dimensionSize[d];
+        }
+        return maximumSize[d];
+    }
+
+    /**
+     * @return true if dimension {@code d} may be extended without limit.
+     */
+    public boolean isUnlimited(int d) {
+        // The maximum size is all ones, read as -1 for 8-byte lengths
+        return maximumSize != null && (maximumSize[d] == -1 || maximumSize[d] == 0xFFFFFFFFL);
+    }
+
     public Type getType() {
         return type;
     }
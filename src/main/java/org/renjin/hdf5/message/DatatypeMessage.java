@@ -90,6 +90,9 @@ public class DatatypeMessage extends Message {
                 byteOrder = ByteOrder.LITTLE_ENDIAN;
             }
             signed = classBitField0.isSet(3);
+
+            bitOffset = reader.readUInt16();
+            bitPrecision = reader.readUInt16();
         }
     }
 
@@ -105,6 +108,20 @@ public class DatatypeMessage extends Message {
         return size;
     }
 
+    /**
+     * @return the position of the first significant bit of each value, for fixed- and floating-point types.
+     */
+    public int getBitOffset() {
+        return bitOffset;
+    }
+
+    /**
+     * @return the number of significant bits of each value, for fixed- and floating-point types.
+     */
+    public int getBitPrecision() {
+        return bitPrecision;
+    }
+
 
     public boolean isDoubleIEE754() {
         return dataClass == DataClass.FLOATING_POINT &&
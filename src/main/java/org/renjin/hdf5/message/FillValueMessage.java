@@ -2,12 +2,81 @@ package org.renjin.hdf5.message;
 
 import org.renjin.hdf5.HeaderReader;
 
+import java.io.IOException;
+
+/**
+ * The fill value message stores a single data value which is returned to the application when an uninitialized
+ * data element is read from a dataset. The fill value is interpreted with the same datatype as the dataset.
+ *
+ * <p>Chunks which have not been allocated in the file read as the fill value, or as zeros if the dataset has no
+ * fill value defined, which is the library's default.</p>
+ */
 public class FillValueMessage extends Message {
 
     public static final int MESSAGE_TYPE = 0x0005;
 
-    public FillValueMessage(HeaderReader reader) {
+    private static final int UNDEFINED_FLAG = 0x10;
+    private static final int DEFINED_FLAG = 0x20;
+
+    private int spaceAllocationTime;
+    private int fillValueWriteTime;
+    private byte[] value;
+
+    public FillValueMessage(HeaderReader reader) throws IOException {
+        int version = reader.readUInt8();
+        if(version == 1 || version == 2) {
+            spaceAllocationTime = reader.readUInt8();
+            fillValueWriteTime = reader.readUInt8();
+            boolean defined = reader.readUInt8() != 0;
+            // Version 1 always holds the size of the fill value, even if it is not defined
+            if(version == 1 || defined) {
+                readValue(reader);
+            }
+        } else if(version == 3) {
+            int flags = reader.readUInt8();
+            spaceAllocationTime = flags & 0x3;
+            fillValueWriteTime = (flags >> 2) & 0x3;
+            if((flags & UNDEFINED_FLAG) == 0 && (flags & DEFINED_FLAG) != 0) {
+                readValue(reader);
+            }
+        } else {
+            throw new UnsupportedOperationException("version: " + version);
+        }
+    }
+
+    private void readValue(HeaderReader reader) throws IOException {
+        int size = reader.readUInt32AsInt();
+        if(size > 0) {
+            value = reader.readBytes(size);
+        }
+    }
 
+    /**
+     * @return true if the dataset has a fill value of its own.
+     */
+    public boolean isDefined() {
+        return value != null;
     }
 
+    /**
+     * @return the fill value, encoded with the dataset's datatype, or {@code null} if none is defined.
+     */
+    public byte[] getValue() {
+        return value;
+    }
+
+    /**
+     * @return when space is allocated for the dataset's chunks: 1 early, 2 late, or 3 incrementally.
+     */
+    public int getSpaceAllocationTime() {
+        return spaceAllocationTime;
+    }
+
+    /**
+     * @return when the fill value is written to newly allocated chunks: 0 on allocation, 1 never, or 2 only if
+     * it has been set by the application.
+     */
+    public int getFillValueWriteTime() {
+        return fillValueWriteTime;
+    }
 }
@@ -0,0 +1,41 @@
+package org.renjin.hdf5.storage;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * A bounded pool of equally-sized direct buffers.
+ *
+ * <p>Buffers are allocated on demand. At most {@code maxPooled} released buffers are retained for reuse; any
+ * beyond that are left to the garbage collector.</p>
+ */
+public class DirectBufferPool {
+
+  private final int bufferSize;
+  private final ArrayBlockingQueue<ByteBuffer> pool;
+
+  public DirectBufferPool(int bufferSize, int maxPooled) {
+    this.bufferSize = bufferSize;
+    this.pool = new ArrayBlockingQueue<>(maxPooled);
+  }
+
+  public int getBufferSize() {
+    return bufferSize;
+  }
+
+  /**
+   * @return a cleared direct buffer of {@code bufferSize} bytes.
+   */
+  public ByteBuffer acquire() {
+    ByteBuffer buffer = pool.poll();
+    if(buffer == null) {
+      buffer = ByteBuffer.allocateDirect(bufferSize);
+    }
+    return buffer;
+  }
+
+  public void release(ByteBuffer buffer) {
+    buffer.clear();
+    pool.offer(buffer);
+  }
+}
@@ -0,0 +1,41 @@
+package org.renjin.hdf5.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Storage backend which serves slices from memory-mapped windows of the file.
+ */
+public class MappedStorage implements StorageBackend {
+
+  private final FileChannel channel;
+  private final MappedWindows windows;
+
+  public MappedStorage(File file) throws IOException {
+    this.channel = new RandomAccessFile(file, "r").getChannel();
+    this.windows = new MappedWindows(channel);
+  }
+
+  @Override
+  public long size() {
+    return windows.getFileSize();
+  }
+
+  @Override
+  public ByteBuffer slice(long address, long length) throws IOException {
+    return windows.slice(address, length);
+  }
+
+  @Override
+  public int read(ByteBuffer buffer, long address) throws IOException {
+    return PositionalStorage.readFully(channel, buffer, address);
+  }
+
+  @Override
+  public void close() throws IOException {
+    channel.close();
+  }
+}
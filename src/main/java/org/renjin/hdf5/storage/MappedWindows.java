@@ -0,0 +1,96 @@
+package org.renjin.hdf5.storage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Maps an HDF5 file in large, aligned segments and hands out zero-copy slices of those segments.
+ *
+ * <p>Object headers, heaps and B-tree nodes are small and tend to be clustered, so mapping each of them
+ * individually costs one {@code mmap} call (and one new virtual memory area) per read. Instead, we map
+ * the file in segments of {@code segmentSize} bytes, aligned to multiples of the segment size, and keep
+ * the most recently used segments around.
+ *
+ * <p>Evicted segments are not explicitly unmapped: slices handed out earlier may still reference them, so the
+ * mapping is released once the last slice is garbage collected.</p>
+ */
+class MappedWindows {
+
+    public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+    public static final int DEFAULT_MAX_SEGMENTS = 16;
+
+    private final FileChannel channel;
+    private final long fileSize;
+    private final int segmentSize;
+    private final Map<Long, MappedByteBuffer> segments;
+
+    public MappedWindows(FileChannel channel) throws IOException {
+        this(channel, DEFAULT_SEGMENT_SIZE, DEFAULT_MAX_SEGMENTS);
+    }
+
+    public MappedWindows(FileChannel channel, int segmentSize, final int maxSegments) throws IOException {
+        if(Integer.bitCount(segmentSize) != 1) {
+            throw new IllegalArgumentException("segmentSize must be a power of two: " + segmentSize);
+        }
+        this.channel = channel;
+        this.fileSize = channel.size();
+        this.segmentSize = segmentSize;
+        this.segments = new LinkedHashMap<Long, MappedByteBuffer>(maxSegments, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, MappedByteBuffer> eldest) {
+                return size() > maxSegments;
+            }
+        };
+    }
+
+    public long getFileSize() {
+        return fileSize;
+    }
+
+    /**
+     * Returns a read-only view of the {@code length} bytes starting at {@code address}. The view's position is
+     * zero and its limit is {@code length}.
+     *
+     * <p>If the region lies within a single segment, the view shares that segment's mapping. Regions
+     * that straddle a segment boundary are mapped on their own.</p>
+     */
+    public ByteBuffer slice(long address, long length) throws IOException {
+        if(address < 0 || length < 0 || address + length > fileSize) {
+            throw new IOException("Region [" + address + ", " + (address + length) + ") is outside of the file " +
+                "(size = " + fileSize + ")");
+        }
+
+        long segmentStart = address - (address & (segmentSize - 1));
+        if(address + length > segmentStart + segmentSize) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, address, length);
+        }
+
+        ByteBuffer view = segmentAt(segmentStart).duplicate();
+        int offset = (int) (address - segmentStart);
+        view.position(offset);
+        view.limit(offset + (int) length);
+        return view.slice();
+    }
+
+    private synchronized MappedByteBuffer segmentAt(long segmentStart) throws IOException {
+        MappedByteBuffer segment = segments.get(segmentStart);
+        if(segment == null) {
+            long segmentLength = Math.min(segmentSize, fileSize - segmentStart);
+            segment = channel.map(FileChannel.MapMode.READ_ONLY, segmentStart, segmentLength);
+            segments.put(segmentStart, segment);
+        }
+        return segment;
+    }
+
+    /**
+     * @return the number of segments currently mapped.
+     */
+    synchronized int getMappedSegmentCount() {
+        return segments.size();
+    }
+}
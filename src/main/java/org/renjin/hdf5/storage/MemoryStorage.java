@@ -0,0 +1,58 @@
+package org.renjin.hdf5.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+
+/**
+ * Storage backend which holds the entire file in a byte array.
+ */
+public class MemoryStorage implements StorageBackend {
+
+  private final byte[] bytes;
+
+  public MemoryStorage(byte[] bytes) {
+    this.bytes = bytes;
+  }
+
+  public static MemoryStorage load(File file) throws IOException {
+    try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r")) {
+      long length = randomAccessFile.length();
+      if(length > Integer.MAX_VALUE) {
+        throw new IOException(file + " is too large to hold in memory (" + length + " bytes)");
+      }
+      byte[] bytes = new byte[(int) length];
+      randomAccessFile.readFully(bytes);
+      return new MemoryStorage(bytes);
+    }
+  }
+
+  @Override
+  public long size() {
+    return bytes.length;
+  }
+
+  @Override
+  public ByteBuffer slice(long address, long length) throws IOException {
+    if(address < 0 || length < 0 || address + length > bytes.length) {
+      throw new IOException("Region [" + address + ", " + (address + length) + ") is outside of the file " +
+          "(size = " + bytes.length + ")");
+    }
+    return ByteBuffer.wrap(bytes, (int) address, (int) length).slice();
+  }
+
+  @Override
+  public int read(ByteBuffer buffer, long address) throws IOException {
+    if(address >= bytes.length) {
+      return 0;
+    }
+    int count = (int) Math.min(buffer.remaining(), bytes.length - address);
+    buffer.put(bytes, (int) address, count);
+    return count;
+  }
+
+  @Override
+  public void close() {
+  }
+}
@@ -0,0 +1,93 @@
+package org.renjin.hdf5.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Storage backend which uses positional reads ({@code pread}) rather than memory mapping.
+ *
+ * <p>Reads into heap buffers are staged through a small pool of direct buffers, so that the amount of native
+ * memory used stays bounded, no matter how large the reads are.</p>
+ */
+public class PositionalStorage implements StorageBackend {
+
+  private static final int STAGING_BUFFER_SIZE = 1024 * 1024;
+  private static final int MAX_POOLED_BUFFERS = 8;
+
+  private final FileChannel channel;
+  private final long size;
+  private final DirectBufferPool bufferPool;
+
+  public PositionalStorage(File file) throws IOException {
+    this(file, new DirectBufferPool(STAGING_BUFFER_SIZE, MAX_POOLED_BUFFERS));
+  }
+
+  public PositionalStorage(File file, DirectBufferPool bufferPool) throws IOException {
+    this.channel = new RandomAccessFile(file, "r").getChannel();
+    this.size = channel.size();
+    this.bufferPool = bufferPool;
+  }
+
+  @Override
+  public long size() {
+    return size;
+  }
+
+  @Override
+  public ByteBuffer slice(long address, long length) throws IOException {
+    if(address < 0 || length < 0 || address + length > size || length > Integer.MAX_VALUE) {
+      throw new IOException("Invalid region [" + address + ", " + (address + length) + ")");
+    }
+    ByteBuffer buffer = ByteBuffer.allocate((int) length);
+    read(buffer, address);
+    buffer.flip();
+    return buffer;
+  }
+
+  @Override
+  public int read(ByteBuffer buffer, long address) throws IOException {
+    if(buffer.isDirect()) {
+      return readFully(channel, buffer, address);
+    }
+    int totalRead = 0;
+    ByteBuffer staging = bufferPool.acquire();
+    try {
+      while(buffer.hasRemaining()) {
+        int requested = Math.min(staging.capacity(), buffer.remaining());
+        staging.clear();
+        staging.limit(requested);
+        int bytesRead = readFully(channel, staging, address + totalRead);
+        staging.flip();
+        buffer.put(staging);
+        totalRead += bytesRead;
+        if(bytesRead < requested) {
+          // Reached the end of the file
+          break;
+        }
+      }
+    } finally {
+      bufferPool.release(staging);
+    }
+    return totalRead;
+  }
+
+  static int readFully(FileChannel channel, ByteBuffer buffer, long address) throws IOException {
+    int totalRead = 0;
+    while(buffer.hasRemaining()) {
+      int bytesRead = channel.read(buffer, address + totalRead);
+      if(bytesRead < 0) {
+        break;
+      }
+      totalRead += bytesRead;
+    }
+    return totalRead;
+  }
+
+  @Override
+  public void close() throws IOException {
+    channel.close();
+  }
+}
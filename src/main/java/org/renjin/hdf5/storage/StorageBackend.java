@@ -0,0 +1,34 @@
+package org.renjin.hdf5.storage;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Provides random access to the bytes of an HDF5 file.
+ *
+ * <p>Implementations must be safe for use by multiple threads.</p>
+ */
+public interface StorageBackend extends Closeable {
+
+  /**
+   * @return the size of the underlying file, in bytes.
+   */
+  long size();
+
+  /**
+   * Returns a buffer holding the {@code length} bytes starting at {@code address}. The buffer's position is
+   * zero and its limit is {@code length}. Depending on the backend, the buffer may be a view of a memory
+   * mapping or of an in-memory copy, so callers must not write to it.
+   */
+  ByteBuffer slice(long address, long length) throws IOException;
+
+  /**
+   * Reads bytes starting at {@code address} into {@code buffer} until the buffer is full or the end
+   * of the file is reached.
+   *
+   * @return the number of bytes read.
+   */
+  int read(ByteBuffer buffer, long address) throws IOException;
+
+}
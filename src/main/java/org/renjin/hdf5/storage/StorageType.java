@@ -0,0 +1,57 @@
+package org.renjin.hdf5.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * The available {@link StorageBackend} implementations.
+ */
+public enum StorageType {
+
+  /**
+   * Maps the file into memory. Cheap for metadata and random access, but large sequential
+   * scans compete with everything else for the page cache.
+   */
+  MMAP {
+    @Override
+    public StorageBackend open(File file) throws IOException {
+      return new MappedStorage(file);
+    }
+  },
+
+  /**
+   * Reads the file with positional reads through a pool of direct buffers.
+   */
+  PREAD {
+    @Override
+    public StorageBackend open(File file) throws IOException {
+      return new PositionalStorage(file);
+    }
+  },
+
+  /**
+   * Reads the whole file into the heap when it is opened. Only suitable for small files.
+   */
+  MEMORY {
+    @Override
+    public StorageBackend open(File file) throws IOException {
+      return MemoryStorage.load(file);
+    }
+  };
+
+  public abstract StorageBackend open(File file) throws IOException;
+
+  /**
+   * Finds a storage type by its case-insensitive name, for example "mmap" or "pread".
+   */
+  public static StorageType fromName(String name) {
+    for (StorageType type : values()) {
+      if(type.name().equalsIgnoreCase(name)) {
+        return type;
+      }
+    }
+    throw new IllegalArgumentException("Unknown storage type: '" + name + "'. Expected one of " +
+        Arrays.toString(values()));
+  }
+}
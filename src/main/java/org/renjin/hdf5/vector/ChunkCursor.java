@@ -2,26 +2,168 @@ package org.renjin.hdf5.vector;
 
 
 import org.renjin.hdf5.chunked.Chunk;
+import org.renjin.hdf5.chunked.ChunkPrefetcher;
 
-public class ChunkCursor {
+import java.io.Closeable;
+import java.io.IOException;
 
+/**
+ * Maps elements of a chunked dataset, in R's column-major order, to the chunks that hold them.
+ *
+ * <p>Because R's dimensions are the transpose of the dataset's, R's column-major order is the dataset's
+ * row-major order, and each chunk covers a block of the dataset rather than a contiguous range of the vector.
+ * The cursor keeps the array index of the last element accessed, together with the bounds of the chunk which
+ * holds it, and steps both forward as the vector index is incremented. Access stays within the current chunk,
+ * without allocating, for as long as the element does: the chunk is only looked up again when the element
+ * falls outside its bounds. Chunks at the edge of the dataset are clipped to its extent, but their elements
+ * are laid out with the full chunk size.</p>
+ *
+ * <p>The cursor holds a reference to its current chunk for as long as it stays within it, so that the chunk
+ * is read from the cache, or decoded, once per visit, even if it is too large to be cached or has since been
+ * evicted. The reference is released when the cursor moves to another chunk, or when it is
+ * {@linkplain #close() closed}. A cursor is not safe for use by multiple threads.</p>
+ */
+public class ChunkCursor implements Closeable {
 
-    private final long vectorOffset;
-    private final long vectorLength;
+    private final ChunkPrefetcher source;
+    private final int nDim;
+
+    /**
+     * The dataset's extent in each of its dimensions, in HDF5 order.
+     */
+    private final long[] dimensionSize;
+    private final int[] chunkSize;
+
+    /**
+     * The stride of each dimension within a chunk, whose elements are stored in row-major order.
+     */
+    private final int[] chunkStride;
+
+    /**
+     * The array index of the element at {@link #vectorIndex}.
+     */
+    private final long[] position;
+
+    /**
+     * The bounds of the current chunk: {@code chunkStart[d] <= position[d] < chunkEnd[d]} within the chunk.
+     */
+    private final long[] chunkStart;
+    private final long[] chunkEnd;
+
+    private long vectorIndex = -1;
+    private int chunkOffset;
     private Chunk chunk;
 
-    public ChunkCursor(long vectorOffset, long vectorLength, Chunk chunk) {
+    public ChunkCursor(ChunkPrefetcher source, long[] dimensionSize, int[] chunkSize) {
+        this.source = source;
+        this.nDim = dimensionSize.length;
+        this.dimensionSize = dimensionSize.clone();
+        this.chunkSize = chunkSize.clone();
+        this.chunkStride = new int[nDim];
+        this.position = new long[nDim];
+        this.chunkStart = new long[nDim];
+        this.chunkEnd = new long[nDim];
+
+        int stride = 1;
+        for (int d = nDim - 1; d >= 0; d--) {
+            chunkStride[d] = stride;
+            stride *= chunkSize[d];
+        }
+    }
+
+    /**
+     * Returns the element at the given index of the vector, moving to the chunk that holds it if necessary.
+     */
+    public double valueAt(long vectorIndex) throws IOException {
+        if(chunk == null) {
+            seek(vectorIndex);
+        } else if(vectorIndex == this.vectorIndex + 1) {
+            advance();
+        } else if(vectorIndex != this.vectorIndex) {
+            seek(vectorIndex);
+        }
+        this.vectorIndex = vectorIndex;
+        return chunk.getDoubleAt(chunkOffset);
+    }
+
+    /**
+     * Releases the current chunk. The cursor may still be used afterwards, and then looks its chunk up again.
+     */
+    @Override
+    public void close() {
+        Chunk current = chunk;
+        if(current != null) {
+            chunk = null;
+            current.release();
+        }
+    }
+
+    /**
+     * Moves to the next element, carrying into slower dimensions at the end of each row.
+     */
+    private void advance() throws IOException {
+        int last = nDim - 1;
+        position[last]++;
+        if(position[last] < chunkEnd[last]) {
+            chunkOffset++;
+            return;
+        }
+        for (int d = last; d > 0 && position[d] == dimensionSize[d]; d--) {
+            position[d] = 0;
+            position[d - 1]++;
+        }
+        locate();
+    }
+
+    /**
+     * Moves to an arbitrary element.
+     */
+    private void seek(long vectorIndex) throws IOException {
+        for (int d = nDim - 1; d >= 0; d--) {
+            position[d] = vectorIndex % dimensionSize[d];
+            vectorIndex /= dimensionSize[d];
+        }
+        locate();
+    }
 
-        this.vectorOffset = vectorOffset;
-        this.vectorLength = vectorLength;
-        this.chunk = chunk;
+    /**
+     * Finds the offset of the element at {@link #position} within its chunk, moving to another chunk if it lies
+     * outside the current one.
+     */
+    private void locate() throws IOException {
+        if(!chunkContainsPosition()) {
+            enterChunk();
+        }
+        int offset = 0;
+        for (int d = 0; d < nDim; d++) {
+            offset += (int) (position[d] - chunkStart[d]) * chunkStride[d];
+        }
+        chunkOffset = offset;
     }
 
-    public boolean containsVectorIndex(int vectorIndex) {
-        return vectorIndex >= vectorOffset && vectorIndex < (vectorOffset + vectorLength);
+    private boolean chunkContainsPosition() {
+        if(chunk == null) {
+            return false;
+        }
+        for (int d = 0; d < nDim; d++) {
+            if(position[d] < chunkStart[d] || position[d] >= chunkEnd[d]) {
+                return false;
+            }
+        }
+        return true;
     }
 
-    public double valueAt(int i) {
-        return chunk.getDoubleAt(((int)(i - vectorOffset)));
+    /**
+     * Releases the current chunk and retains the one holding {@link #position}. If the chunk cannot be read,
+     * the cursor is left without a chunk, and looks it up again on the next access.
+     */
+    private void enterChunk() throws IOException {
+        close();
+        Chunk next = source.chunkAt(position);
+        for (int d = 0; d < nDim; d++) {
+            chunkStart[d] = position[d] - position[d] % chunkSize[d];
+            chunkEnd[d] = Math.min(chunkStart[d] + chunkSize[d], dimensionSize[d]);
+        }
+        chunk = next;
     }
 }
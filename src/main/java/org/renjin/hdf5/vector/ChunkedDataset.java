@@ -3,8 +3,10 @@ package org.renjin.hdf5.vector;
 import org.renjin.eval.EvalException;
 import org.renjin.hdf5.DataObject;
 import org.renjin.hdf5.Hdf5File;
-import org.renjin.hdf5.chunked.Chunk;
+import org.renjin.hdf5.Hdf5FileCache;
 import org.renjin.hdf5.chunked.ChunkIndex;
+import org.renjin.hdf5.chunked.ChunkPrefetcher;
+import org.renjin.hdf5.filters.ChecksumPolicy;
 import org.renjin.hdf5.message.DataLayoutMessage;
 import org.renjin.hdf5.message.DataspaceMessage;
 import org.renjin.hdf5.message.DatatypeMessage;
@@ -22,13 +24,44 @@ public class ChunkedDataset {
     private final DatatypeMessage datatype;
     private final DataLayoutMessage layout;
     private final ChunkIndex chunkIndex;
+    private final ChunkPrefetcher prefetcher;
+    private final ParallelChunkReader parallelReader;
+
+    /**
+     * Keeps the file open in the {@link Hdf5FileCache} for as long as this dataset is reachable.
+     */
+    private final Hdf5FileCache.Handle fileHandle;
 
     private final int nDim;
     private long dimensionSize[];
-    private long chunkSize[];
+    private long hdfDimensionSize[];
     private long vectorLength;
 
+    public ChunkedDataset(Hdf5FileCache.Handle fileHandle, DataObject object) throws IOException {
+        this(fileHandle, object, fileHandle.getFile().getChecksumPolicy(), fileHandle.getFile().isLazyInflate(),
+            fileHandle.getFile().isBulkLoadIndexes());
+    }
+
+    /**
+     * Opens a dataset whose chunks are decoded with the given options, independently of other datasets opened
+     * from the same shared file.
+     *
+     * @param checksumPolicy how the checksums of chunks are verified
+     * @param lazyInflate if true, deflated chunks are inflated only as far as they are read
+     * @param bulkLoadIndex if true, a version 1 B-tree chunk index is read whole on its first lookup
+     */
+    public ChunkedDataset(Hdf5FileCache.Handle fileHandle, DataObject object, ChecksumPolicy checksumPolicy,
+                          boolean lazyInflate, boolean bulkLoadIndex) throws IOException {
+        this(fileHandle.getFile(), object, checksumPolicy, lazyInflate, bulkLoadIndex, fileHandle);
+    }
+
     public ChunkedDataset(Hdf5File file, DataObject object) throws IOException {
+        this(file, object, file.getChecksumPolicy(), file.isLazyInflate(), file.isBulkLoadIndexes(), null);
+    }
+
+    private ChunkedDataset(Hdf5File file, DataObject object, ChecksumPolicy checksumPolicy, boolean lazyInflate,
+                           boolean bulkLoadIndex, Hdf5FileCache.Handle fileHandle) throws IOException {
+        this.fileHandle = fileHandle;
         dataspace = object.getMessage(DataspaceMessage.class);
         datatype = object.getMessage(DatatypeMessage.class);
         layout = object.getMessage(DataLayoutMessage.class);
@@ -41,14 +74,19 @@ public class ChunkedDataset {
         nDim = dataspace.getDimensionality();
         vectorLength = 1;
         dimensionSize = new long[nDim];
-        chunkSize = new long[nDim];
         for (int i = 0; i < nDim; i++) {
             dimensionSize[nDim - i - 1] = dataspace.getDimensionSize(i);
-            chunkSize[nDim - i -1] = layout.getChunkSize(i);
             vectorLength *= dataspace.getDimensionSize(i);
         }
 
-        chunkIndex = file.openChunkIndex(object);
+        chunkIndex = file.getChunkIndex(object, checksumPolicy, lazyInflate, bulkLoadIndex);
+
+        hdfDimensionSize = new long[nDim];
+        for (int i = 0; i < nDim; i++) {
+            hdfDimensionSize[i] = dataspace.getDimensionSize(i);
+        }
+        prefetcher = new ChunkPrefetcher(chunkIndex);
+        parallelReader = new ParallelChunkReader(chunkIndex, hdfDimensionSize, layout.getChunkSize());
     }
 
     private int checkedIntCast(long size) {
@@ -76,34 +114,17 @@ public class ChunkedDataset {
         return checkedIntCast(vectorLength);
     }
 
-    public long[] vectorIndexToHdfsArrayIndex(long vectorIndex) {
-        long arrayIndex[] = new long[nDim];
-        for(int i = 0; i != nDim; ++i) {
-            arrayIndex[nDim - i - 1] = vectorIndex % dimensionSize[i];
-            vectorIndex = (vectorIndex - arrayIndex[nDim - i - 1]) / dimensionSize[i];
-        }
-        return arrayIndex;
-    }
-
-    public long hdfsArrayIndexToVectorIndex(long[] arrayIndex) {
-        long vectorIndex = 0;
-        long offset = 1;
-
-        for(int i = 0; i != nDim; ++i) {
-            vectorIndex += arrayIndex[nDim - i - 1] * offset;
-            offset *= dimensionSize[i];
-        }
-
-        return vectorIndex;
+    /**
+     * Returns a new cursor over this dataset's elements, in R's column-major order.
+     */
+    public ChunkCursor newCursor() {
+        return new ChunkCursor(prefetcher, hdfDimensionSize, layout.getChunkSize());
     }
 
-    public ChunkCursor chunkAt(int vectorIndex) throws IOException {
-        long arrayIndex[] = vectorIndexToHdfsArrayIndex(vectorIndex);
-        Chunk chunk = chunkIndex.chunkAt(arrayIndex);
-
-        long vectorStart = hdfsArrayIndexToVectorIndex(chunk.getChunkOffset());
-        long vectorLength = chunkSize[0];
-
-        return new ChunkCursor(vectorStart, vectorLength, chunk);
+    /**
+     * Reads the entire dataset, in R's column-major order, decoding chunks in parallel.
+     */
+    public double[] readAll() throws IOException {
+        return parallelReader.read(getVectorLength32());
     }
 }
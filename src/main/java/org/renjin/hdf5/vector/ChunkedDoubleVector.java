@@ -2,6 +2,7 @@ package org.renjin.hdf5.vector;
 
 
 import org.renjin.eval.EvalException;
+import org.renjin.hdf5.chunked.ChunkDecodeException;
 import org.renjin.sexp.AttributeMap;
 import org.renjin.sexp.DoubleVector;
 import org.renjin.sexp.SEXP;
@@ -11,7 +12,7 @@ import java.io.IOException;
 public class ChunkedDoubleVector extends DoubleVector {
 
     private final ChunkedDataset dataset;
-    private ChunkCursor chunk = null;
+    private ChunkCursor cursor = null;
 
     public ChunkedDoubleVector(ChunkedDataset dataset) {
         super(dataset.buildAttributes());
@@ -30,16 +31,26 @@ public class ChunkedDoubleVector extends DoubleVector {
 
     @Override
     public double getElementAsDouble(int i) {
-
-        if(chunk == null || !chunk.containsVectorIndex(i)) {
-            try {
-                chunk = dataset.chunkAt(i);
-            } catch (IOException e) {
-                throw new EvalException("I/O Error while accessing HDF5 File: " + e.getMessage(), e);
-            }
+        if(cursor == null) {
+            cursor = dataset.newCursor();
+        }
+        try {
+            return cursor.valueAt(i);
+        } catch (IOException | ChunkDecodeException e) {
+            throw new EvalException("I/O Error while accessing HDF5 File: " + e.getMessage(), e);
         }
+    }
 
-        return chunk.valueAt(i);
+    /**
+     * Materializes the whole vector by reading all chunks in parallel, rather than element by element.
+     */
+    @Override
+    public double[] toDoubleArray() {
+        try {
+            return dataset.readAll();
+        } catch (IOException e) {
+            throw new EvalException("I/O Error while accessing HDF5 File: " + e.getMessage(), e);
+        }
     }
 
     @Override
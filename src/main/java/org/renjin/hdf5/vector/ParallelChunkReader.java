@@ -0,0 +1,188 @@
+package org.renjin.hdf5.vector;
+
+import org.renjin.hdf5.chunked.Chunk;
+import org.renjin.hdf5.chunked.ChunkDecodeException;
+import org.renjin.hdf5.chunked.ChunkIndex;
+import org.renjin.hdf5.chunked.ConstantChunk;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Reads a whole chunked dataset into a single array, reading and decoding chunks in parallel.
+ *
+ * <p>The grid of chunks is split recursively across a fork-join pool. Each task reads a small, contiguous
+ * range of chunks as a batch and copies their elements directly into their place in the result.</p>
+ *
+ * <p>Since the dimensions are transposed, the R column-major order of the result is the same as the HDF5
+ * row-major order of the dataset, and each run of elements along the last HDF5 dimension of a chunk is
+ * copied as a block.</p>
+ *
+ * <p>Unallocated chunks are never read, and those filled with zeros are skipped altogether, so that reading a
+ * sparse dataset costs time in proportion to the chunks actually allocated.</p>
+ */
+public class ParallelChunkReader {
+
+    /**
+     * The number of chunks read by each task without splitting further.
+     */
+    private static final int CHUNKS_PER_TASK = 4;
+
+    private static final ForkJoinPool SHARED_POOL = new ForkJoinPool();
+
+    private final ChunkIndex index;
+    private final long[] dimensionSize;
+    private final int[] chunkSize;
+    private final long[] gridSize;
+    private final long chunkCount;
+    private final int nDim;
+
+    public ParallelChunkReader(ChunkIndex index, long[] dimensionSize, int[] chunkSize) {
+        this.index = index;
+        this.dimensionSize = dimensionSize;
+        this.chunkSize = chunkSize;
+        this.nDim = dimensionSize.length;
+        this.gridSize = new long[nDim];
+        long count = 1;
+        for (int i = 0; i < nDim; i++) {
+            gridSize[i] = (dimensionSize[i] + chunkSize[i] - 1) / chunkSize[i];
+            count *= gridSize[i];
+        }
+        this.chunkCount = count;
+    }
+
+    public double[] read(int length) throws IOException {
+        return read(length, SHARED_POOL);
+    }
+
+    public double[] read(int length, ForkJoinPool pool) throws IOException {
+        double[] result = new double[length];
+        if(chunkCount > 0) {
+            try {
+                pool.invoke(new ReadTask(result, 0, chunkCount));
+            } catch (ReadException e) {
+                throw e.getCause();
+            }
+        }
+        return result;
+    }
+
+    private void readChunks(double[] result, long start, long end) throws IOException {
+        List<long[]> offsets = new ArrayList<>();
+        for (long chunkNumber = start; chunkNumber < end; chunkNumber++) {
+            offsets.add(chunkOffset(chunkNumber));
+        }
+        List<Chunk> chunks = index.chunksAt(offsets);
+        try {
+            for (int i = 0; i < chunks.size(); i++) {
+                Chunk chunk = chunks.get(i);
+                // The result starts out filled with zeros
+                if(!(chunk instanceof ConstantChunk && ((ConstantChunk) chunk).isZero())) {
+                    copyChunk(chunk, offsets.get(i), result);
+                }
+            }
+        } catch (ChunkDecodeException e) {
+            throw e.getCause();
+        } finally {
+            for (Chunk chunk : chunks) {
+                chunk.release();
+            }
+        }
+    }
+
+    /**
+     * Copies the elements of a chunk which lie within the dataset into {@code result}.
+     */
+    private void copyChunk(Chunk chunk, long[] chunkOffset, double[] result) {
+
+        int last = nDim - 1;
+        int runLength = (int) Math.min(chunkSize[last], dimensionSize[last] - chunkOffset[last]);
+        int runCount = 1;
+        for (int i = 0; i < last; i++) {
+            runCount *= chunkSize[i];
+        }
+
+        // Position within the chunk of the current run, excluding the last dimension
+        int[] position = new int[nDim];
+
+        for (int run = 0; run < runCount; run++) {
+            boolean inside = true;
+            long resultIndex = 0;
+            for (int i = 0; i < nDim; i++) {
+                long index = chunkOffset[i] + position[i];
+                if(index >= dimensionSize[i]) {
+                    inside = false;
+                    break;
+                }
+                resultIndex = resultIndex * dimensionSize[i] + index;
+            }
+            if(inside) {
+                chunk.copyTo(run * chunkSize[last], result, (int) resultIndex, runLength);
+            }
+
+            // Advance to the next run in row-major order
+            for (int i = last - 1; i >= 0; i--) {
+                if(++position[i] < chunkSize[i]) {
+                    break;
+                }
+                position[i] = 0;
+            }
+        }
+    }
+
+    private long[] chunkOffset(long chunkNumber) {
+        long[] offset = new long[nDim];
+        for (int i = nDim - 1; i >= 0; i--) {
+            offset[i] = (chunkNumber % gridSize[i]) * chunkSize[i];
+            chunkNumber /= gridSize[i];
+        }
+        return offset;
+    }
+
+    private class ReadTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final double[] result;
+        private final long start;
+        private final long end;
+
+        private ReadTask(double[] result, long start, long end) {
+            this.result = result;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected void compute() {
+            if(end - start <= CHUNKS_PER_TASK) {
+                try {
+                    readChunks(result, start, end);
+                } catch (IOException e) {
+                    throw new ReadException(e);
+                }
+            } else {
+                long middle = start + (end - start) / 2;
+                invokeAll(new ReadTask(result, start, middle), new ReadTask(result, middle, end));
+            }
+        }
+    }
+
+    /**
+     * Carries an {@link IOException} out of the fork-join pool.
+     */
+    private static class ReadException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        private ReadException(IOException cause) {
+            super(cause);
+        }
+
+        @Override
+        public synchronized IOException getCause() {
+            return (IOException) super.getCause();
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package org.renjin.hdf5;
+
+import org.junit.Test;
+import org.renjin.hdf5.chunked.ChunkIndex;
+import org.renjin.hdf5.filters.ChecksumPolicy;
+import org.renjin.hdf5.storage.StorageType;
+import org.renjin.repackaged.guava.base.Ticker;
+import org.renjin.repackaged.guava.io.Files;
+import org.renjin.repackaged.guava.io.Resources;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class Hdf5FileCacheTest {
+
+  private final FakeTicker ticker = new FakeTicker();
+  private final Hdf5FileCache cache = new Hdf5FileCache(60, TimeUnit.SECONDS, ticker);
+
+  @Test
+  public void reopenSharesFile() throws IOException {
+    File file = testFile("h5ex_d_gzip.h5");
+
+    Hdf5FileCache.Handle first = cache.open(file, StorageType.PREAD);
+    Hdf5FileCache.Handle second = cache.open(file, StorageType.PREAD);
+
+    assertThat(second.getFile(), sameInstance(first.getFile()));
+
+    DataObject object = first.getFile().getObject("DS1");
+    assertThat(second.getFile().getObject("DS1"), sameInstance(object));
+    assertThat(second.getFile().getChunkIndex(object), sameInstance(first.getFile().getChunkIndex(object)));
+
+    first.close();
+    second.close();
+  }
+
+  @Test
+  public void decoderOptionsDoNotDisturbSharedIndexes() throws IOException {
+    Hdf5FileCache.Handle handle = cache.open(testFile("h5ex_d_gzip.h5"), StorageType.PREAD);
+    Hdf5File file = handle.getFile();
+    DataObject object = file.getObject("DS1");
+
+    ChunkIndex verified = file.getChunkIndex(object, ChecksumPolicy.VERIFY, false, false);
+    ChunkIndex skipped = file.getChunkIndex(object, ChecksumPolicy.SKIP, false, false);
+    ChunkIndex lazy = file.getChunkIndex(object, ChecksumPolicy.VERIFY, true, false);
+
+    assertThat(skipped, not(sameInstance(verified)));
+    assertThat(lazy, not(sameInstance(verified)));
+    assertThat(file.getChunkIndex(object, ChecksumPolicy.VERIFY, false, false), sameInstance(verified));
+    assertThat(file.getChunkIndex(object, ChecksumPolicy.SKIP, false, false), sameInstance(skipped));
+    assertThat(file.getChunkIndex(object, ChecksumPolicy.VERIFY, true, false), sameInstance(lazy));
+
+    // Bulk loading is chosen per index too, so the file's default can change without
+    // discarding the indexes already shared
+    file.setBulkLoadIndexes(true);
+    ChunkIndex bulkLoaded = file.getChunkIndex(object);
+    assertThat(bulkLoaded, not(sameInstance(verified)));
+    assertThat(file.getChunkIndex(object, ChecksumPolicy.VERIFY, false, true), sameInstance(bulkLoaded));
+    assertThat(file.getChunkIndex(object, ChecksumPolicy.VERIFY, false, false), sameInstance(verified));
+    assertThat(file.getChecksumPolicy(), equalTo(ChecksumPolicy.VERIFY));
+    assertThat(file.isLazyInflate(), equalTo(false));
+
+    handle.close();
+  }
+
+  @Test
+  public void closesAfterIdleTimeout() throws IOException {
+    File file = testFile("h5ex_d_gzip.h5");
+
+    Hdf5FileCache.Handle handle = cache.open(file, StorageType.PREAD);
+    handle.close();
+    handle.close();
+
+    ticker.advance(30, TimeUnit.SECONDS);
+    cache.cleanUp();
+    assertThat(cache.size(), equalTo(1));
+
+    Hdf5FileCache.Handle reopened = cache.open(file, StorageType.PREAD);
+    assertThat(reopened.getFile(), sameInstance(handle.getFile()));
+    reopened.close();
+
+    ticker.advance(61, TimeUnit.SECONDS);
+    cache.cleanUp();
+    assertThat(cache.size(), equalTo(0));
+  }
+
+  @Test
+  public void reopensModifiedFile() throws IOException {
+    File copy = File.createTempFile("hdf5cache", ".h5");
+    copy.deleteOnExit();
+    Files.copy(testFile("h5ex_d_gzip.h5"), copy);
+
+    Hdf5FileCache.Handle handle = cache.open(copy, StorageType.PREAD);
+
+    copy.setLastModified(copy.lastModified() - 10000);
+
+    Hdf5FileCache.Handle reopened = cache.open(copy, StorageType.PREAD);
+    assertThat(reopened.getFile(), not(sameInstance(handle.getFile())));
+    assertThat(cache.size(), equalTo(1));
+
+    handle.close();
+    reopened.close();
+  }
+
+  @Test
+  public void savesSidecarsOfOpenFiles() throws IOException {
+    File directory = Files.createTempDir();
+    directory.deleteOnExit();
+    File file = testFile("h5ex_d_gzip.h5");
+    cache.setSidecarIndexes(true, directory);
+
+    Hdf5FileCache.Handle handle = cache.open(file, StorageType.PREAD);
+    handle.getFile().getChunkIndex(handle.getFile().getObject("DS1"));
+    File sidecarFile = handle.getFile().getSidecarIndex().getSidecarFile();
+    sidecarFile.deleteOnExit();
+    assertFalse(sidecarFile.exists());
+
+    // The file is still open, and stays open until it has been idle for the timeout
+    cache.saveSidecarIndexes();
+    assertTrue(sidecarFile.isFile());
+    assertThat(cache.size(), equalTo(1));
+
+    // A later session finds the sidecar
+    Hdf5FileCache nextSession = new Hdf5FileCache(60, TimeUnit.SECONDS, ticker);
+    nextSession.setSidecarIndexes(true, directory);
+    Hdf5FileCache.Handle reopened = nextSession.open(file, StorageType.PREAD);
+    assertTrue(reopened.getFile().getSidecarIndex().isLoaded());
+    assertTrue(reopened.getFile().getSidecarIndex().getObjectAddress("DS1") != -1);
+
+    handle.close();
+    reopened.close();
+  }
+
+  @Test
+  public void sidecarFailuresDoNotPropagate() throws IOException {
+    // The sidecar directory cannot be created where a file already exists
+    File notADirectory = File.createTempFile("hdf5cache", ".idx");
+    notADirectory.deleteOnExit();
+    cache.setSidecarIndexes(true, notADirectory);
+
+    Hdf5FileCache.Handle handle = cache.open(testFile("h5ex_d_gzip.h5"), StorageType.PREAD);
+    handle.getFile().getChunkIndex(handle.getFile().getObject("DS1"));
+    cache.saveSidecarIndexes();
+    handle.close();
+
+    ticker.advance(61, TimeUnit.SECONDS);
+    cache.cleanUp();
+    assertThat(cache.size(), equalTo(0));
+  }
+
+  private File testFile(String name) {
+    return new File(Resources.getResource(name).getFile());
+  }
+
+  private static class FakeTicker extends Ticker {
+    private long nanos;
+
+    @Override
+    public long read() {
+      return nanos;
+    }
+
+    public void advance(long time, TimeUnit unit) {
+      nanos += unit.toNanos(time);
+    }
+  }
+}
@@ -0,0 +1,122 @@
+package org.renjin.hdf5;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.renjin.hdf5.chunked.Chunk;
+import org.renjin.hdf5.chunked.ChunkIndex;
+import org.renjin.hdf5.chunked.TableChunkIndex;
+import org.renjin.hdf5.storage.LatencyInjectingStorage;
+import org.renjin.hdf5.storage.StorageType;
+import org.renjin.repackaged.guava.io.Files;
+import org.renjin.repackaged.guava.io.Resources;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class SidecarIndexTest {
+
+  private File file;
+  private File sidecarFile;
+
+  @Before
+  public void setUp() throws IOException {
+    File directory = Files.createTempDir();
+    directory.deleteOnExit();
+    file = new File(directory, "h5ex_d_gzip.h5");
+    file.deleteOnExit();
+    Files.copy(new File(Resources.getResource("h5ex_d_gzip.h5").getFile()), file);
+    sidecarFile = SidecarIndex.defaultLocation(file);
+    sidecarFile.deleteOnExit();
+  }
+
+  @Test
+  public void reopenReadsSidecar() throws IOException {
+    LatencyInjectingStorage storage = new LatencyInjectingStorage(StorageType.PREAD.open(file));
+    Hdf5File first = new Hdf5File(new Hdf5Data(storage));
+    first.useSidecarIndex(file, sidecarFile);
+    assertFalse(first.getSidecarIndex().isLoaded());
+
+    storage.resetCounters();
+    DataObject object = first.getObject("DS1");
+    ChunkIndex walked = first.openChunkIndex(object);
+    long walkedRequests = storage.getRequestCount();
+    double[][] expected = readChunks(walked);
+    first.close();
+
+    assertTrue(sidecarFile.isFile());
+
+    storage = new LatencyInjectingStorage(StorageType.PREAD.open(file));
+    Hdf5File second = new Hdf5File(new Hdf5Data(storage));
+    second.useSidecarIndex(file, sidecarFile);
+    assertTrue(second.getSidecarIndex().isLoaded());
+
+    // Neither the group nor the chunk B-tree is read again
+    storage.resetCounters();
+    DataObject reopened = second.getObject("DS1");
+    ChunkIndex tabulated = second.openChunkIndex(reopened);
+    assertThat(tabulated, instanceOf(TableChunkIndex.class));
+    assertTrue(storage.getRequestCount() < walkedRequests);
+
+    assertThat(reopened.getAddress(), equalTo(object.getAddress()));
+    assertThat(second.getSidecarIndex().getChunkTable(reopened.getAddress()), notNullValue());
+    double[][] actual = readChunks(tabulated);
+    for (int c = 0; c < expected.length; c++) {
+      for (int k = 0; k < expected[c].length; k++) {
+        assertThat(actual[c][k], equalTo(expected[c][k]));
+      }
+    }
+    second.close();
+  }
+
+  @Test
+  public void staleSidecarIsRebuilt() throws IOException {
+    Hdf5File first = new Hdf5File(file, StorageType.PREAD);
+    first.useSidecarIndex(file, sidecarFile);
+    first.openChunkIndex(first.getObject("DS1"));
+    first.close();
+
+    assertTrue(file.setLastModified(file.lastModified() - 10000));
+
+    Hdf5File second = new Hdf5File(file, StorageType.PREAD);
+    second.useSidecarIndex(file, sidecarFile);
+    assertFalse(second.getSidecarIndex().isLoaded());
+    assertThat(second.getSidecarIndex().getObjectAddress("DS1"), equalTo(-1L));
+    second.openChunkIndex(second.getObject("DS1"));
+    second.close();
+
+    Hdf5File third = new Hdf5File(file, StorageType.PREAD);
+    third.useSidecarIndex(file, sidecarFile);
+    assertTrue(third.getSidecarIndex().isLoaded());
+    assertTrue(third.getSidecarIndex().getObjectAddress("DS1") != -1);
+    third.close();
+  }
+
+  /**
+   * Reads the first row of each of the 4 x 8 chunks of the 32 x 64 dataset.
+   */
+  private static double[][] readChunks(ChunkIndex index) throws IOException {
+    double[][] values = new double[8 * 8][];
+    for (int i = 0; i < 8; i++) {
+      for (int j = 0; j < 8; j++) {
+        Chunk chunk = index.chunkAt(new long[] { i * 4, j * 8 });
+        try {
+          double[] row = new double[8];
+          for (int k = 0; k < row.length; k++) {
+            row[k] = chunk.getDoubleAt(k);
+          }
+          values[i * 8 + j] = row;
+        } finally {
+          chunk.release();
+        }
+      }
+    }
+    return values;
+  }
+}
@@ -0,0 +1,76 @@
+package org.renjin.hdf5.chunked;
+
+import org.junit.Test;
+import org.renjin.hdf5.DataObject;
+import org.renjin.hdf5.Hdf5Data;
+import org.renjin.hdf5.Hdf5File;
+import org.renjin.hdf5.storage.LatencyInjectingStorage;
+import org.renjin.hdf5.storage.StorageType;
+import org.renjin.repackaged.guava.io.Resources;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+public class BTreeChunkIndexTest {
+
+  @Test
+  public void findsLastChunk() throws IOException {
+    // The final key of this tree's only node is the offset of its last chunk
+    Hdf5File hdf5File = new Hdf5File(new File(Resources.getResource("h5ex_d_chunk.h5").getFile()));
+    ChunkIndex index = hdf5File.openChunkIndex(hdf5File.getObject("DS1"));
+
+    ChunkLocation location = index.locate(new long[] { 4, 4 });
+    assertThat(location.getChunkOffset()[0], equalTo(4L));
+    assertThat(location.getChunkOffset()[1], equalTo(4L));
+  }
+
+  @Test
+  public void bulkLoadMatchesTreeWalk() throws IOException {
+    File file = new File(Resources.getResource("h5ex_d_gzip.h5").getFile());
+    LatencyInjectingStorage storage = new LatencyInjectingStorage(StorageType.PREAD.open(file));
+    Hdf5File hdf5File = new Hdf5File(new Hdf5Data(storage));
+    DataObject object = hdf5File.getObject("DS1");
+
+    ChunkIndex walked = hdf5File.openChunkIndex(object);
+    hdf5File.setBulkLoadIndexes(true);
+    ChunkIndex loaded = hdf5File.openChunkIndex(object);
+    assertThat(loaded, instanceOf(BTreeChunkIndex.class));
+
+    // 32 x 64 dataset in 4 x 8 chunks. Once the first chunk has been located, neither
+    // index needs to read anything more.
+    loaded.locate(new long[] { 0, 0 });
+    storage.resetCounters();
+    for (int i = 0; i < 32; i += 4) {
+      for (int j = 0; j < 64; j += 8) {
+        long[] offset = new long[] { i, j };
+        ChunkLocation expected = walked.locate(offset);
+        ChunkLocation actual = loaded.locate(offset);
+        assertThat(actual.getAddress(), equalTo(expected.getAddress()));
+        assertThat(actual.getSize(), equalTo(expected.getSize()));
+        assertThat(actual.getFilterMask(), equalTo(expected.getFilterMask()));
+      }
+    }
+
+    assertThat(storage.getRequestCount(), equalTo(0L));
+
+    assertNotWritten(walked, new long[] { 32, 0 });
+    assertNotWritten(loaded, new long[] { 32, 0 });
+  }
+
+  @Test
+  public void readsFillValue() throws IOException {
+    Hdf5File hdf5File = new Hdf5File(new File(Resources.getResource("h5ex_d_fillval.h5").getFile()));
+    ChunkIndex index = hdf5File.openChunkIndex(hdf5File.getObject("DS1"));
+
+    assertThat(index.getFillChunk().getValue(), equalTo(99.0));
+  }
+
+  private static void assertNotWritten(ChunkIndex index, long[] chunkOffset) throws IOException {
+    assertThat(index.locate(chunkOffset), nullValue());
+  }
+}
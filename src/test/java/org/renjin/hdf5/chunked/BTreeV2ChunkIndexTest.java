@@ -0,0 +1,194 @@
+package org.renjin.hdf5.chunked;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.renjin.hdf5.Hdf5Data;
+import org.renjin.hdf5.storage.LatencyInjectingStorage;
+import org.renjin.hdf5.storage.MemoryStorage;
+import org.renjin.hdf5.storage.StorageBackend;
+import org.renjin.repackaged.guava.io.Resources;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Reads version 2 B-trees written into the free space after an existing file, which supplies the superblock.
+ *
+ * <p>The trees index a 16 x 12 dataset of 4 x 3 chunks, of which the chunks at scaled offsets
+ * (0, 1), (1, 3), (2, 0), (2, 2) and (3, 3) have not been written.</p>
+ */
+public class BTreeV2ChunkIndexTest {
+
+  private static final int NODE_SIZE = 256;
+
+  private ByteBuffer buffer;
+  private final List<long[]> written = new ArrayList<>();
+
+  /**
+   * A tree of depth two, with one record in each internal node and two in each leaf:
+   * <pre>
+   *               5
+   *       2               8
+   *   0 1   3 4       6 7   9 10
+   * </pre>
+   */
+  @Test
+  public void filteredTreeOfDepthTwo() throws IOException {
+    // Filtered records: address, 2-byte chunk size, filter mask and 2 scaled offsets
+    int recordSize = 8 + 2 + 4 + 16;
+
+    // Leaves hold up to (256 - 10) / 30 = 8 records, so child record counts take one byte.
+    // Nodes of depth one hold up to (256 - 10 - 9) / (30 + 9) = 6 records, and so up to
+    // 7 * 8 + 6 = 62 records beneath them, so total counts also take one byte.
+    long leaf0 = writeLeaf(true, 0, 2);
+    long leaf1 = writeLeaf(true, 3, 2);
+    long leaf2 = writeLeaf(true, 6, 2);
+    long leaf3 = writeLeaf(true, 9, 2);
+    long internal0 = writeInternal(1, new int[] { 2 }, new long[] { leaf0, leaf1 }, new int[] { 2, 2 }, null);
+    long internal1 = writeInternal(1, new int[] { 8 }, new long[] { leaf2, leaf3 }, new int[] { 2, 2 }, null);
+    long root = writeInternal(2, new int[] { 5 }, new long[] { internal0, internal1 }, new int[] { 1, 1 },
+        new int[] { 5, 5 });
+
+    long header = writeHeader(true, recordSize, 2, root, 1, 11);
+
+    LatencyInjectingStorage storage = new LatencyInjectingStorage(new MemoryStorage(buffer.array()));
+    BTreeV2ChunkIndex index = openIndex(storage, header);
+
+    checkAll(index, true);
+
+    // All records are now held in memory
+    storage.resetCounters();
+    checkAll(index, true);
+    assertThat(storage.getRequestCount(), equalTo(0L));
+  }
+
+  @Test
+  public void unfilteredRootLeaf() throws IOException {
+    long leaf = writeLeaf(false, 0, 11);
+    long header = writeHeader(false, 8 + 16, 0, leaf, 11, 11);
+
+    BTreeV2ChunkIndex index = openIndex(new MemoryStorage(buffer.array()), header);
+
+    checkAll(index, false);
+  }
+
+  @Before
+  public void setUp() throws IOException {
+    byte[] file = Resources.toByteArray(Resources.getResource("h5ex_d_gzip.h5"));
+    buffer = ByteBuffer.allocate(file.length + 4096).order(ByteOrder.LITTLE_ENDIAN);
+    buffer.put(file);
+
+    for (int i = 0; i < 4; i++) {
+      for (int j = 0; j < 4; j++) {
+        if(!isMissing(i, j)) {
+          written.add(new long[] { i, j });
+        }
+      }
+    }
+  }
+
+  private static boolean isMissing(int i, int j) {
+    return (i == 0 && j == 1) || (i == 1 && j == 3) || (i == 2 && (j == 0 || j == 2)) || (i == 3 && j == 3);
+  }
+
+  private BTreeV2ChunkIndex openIndex(StorageBackend storage, long header) throws IOException {
+    return new BTreeV2ChunkIndex(new Hdf5Data(storage), new long[] { 16, 12 }, new int[] { 4, 3 }, 8, header, null);
+  }
+
+  private void checkAll(BTreeV2ChunkIndex index, boolean filtered) throws IOException {
+    int k = 0;
+    for (int i = 0; i < 4; i++) {
+      for (int j = 0; j < 4; j++) {
+        long[] chunkOffset = new long[] { i * 4, j * 3 };
+        if(isMissing(i, j)) {
+          assertThat("chunk (" + i + ", " + j + ") should not have been allocated", index.locate(chunkOffset),
+              nullValue());
+        } else {
+          ChunkLocation location = index.locate(chunkOffset);
+          assertThat(location.getAddress(), equalTo(chunkAddress(k)));
+          if(filtered) {
+            assertThat(location.getSize(), equalTo(chunkSize(k)));
+            assertThat(location.getFilterMask(), equalTo(k % 2));
+          } else {
+            assertThat(location.getSize(), equalTo(4 * 3 * 8));
+            assertThat(location.getFilterMask(), equalTo(0));
+          }
+          k++;
+        }
+      }
+    }
+  }
+
+  private static long chunkAddress(int k) {
+    return 100000 + k * 100;
+  }
+
+  private static int chunkSize(int k) {
+    return 200 + k;
+  }
+
+  private long writeHeader(boolean filtered, int recordSize, int depth, long root, int rootRecords, int total) {
+    long address = buffer.position();
+    buffer.put("BTHD".getBytes());
+    buffer.put((byte) 0);
+    buffer.put((byte) (filtered ? 11 : 10));
+    buffer.putInt(NODE_SIZE);
+    buffer.putShort((short) recordSize);
+    buffer.putShort((short) depth);
+    buffer.put((byte) 100);
+    buffer.put((byte) 40);
+    buffer.putLong(root);
+    buffer.putShort((short) rootRecords);
+    buffer.putLong(total);
+    buffer.putInt(0);
+    return address;
+  }
+
+  private long writeLeaf(boolean filtered, int first, int count) {
+    long address = buffer.position();
+    buffer.put("BTLF".getBytes());
+    buffer.put((byte) 0);
+    buffer.put((byte) (filtered ? 11 : 10));
+    for (int i = 0; i < count; i++) {
+      writeRecord(filtered, first + i);
+    }
+    buffer.putInt(0);
+    return address;
+  }
+
+  private long writeInternal(int depth, int[] records, long[] children, int[] childRecords, int[] childTotals) {
+    long address = buffer.position();
+    buffer.put("BTIN".getBytes());
+    buffer.put((byte) 0);
+    buffer.put((byte) 11);
+    for (int record : records) {
+      writeRecord(true, record);
+    }
+    for (int i = 0; i < children.length; i++) {
+      buffer.putLong(children[i]);
+      buffer.put((byte) childRecords[i]);
+      if(depth > 1) {
+        buffer.put((byte) childTotals[i]);
+      }
+    }
+    buffer.putInt(0);
+    return address;
+  }
+
+  private void writeRecord(boolean filtered, int k) {
+    buffer.putLong(chunkAddress(k));
+    if(filtered) {
+      buffer.putShort((short) chunkSize(k));
+      buffer.putInt(k % 2);
+    }
+    buffer.putLong(written.get(k)[0]);
+    buffer.putLong(written.get(k)[1]);
+  }
+}
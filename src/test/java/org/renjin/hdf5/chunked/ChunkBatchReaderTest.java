@@ -0,0 +1,115 @@
+package org.renjin.hdf5.chunked;
+
+import org.junit.Test;
+import org.renjin.hdf5.DataObject;
+import org.renjin.hdf5.Hdf5Data;
+import org.renjin.hdf5.Hdf5File;
+import org.renjin.hdf5.storage.LatencyInjectingStorage;
+import org.renjin.hdf5.storage.MemoryStorage;
+import org.renjin.hdf5.storage.StorageType;
+import org.renjin.repackaged.guava.io.Resources;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ChunkBatchReaderTest {
+
+  @Test
+  public void readAllChunksCoalesced() throws IOException {
+    File file = new File(Resources.getResource("h5ex_d_gzip.h5").getFile());
+    LatencyInjectingStorage storage = new LatencyInjectingStorage(StorageType.PREAD.open(file));
+    Hdf5File hdf5File = new Hdf5File(new Hdf5Data(storage));
+    DataObject object = hdf5File.getObject("DS1");
+    ChunkIndex chunkIndex = hdf5File.openChunkIndex(object);
+
+    // 32 x 64 dataset in 4 x 8 chunks
+    List<long[]> chunkOffsets = new ArrayList<>();
+    for (int i = 0; i < 32; i += 4) {
+      for (int j = 0; j < 64; j += 8) {
+        chunkOffsets.add(new long[] { i, j });
+      }
+    }
+
+    storage.resetCounters();
+    List<Chunk> chunks = chunkIndex.chunksAt(chunkOffsets);
+
+    assertTrue("requests: " + storage.getRequestCount(), storage.getRequestCount() < 8);
+    assertThat(chunks.size(), equalTo(64));
+
+    // DS1[i][j] = i * j - j
+    for (int c = 0; c < chunks.size(); c++) {
+      long[] offset = chunkOffsets.get(c);
+      Chunk chunk = chunks.get(c);
+      assertThat(chunk.getChunkOffset()[0], equalTo(offset[0]));
+      assertThat(chunk.getChunkOffset()[1], equalTo(offset[1]));
+      for (int k = 0; k < 32; k++) {
+        long i = offset[0] + k / 8;
+        long j = offset[1] + k % 8;
+        assertThat(chunk.getDoubleAt(k), equalTo((double) (i * j - j)));
+      }
+    }
+
+    // Now cached
+    storage.resetCounters();
+    chunkIndex.chunksAt(chunkOffsets);
+    assertThat(storage.getRequestCount(), equalTo(0L));
+  }
+
+  @Test
+  public void failedDecodeReleasesDecodedChunks() throws IOException {
+    Hdf5Data file = new Hdf5Data(new MemoryStorage(Resources.toByteArray(Resources.getResource("h5ex_d_gzip.h5"))));
+    final List<Chunk> decoded = new ArrayList<>();
+    ChunkDecoder decoder = new ChunkDecoder() {
+      @Override
+      public Chunk decode(ChunkLocation location, ByteBuffer buffer) throws IOException {
+        if(decoded.size() == 2) {
+          throw new IOException("corrupt chunk");
+        }
+        Chunk chunk = new TestChunk(location.getChunkOffset());
+        decoded.add(chunk);
+        return chunk;
+      }
+    };
+
+    List<ChunkLocation> locations = new ArrayList<>();
+    for (int i = 0; i < 3; i++) {
+      locations.add(new ChunkLocation(new long[] { i }, 100 + i * 10, 10, 0));
+    }
+
+    try {
+      new ChunkBatchReader(file, decoder).read(locations);
+      fail("expected the decoding error");
+    } catch (IOException e) {
+      assertThat(e.getMessage(), equalTo("corrupt chunk"));
+    }
+
+    assertThat(decoded.size(), equalTo(2));
+    for (Chunk chunk : decoded) {
+      assertThat(chunk.tryRetain(), equalTo(false));
+    }
+  }
+
+  private static class TestChunk extends Chunk {
+    TestChunk(long[] chunkOffset) {
+      super(chunkOffset);
+    }
+
+    @Override
+    public double getDoubleAt(int i) {
+      return 0;
+    }
+
+    @Override
+    public int getByteSize() {
+      return 8;
+    }
+  }
+}
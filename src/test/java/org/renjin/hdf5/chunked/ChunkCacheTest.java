@@ -0,0 +1,166 @@
+package org.renjin.hdf5.chunked;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.DoubleBuffer;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class ChunkCacheTest {
+
+  @Test
+  public void evictsLeastRecentlyUsedOverBudget() {
+    // Four chunks of 32 doubles fit within the budget
+    ChunkCache cache = new ChunkCache(4 * 32 * 8, 1);
+
+    for (int i = 0; i < 4; i++) {
+      cache.put(1, i, chunk(i));
+    }
+    assertThat(cache.size(), equalTo(4L));
+
+    // Touch the first chunk so that the second becomes the eldest
+    assertThat(cache.getIfPresent(1, 0), notNullValue());
+
+    cache.put(1, 4, chunk(4));
+
+    assertThat(cache.size(), equalTo(4L));
+    assertThat(cache.getIfPresent(1, 0), notNullValue());
+    assertThat(cache.getIfPresent(1, 1), nullValue());
+  }
+
+  @Test
+  public void keysIncludeIndex() {
+    ChunkCache cache = new ChunkCache(1024 * 1024, 4);
+    cache.put(1, 0, chunk(0));
+
+    assertThat(cache.getIfPresent(1, 0), notNullValue());
+    assertThat(cache.getIfPresent(2, 0), nullValue());
+  }
+
+  @Test
+  public void loadsOnce() throws IOException {
+    ChunkCache cache = new ChunkCache(1024 * 1024, 4);
+    final AtomicInteger loads = new AtomicInteger();
+    Callable<Chunk> loader = new Callable<Chunk>() {
+      @Override
+      public Chunk call() throws Exception {
+        loads.incrementAndGet();
+        return chunk(0);
+      }
+    };
+
+    cache.get(1, 0, loader);
+    cache.get(1, 0, loader);
+
+    assertThat(loads.get(), equalTo(1));
+  }
+
+  @Test(expected = IOException.class)
+  public void propagatesIOExceptions() throws IOException {
+    ChunkCache cache = new ChunkCache(1024 * 1024, 4);
+    cache.get(1, 0, new Callable<Chunk>() {
+      @Override
+      public Chunk call() throws Exception {
+        throw new IOException("failed");
+      }
+    });
+  }
+
+  @Test
+  public void chunkLargerThanBudgetIsNotRetained() {
+    ChunkCache cache = new ChunkCache(100, 1);
+    cache.put(1, 0, chunk(0));
+    assertTrue(cache.size() == 0);
+  }
+
+  @Test
+  public void chunkLargerThanBudgetIsReturnedUncached() throws IOException {
+    ChunkCache cache = new ChunkCache(256, 4);
+    assertThat(cache.getMaxChunkBytes(), equalTo(256L));
+
+    final Chunk large = new DoubleChunk(new long[] { 0 }, DoubleBuffer.allocate(64));
+    Chunk chunk = cache.get(1, 0, new Callable<Chunk>() {
+      @Override
+      public Chunk call() throws Exception {
+        return large;
+      }
+    });
+
+    assertThat(chunk, sameInstance(large));
+    assertThat(cache.size(), equalTo(0L));
+
+    // The caller holds the only reference
+    chunk.release();
+    assertThat(chunk.tryRetain(), equalTo(false));
+  }
+
+  @Test
+  public void budgetIsSharedByAllStripes() throws IOException {
+    // A chunk of half the budget fits, however many stripes the cache has
+    ChunkCache cache = new ChunkCache(1024, 16);
+    Chunk chunk = cache.get(1, 0, new Callable<Chunk>() {
+      @Override
+      public Chunk call() throws Exception {
+        return new DoubleChunk(new long[] { 0 }, DoubleBuffer.allocate(64));
+      }
+    });
+    chunk.release();
+
+    assertThat(cache.size(), equalTo(1L));
+    assertThat(cache.getIfPresent(1, 0), sameInstance(chunk));
+
+    // Chunks spread over the stripes are evicted down to the budget, leaving the
+    // large chunk, which has been read again, and two of the smaller ones
+    for (int i = 1; i <= 32; i++) {
+      cache.put(1, i, chunk(i));
+    }
+    assertThat(cache.size(), equalTo(3L));
+    assertThat(cache.getIfPresent(1, 0), sameInstance(chunk));
+  }
+
+  @Test
+  public void scanDoesNotEvictChunksReadAgain() {
+    // Eight chunks of 32 doubles fit within the budget
+    ChunkCache cache = new ChunkCache(8 * 32 * 8, 1);
+
+    // Chunks 0 and 1 are read a second time, and so are protected
+    cache.put(1, 0, chunk(0));
+    cache.put(1, 1, chunk(1));
+    assertThat(cache.getIfPresent(1, 0), notNullValue());
+    assertThat(cache.getIfPresent(1, 1), notNullValue());
+
+    // A scan through many more chunks than fit only evicts chunks on probation
+    for (int i = 2; i < 100; i++) {
+      cache.put(1, i, chunk(i));
+    }
+
+    assertThat(cache.size(), equalTo(8L));
+    assertThat(cache.getIfPresent(1, 0), notNullValue());
+    assertThat(cache.getIfPresent(1, 1), notNullValue());
+    assertThat(cache.getIfPresent(1, 2), nullValue());
+    assertThat(cache.getIfPresent(1, 99), notNullValue());
+  }
+
+  @Test
+  public void evictedChunksAreReleased() {
+    ChunkCache cache = new ChunkCache(32 * 8, 1);
+    Chunk first = chunk(0);
+    cache.put(1, 0, first);
+    cache.put(1, 1, chunk(1));
+
+    assertThat(first.tryRetain(), equalTo(false));
+    assertThat(cache.stats().evictionCount(), equalTo(1L));
+  }
+
+  private static Chunk chunk(int i) {
+    return new DoubleChunk(new long[] { i }, DoubleBuffer.allocate(32));
+  }
+}
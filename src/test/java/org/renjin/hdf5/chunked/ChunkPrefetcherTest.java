@@ -0,0 +1,102 @@
+package org.renjin.hdf5.chunked;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+public class ChunkPrefetcherTest {
+
+  /**
+   * Records the chunks requested and runs prefetch tasks immediately.
+   */
+  private static class RecordingIndex extends ChunkIndex implements Executor {
+    private final List<String> requests = new ArrayList<>();
+    private boolean prefetching;
+
+    private RecordingIndex(long[] dimensionSize, int[] chunkSize) {
+      super(null, dimensionSize, chunkSize, null);
+    }
+
+    @Override
+    protected ChunkLocation locate(long[] chunkOffset) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Chunk chunkAt(long[] arrayIndex) throws IOException {
+      requests.add((prefetching ? "prefetch " : "") + Arrays.toString(arrayIndex));
+      return null;
+    }
+
+    @Override
+    public List<Chunk> chunksAt(List<long[]> arrayIndexes) throws IOException {
+      for (long[] arrayIndex : arrayIndexes) {
+        chunkAt(arrayIndex);
+      }
+      return Collections.emptyList();
+    }
+
+    @Override
+    public void execute(Runnable command) {
+      prefetching = true;
+      command.run();
+      prefetching = false;
+    }
+  }
+
+  @Test
+  public void forwardScan() throws IOException {
+    RecordingIndex index = new RecordingIndex(new long[] { 100 }, new int[] { 10 });
+    ChunkPrefetcher prefetcher = new ChunkPrefetcher(index, 2, index);
+
+    prefetcher.chunkAt(new long[] { 5 });
+    prefetcher.chunkAt(new long[] { 15 });
+    prefetcher.chunkAt(new long[] { 25 });
+    prefetcher.chunkAt(new long[] { 30 });
+    prefetcher.chunkAt(new long[] { 40 });
+
+    assertThat(index.requests, equalTo(Arrays.asList(
+        "[5]",
+        "[15]",
+        "prefetch [30]", "prefetch [40]", "[25]",
+        "prefetch [50]", "[30]",
+        "prefetch [60]", "[40]")));
+  }
+
+  @Test
+  public void stridedScanStopsAtEdge() throws IOException {
+    // 3 x 4 grid of chunks, scanned down the first column
+    RecordingIndex index = new RecordingIndex(new long[] { 6, 8 }, new int[] { 2, 2 });
+    ChunkPrefetcher prefetcher = new ChunkPrefetcher(index, 4, index);
+
+    prefetcher.chunkAt(new long[] { 0, 0 });
+    prefetcher.chunkAt(new long[] { 2, 1 });
+    prefetcher.chunkAt(new long[] { 4, 0 });
+
+    assertThat(index.requests, equalTo(Arrays.asList(
+        "[0, 0]",
+        "[2, 1]",
+        "[4, 0]")));
+  }
+
+  @Test
+  public void noPrefetchForRandomAccess() throws IOException {
+    RecordingIndex index = new RecordingIndex(new long[] { 100 }, new int[] { 10 });
+    ChunkPrefetcher prefetcher = new ChunkPrefetcher(index, 4, index);
+
+    prefetcher.chunkAt(new long[] { 50 });
+    prefetcher.chunkAt(new long[] { 10 });
+    prefetcher.chunkAt(new long[] { 90 });
+    prefetcher.chunkAt(new long[] { 20 });
+
+    assertThat(index.requests.size(), equalTo(4));
+  }
+}
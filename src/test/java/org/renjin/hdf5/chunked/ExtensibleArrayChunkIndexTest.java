@@ -0,0 +1,211 @@
+package org.renjin.hdf5.chunked;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.renjin.hdf5.Hdf5Data;
+import org.renjin.hdf5.storage.LatencyInjectingStorage;
+import org.renjin.hdf5.storage.MemoryStorage;
+import org.renjin.hdf5.storage.StorageBackend;
+import org.renjin.repackaged.guava.io.Resources;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Reads an extensible array written into the free space after an existing file, which supplies the superblock.
+ *
+ * <p>The array has 4 elements in its index block, at least 2 elements per data block, at least 2 data block
+ * pointers per secondary block, and 4 elements per data block page. Its 40 elements are laid out as:</p>
+ * <ul>
+ *   <li>0 - 3 in the index block</li>
+ *   <li>4 - 9 in two data blocks referenced by the index block</li>
+ *   <li>10 - 17 in two data blocks of 4 elements, through the first secondary block</li>
+ *   <li>18 - 33 in two paged data blocks of 8 elements, through the second secondary block, whose
+ *   last page (30 - 33) has not been initialized</li>
+ *   <li>34 - 39 in the third secondary block, which has not been allocated</li>
+ * </ul>
+ */
+public class ExtensibleArrayChunkIndexTest {
+
+  private static final int ELEMENT_COUNT = 40;
+  private static final int OFFSET_SIZE = 8;
+  private static final int CHUNK_SIZE_LENGTH = 2;
+  private static final int ELEMENT_SIZE = OFFSET_SIZE + CHUNK_SIZE_LENGTH + 4;
+  private static final int MAX_BITS = 10;
+  private static final long UNDEFINED = -1;
+
+  private ByteBuffer buffer;
+  private long headerAddress;
+
+  @Before
+  public void writeArray() throws IOException {
+    byte[] file = Resources.toByteArray(Resources.getResource("h5ex_d_gzip.h5"));
+    buffer = ByteBuffer.allocate(file.length + 4096).order(ByteOrder.LITTLE_ENDIAN);
+    buffer.put(file);
+
+    headerAddress = buffer.position();
+    int indexBlockAddressPosition = writeHeader();
+
+    long secondaryBlock1 = writeSecondaryBlock(new long[] { writeDataBlock(10, 4), writeDataBlock(14, 4) }, null);
+    long pagedBlock0 = writePagedDataBlock(18, 8);
+    long pagedBlock1 = writePagedDataBlock(26, 8);
+    // Pages (0, 0), (0, 1) and (1, 0) are initialized
+    long secondaryBlock2 = writeSecondaryBlock(new long[] { pagedBlock0, pagedBlock1 }, new byte[] { (byte) 0xE0 });
+    long dataBlock0 = writeDataBlock(4, 2);
+    long dataBlock1 = writeDataBlock(6, 4);
+
+    long indexBlockAddress = buffer.position();
+    buffer.putLong(indexBlockAddressPosition, indexBlockAddress);
+    writePrefix("EAIB");
+    for (int i = 0; i < 4; i++) {
+      writeElement(i);
+    }
+    buffer.putLong(dataBlock0);
+    buffer.putLong(dataBlock1);
+    buffer.putLong(secondaryBlock1);
+    buffer.putLong(secondaryBlock2);
+    for (int i = 2; i < 8; i++) {
+      buffer.putLong(UNDEFINED);
+    }
+    buffer.putInt(0);
+  }
+
+  @Test
+  public void locateAllChunks() throws IOException {
+    LatencyInjectingStorage storage = new LatencyInjectingStorage(new MemoryStorage(buffer.array()));
+    ExtensibleArrayChunkIndex index = openIndex(storage);
+
+    for (int k = 0; k < ELEMENT_COUNT; k++) {
+      checkElement(index, k);
+    }
+
+    // Every block has now been read
+    storage.resetCounters();
+    for (int k = ELEMENT_COUNT - 1; k >= 0; k--) {
+      checkElement(index, k);
+    }
+    assertThat(storage.getRequestCount(), equalTo(0L));
+  }
+
+  @Test
+  public void unlimitedDimensionVariesSlowest() throws IOException {
+    ExtensibleArrayChunkIndex index = openIndex(new MemoryStorage(buffer.array()));
+
+    assertThat(index.arrayIndex(new long[] { 0, 0 }), equalTo(0L));
+    assertThat(index.arrayIndex(new long[] { 3, 0 }), equalTo(1L));
+    assertThat(index.arrayIndex(new long[] { 0, 5 }), equalTo(2L));
+    assertThat(index.arrayIndex(new long[] { 3, 95 }), equalTo(39L));
+  }
+
+  private ExtensibleArrayChunkIndex openIndex(StorageBackend storage) throws IOException {
+    // A 6 x 200 dataset of 3 x 5 chunks of bytes, whose second dimension is unlimited,
+    // so that the chunks are numbered along the first dimension first.
+    return new ExtensibleArrayChunkIndex(new Hdf5Data(storage),
+        new long[] { 6, 200 }, new long[] { 6, -1 }, new int[] { 3, 5 }, 1, headerAddress, null);
+  }
+
+  private void checkElement(ExtensibleArrayChunkIndex index, int k) throws IOException {
+    long[] chunkOffset = new long[] { (k % 2) * 3, (k / 2) * 5 };
+    if(k >= 30) {
+      assertThat("chunk " + k + " should not have been allocated", index.locate(chunkOffset), nullValue());
+    } else {
+      ChunkLocation location = index.locate(chunkOffset);
+      assertThat("address of " + k, location.getAddress(), equalTo(chunkAddress(k)));
+      assertThat("size of " + k, location.getSize(), equalTo(chunkSize(k)));
+      assertThat("mask of " + k, location.getFilterMask(), equalTo(k % 2));
+      assertThat(Arrays.equals(location.getChunkOffset(), chunkOffset), equalTo(true));
+    }
+  }
+
+  private static long chunkAddress(int k) {
+    return 100000 + k * 100;
+  }
+
+  private static int chunkSize(int k) {
+    return 300 + k;
+  }
+
+  private int writeHeader() {
+    buffer.put("EAHD".getBytes());
+    buffer.put((byte) 0);               // version
+    buffer.put((byte) 1);               // client id: filtered chunks
+    buffer.put((byte) ELEMENT_SIZE);
+    buffer.put((byte) MAX_BITS);
+    buffer.put((byte) 4);               // index block elements
+    buffer.put((byte) 2);               // data block min elements
+    buffer.put((byte) 2);               // secondary block min data pointers
+    buffer.put((byte) 2);               // max data block page elements bits
+    for (int i = 0; i < 4; i++) {
+      buffer.putLong(0);                // statistics
+    }
+    buffer.putLong(ELEMENT_COUNT);      // max index set
+    buffer.putLong(ELEMENT_COUNT);      // number of elements
+    int indexBlockAddressPosition = buffer.position();
+    buffer.putLong(UNDEFINED);
+    buffer.putInt(0);                   // checksum
+    return indexBlockAddressPosition;
+  }
+
+  private void writePrefix(String signature) {
+    buffer.put(signature.getBytes());
+    buffer.put((byte) 0);
+    buffer.put((byte) 1);
+    buffer.putLong(headerAddress);
+  }
+
+  private long writeDataBlock(int first, int count) {
+    long address = buffer.position();
+    writePrefix("EADB");
+    buffer.putShort((short) first);
+    for (int i = 0; i < count; i++) {
+      writeElement(first + i);
+    }
+    buffer.putInt(0);
+    return address;
+  }
+
+  private long writePagedDataBlock(int first, int count) {
+    long address = buffer.position();
+    writePrefix("EADB");
+    buffer.putShort((short) first);
+    buffer.putInt(0);
+    for (int page = 0; page < count / 4; page++) {
+      for (int i = 0; i < 4; i++) {
+        int k = first + page * 4 + i;
+        if(k < 30) {
+          writeElement(k);
+        } else {
+          buffer.put(new byte[ELEMENT_SIZE]);
+        }
+      }
+      buffer.putInt(0);
+    }
+    return address;
+  }
+
+  private long writeSecondaryBlock(long[] dataBlocks, byte[] pageBitmap) {
+    long address = buffer.position();
+    writePrefix("EASB");
+    buffer.putShort((short) 0);
+    if(pageBitmap != null) {
+      buffer.put(pageBitmap);
+    }
+    for (long dataBlock : dataBlocks) {
+      buffer.putLong(dataBlock);
+    }
+    buffer.putInt(0);
+    return address;
+  }
+
+  private void writeElement(int k) {
+    buffer.putLong(chunkAddress(k));
+    buffer.putShort((short) chunkSize(k));
+    buffer.putInt(k % 2);
+  }
+}
@@ -0,0 +1,162 @@
+package org.renjin.hdf5.chunked;
+
+import org.junit.Test;
+import org.renjin.hdf5.DataObject;
+import org.renjin.hdf5.Hdf5File;
+import org.renjin.hdf5.filters.DeflateFilter;
+import org.renjin.hdf5.filters.FilterStage;
+import org.renjin.hdf5.filters.Fletcher32Filter;
+import org.renjin.hdf5.filters.InflaterPool;
+import org.renjin.hdf5.filters.ShuffleFilter;
+import org.renjin.repackaged.guava.io.Resources;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.Deflater;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class FilterPipelineDecoderTest {
+
+  @Test
+  public void decodeConcurrently() throws Exception {
+    File file = new File(Resources.getResource("h5ex_d_gzip.h5").getFile());
+    final Hdf5File hdf5File = new Hdf5File(file);
+    final DataObject object = hdf5File.getObject("DS1");
+
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      List<Future<Boolean>> results = new ArrayList<>();
+      for (int t = 0; t < 8; t++) {
+        results.add(executor.submit(new Callable<Boolean>() {
+          @Override
+          public Boolean call() throws Exception {
+            // Each task reads all chunks through its own index, sharing the dataset's decoder
+            ChunkIndex index = hdf5File.openChunkIndex(object);
+            for (int i = 0; i < 32; i += 4) {
+              for (int j = 0; j < 64; j += 8) {
+                Chunk chunk = index.chunkAt(new long[] { i, j });
+                try {
+                  for (int k = 0; k < 32; k++) {
+                    long row = i + k / 8;
+                    long col = j + k % 8;
+                    if (chunk.getDoubleAt(k) != row * col - col) {
+                      return false;
+                    }
+                  }
+                } finally {
+                  chunk.release();
+                }
+              }
+            }
+            return true;
+          }
+        }));
+      }
+      for (Future<Boolean> result : results) {
+        assertTrue(result.get());
+      }
+    } finally {
+      executor.shutdown();
+    }
+    assertTrue(InflaterPool.getShared().getIdleCount() > 0);
+  }
+
+  @Test
+  public void checksummedDataset() throws IOException {
+    File file = new File(Resources.getResource("h5ex_d_checksum.h5").getFile());
+    Hdf5File hdf5File = new Hdf5File(file);
+    ChunkIndex chunkIndex = hdf5File.openChunkIndex(hdf5File.getObject("DS1"));
+
+    // DS1[i][j] = i * j - j, in 4 x 8 chunks
+    Chunk chunk = chunkIndex.chunkAt(new long[] { 12, 40 });
+    for (int k = 0; k < 32; k++) {
+      long row = 12 + k / 8;
+      long col = 40 + k % 8;
+      assertThat(chunk.getDoubleAt(k), equalTo((double) (row * col - col)));
+    }
+    chunk.release();
+  }
+
+  @Test
+  public void skipsMaskedFilters() throws IOException {
+    List<FilterStage> stages = Arrays.asList(new ShuffleFilter(8), new DeflateFilter(32 * 8));
+    FilterPipelineDecoder decoder = new FilterPipelineDecoder(stages, DOUBLE_FACTORY, 32 * 8);
+
+    // The chunk was deflated, but the shuffle filter was skipped
+    ByteBuffer deflated = deflate(sequence(32));
+    Chunk chunk = decoder.decode(new ChunkLocation(new long[] { 0 }, 0, deflated.remaining(), 0x1), deflated);
+
+    for (int i = 0; i < 32; i++) {
+      assertThat(chunk.getDoubleAt(i), equalTo((double) i));
+    }
+    chunk.release();
+  }
+
+  @Test
+  public void unfilteredChunk() throws IOException {
+    List<FilterStage> stages = Arrays.asList(new ShuffleFilter(8), new DeflateFilter(32 * 8));
+    FilterPipelineDecoder decoder = new FilterPipelineDecoder(stages, DOUBLE_FACTORY, 32 * 8);
+
+    ByteBuffer raw = sequence(32);
+    Chunk chunk = decoder.decode(new ChunkLocation(new long[] { 0 }, 0, raw.remaining(), 0x3), raw);
+    assertThat(chunk.getDoubleAt(31), equalTo(31.0));
+    chunk.release();
+  }
+
+  @Test(expected = IOException.class)
+  public void checksumMismatch() throws IOException {
+    List<FilterStage> stages = Arrays.<FilterStage>asList(new Fletcher32Filter());
+    FilterPipelineDecoder decoder = new FilterPipelineDecoder(stages, DOUBLE_FACTORY, 32 * 8);
+
+    ByteBuffer data = ByteBuffer.allocate(32 * 8 + 4);
+    data.put(sequence(32));
+    data.putInt(0xCAFEBABE);
+    data.flip();
+
+    decoder.decode(new ChunkLocation(new long[] { 0 }, 0, data.remaining(), 0), data);
+  }
+
+  private static final ChunkFactory DOUBLE_FACTORY = new ChunkFactory() {
+    @Override
+    public Chunk wrap(long[] chunkOffset, ByteBuffer buffer) {
+      return new DoubleChunk(chunkOffset, buffer.order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer());
+    }
+
+    @Override
+    public Chunk wrap(long[] chunkOffset, ChunkStore.Allocation allocation) {
+      ByteBuffer buffer = allocation.getBuffer().order(ByteOrder.LITTLE_ENDIAN);
+      return new DoubleChunk(chunkOffset, buffer.asDoubleBuffer(), allocation);
+    }
+  };
+
+  private static ByteBuffer sequence(int count) {
+    ByteBuffer buffer = ByteBuffer.allocate(count * 8).order(ByteOrder.LITTLE_ENDIAN);
+    for (int i = 0; i < count; i++) {
+      buffer.putDouble(i);
+    }
+    buffer.flip();
+    return buffer;
+  }
+
+  private static ByteBuffer deflate(ByteBuffer input) {
+    Deflater deflater = new Deflater();
+    deflater.setInput(input.array(), input.position(), input.remaining());
+    deflater.finish();
+    byte[] output = new byte[input.remaining() * 2 + 64];
+    int size = deflater.deflate(output);
+    deflater.end();
+    return ByteBuffer.wrap(output, 0, size);
+  }
+}
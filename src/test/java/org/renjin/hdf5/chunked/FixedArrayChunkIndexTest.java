@@ -0,0 +1,214 @@
+package org.renjin.hdf5.chunked;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.renjin.hdf5.Hdf5Data;
+import org.renjin.hdf5.storage.LatencyInjectingStorage;
+import org.renjin.hdf5.storage.MemoryStorage;
+import org.renjin.hdf5.storage.StorageBackend;
+import org.renjin.hdf5.vector.ParallelChunkReader;
+import org.renjin.repackaged.guava.io.Resources;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Reads fixed arrays written into the free space after an existing file, which supplies the superblock.
+ *
+ * <p>The arrays index a 12 x 10 dataset of 2 x 5 chunks of doubles, whose 12 chunks are numbered in row-major
+ * order. Chunk 2 has not been written.</p>
+ */
+public class FixedArrayChunkIndexTest {
+
+  private static final long[] DIMENSIONS = { 12, 10 };
+  private static final int[] CHUNK_SIZE = { 2, 5 };
+  private static final int ENTRY_COUNT = 12;
+  private static final int CHUNK_SIZE_LENGTH = 2;
+  private static final long UNDEFINED = -1;
+
+  private ByteBuffer buffer;
+
+  @Before
+  public void setUp() throws IOException {
+    byte[] file = Resources.toByteArray(Resources.getResource("h5ex_d_gzip.h5"));
+    buffer = ByteBuffer.allocate(file.length + 4096).order(ByteOrder.LITTLE_ENDIAN);
+    buffer.put(file);
+  }
+
+  /**
+   * Filtered entries in three pages of four, of which the second page (chunks 4 - 7) has not been initialized.
+   */
+  @Test
+  public void filteredPagedArray() throws IOException {
+    long header = writeHeader(true, 2);
+    writePrefix("FADB", true);
+    buffer.putLong(header);
+    buffer.put((byte) 0xA0);
+    buffer.putInt(0);
+    for (int page = 0; page < 3; page++) {
+      for (int k = page * 4; k < page * 4 + 4; k++) {
+        writeEntry(true, page == 1 ? UNDEFINED : chunkAddress(k), k);
+      }
+      buffer.putInt(0);
+    }
+
+    LatencyInjectingStorage storage = new LatencyInjectingStorage(new MemoryStorage(buffer.array()));
+    FixedArrayChunkIndex index = openIndex(storage, header);
+
+    // Only the page holding the chunk is read
+    storage.resetCounters();
+    index.locate(new long[] { 0, 0 });
+    assertThat(storage.getRequestCount(), equalTo(1L));
+
+    storage.resetCounters();
+    for (int k = 4; k < 8; k++) {
+      assertNotWritten(index, k);
+    }
+    assertThat(storage.getRequestCount(), equalTo(0L));
+
+    for (int k = 0; k < ENTRY_COUNT; k++) {
+      if(k != 2 && (k < 4 || k >= 8)) {
+        ChunkLocation location = index.locate(chunkOffset(k));
+        assertThat(location.getAddress(), equalTo(chunkAddress(k)));
+        assertThat(location.getSize(), equalTo(chunkSize(k)));
+        assertThat(location.getFilterMask(), equalTo(k % 2));
+      }
+    }
+    assertNotWritten(index, 2);
+  }
+
+  /**
+   * Unfiltered entries held in the data block itself, which holds fewer entries than a page.
+   */
+  @Test
+  public void unfilteredArray() throws IOException {
+    long header = writeHeader(false, 4);
+    writePrefix("FADB", false);
+    buffer.putLong(header);
+    for (int k = 0; k < ENTRY_COUNT; k++) {
+      writeEntry(false, chunkAddress(k), k);
+    }
+    buffer.putInt(0);
+
+    FixedArrayChunkIndex index = openIndex(new MemoryStorage(buffer.array()), header);
+
+    for (int k = 0; k < ENTRY_COUNT; k++) {
+      if(k == 2) {
+        assertNotWritten(index, k);
+      } else {
+        ChunkLocation location = index.locate(chunkOffset(k));
+        assertThat(location.getAddress(), equalTo(chunkAddress(k)));
+        assertThat(location.getSize(), equalTo(2 * 5 * 8));
+        assertThat(location.getFilterMask(), equalTo(0));
+      }
+    }
+  }
+
+  /**
+   * Only chunks 0 and 7 are allocated, and read as doubles: element e of chunk k is k * 100 + e.
+   */
+  @Test
+  public void sparseArrayReadsFillValue() throws IOException {
+    long header = writeHeader(false, 4);
+    writePrefix("FADB", false);
+    buffer.putLong(header);
+    long dataAddress = buffer.position() + ENTRY_COUNT * 8 + 4;
+    for (int k = 0; k < ENTRY_COUNT; k++) {
+      buffer.putLong(k == 0 ? dataAddress : k == 7 ? dataAddress + 80 : UNDEFINED);
+    }
+    buffer.putInt(0);
+    for (int k : new int[] { 0, 7 }) {
+      for (int e = 0; e < 10; e++) {
+        buffer.putDouble(k * 100 + e);
+      }
+    }
+
+    LatencyInjectingStorage storage = new LatencyInjectingStorage(new MemoryStorage(buffer.array()));
+    FixedArrayChunkIndex index = new FixedArrayChunkIndex(new Hdf5Data(storage), DIMENSIONS, DIMENSIONS, CHUNK_SIZE,
+        8, header, new UncompressedDecoder(new ChunkFactory() {
+          @Override
+          public Chunk wrap(long[] chunkOffset, ByteBuffer buffer) {
+            return DoubleChunk.copyOf(chunkOffset, buffer, ByteOrder.LITTLE_ENDIAN);
+          }
+
+          @Override
+          public Chunk wrap(long[] chunkOffset, ChunkStore.Allocation allocation) {
+            return DoubleChunk.of(chunkOffset, allocation, ByteOrder.LITTLE_ENDIAN);
+          }
+        }));
+    index.setFillChunk(new ConstantChunk(-1));
+    index.locate(chunkOffset(0));
+
+    // Unallocated chunks are shared and cost no reads
+    storage.resetCounters();
+    assertThat(index.chunkAt(new long[] { 3, 7 }), sameInstance((Chunk) index.getFillChunk()));
+    for (Chunk chunk : index.chunksAt(Arrays.asList(chunkOffset(1), chunkOffset(5), chunkOffset(11)))) {
+      assertThat(chunk, sameInstance((Chunk) index.getFillChunk()));
+      chunk.release();
+    }
+    assertThat(storage.getRequestCount(), equalTo(0L));
+
+    double[] values = new ParallelChunkReader(index, DIMENSIONS, CHUNK_SIZE).read(12 * 10);
+    for (int row = 0; row < 12; row++) {
+      for (int column = 0; column < 10; column++) {
+        int k = (row / 2) * 2 + column / 5;
+        int e = (row % 2) * 5 + column % 5;
+        double expected = (k == 0 || k == 7) ? k * 100 + e : -1;
+        assertThat(values[row * 10 + column], equalTo(expected));
+      }
+    }
+  }
+
+  private FixedArrayChunkIndex openIndex(StorageBackend storage, long header) throws IOException {
+    return new FixedArrayChunkIndex(new Hdf5Data(storage), DIMENSIONS, DIMENSIONS, CHUNK_SIZE, 8, header, null);
+  }
+
+  private static void assertNotWritten(FixedArrayChunkIndex index, int k) throws IOException {
+    assertThat("chunk " + k + " should not have been allocated", index.locate(chunkOffset(k)), nullValue());
+  }
+
+  private static long[] chunkOffset(int k) {
+    return new long[] { (k / 2) * 2, (k % 2) * 5 };
+  }
+
+  private static long chunkAddress(int k) {
+    return k == 2 ? UNDEFINED : 100000 + k * 100;
+  }
+
+  private static int chunkSize(int k) {
+    return 30 + k;
+  }
+
+  private long writeHeader(boolean filtered, int pageBits) {
+    long address = buffer.position();
+    writePrefix("FAHD", filtered);
+    buffer.put((byte) (filtered ? 8 + CHUNK_SIZE_LENGTH + 4 : 8));
+    buffer.put((byte) pageBits);
+    buffer.putLong(ENTRY_COUNT);
+    // The data block follows the header
+    buffer.putLong(address + 4 + 4 + 8 + 8 + 4);
+    buffer.putInt(0);
+    return address;
+  }
+
+  private void writePrefix(String signature, boolean filtered) {
+    buffer.put(signature.getBytes());
+    buffer.put((byte) 0);
+    buffer.put((byte) (filtered ? 1 : 0));
+  }
+
+  private void writeEntry(boolean filtered, long address, int k) {
+    buffer.putLong(address);
+    if(filtered) {
+      buffer.putShort((short) chunkSize(k));
+      buffer.putInt(k % 2);
+    }
+  }
+}
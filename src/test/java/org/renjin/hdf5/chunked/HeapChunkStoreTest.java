@@ -0,0 +1,64 @@
+package org.renjin.hdf5.chunked;
+
+import org.junit.Test;
+
+import java.nio.ByteOrder;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+public class HeapChunkStoreTest {
+
+  @Test
+  public void recyclesReleasedArrays() {
+    HeapChunkStore store = new HeapChunkStore(1024);
+
+    ChunkStore.Allocation first = store.allocate(256);
+    byte[] array = first.getBuffer().array();
+    first.free();
+    assertThat(store.getRetainedBytes(), equalTo(256L));
+
+    ChunkStore.Allocation second = store.allocate(256);
+    assertThat(second.getBuffer().array(), sameInstance(array));
+    assertThat(store.getRetainedBytes(), equalTo(0L));
+  }
+
+  @Test
+  public void retainsAtMostLimit() {
+    HeapChunkStore store = new HeapChunkStore(300);
+    ChunkStore.Allocation first = store.allocate(256);
+    ChunkStore.Allocation second = store.allocate(256);
+    first.free();
+    second.free();
+
+    assertThat(store.getRetainedBytes(), equalTo(256L));
+  }
+
+  @Test
+  public void recyclesArraysOfReleasedChunks() {
+    HeapChunkStore store = new HeapChunkStore(1024);
+
+    Chunk first = DoubleChunk.of(new long[] { 0 }, allocation(store, 0), ByteOrder.BIG_ENDIAN);
+    // Evicted from the cache
+    first.release();
+
+    double[] array = store.allocateDoubles(32);
+    assertThat(array[1], equalTo(1d));
+    store.freeDoubles(array);
+
+    // The next chunk of the same size is decoded into the array of the first
+    Chunk second = DoubleChunk.of(new long[] { 32 }, allocation(store, 100), ByteOrder.BIG_ENDIAN);
+    assertThat(second.getDoubleAt(1), equalTo(101d));
+    assertThat(array[1], equalTo(101d));
+    assertThat(store.getRetainedBytes(), equalTo(256L));
+  }
+
+  private static ChunkStore.Allocation allocation(ChunkStore store, int start) {
+    ChunkStore.Allocation allocation = store.allocate(32 * 8);
+    for (int i = 0; i < 32; i++) {
+      allocation.getBuffer().order(ByteOrder.BIG_ENDIAN).putDouble(i * 8, start + i);
+    }
+    return allocation;
+  }
+}
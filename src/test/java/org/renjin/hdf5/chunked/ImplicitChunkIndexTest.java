@@ -0,0 +1,115 @@
+package org.renjin.hdf5.chunked;
+
+import org.junit.Test;
+import org.renjin.hdf5.DataObject;
+import org.renjin.hdf5.Hdf5Data;
+import org.renjin.hdf5.Hdf5File;
+import org.renjin.hdf5.message.DataLayoutMessage;
+import org.renjin.hdf5.message.DataStorageMessage;
+import org.renjin.hdf5.message.DatatypeMessage;
+import org.renjin.hdf5.storage.LatencyInjectingStorage;
+import org.renjin.hdf5.storage.MemoryStorage;
+import org.renjin.repackaged.guava.io.Resources;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Reads chunks through the implicit and single chunk indexes, using the datatype and layout of an existing
+ * dataset of 32-bit integers.
+ */
+public class ImplicitChunkIndexTest {
+
+  // 6 x 8 dataset in 4 x 4 chunks
+  private static final long[] DIMENSIONS = { 6, 8 };
+  private static final int[] CHUNK_SIZE = { 4, 4 };
+
+  @Test
+  public void implicitIndex() throws IOException {
+    File file = new File(Resources.getResource("h5ex_d_chunk.h5").getFile());
+    Hdf5File hdf5File = new Hdf5File(file);
+    DataObject object = hdf5File.getObject("DS1");
+
+    // Append 4 chunks of 32-bit integers, where element k of chunk c is c * 100 + k
+    byte[] bytes = Resources.toByteArray(Resources.getResource("h5ex_d_chunk.h5"));
+    ByteBuffer copy = ByteBuffer.allocate(bytes.length + 4096).order(ByteOrder.LITTLE_ENDIAN);
+    copy.put(bytes);
+    long address = copy.position();
+    for (int c = 0; c < 4; c++) {
+      for (int k = 0; k < 16; k++) {
+        copy.putInt(c * 100 + k);
+      }
+    }
+
+    LatencyInjectingStorage storage = new LatencyInjectingStorage(new MemoryStorage(copy.array()));
+    Hdf5Data data = new Hdf5Data(storage);
+    ImplicitChunkIndex index = new ImplicitChunkIndex(data, DIMENSIONS, DIMENSIONS, CHUNK_SIZE, 4, address,
+        createDecoder(data, object));
+
+    long[][] offsets = { {0, 0}, {0, 4}, {4, 0}, {4, 4} };
+
+    // Locating chunks needs no reads at all
+    storage.resetCounters();
+    for (int c = 0; c < offsets.length; c++) {
+      ChunkLocation location = index.locate(offsets[c]);
+      assertThat(location.getAddress(), equalTo(address + c * 64));
+      assertThat(location.getSize(), equalTo(64));
+    }
+    assertThat(storage.getRequestCount(), equalTo(0L));
+
+    for (int c = 0; c < offsets.length; c++) {
+      Chunk chunk = index.chunkAt(new long[] { offsets[c][0] + 1, offsets[c][1] + 2 });
+      try {
+        assertThat(chunk.getChunkOffset()[0], equalTo(offsets[c][0]));
+        assertThat(chunk.getChunkOffset()[1], equalTo(offsets[c][1]));
+        for (int k = 0; k < 16; k++) {
+          assertThat(chunk.getDoubleAt(k), equalTo((double) (c * 100 + k)));
+        }
+      } finally {
+        chunk.release();
+      }
+    }
+  }
+
+  @Test
+  public void singleChunkIndex() throws IOException {
+    File file = new File(Resources.getResource("h5ex_d_chunk.h5").getFile());
+    Hdf5File hdf5File = new Hdf5File(file);
+    DataObject object = hdf5File.getObject("DS1");
+    ChunkIndex original = hdf5File.openChunkIndex(object);
+
+    // Treat the first chunk as a 4 x 4 dataset of its own
+    long[] origin = new long[] { 0, 0 };
+    ChunkLocation location = original.locate(origin);
+    Hdf5Data data = new Hdf5Data(new MemoryStorage(Resources.toByteArray(Resources.getResource("h5ex_d_chunk.h5"))));
+    SingleChunkIndex index = new SingleChunkIndex(data, new long[] { 4, 4 }, CHUNK_SIZE,
+        location.getAddress(), location.getSize(), 0, createDecoder(data, object));
+
+    assertSameChunk(original.chunkAt(origin), index.chunkAt(new long[] { 3, 2 }));
+  }
+
+  private static ChunkDecoder createDecoder(Hdf5Data data, DataObject object) throws IOException {
+    return new ChunkDecoderFactory(data).create(
+        object.getMessage(DatatypeMessage.class),
+        object.getMessage(DataLayoutMessage.class),
+        object.getMessageIfPresent(DataStorageMessage.class));
+  }
+
+  private static void assertSameChunk(Chunk expected, Chunk actual) {
+    try {
+      assertThat(actual.getChunkOffset()[0], equalTo(expected.getChunkOffset()[0]));
+      assertThat(actual.getChunkOffset()[1], equalTo(expected.getChunkOffset()[1]));
+      for (int k = 0; k < CHUNK_SIZE[0] * CHUNK_SIZE[1]; k++) {
+        assertThat(actual.getDoubleAt(k), equalTo(expected.getDoubleAt(k)));
+      }
+    } finally {
+      expected.release();
+      actual.release();
+    }
+  }
+}
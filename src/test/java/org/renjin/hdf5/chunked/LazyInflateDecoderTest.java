@@ -0,0 +1,190 @@
+package org.renjin.hdf5.chunked;
+
+import org.junit.Ignore;
+import org.junit.Test;
+import org.renjin.hdf5.DataObject;
+import org.renjin.hdf5.Hdf5File;
+import org.renjin.hdf5.filters.DeflateFilter;
+import org.renjin.hdf5.filters.FilterStage;
+import org.renjin.hdf5.filters.InflaterPool;
+import org.renjin.hdf5.message.DatatypeMessage;
+import org.renjin.repackaged.guava.io.Resources;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.Deflater;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class LazyInflateDecoderTest {
+
+  private static final int ELEMENT_COUNT = 128 * 1024;
+
+  @Test
+  public void gzipDataset() throws IOException {
+    File file = new File(Resources.getResource("h5ex_d_gzip.h5").getFile());
+    Hdf5File hdf5File = new Hdf5File(file);
+    hdf5File.setLazyInflate(true);
+    ChunkIndex chunkIndex = hdf5File.openChunkIndex(hdf5File.getObject("DS1"));
+
+    // DS1[i][j] = i * j - j, in 4 x 8 chunks
+    for (int i = 0; i < 32; i += 4) {
+      for (int j = 0; j < 64; j += 8) {
+        Chunk chunk = chunkIndex.chunkAt(new long[] { i, j });
+        assertThat(chunk, instanceOf(LazyInt32Chunk.class));
+        for (int k = 31; k >= 0; k--) {
+          long row = i + k / 8;
+          long col = j + k % 8;
+          assertThat(chunk.getDoubleAt(k), equalTo((double) (row * col - col)));
+        }
+        chunk.release();
+      }
+    }
+  }
+
+  @Test
+  public void inflatesOnlyWhatIsRead() throws IOException {
+    LazyInt32Chunk chunk = (LazyInt32Chunk) decoder().decode(location(), ByteBuffer.wrap(deflate(values())));
+
+    assertThat(chunk.getIntAt(3), equalTo(value(3)));
+    assertTrue(chunk.getAvailable() <= PartialInflater.WINDOW_SIZE / 4);
+
+    int[] copy = new int[10];
+    chunk.copyTo(50000, copy, 0, 10);
+    assertThat(copy[9], equalTo(value(50009)));
+    assertTrue(chunk.getAvailable() < ELEMENT_COUNT);
+
+    assertThat(chunk.getIntAt(ELEMENT_COUNT - 1), equalTo(value(ELEMENT_COUNT - 1)));
+    assertThat(chunk.getAvailable(), equalTo(ELEMENT_COUNT));
+    chunk.release();
+  }
+
+  @Test
+  public void releaseReturnsInflater() throws IOException {
+    InflaterPool pool = new InflaterPool(4);
+    PartialInflater inflater = new PartialInflater(pool, deflate(values()), 4, ELEMENT_COUNT);
+    LazyInt32Chunk chunk = new LazyInt32Chunk(new long[] { 0 }, inflater, ELEMENT_COUNT, ByteOrder.LITTLE_ENDIAN);
+
+    assertThat(chunk.getIntAt(0), equalTo(value(0)));
+    assertThat(pool.getIdleCount(), equalTo(0));
+
+    chunk.release();
+    assertThat(pool.getIdleCount(), equalTo(1));
+  }
+
+  @Test
+  public void shortStreamIsPaddedWithZeros() throws IOException {
+    byte[] values = Arrays.copyOf(values(), 1000 * 4);
+    LazyInt32Chunk chunk = (LazyInt32Chunk) decoder().decode(location(), ByteBuffer.wrap(deflate(values)));
+
+    assertThat(chunk.getIntAt(999), equalTo(value(999)));
+    assertThat(chunk.getIntAt(1000), equalTo(0));
+    assertThat(chunk.getIntAt(ELEMENT_COUNT - 1), equalTo(0));
+  }
+
+  @Test
+  public void corruptChunkFailsOnRead() throws IOException {
+    // Truncated half way through
+    byte[] deflated = deflate(values());
+    deflated = Arrays.copyOf(deflated, deflated.length / 2);
+    LazyInt32Chunk chunk = (LazyInt32Chunk) decoder().decode(location(), ByteBuffer.wrap(deflated));
+    assertThat(chunk.getIntAt(0), equalTo(value(0)));
+    try {
+      chunk.getIntAt(ELEMENT_COUNT - 1);
+      fail("expected an exception");
+    } catch (ChunkDecodeException e) {
+      assertThat(e.getCause(), instanceOf(IOException.class));
+    }
+  }
+
+  /**
+   * Compares looking up a single element of a 512KB chunk with inflating it eagerly.
+   */
+  @Ignore("benchmark")
+  @Test
+  public void benchmarkPointLookup() throws IOException {
+    byte[] deflated = deflate(values());
+    ChunkDecoder lazy = decoder();
+    ChunkDecoder eager = new FilterPipelineDecoder(stages(), INT_FACTORY, ELEMENT_COUNT * 4);
+    int iterations = 200;
+
+    for (int round = 0; round < 10; round++) {
+      long start = System.nanoTime();
+      for (int i = 0; i < iterations; i++) {
+        Chunk chunk = lazy.decode(location(), ByteBuffer.wrap(deflated));
+        chunk.getDoubleAt(100);
+        chunk.release();
+      }
+      long lazyTime = System.nanoTime() - start;
+
+      start = System.nanoTime();
+      for (int i = 0; i < iterations; i++) {
+        Chunk chunk = eager.decode(location(), ByteBuffer.wrap(deflated));
+        chunk.getDoubleAt(100);
+        chunk.release();
+      }
+      long eagerTime = System.nanoTime() - start;
+
+      System.out.println(String.format("lazy: %.1f us, eager: %.1f us per lookup",
+          lazyTime / 1e3 / iterations, eagerTime / 1e3 / iterations));
+    }
+  }
+
+  private static LazyInflateDecoder decoder() throws IOException {
+    File file = new File(Resources.getResource("h5ex_d_gzip.h5").getFile());
+    DataObject object = new Hdf5File(file).getObject("DS1");
+    DatatypeMessage datatype = object.getMessage(DatatypeMessage.class);
+    FilterPipelineDecoder eager = new FilterPipelineDecoder(stages(), INT_FACTORY, ELEMENT_COUNT * 4);
+    return new LazyInflateDecoder(stages(), eager, datatype, ELEMENT_COUNT * 4, new DecoderMetrics());
+  }
+
+  private static List<FilterStage> stages() {
+    return Arrays.<FilterStage>asList(new DeflateFilter(ELEMENT_COUNT * 4));
+  }
+
+  private static ChunkLocation location() {
+    return new ChunkLocation(new long[] { 0 }, 0, 0, 0);
+  }
+
+  private static int value(int i) {
+    return (int) (Math.sin(i / 1000.0) * 10000);
+  }
+
+  private static byte[] values() {
+    ByteBuffer buffer = ByteBuffer.allocate(ELEMENT_COUNT * 4).order(ByteOrder.LITTLE_ENDIAN);
+    for (int i = 0; i < ELEMENT_COUNT; i++) {
+      buffer.putInt(value(i));
+    }
+    return buffer.array();
+  }
+
+  private static byte[] deflate(byte[] data) {
+    Deflater deflater = new Deflater(6);
+    deflater.setInput(data);
+    deflater.finish();
+    byte[] buffer = new byte[data.length + 1024];
+    int size = deflater.deflate(buffer);
+    deflater.end();
+    return Arrays.copyOf(buffer, size);
+  }
+
+  private static final ChunkFactory INT_FACTORY = new ChunkFactory() {
+    @Override
+    public Chunk wrap(long[] chunkOffset, ByteBuffer buffer) {
+      return Int32Chunk.copyOf(chunkOffset, buffer, ByteOrder.LITTLE_ENDIAN);
+    }
+
+    @Override
+    public Chunk wrap(long[] chunkOffset, ChunkStore.Allocation allocation) {
+      return Int32Chunk.of(chunkOffset, allocation, ByteOrder.LITTLE_ENDIAN);
+    }
+  };
+}
@@ -0,0 +1,92 @@
+package org.renjin.hdf5.chunked;
+
+import org.junit.After;
+import org.junit.Test;
+import org.renjin.hdf5.DataObject;
+import org.renjin.hdf5.Hdf5File;
+import org.renjin.repackaged.guava.io.Resources;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class OffHeapChunkStoreTest {
+
+  @After
+  public void restoreHeapStore() {
+    ChunkStore.configureOffHeap(0);
+  }
+
+  @Test
+  public void reusesFreedBlocks() {
+    OffHeapChunkStore store = new OffHeapChunkStore(64 * 1024 * 1024);
+
+    ChunkStore.Allocation first = store.allocate(5000);
+    assertTrue(first.isDirect());
+    assertThat(first.getBuffer().remaining(), equalTo(5000));
+    assertThat(store.getReservedBytes(), equalTo((long) OffHeapChunkStore.SLAB_SIZE));
+    assertThat(store.getAllocatedBytes(), equalTo(8192L));
+
+    first.free();
+    assertThat(store.getAllocatedBytes(), equalTo(0L));
+
+    ChunkStore.Allocation second = store.allocate(6000);
+    assertThat(store.getReservedBytes(), equalTo((long) OffHeapChunkStore.SLAB_SIZE));
+    assertThat(store.getAllocatedBytes(), equalTo(8192L));
+    second.free();
+  }
+
+  @Test
+  public void fallsBackToHeapWhenFull() {
+    OffHeapChunkStore store = new OffHeapChunkStore(OffHeapChunkStore.SLAB_SIZE);
+
+    ChunkStore.Allocation large = store.allocate(OffHeapChunkStore.SLAB_SIZE);
+    assertTrue(large.isDirect());
+
+    ChunkStore.Allocation overflow = store.allocate(1024);
+    assertFalse(overflow.isDirect());
+
+    large.free();
+    assertTrue(store.allocate(1024).isDirect());
+  }
+
+  @Test
+  public void releasingChunkFreesBlock() {
+    OffHeapChunkStore store = new OffHeapChunkStore(64 * 1024 * 1024);
+    ChunkStore.Allocation allocation = store.allocate(32 * 8);
+    allocation.getBuffer().putDouble(0, 42);
+
+    Chunk chunk = new DoubleChunk(new long[] { 0 }, allocation.getBuffer().asDoubleBuffer(), allocation);
+    chunk.retain();
+    chunk.release();
+    assertThat(chunk.getDoubleAt(0), equalTo(42.0));
+    assertThat(store.getAllocatedBytes(), equalTo(4096L));
+
+    chunk.release();
+    assertThat(store.getAllocatedBytes(), equalTo(0L));
+    assertFalse(chunk.tryRetain());
+  }
+
+  @Test
+  public void decodeOffHeap() throws IOException {
+    ChunkStore.configureOffHeap(64 * 1024 * 1024);
+
+    File file = new File(Resources.getResource("h5ex_d_gzip.h5").getFile());
+    Hdf5File hdf5File = new Hdf5File(file);
+    DataObject object = hdf5File.getObject("DS1");
+    ChunkIndex chunkIndex = hdf5File.openChunkIndex(object);
+
+    // DS1[i][j] = i * j - j
+    Chunk chunk = chunkIndex.chunkAt(new long[] { 5, 10 });
+    assertThat(chunk.getDoubleAt(0), equalTo(4.0 * 8 - 8));
+    assertThat(chunk.getDoubleAt(9), equalTo(5.0 * 9 - 9));
+    chunk.release();
+
+    assertTrue(((OffHeapChunkStore) ChunkStore.getShared()).getAllocatedBytes() > 0);
+    hdf5File.close();
+  }
+}
@@ -0,0 +1,79 @@
+package org.renjin.hdf5.chunked;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class PrimitiveChunkTest {
+
+  @Test
+  public void bigEndianDoublesOnHeap() {
+    HeapChunkStore store = new HeapChunkStore(1024 * 1024);
+    ChunkStore.Allocation allocation = store.allocate(64 * 8);
+    ByteBuffer buffer = allocation.getBuffer().duplicate().order(ByteOrder.BIG_ENDIAN);
+    for (int i = 0; i < 64; i++) {
+      buffer.putDouble(i * 1.5);
+    }
+
+    Chunk chunk = DoubleChunk.of(new long[] { 0 }, allocation, ByteOrder.BIG_ENDIAN);
+
+    // The array is returned to the store as soon as it has been converted
+    assertThat(store.getRetainedBytes(), equalTo(64L * 8));
+    assertThat(chunk.getDoubleAt(10), equalTo(15.0));
+    assertThat(chunk.getByteSize(), equalTo(64 * 8));
+
+    double[] copy = new double[8];
+    chunk.copyTo(60, copy, 4, 4);
+    assertArrayEquals(new double[] { 0, 0, 0, 0, 90, 91.5, 93, 94.5 }, copy, 0);
+  }
+
+  @Test
+  public void bigEndianDoublesOffHeap() {
+    OffHeapChunkStore store = new OffHeapChunkStore(64 * 1024 * 1024);
+    ChunkStore.Allocation allocation = store.allocate(64 * 8);
+    assertTrue(allocation.isDirect());
+    ByteBuffer buffer = allocation.getBuffer().duplicate().order(ByteOrder.BIG_ENDIAN);
+    for (int i = 0; i < 64; i++) {
+      buffer.putDouble(i * 1.5);
+    }
+
+    Chunk chunk = DoubleChunk.of(new long[] { 0 }, allocation, ByteOrder.BIG_ENDIAN);
+
+    // Swapped in place, and kept off-heap until released
+    assertThat(allocation.getBuffer().duplicate().order(ByteOrder.nativeOrder()).getDouble(8 * 10), equalTo(15.0));
+    assertThat(chunk.getDoubleAt(63), equalTo(94.5));
+    double[] copy = new double[64];
+    chunk.copyTo(0, copy, 0, 64);
+    assertThat(copy[1], equalTo(1.5));
+
+    chunk.release();
+    assertThat(store.getAllocatedBytes(), equalTo(0L));
+  }
+
+  @Test
+  public void integers() {
+    ByteBuffer buffer = ByteBuffer.allocate(32 * 4).order(ByteOrder.BIG_ENDIAN);
+    for (int i = 0; i < 32; i++) {
+      buffer.putInt(-i);
+    }
+    buffer.flip();
+
+    Int32Chunk chunk = Int32Chunk.copyOf(new long[] { 0 }, buffer, ByteOrder.BIG_ENDIAN);
+    assertThat(chunk.getIntAt(31), equalTo(-31));
+    assertThat(chunk.getDoubleAt(5), equalTo(-5.0));
+
+    int[] ints = new int[3];
+    chunk.copyTo(1, ints, 0, 3);
+    assertArrayEquals(new int[] { -1, -2, -3 }, ints);
+
+    double[] doubles = new double[3];
+    chunk.copyTo(1, doubles, 0, 3);
+    assertArrayEquals(new double[] { -1, -2, -3 }, doubles, 0);
+  }
+}
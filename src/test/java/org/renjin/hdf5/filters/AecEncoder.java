@@ -0,0 +1,227 @@
+package org.renjin.hdf5.filters;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * A simple Adaptive Entropy Coding encoder, used to produce streams for testing {@link AecDecoder}.
+ *
+ * <p>For each block it picks the cheapest of a zero block run, the second extension, a split code or
+ * uncompressed samples, so that every option of the decoder is exercised.</p>
+ */
+class AecEncoder {
+
+  private final int bitsPerSample;
+  private final int blockSize;
+  private final int rsi;
+  private final int flags;
+  private final int idLength;
+  private final long minValue;
+  private final long maxValue;
+
+  private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+  private long bits;
+  private int bitCount;
+
+  AecEncoder(int bitsPerSample, int blockSize, int rsi, int flags) {
+    this.bitsPerSample = bitsPerSample;
+    this.blockSize = blockSize;
+    this.rsi = rsi;
+    this.flags = flags;
+    if(bitsPerSample > 16) {
+      idLength = 5;
+    } else if(bitsPerSample > 8) {
+      idLength = 4;
+    } else {
+      idLength = 3;
+    }
+    if((flags & AecDecoder.DATA_SIGNED) != 0) {
+      minValue = -(1L << (bitsPerSample - 1));
+      maxValue = (1L << (bitsPerSample - 1)) - 1;
+    } else {
+      minValue = 0;
+      maxValue = (1L << bitsPerSample) - 1;
+    }
+  }
+
+  /**
+   * Encodes the samples, padding the last block by repeating the last sample.
+   */
+  byte[] encode(long[] samples) {
+    int rsiSize = rsi * blockSize;
+    boolean preprocess = (flags & AecDecoder.DATA_PREPROCESS) != 0;
+
+    for (int start = 0; start < samples.length; start += rsiSize) {
+      int count = Math.min(rsiSize, samples.length - start);
+      int blocks = (count + blockSize - 1) / blockSize;
+      long[] raw = new long[blocks * blockSize];
+      for (int i = 0; i < raw.length; i++) {
+        raw[i] = samples[start + Math.min(i, count - 1)];
+      }
+
+      long[] mapped = new long[raw.length];
+      if(preprocess) {
+        mapped[0] = raw[0] & maxUnsigned();
+        for (int i = 1; i < raw.length; i++) {
+          mapped[i] = map(raw[i], raw[i - 1]);
+        }
+      } else {
+        for (int i = 0; i < raw.length; i++) {
+          mapped[i] = raw[i] & maxUnsigned();
+        }
+      }
+      encodeInterval(mapped, blocks, preprocess);
+    }
+    writeBits(0, (8 - bitCount % 8) % 8);
+    return out.toByteArray();
+  }
+
+  private void encodeInterval(long[] values, int blocks, boolean preprocess) {
+    int block = 0;
+    while(block < blocks) {
+      boolean reference = preprocess && block == 0;
+      int first = block * blockSize + (reference ? 1 : 0);
+      int end = (block + 1) * blockSize;
+
+      if(isZero(values, first, end)) {
+        int segmentEnd = Math.min(blocks, (block / 64 + 1) * 64);
+        int runEnd = block + 1;
+        while(runEnd < segmentEnd && isZero(values, runEnd * blockSize, (runEnd + 1) * blockSize)) {
+          runEnd++;
+        }
+        int run = runEnd - block;
+        writeBits(0, idLength);
+        writeBits(0, 1);
+        if(reference) {
+          writeBits(values[0], bitsPerSample);
+        }
+        if(runEnd == segmentEnd && blocks == rsi) {
+          writeFundamentalSequence(4);
+        } else if(run < 5) {
+          writeFundamentalSequence(run - 1);
+        } else {
+          writeFundamentalSequence(run);
+        }
+        block = runEnd;
+        continue;
+      }
+
+      long uncompressedCost = (long) blockSize * bitsPerSample;
+      long secondExtensionCost = secondExtensionCost(values, first, end, reference);
+      int bestK = 0;
+      long bestSplitCost = Long.MAX_VALUE;
+      for (int k = 0; k < (1 << idLength) - 2; k++) {
+        long cost = 0;
+        for (int i = first; i < end; i++) {
+          cost += (values[i] >>> k) + 1 + k;
+        }
+        if(cost < bestSplitCost) {
+          bestSplitCost = cost;
+          bestK = k;
+        }
+      }
+
+      if(secondExtensionCost < bestSplitCost && secondExtensionCost < uncompressedCost) {
+        writeBits(0, idLength);
+        writeBits(1, 1);
+        if(reference) {
+          writeBits(values[0], bitsPerSample);
+        }
+        int i = first;
+        if(reference) {
+          writeFundamentalSequence(pairCode(0, values[i]));
+          i++;
+        }
+        for (; i < end; i += 2) {
+          writeFundamentalSequence(pairCode(values[i], values[i + 1]));
+        }
+      } else if(bestSplitCost < uncompressedCost) {
+        writeBits(bestK + 1, idLength);
+        if(reference) {
+          writeBits(values[0], bitsPerSample);
+        }
+        for (int i = first; i < end; i++) {
+          writeFundamentalSequence((int) (values[i] >>> bestK));
+        }
+        for (int i = first; i < end; i++) {
+          writeBits(values[i], bestK);
+        }
+      } else {
+        writeBits((1 << idLength) - 1, idLength);
+        for (int i = block * blockSize; i < end; i++) {
+          writeBits(values[i], bitsPerSample);
+        }
+      }
+      block++;
+    }
+  }
+
+  private long secondExtensionCost(long[] values, int first, int end, boolean reference) {
+    long cost = 0;
+    int i = first;
+    if(reference) {
+      if(values[i] >= 13) {
+        return Long.MAX_VALUE;
+      }
+      cost += pairCode(0, values[i]) + 1;
+      i++;
+    }
+    for (; i < end; i += 2) {
+      if(values[i] + values[i + 1] >= 13) {
+        return Long.MAX_VALUE;
+      }
+      cost += pairCode(values[i], values[i + 1]) + 1;
+    }
+    return cost;
+  }
+
+  private static int pairCode(long a, long b) {
+    int sum = (int) (a + b);
+    return sum * (sum + 1) / 2 + (int) b;
+  }
+
+  private static boolean isZero(long[] values, int from, int to) {
+    for (int i = from; i < to; i++) {
+      if(values[i] != 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Maps the difference between a sample and its predecessor onto the non-negative integers.
+   */
+  private long map(long value, long previous) {
+    long delta = value - previous;
+    long theta = Math.min(previous - minValue, maxValue - previous);
+    if(delta >= 0 && delta <= theta) {
+      return 2 * delta;
+    } else if(delta < 0 && -delta <= theta) {
+      return 2 * -delta - 1;
+    } else {
+      return theta + Math.abs(delta);
+    }
+  }
+
+  private long maxUnsigned() {
+    return (1L << bitsPerSample) - 1;
+  }
+
+  private void writeFundamentalSequence(int zeros) {
+    for (int i = 0; i < zeros; i++) {
+      writeBits(0, 1);
+    }
+    writeBits(1, 1);
+  }
+
+  private void writeBits(long value, int n) {
+    for (int i = n - 1; i >= 0; i--) {
+      bits = (bits << 1) | ((value >>> i) & 1);
+      bitCount++;
+      if(bitCount % 8 == 0) {
+        out.write((int) bits);
+        bits = 0;
+      }
+    }
+  }
+}
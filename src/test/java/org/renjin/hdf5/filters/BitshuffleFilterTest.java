@@ -0,0 +1,156 @@
+package org.renjin.hdf5.filters;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertThat;
+
+public class BitshuffleFilterTest {
+
+  @Test
+  public void defaultBlockSize() {
+    assertThat(Bitshuffle.defaultBlockSize(1), equalTo(8192));
+    assertThat(Bitshuffle.defaultBlockSize(4), equalTo(2048));
+    assertThat(Bitshuffle.defaultBlockSize(8), equalTo(1024));
+    assertThat(Bitshuffle.defaultBlockSize(12), equalTo(680));
+    assertThat(Bitshuffle.defaultBlockSize(100), equalTo(128));
+  }
+
+  @Test
+  public void untranspose() {
+    Random random = new Random(5);
+    for (int elementSize : new int[] { 1, 2, 3, 4, 8, 12 }) {
+      for (int count : new int[] { 8, 16, 64, 1024 }) {
+        byte[] original = new byte[count * elementSize];
+        random.nextBytes(original);
+
+        byte[] untransposed = new byte[original.length];
+        Bitshuffle.untranspose(transpose(original, 0, count, elementSize), 0, untransposed, 0, count, elementSize);
+
+        assertArrayEquals("elementSize=" + elementSize + ", count=" + count, original, untransposed);
+      }
+    }
+  }
+
+  @Test
+  public void uncompressedChunks() throws IOException {
+    for (int elementSize : new int[] { 1, 4, 8 }) {
+      for (int blockSize : new int[] { 0, 64 }) {
+        // 1000 elements leave a partial last block and 0 leftover elements; 1003 leaves 3 leftover elements
+        for (int count : new int[] { 1000, 1003 }) {
+          byte[] original = values(count, elementSize);
+          byte[] chunk = encode(original, elementSize, blockSize, false);
+          int[] clientData = { 0, 3, elementSize, blockSize, BitshuffleFilter.COMPRESS_NONE };
+          String message = String.format("elementSize=%d, blockSize=%d, count=%d", elementSize, blockSize, count);
+
+          BitshuffleFilter filter = new BitshuffleFilter(clientData, elementSize);
+          assertArrayEquals(message, original,
+              Lz4FilterTest.toArray(NBitFilterTest.decode(filter, chunk, original.length)));
+        }
+      }
+    }
+  }
+
+  @Test
+  public void lz4Chunks() throws IOException {
+    for (int elementSize : new int[] { 2, 4, 8 }) {
+      for (int blockSize : new int[] { 0, 128 }) {
+        for (int count : new int[] { 32 * 64, 5000 + 7 }) {
+          byte[] original = values(count, elementSize);
+          byte[] chunk = encode(original, elementSize, blockSize, true);
+          int[] clientData = { 0, 3, elementSize, blockSize, BitshuffleFilter.COMPRESS_LZ4 };
+          String message = String.format("elementSize=%d, blockSize=%d, count=%d", elementSize, blockSize, count);
+
+          BitshuffleFilter filter = new BitshuffleFilter(clientData, elementSize);
+          assertArrayEquals(message, original,
+              Lz4FilterTest.toArray(NBitFilterTest.decode(filter, chunk, original.length)));
+
+          ByteBuffer direct = ByteBuffer.allocateDirect(chunk.length);
+          direct.put(chunk).flip();
+          assertArrayEquals(message, original,
+              Lz4FilterTest.toArray(Lz4FilterTest.decodeDirect(filter, direct, original.length)));
+        }
+      }
+    }
+  }
+
+  @Test
+  public void compressesBetterThanLz4Alone() {
+    byte[] original = values(32 * 64, 8);
+    byte[] bitshuffled = encode(original, 8, 0, true);
+    byte[] plain = Lz4Encoder.compressChunk(original, original.length);
+    assertThat(bitshuffled.length < plain.length, equalTo(true));
+  }
+
+  /**
+   * Smoothly varying doubles, the kind of data bitshuffle is designed for.
+   */
+  private static byte[] values(int count, int elementSize) {
+    ByteBuffer buffer = ByteBuffer.allocate(count * elementSize).order(ByteOrder.LITTLE_ENDIAN);
+    for (int i = 0; i < count; i++) {
+      long value = elementSize == 8
+          ? Double.doubleToLongBits(Math.sin(i / 200.0) * 100)
+          : (long) (Math.sin(i / 200.0) * (1L << (8 * elementSize - 2)));
+      for (int b = 0; b < elementSize; b++) {
+        buffer.put((byte) (value >>> (8 * b)));
+      }
+    }
+    return buffer.array();
+  }
+
+  /**
+   * Encodes a chunk as the Bitshuffle filter would, transposing each block bit by bit.
+   */
+  private static byte[] encode(byte[] original, int elementSize, int blockSize, boolean lz4) {
+    int count = original.length / elementSize;
+    int blockElements = blockSize == 0 ? Bitshuffle.defaultBlockSize(elementSize) : blockSize;
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    if(lz4) {
+      Lz4Encoder.writeLong(out, original.length);
+      Lz4Encoder.writeInt(out, blockElements * elementSize);
+    }
+    int done = 0;
+    while(done + 8 <= count) {
+      int n = Math.min(blockElements, count - done);
+      n -= n % 8;
+      byte[] block = transpose(original, done * elementSize, n, elementSize);
+      if(lz4) {
+        byte[] compressed = Lz4Encoder.compressBlock(block, 0, block.length);
+        Lz4Encoder.writeInt(out, compressed.length);
+        out.write(compressed, 0, compressed.length);
+      } else {
+        out.write(block, 0, block.length);
+      }
+      done += n;
+    }
+    out.write(original, done * elementSize, (count - done) * elementSize);
+    return out.toByteArray();
+  }
+
+  /**
+   * Moves bit k of byte j of element i to bit i of row (8 j + k), one bit at a time.
+   */
+  private static byte[] transpose(byte[] original, int offset, int count, int elementSize) {
+    byte[] transposed = new byte[count * elementSize];
+    int rowLength = count / 8;
+    for (int i = 0; i < count; i++) {
+      for (int j = 0; j < elementSize; j++) {
+        int value = original[offset + i * elementSize + j] & 0xFF;
+        for (int k = 0; k < 8; k++) {
+          if((value & (1 << k)) != 0) {
+            transposed[(8 * j + k) * rowLength + i / 8] |= 1 << (i % 8);
+          }
+        }
+      }
+    }
+    return transposed;
+  }
+}
@@ -0,0 +1,138 @@
+package org.renjin.hdf5.filters;
+
+import org.junit.Test;
+import org.renjin.hdf5.message.DatatypeMessage;
+import org.renjin.hdf5.message.Filter;
+import org.renjin.repackaged.guava.io.Files;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Enumeration;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+public class FilterRegistryTest {
+
+  @Test
+  public void bundledProviders() {
+    FilterRegistry registry = FilterRegistry.getShared();
+    assertThat(registry.get(Lz4Filter.FILTER_ID), instanceOf(Lz4FilterProvider.class));
+    assertThat(registry.get(BitshuffleFilter.FILTER_ID), instanceOf(BitshuffleFilterProvider.class));
+  }
+
+  @Test
+  public void register() {
+    FilterRegistry registry = new FilterRegistry();
+    assertThat(registry.get(32015), nullValue());
+
+    FilterProvider zstd = new PassThroughProvider(32015);
+    registry.register(zstd);
+    assertThat(registry.get(32015), sameInstance(zstd));
+  }
+
+  @Test
+  public void registeredProvidersReplaceBundledOnes() {
+    FilterRegistry registry = new FilterRegistry();
+    FilterProvider replacement = new PassThroughProvider(Lz4Filter.FILTER_ID);
+    registry.register(replacement);
+    registry.loadProviders(getClass().getClassLoader());
+
+    assertThat(registry.get(Lz4Filter.FILTER_ID), sameInstance(replacement));
+    assertThat(registry.get(BitshuffleFilter.FILTER_ID), instanceOf(BitshuffleFilterProvider.class));
+  }
+
+  @Test
+  public void unknownFiltersSearchEachLoaderOnce() throws IOException {
+    FilterRegistry registry = new FilterRegistry();
+    FilterProvider registeredProvider = new PassThroughProvider(32001);
+    registry.register(registeredProvider);
+
+    File services = File.createTempFile("providers", ".txt");
+    services.deleteOnExit();
+    Files.write(ExternalProvider.class.getName() + "\n" + "org.example.MissingProvider\n", services,
+        StandardCharsets.UTF_8);
+    ServicesClassLoader loader = new ServicesClassLoader(services.toURI().toURL());
+
+    Thread thread = Thread.currentThread();
+    ClassLoader contextLoader = thread.getContextClassLoader();
+    thread.setContextClassLoader(loader);
+    try {
+      for (int i = 0; i < 3; i++) {
+        assertThat(registry.find(32099), nullValue());
+      }
+    } finally {
+      thread.setContextClassLoader(contextLoader);
+    }
+
+    assertThat(loader.scans, equalTo(1));
+    assertThat(registry.getLoadErrors().size(), equalTo(1));
+    assertThat(registry.get(32001), sameInstance(registeredProvider));
+
+    // Searching the loader again explicitly keeps the providers found first
+    registry.loadProviders(loader);
+    assertThat(registry.getLoadErrors().size(), equalTo(1));
+    assertThat(registry.get(32001), sameInstance(registeredProvider));
+  }
+
+  /**
+   * A provider which is not bundled with the library, and so would otherwise replace other providers.
+   */
+  public static class ExternalProvider extends PassThroughProvider {
+    public ExternalProvider() {
+      super(32001);
+    }
+  }
+
+  /**
+   * Lists the providers in a single services file, counting how often it is searched.
+   */
+  private static class ServicesClassLoader extends ClassLoader {
+    private final URL services;
+    private int scans;
+
+    ServicesClassLoader(URL services) {
+      super(FilterRegistryTest.class.getClassLoader());
+      this.services = services;
+    }
+
+    @Override
+    public Enumeration<URL> getResources(String name) throws IOException {
+      if(name.equals("META-INF/services/" + FilterProvider.class.getName())) {
+        scans++;
+        return Collections.enumeration(Collections.singletonList(services));
+      }
+      return Collections.emptyEnumeration();
+    }
+  }
+
+  private static class PassThroughProvider implements FilterProvider {
+    private final int filterId;
+
+    PassThroughProvider(int filterId) {
+      this.filterId = filterId;
+    }
+
+    @Override
+    public int getFilterId() {
+      return filterId;
+    }
+
+    @Override
+    public FilterStage create(Filter filter, DatatypeMessage datatype, int chunkSizeBytes) {
+      return new FilterStage() {
+        @Override
+        public ByteBuffer decode(ByteBuffer input, FilterContext context) {
+          return input;
+        }
+      };
+    }
+  }
+}
@@ -0,0 +1,141 @@
+package org.renjin.hdf5.filters;
+
+import org.junit.Test;
+import org.renjin.hdf5.chunked.ChunkLocation;
+import org.renjin.hdf5.chunked.ChunkStore;
+import org.renjin.hdf5.chunked.DecoderMetrics;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+public class Fletcher32FilterTest {
+
+  @Test
+  public void matchesReferenceChecksum() {
+    Random random = new Random(17);
+    int[] sizes = { 0, 1, 2, 3, 7, 8, 9, 719, 720, 721, 4096, 10001 };
+    for (int size : sizes) {
+      byte[] data = new byte[size + 5];
+      random.nextBytes(data);
+      ByteBuffer buffer = ByteBuffer.wrap(data, 5, size);
+
+      assertThat("size " + size, Fletcher32Filter.checksum(buffer), equalTo(referenceChecksum(data, 5, size)));
+      assertThat(buffer.position(), equalTo(5));
+    }
+  }
+
+  @Test
+  public void verifyRejectsCorruptChunks() throws IOException {
+    DecoderMetrics metrics = new DecoderMetrics();
+    Fletcher32Filter filter = new Fletcher32Filter(ChecksumPolicy.VERIFY, metrics);
+
+    assertThat(decode(filter, checksummed(100, false)).remaining(), equalTo(100));
+    try {
+      decode(filter, checksummed(100, true));
+      fail("expected checksum mismatch");
+    } catch (IOException expected) {
+    }
+    assertThat(metrics.getChecksumsVerified(), equalTo(2L));
+    assertThat(metrics.getChecksumBytes(), equalTo(200L));
+    assertThat(metrics.getChecksumsSkipped(), equalTo(0L));
+  }
+
+  @Test
+  public void skipOnlyStripsChecksum() throws IOException {
+    DecoderMetrics metrics = new DecoderMetrics();
+    Fletcher32Filter filter = new Fletcher32Filter(ChecksumPolicy.SKIP, metrics);
+
+    ByteBuffer output = decode(filter, checksummed(100, true));
+    assertThat(output.remaining(), equalTo(100));
+    assertThat(output.get(99), equalTo((byte) 99));
+    assertThat(metrics.getChecksumsVerified(), equalTo(0L));
+    assertThat(metrics.getChecksumsSkipped(), equalTo(1L));
+  }
+
+  @Test
+  public void sampleVerifiesEveryNthChunk() throws IOException {
+    DecoderMetrics metrics = new DecoderMetrics();
+    Fletcher32Filter filter = new Fletcher32Filter(ChecksumPolicy.sampled(3), metrics);
+
+    int failures = 0;
+    for (int i = 0; i < 9; i++) {
+      try {
+        decode(filter, checksummed(64, true));
+      } catch (IOException e) {
+        failures++;
+      }
+    }
+    assertThat(failures, equalTo(3));
+    assertThat(metrics.getChecksumsVerified(), equalTo(3L));
+    assertThat(metrics.getChecksumsSkipped(), equalTo(6L));
+  }
+
+  @Test
+  public void policyNames() {
+    assertThat(ChecksumPolicy.fromName("verify", 16), equalTo(ChecksumPolicy.VERIFY));
+    assertThat(ChecksumPolicy.fromName("SKIP", 16), equalTo(ChecksumPolicy.SKIP));
+    assertThat(ChecksumPolicy.fromName("sample", 16), equalTo(ChecksumPolicy.sampled(16)));
+    assertThat(ChecksumPolicy.fromName("sample", 1), equalTo(ChecksumPolicy.VERIFY));
+  }
+
+  private static ByteBuffer decode(Fletcher32Filter filter, ByteBuffer input) throws IOException {
+    FilterContext context = FilterContext.acquire(ChunkStore.HEAP,
+        new ChunkLocation(new long[] { 0 }, 0, input.remaining(), 0), input.remaining() - 4);
+    try {
+      return filter.decode(input, context);
+    } finally {
+      context.release();
+    }
+  }
+
+  private static ByteBuffer checksummed(int size, boolean corrupt) {
+    byte[] data = new byte[size + 4];
+    for (int i = 0; i < size; i++) {
+      data[i] = (byte) i;
+    }
+    int checksum = referenceChecksum(data, 0, size);
+    data[size] = (byte) checksum;
+    data[size + 1] = (byte) (checksum >>> 8);
+    data[size + 2] = (byte) (checksum >>> 16);
+    data[size + 3] = (byte) (checksum >>> 24);
+    if(corrupt) {
+      data[size / 2] ^= 0x10;
+    }
+    return ByteBuffer.wrap(data);
+  }
+
+  /**
+   * A direct transcription of H5_checksum_fletcher32() from the HDF5 library.
+   */
+  private static int referenceChecksum(byte[] data, int offset, int length) {
+    int position = offset;
+    int len = length / 2;
+    long sum1 = 0;
+    long sum2 = 0;
+    while(len > 0) {
+      int tlen = len > 360 ? 360 : len;
+      len -= tlen;
+      do {
+        sum1 += ((data[position] & 0xFF) << 8) | (data[position + 1] & 0xFF);
+        position += 2;
+        sum2 += sum1;
+      } while(--tlen > 0);
+      sum1 = (sum1 & 0xffff) + (sum1 >>> 16);
+      sum2 = (sum2 & 0xffff) + (sum2 >>> 16);
+    }
+    if(length % 2 != 0) {
+      sum1 += (data[position] & 0xFF) << 8;
+      sum2 += sum1;
+      sum1 = (sum1 & 0xffff) + (sum1 >>> 16);
+      sum2 = (sum2 & 0xffff) + (sum2 >>> 16);
+    }
+    sum1 = (sum1 & 0xffff) + (sum1 >>> 16);
+    sum2 = (sum2 & 0xffff) + (sum2 >>> 16);
+    return (int) ((sum2 << 16) | sum1);
+  }
+}
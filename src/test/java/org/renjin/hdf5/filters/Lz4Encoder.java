@@ -0,0 +1,119 @@
+package org.renjin.hdf5.filters;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * A simple greedy LZ4 block compressor, used to produce blocks for testing {@link Lz4}, along with the
+ * chunk framing written by the LZ4 and Bitshuffle filters.
+ */
+class Lz4Encoder {
+
+  private static final int MIN_MATCH = 4;
+  private static final int HASH_BITS = 12;
+
+  private Lz4Encoder() {
+  }
+
+  /**
+   * Compresses {@code length} bytes of {@code input} into a single LZ4 block.
+   */
+  static byte[] compressBlock(byte[] input, int offset, int length) {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    int[] table = new int[1 << HASH_BITS];
+    Arrays.fill(table, -1);
+
+    int end = offset + length;
+    // The format requires the last five bytes to be literals, and the last match to start 12 bytes before the end
+    int matchLimit = end - 12;
+    int anchor = offset;
+    int i = offset;
+    while(i < matchLimit) {
+      int h = hash(input, i);
+      int ref = table[h];
+      table[h] = i;
+      if(ref >= offset && i - ref <= 65535 && sameFour(input, ref, i)) {
+        int matchLength = MIN_MATCH;
+        while(i + matchLength < end - 5 && input[ref + matchLength] == input[i + matchLength]) {
+          matchLength++;
+        }
+        writeSequence(out, input, anchor, i - anchor, i - ref, matchLength);
+        i += matchLength;
+        anchor = i;
+      } else {
+        i++;
+      }
+    }
+    int literals = end - anchor;
+    out.write(Math.min(literals, 15) << 4);
+    writeLength(out, literals);
+    out.write(input, anchor, literals);
+    return out.toByteArray();
+  }
+
+  /**
+   * Compresses {@code input} in the chunk format of the LZ4 filter, storing incompressible blocks as they are.
+   */
+  static byte[] compressChunk(byte[] input, int blockSize) {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    writeLong(out, input.length);
+    writeInt(out, blockSize);
+    for (int start = 0; start < input.length; start += blockSize) {
+      int length = Math.min(blockSize, input.length - start);
+      byte[] block = compressBlock(input, start, length);
+      if(block.length >= length) {
+        writeInt(out, length);
+        out.write(input, start, length);
+      } else {
+        writeInt(out, block.length);
+        out.write(block, 0, block.length);
+      }
+    }
+    return out.toByteArray();
+  }
+
+  static void writeInt(ByteArrayOutputStream out, int value) {
+    byte[] bytes = ByteBuffer.allocate(4).order(ByteOrder.BIG_ENDIAN).putInt(value).array();
+    out.write(bytes, 0, 4);
+  }
+
+  static void writeLong(ByteArrayOutputStream out, long value) {
+    byte[] bytes = ByteBuffer.allocate(8).order(ByteOrder.BIG_ENDIAN).putLong(value).array();
+    out.write(bytes, 0, 8);
+  }
+
+  private static void writeSequence(ByteArrayOutputStream out, byte[] input, int literalStart, int literals,
+                                    int matchOffset, int matchLength) {
+    int extra = matchLength - MIN_MATCH;
+    out.write(Math.min(literals, 15) << 4 | Math.min(extra, 15));
+    writeLength(out, literals);
+    out.write(input, literalStart, literals);
+    out.write(matchOffset & 0xFF);
+    out.write(matchOffset >>> 8);
+    writeLength(out, extra);
+  }
+
+  private static void writeLength(ByteArrayOutputStream out, int length) {
+    if(length < 15) {
+      return;
+    }
+    length -= 15;
+    while(length >= 255) {
+      out.write(255);
+      length -= 255;
+    }
+    out.write(length);
+  }
+
+  private static int hash(byte[] input, int i) {
+    int v = (input[i] & 0xFF) | (input[i + 1] & 0xFF) << 8 | (input[i + 2] & 0xFF) << 16 | (input[i + 3] & 0xFF) << 24;
+    return (v * -1640531535) >>> (32 - HASH_BITS);
+  }
+
+  private static boolean sameFour(byte[] input, int a, int b) {
+    return input[a] == input[b] && input[a + 1] == input[b + 1] &&
+        input[a + 2] == input[b + 2] && input[a + 3] == input[b + 3];
+  }
+}
@@ -0,0 +1,146 @@
+package org.renjin.hdf5.filters;
+
+import org.junit.Test;
+import org.renjin.hdf5.chunked.ChunkLocation;
+import org.renjin.hdf5.chunked.OffHeapChunkStore;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+public class Lz4FilterTest {
+
+  @Test
+  public void blockRoundTrip() throws IOException {
+    Random random = new Random(17);
+    for (int pattern = 0; pattern < 4; pattern++) {
+      byte[] original = sample(pattern, 20000 + random.nextInt(500), random);
+      byte[] compressed = Lz4Encoder.compressBlock(original, 0, original.length);
+
+      byte[] decompressed = new byte[original.length];
+      int length = Lz4.decompress(compressed, 0, compressed.length, decompressed, 0, decompressed.length);
+
+      assertThat("pattern " + pattern, length, equalTo(original.length));
+      assertArrayEquals("pattern " + pattern, original, decompressed);
+    }
+  }
+
+  @Test
+  public void overlappingMatch() throws IOException {
+    // One literal 'a', then a match of 19 bytes at offset 1, then the five literals at the end of a block
+    byte[] block = { 0x1F, 'a', 1, 0, 0, 0x50, 'b', 'c', 'd', 'e', 'f' };
+    byte[] decompressed = new byte[25];
+    int length = Lz4.decompress(block, 0, block.length, decompressed, 0, decompressed.length);
+
+    assertThat(length, equalTo(25));
+    assertThat(new String(decompressed, 0, 20, "US-ASCII"), equalTo("aaaaaaaaaaaaaaaaaaaa"));
+    assertThat(new String(decompressed, 20, 5, "US-ASCII"), equalTo("bcdef"));
+  }
+
+  @Test
+  public void chunks() throws IOException {
+    Random random = new Random(3);
+    byte[] original = new byte[32 * 64 * 8];
+    ByteBuffer values = ByteBuffer.wrap(original);
+    for (int i = 0; i < original.length / 8; i++) {
+      values.putDouble(Math.round(Math.sin(i / 50.0) * 100) / 4.0);
+    }
+    // Random tail, stored uncompressed
+    byte[] noise = new byte[4096];
+    random.nextBytes(noise);
+    System.arraycopy(noise, 0, original, original.length - noise.length, noise.length);
+
+    for (int blockSize : new int[] { 1000, 4096, original.length, 1 << 20 }) {
+      byte[] chunk = Lz4Encoder.compressChunk(original, Math.min(blockSize, original.length));
+      assertArrayEquals(toArray(NBitFilterTest.decode(new Lz4Filter(), chunk, original.length)), original);
+
+      ByteBuffer direct = ByteBuffer.allocateDirect(chunk.length);
+      direct.put(chunk).flip();
+      assertArrayEquals(toArray(decodeDirect(new Lz4Filter(), direct, original.length)), original);
+    }
+  }
+
+  @Test
+  public void corruptOffset() {
+    // A match reaching back before the start of the output
+    byte[] block = { 0x10, 'a', 5, 0, 0x00 };
+    try {
+      Lz4.decompress(block, 0, block.length, new byte[64], 0, 64);
+      fail("expected an exception");
+    } catch (IOException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void truncatedChunk() {
+    byte[] original = new byte[10000];
+    Arrays.fill(original, (byte) 7);
+    byte[] chunk = Lz4Encoder.compressChunk(original, 4096);
+    try {
+      NBitFilterTest.decode(new Lz4Filter(), Arrays.copyOf(chunk, chunk.length - 3), original.length);
+      fail("expected an exception");
+    } catch (IOException e) {
+      // expected
+    }
+  }
+
+  static byte[] sample(int pattern, int length, Random random) {
+    byte[] bytes = new byte[length];
+    switch (pattern) {
+      case 0:
+        // Long runs
+        for (int i = 0; i < length; i++) {
+          bytes[i] = (byte) (i / 1000);
+        }
+        break;
+      case 1:
+        // Short repeating phrases
+        for (int i = 0; i < length; i++) {
+          bytes[i] = (byte) "the quick brown fox ".charAt(i % 20);
+        }
+        break;
+      case 2:
+        // Small integers
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        while(buffer.remaining() >= 4) {
+          buffer.putInt(random.nextInt(16));
+        }
+        break;
+      default:
+        random.nextBytes(bytes);
+        break;
+    }
+    return bytes;
+  }
+
+  static byte[] toArray(ByteBuffer buffer) {
+    byte[] array = new byte[buffer.remaining()];
+    buffer.duplicate().get(array);
+    return array;
+  }
+
+  /**
+   * Decodes a direct buffer into off-heap memory, so that the stage must stage both its input and output.
+   */
+  static ByteBuffer decodeDirect(FilterStage stage, ByteBuffer input, int size) throws IOException {
+    FilterContext context = FilterContext.acquire(new OffHeapChunkStore(16 * 1024 * 1024),
+        new ChunkLocation(new long[] { 0 }, 0, input.remaining(), 0), size);
+    try {
+      context.setLastStage(true);
+      ByteBuffer output = stage.decode(input, context);
+      ByteBuffer copy = ByteBuffer.allocate(output.remaining());
+      copy.put(output.duplicate());
+      copy.flip();
+      return copy;
+    } finally {
+      context.release();
+    }
+  }
+}
@@ -0,0 +1,114 @@
+package org.renjin.hdf5.filters;
+
+import org.junit.Test;
+import org.renjin.hdf5.Hdf5File;
+import org.renjin.hdf5.chunked.Chunk;
+import org.renjin.hdf5.chunked.ChunkIndex;
+import org.renjin.hdf5.chunked.ChunkLocation;
+import org.renjin.hdf5.chunked.ChunkStore;
+import org.renjin.hdf5.message.DatatypeMessage;
+import org.renjin.repackaged.guava.io.Resources;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+public class NBitFilterTest {
+
+  @Test
+  public void nbitDataset() throws IOException {
+    File file = new File(Resources.getResource("h5ex_d_nbit.h5").getFile());
+    Hdf5File hdf5File = new Hdf5File(file);
+    ChunkIndex chunkIndex = hdf5File.openChunkIndex(hdf5File.getObject("DS1"));
+
+    // DS1[i][j] = i * j - j, stored as 16-bit integers at bit offset 5, in 4 x 8 chunks
+    for (int i = 0; i < 32; i += 4) {
+      for (int j = 0; j < 64; j += 8) {
+        Chunk chunk = chunkIndex.chunkAt(new long[] { i, j });
+        for (int k = 0; k < 32; k++) {
+          long row = i + k / 8;
+          long col = j + k % 8;
+          assertThat(chunk.getDoubleAt(k), equalTo((double) (row * col - col)));
+        }
+        chunk.release();
+      }
+    }
+  }
+
+  @Test
+  public void signExtendsIntegers() throws IOException {
+    File file = new File(Resources.getResource("h5ex_d_nbit.h5").getFile());
+    DatatypeMessage int32 = new Hdf5File(file).getObject("DS1").getMessage(DatatypeMessage.class);
+
+    int[] values = { 0, 1, -1, 2047, -2048, 100, -100 };
+    long[] codes = new long[values.length];
+    for (int i = 0; i < values.length; i++) {
+      codes[i] = values[i] & 0xFFF;
+    }
+
+    // 12 significant bits at offset 3
+    int[] clientData = { 8, 0, values.length, 1, 4, 0, 12, 3 };
+    ByteBuffer output = decode(new NBitFilter(clientData, int32), pack(codes, 12), values.length * 4);
+    for (int i = 0; i < values.length; i++) {
+      assertThat(output.getInt(i * 4), equalTo(values[i]));
+    }
+  }
+
+  @Test
+  public void packedBitsAcrossWords() {
+    int[] widths = { 1, 3, 7, 8, 13, 31, 32, 33, 57, 63, 64 };
+    for (int width : widths) {
+      long[] values = new long[101];
+      for (int i = 0; i < values.length; i++) {
+        values[i] = (0x9E3779B97F4A7C15L * (i + 1)) >>> (64 - width);
+      }
+      byte[] packed = pack(values, width);
+      PackedBitReader reader = new PackedBitReader(packed, 0, packed.length);
+      for (int i = 0; i < values.length; i++) {
+        assertThat("width " + width + ", value " + i, reader.read(width), equalTo(values[i]));
+      }
+    }
+  }
+
+  /**
+   * Packs values into a bit stream, most significant bit first, as the N-bit filter does.
+   */
+  static byte[] pack(long[] values, int width) {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    int current = 0;
+    int count = 0;
+    for (long value : values) {
+      for (int bit = width - 1; bit >= 0; bit--) {
+        current = (current << 1) | (int) ((value >>> bit) & 1);
+        if(++count == 8) {
+          out.write(current);
+          current = 0;
+          count = 0;
+        }
+      }
+    }
+    if(count > 0) {
+      out.write(current << (8 - count));
+    }
+    return out.toByteArray();
+  }
+
+  static ByteBuffer decode(FilterStage stage, byte[] input, int size) throws IOException {
+    FilterContext context = FilterContext.acquire(ChunkStore.HEAP,
+        new ChunkLocation(new long[] { 0 }, 0, input.length, 0), size);
+    try {
+      ByteBuffer output = stage.decode(ByteBuffer.wrap(input), context);
+      ByteBuffer copy = ByteBuffer.allocate(output.remaining());
+      copy.put(output.duplicate());
+      copy.flip();
+      return copy.order(ByteOrder.LITTLE_ENDIAN);
+    } finally {
+      context.release();
+    }
+  }
+}
@@ -0,0 +1,84 @@
+package org.renjin.hdf5.filters;
+
+import org.junit.Test;
+import org.renjin.hdf5.Hdf5File;
+import org.renjin.hdf5.chunked.Chunk;
+import org.renjin.hdf5.chunked.ChunkIndex;
+import org.renjin.repackaged.guava.io.Resources;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+
+public class ScaleOffsetFilterTest {
+
+  @Test
+  public void integerDataset() throws IOException {
+    ChunkIndex chunkIndex = openChunkIndex("h5ex_d_soint.h5");
+
+    // DS1[i][j] = i * j - j, in 4 x 8 chunks
+    for (int i = 0; i < 32; i += 4) {
+      for (int j = 0; j < 64; j += 8) {
+        Chunk chunk = chunkIndex.chunkAt(new long[] { i, j });
+        for (int k = 0; k < 32; k++) {
+          long row = i + k / 8;
+          long col = j + k % 8;
+          assertThat(chunk.getDoubleAt(k), equalTo((double) (row * col - col)));
+        }
+        chunk.release();
+      }
+    }
+  }
+
+  @Test
+  public void floatingPointDataset() throws IOException {
+    ChunkIndex chunkIndex = openChunkIndex("h5ex_d_sofloat.h5");
+
+    // DS1[i][j] = (i + 1) / (j + 0.3) + j, scaled to two decimal places
+    for (int i = 0; i < 32; i += 4) {
+      for (int j = 0; j < 64; j += 8) {
+        Chunk chunk = chunkIndex.chunkAt(new long[] { i, j });
+        for (int k = 0; k < 32; k++) {
+          long row = i + k / 8;
+          long col = j + k % 8;
+          assertEquals((row + 1) / (col + 0.3) + col, chunk.getDoubleAt(k), 0.005);
+        }
+        chunk.release();
+      }
+    }
+  }
+
+  @Test
+  public void fillValues() throws IOException {
+    // Signed 32-bit integers with a fill value of -7 and a minimum of -50
+    int[] clientData = { 2, 0, 5, 0, 4, 1, 0, 1, -7 };
+    int[] values = { -50, -7, -40, -7, 200 };
+
+    // 8 bits per value, with the largest code standing for the fill value
+    long[] codes = { 0, 255, 10, 255, 250 };
+    byte[] packed = NBitFilterTest.pack(codes, 8);
+
+    ByteBuffer input = ByteBuffer.allocate(21 + packed.length).order(ByteOrder.LITTLE_ENDIAN);
+    input.putInt(8);
+    input.put((byte) 8);
+    input.putLong(-50);
+    input.position(21);
+    input.put(packed);
+
+    ByteBuffer output = NBitFilterTest.decode(new ScaleOffsetFilter(clientData), input.array(), values.length * 4);
+    for (int i = 0; i < values.length; i++) {
+      assertThat(output.getInt(i * 4), equalTo(values[i]));
+    }
+  }
+
+  private static ChunkIndex openChunkIndex(String name) throws IOException {
+    File file = new File(Resources.getResource(name).getFile());
+    Hdf5File hdf5File = new Hdf5File(file);
+    return hdf5File.openChunkIndex(hdf5File.getObject("DS1"));
+  }
+}
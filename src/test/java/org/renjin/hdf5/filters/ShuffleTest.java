@@ -0,0 +1,129 @@
+package org.renjin.hdf5.filters;
+
+import org.junit.Ignore;
+import org.junit.Test;
+import org.renjin.hdf5.DataObject;
+import org.renjin.hdf5.Hdf5File;
+import org.renjin.hdf5.chunked.Chunk;
+import org.renjin.hdf5.chunked.ChunkIndex;
+import org.renjin.repackaged.guava.io.Resources;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertThat;
+
+public class ShuffleTest {
+
+  @Test
+  public void roundTrip() {
+    Random random = new Random(42);
+    int[] elementSizes = { 1, 2, 3, 4, 8, 16 };
+    int[] sizes = { 0, 7, 64, 1001, 8 * 4096 + 5 };
+
+    for (int elementSize : elementSizes) {
+      for (int size : sizes) {
+        byte[] original = new byte[size];
+        random.nextBytes(original);
+
+        byte[] shuffled = shuffle(original, elementSize);
+        byte[] unshuffled = new byte[size + 3];
+        Shuffle.unshuffle(shuffled, 0, unshuffled, 3, size, elementSize);
+
+        byte[] result = new byte[size];
+        System.arraycopy(unshuffled, 3, result, 0, size);
+        assertArrayEquals("elementSize = " + elementSize + ", size = " + size, original, result);
+      }
+    }
+  }
+
+  @Test
+  public void shuffledDeflatedDataset() throws IOException {
+    File file = new File(Resources.getResource("h5ex_d_shuffle.h5").getFile());
+    Hdf5File hdf5File = new Hdf5File(file);
+    DataObject object = hdf5File.getObject("DS1");
+    ChunkIndex chunkIndex = hdf5File.openChunkIndex(object);
+
+    // DS1[i][j] = i * j - j, in 4 x 8 chunks
+    for (int i = 0; i < 32; i += 4) {
+      for (int j = 0; j < 64; j += 8) {
+        Chunk chunk = chunkIndex.chunkAt(new long[] { i, j });
+        for (int k = 0; k < 32; k++) {
+          long row = i + k / 8;
+          long col = j + k % 8;
+          assertThat(chunk.getDoubleAt(k), equalTo((double) (row * col - col)));
+        }
+        chunk.release();
+      }
+    }
+  }
+
+  /**
+   * Compares the time spent unshuffling a chunk of doubles with the time spent inflating it.
+   */
+  @Ignore("benchmark")
+  @Test
+  public void benchmarkAgainstInflate() throws Exception {
+    int elementCount = 128 * 1024;
+    ByteBuffer values = ByteBuffer.allocate(elementCount * 8);
+    for (int i = 0; i < elementCount; i++) {
+      values.putDouble(Math.sin(i / 1000.0) * 1000);
+    }
+    byte[] shuffled = shuffle(values.array(), 8);
+
+    Deflater deflater = new Deflater(6);
+    deflater.setInput(shuffled);
+    deflater.finish();
+    byte[] deflated = new byte[shuffled.length * 2];
+    int deflatedSize = deflater.deflate(deflated);
+    deflater.end();
+
+    byte[] output = new byte[shuffled.length];
+    Inflater inflater = new Inflater();
+    int iterations = 500;
+
+    for (int round = 0; round < 3; round++) {
+      long start = System.nanoTime();
+      for (int i = 0; i < iterations; i++) {
+        inflater.reset();
+        inflater.setInput(deflated, 0, deflatedSize);
+        inflater.inflate(output);
+      }
+      long inflateTime = System.nanoTime() - start;
+
+      start = System.nanoTime();
+      for (int i = 0; i < iterations; i++) {
+        Shuffle.unshuffle(shuffled, 0, output, 0, shuffled.length, 8);
+      }
+      long unshuffleTime = System.nanoTime() - start;
+
+      System.out.println(String.format("inflate: %.1f MB/s, unshuffle: %.1f MB/s",
+          throughput(shuffled.length, iterations, inflateTime),
+          throughput(shuffled.length, iterations, unshuffleTime)));
+    }
+    inflater.end();
+  }
+
+  private static double throughput(int size, int iterations, long nanos) {
+    return (double) size * iterations / (1024 * 1024) / (nanos / 1e9);
+  }
+
+  private static byte[] shuffle(byte[] original, int elementSize) {
+    int n = original.length / elementSize;
+    byte[] shuffled = new byte[original.length];
+    for (int e = 0; e < n; e++) {
+      for (int b = 0; b < elementSize; b++) {
+        shuffled[b * n + e] = original[e * elementSize + b];
+      }
+    }
+    int tail = n * elementSize;
+    System.arraycopy(original, tail, shuffled, tail, original.length - tail);
+    return shuffled;
+  }
+}
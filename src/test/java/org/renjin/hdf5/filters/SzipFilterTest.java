@@ -0,0 +1,262 @@
+package org.renjin.hdf5.filters;
+
+import org.junit.Ignore;
+import org.junit.Test;
+import org.renjin.hdf5.Hdf5File;
+import org.renjin.hdf5.chunked.Chunk;
+import org.renjin.hdf5.chunked.ChunkIndex;
+import org.renjin.hdf5.chunked.ChunkLocation;
+import org.renjin.hdf5.chunked.ChunkStore;
+import org.renjin.repackaged.guava.io.Resources;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+import java.util.zip.Deflater;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertThat;
+
+public class SzipFilterTest {
+
+  @Test
+  public void szipDataset() throws IOException {
+    File file = new File(Resources.getResource("h5ex_d_szip.h5").getFile());
+    Hdf5File hdf5File = new Hdf5File(file);
+    ChunkIndex chunkIndex = hdf5File.openChunkIndex(hdf5File.getObject("DS1"));
+
+    // DS1[i][j] = i * j - j, in 4 x 8 chunks
+    for (int i = 0; i < 32; i += 4) {
+      for (int j = 0; j < 64; j += 8) {
+        Chunk chunk = chunkIndex.chunkAt(new long[] { i, j });
+        for (int k = 0; k < 32; k++) {
+          long row = i + k / 8;
+          long col = j + k % 8;
+          assertThat(chunk.getDoubleAt(k), equalTo((double) (row * col - col)));
+        }
+        chunk.release();
+      }
+    }
+  }
+
+  @Test
+  public void aecRoundTrip() throws IOException {
+    Random random = new Random(31);
+    int[] bitsPerSample = { 1, 4, 8, 12, 16, 24, 32 };
+    int[] blockSizes = { 8, 16, 32, 64 };
+    int[] flagSets = {
+        0,
+        AecDecoder.DATA_PREPROCESS,
+        AecDecoder.DATA_PREPROCESS | AecDecoder.DATA_SIGNED,
+        AecDecoder.DATA_PREPROCESS | AecDecoder.DATA_MSB
+    };
+
+    for (int bps : bitsPerSample) {
+      for (int blockSize : blockSizes) {
+        for (int flags : flagSets) {
+          for (int pattern = 0; pattern < 4; pattern++) {
+            int rsi = 1 + random.nextInt(80);
+            long[] samples = samples(pattern, 5000 + random.nextInt(100), bps, flags, random);
+            String message = String.format("bps=%d, blockSize=%d, rsi=%d, flags=%d, pattern=%d",
+                bps, blockSize, rsi, flags, pattern);
+
+            byte[] encoded = new AecEncoder(bps, blockSize, rsi, flags).encode(samples);
+            AecDecoder decoder = new AecDecoder(bps, blockSize, rsi, flags);
+            byte[] expected = toBytes(samples, decoder.getSampleBytes(), (flags & AecDecoder.DATA_MSB) != 0);
+            byte[] decoded = new byte[expected.length + 16];
+            int length = decoder.decode(encoded, 0, encoded.length, decoded, 0, expected.length);
+
+            assertThat(message, length, equalTo(expected.length));
+            byte[] actual = new byte[length];
+            System.arraycopy(decoded, 0, actual, 0, length);
+            assertArrayEquals(message, expected, actual);
+          }
+        }
+      }
+    }
+  }
+
+  @Test
+  public void paddedScanlines() throws IOException {
+    // 20 pixels per scanline are coded as 3 blocks of 8, with 4 samples of padding
+    int[] clientData = { SzipFilter.OPTION_NN, 8, 16, 20 };
+    int pixelCount = 20 * 7;
+    long[] pixels = new long[pixelCount];
+    for (int i = 0; i < pixelCount; i++) {
+      pixels[i] = 1000 + (i * 37) % 91;
+    }
+
+    long[] padded = new long[7 * 24];
+    for (int line = 0; line < 7; line++) {
+      for (int i = 0; i < 24; i++) {
+        padded[line * 24 + i] = pixels[line * 20 + Math.min(i, 19)];
+      }
+    }
+    byte[] coded = new AecEncoder(16, 8, 3, AecDecoder.DATA_PREPROCESS).encode(padded);
+
+    byte[] expected = toBytes(pixels, 2, false);
+    assertArrayEquals(expected, decode(new SzipFilter(clientData), coded, expected.length));
+  }
+
+  @Test
+  public void interleavedPixels() throws IOException {
+    int[] clientData = { SzipFilter.OPTION_NN, 32, 64, 32 };
+    int pixelCount = 1000;
+    ByteBuffer pixels = ByteBuffer.allocate(pixelCount * 8).order(ByteOrder.LITTLE_ENDIAN);
+    for (int i = 0; i < pixelCount; i++) {
+      pixels.putDouble(Math.sin(i / 100.0));
+    }
+    byte[] expected = pixels.array();
+    byte[] coded = new AecEncoder(8, 32, 1, AecDecoder.DATA_PREPROCESS).encode(unsigned(shuffle(expected, 8)));
+
+    assertArrayEquals(expected, decode(new SzipFilter(clientData), coded, expected.length));
+  }
+
+  /**
+   * Compares the throughput of decoding SZIP with inflating the same data.
+   */
+  @Ignore("benchmark")
+  @Test
+  public void benchmarkAgainstDeflate() throws IOException {
+    int pixelCount = 256 * 1024;
+    ByteBuffer pixels = ByteBuffer.allocate(pixelCount * 4).order(ByteOrder.LITTLE_ENDIAN);
+    for (int i = 0; i < pixelCount; i++) {
+      pixels.putInt((int) (Math.sin(i / 1000.0) * 10000));
+    }
+    byte[] raw = pixels.array();
+
+    int[] clientData = { SzipFilter.OPTION_NN, 32, 32, 2048 };
+    byte[] coded = new AecEncoder(8, 32, 64, AecDecoder.DATA_PREPROCESS).encode(unsigned(shuffle(raw, 4)));
+    byte[] szipped = withHeader(coded, raw.length);
+
+    Deflater deflater = new Deflater(6);
+    deflater.setInput(raw);
+    deflater.finish();
+    byte[] deflated = new byte[raw.length * 2];
+    int deflatedSize = deflater.deflate(deflated);
+    deflater.end();
+
+    SzipFilter szip = new SzipFilter(clientData);
+    DeflateFilter deflate = new DeflateFilter(raw.length);
+    int iterations = 50;
+
+    System.out.println(String.format("szip: %d bytes, deflate: %d bytes", szipped.length, deflatedSize));
+
+    for (int round = 0; round < 10; round++) {
+      long start = System.nanoTime();
+      for (int i = 0; i < iterations; i++) {
+        run(szip, ByteBuffer.wrap(szipped), raw.length);
+      }
+      long szipTime = System.nanoTime() - start;
+
+      start = System.nanoTime();
+      for (int i = 0; i < iterations; i++) {
+        run(deflate, ByteBuffer.wrap(deflated, 0, deflatedSize), raw.length);
+      }
+      long deflateTime = System.nanoTime() - start;
+
+      System.out.println(String.format("szip: %.1f MB/s, inflate: %.1f MB/s",
+          throughput(raw.length, iterations, szipTime),
+          throughput(raw.length, iterations, deflateTime)));
+    }
+  }
+
+  private static double throughput(int size, int iterations, long nanos) {
+    return (double) size * iterations / (1024 * 1024) / (nanos / 1e9);
+  }
+
+  private static byte[] decode(SzipFilter filter, byte[] coded, int size) throws IOException {
+    ByteBuffer output = run(filter, ByteBuffer.wrap(withHeader(coded, size)), size);
+    byte[] result = new byte[output.remaining()];
+    output.duplicate().get(result);
+    return result;
+  }
+
+  private static ByteBuffer run(FilterStage stage, ByteBuffer input, int size) throws IOException {
+    FilterContext context = FilterContext.acquire(ChunkStore.HEAP,
+        new ChunkLocation(new long[] { 0 }, 0, input.remaining(), 0), size);
+    try {
+      ByteBuffer output = stage.decode(input, context);
+      ByteBuffer copy = ByteBuffer.allocate(output.remaining());
+      copy.put(output.duplicate());
+      copy.flip();
+      return copy;
+    } finally {
+      context.release();
+    }
+  }
+
+  private static byte[] withHeader(byte[] coded, int size) {
+    ByteBuffer buffer = ByteBuffer.allocate(coded.length + 4).order(ByteOrder.LITTLE_ENDIAN);
+    buffer.putInt(size);
+    buffer.put(coded);
+    return buffer.array();
+  }
+
+  private static long[] samples(int pattern, int count, int bps, int flags, Random random) {
+    boolean signed = (flags & AecDecoder.DATA_SIGNED) != 0;
+    long min = signed ? -(1L << (bps - 1)) : 0;
+    long max = signed ? (1L << (bps - 1)) - 1 : (1L << bps) - 1;
+    long[] samples = new long[count];
+    long value = min + (max - min) / 3;
+    for (int i = 0; i < count; i++) {
+      switch (pattern) {
+        case 0:
+          // Constant runs, coded as zero blocks
+          value = (i / 700) % 2 == 0 ? min : max;
+          break;
+        case 1:
+          // Small steps, suiting the second extension
+          value = clamp(value + random.nextInt(3) - 1, min, max);
+          break;
+        case 2:
+          // Larger steps, suiting split codes
+          value = clamp(value + random.nextInt(201) - 100, min, max);
+          break;
+        default:
+          // Noise across the full range
+          value = min + (long) (random.nextDouble() * (max - min + 1));
+          break;
+      }
+      samples[i] = value;
+    }
+    return samples;
+  }
+
+  private static long clamp(long value, long min, long max) {
+    return Math.max(min, Math.min(max, value));
+  }
+
+  private static byte[] toBytes(long[] samples, int sampleBytes, boolean msb) {
+    byte[] bytes = new byte[samples.length * sampleBytes];
+    for (int i = 0; i < samples.length; i++) {
+      for (int b = 0; b < sampleBytes; b++) {
+        int shift = msb ? 8 * (sampleBytes - 1 - b) : 8 * b;
+        bytes[i * sampleBytes + b] = (byte) (samples[i] >>> shift);
+      }
+    }
+    return bytes;
+  }
+
+  private static long[] unsigned(byte[] bytes) {
+    long[] samples = new long[bytes.length];
+    for (int i = 0; i < bytes.length; i++) {
+      samples[i] = bytes[i] & 0xFF;
+    }
+    return samples;
+  }
+
+  private static byte[] shuffle(byte[] original, int elementSize) {
+    int n = original.length / elementSize;
+    byte[] shuffled = new byte[original.length];
+    for (int e = 0; e < n; e++) {
+      for (int b = 0; b < elementSize; b++) {
+        shuffled[b * n + e] = original[e * elementSize + b];
+      }
+    }
+    return shuffled;
+  }
+}
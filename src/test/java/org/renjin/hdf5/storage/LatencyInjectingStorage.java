@@ -0,0 +1,79 @@
+package org.renjin.hdf5.storage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Wraps another {@link StorageBackend}, adding a fixed delay per request and per byte transferred, and
+ * counting the requests made. Useful for benchmarking I/O scheduling independently of the disk or page cache.
+ */
+public class LatencyInjectingStorage implements StorageBackend {
+
+  private final StorageBackend delegate;
+  private final long nanosPerRequest;
+  private final long nanosPerKilobyte;
+
+  private final AtomicLong requestCount = new AtomicLong();
+  private final AtomicLong bytesTransferred = new AtomicLong();
+
+  public LatencyInjectingStorage(StorageBackend delegate, long latency, long latencyPerKilobyte, TimeUnit unit) {
+    this.delegate = delegate;
+    this.nanosPerRequest = unit.toNanos(latency);
+    this.nanosPerKilobyte = unit.toNanos(latencyPerKilobyte);
+  }
+
+  public LatencyInjectingStorage(StorageBackend delegate) {
+    this(delegate, 0, 0, TimeUnit.NANOSECONDS);
+  }
+
+  public long getRequestCount() {
+    return requestCount.get();
+  }
+
+  public long getBytesTransferred() {
+    return bytesTransferred.get();
+  }
+
+  public void resetCounters() {
+    requestCount.set(0);
+    bytesTransferred.set(0);
+  }
+
+  @Override
+  public long size() {
+    return delegate.size();
+  }
+
+  @Override
+  public ByteBuffer slice(long address, long length) throws IOException {
+    delay(length);
+    return delegate.slice(address, length);
+  }
+
+  @Override
+  public int read(ByteBuffer buffer, long address) throws IOException {
+    delay(buffer.remaining());
+    return delegate.read(buffer, address);
+  }
+
+  private void delay(long bytes) {
+    requestCount.incrementAndGet();
+    bytesTransferred.addAndGet(bytes);
+
+    long nanos = nanosPerRequest + (bytes * nanosPerKilobyte / 1024);
+    long deadline = System.nanoTime() + nanos;
+    long remaining = nanos;
+    while(remaining > 0) {
+      LockSupport.parkNanos(remaining);
+      remaining = deadline - System.nanoTime();
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    delegate.close();
+  }
+}
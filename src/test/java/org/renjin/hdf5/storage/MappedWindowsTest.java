@@ -0,0 +1,77 @@
+package org.renjin.hdf5.storage;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+public class MappedWindowsTest {
+
+  @Test
+  public void slicesShareSegments() throws IOException {
+    File file = sequentialFile(10000);
+    try (FileChannel channel = new RandomAccessFile(file, "r").getChannel()) {
+      MappedWindows windows = new MappedWindows(channel, 4096, 2);
+
+      ByteBuffer a = windows.slice(10, 20);
+      ByteBuffer b = windows.slice(100, 50);
+
+      assertThat(a.position(), equalTo(0));
+      assertThat(a.remaining(), equalTo(20));
+      assertThat(a.get(0), equalTo((byte) 10));
+      assertThat(b.get(0), equalTo((byte) 100));
+      assertThat(windows.getMappedSegmentCount(), equalTo(1));
+
+      // Last, partial segment
+      ByteBuffer c = windows.slice(9000, 1000);
+      assertThat(c.get(999), equalTo((byte) 9999));
+      assertThat(windows.getMappedSegmentCount(), equalTo(2));
+
+      // Least recently used segment is evicted
+      windows.slice(5000, 10);
+      assertThat(windows.getMappedSegmentCount(), equalTo(2));
+    }
+  }
+
+  @Test
+  public void sliceAcrossSegmentBoundary() throws IOException {
+    File file = sequentialFile(10000);
+    try (FileChannel channel = new RandomAccessFile(file, "r").getChannel()) {
+      MappedWindows windows = new MappedWindows(channel, 4096, 2);
+
+      ByteBuffer buffer = windows.slice(4000, 200);
+      for (int i = 0; i < 200; i++) {
+        assertThat(buffer.get(i), equalTo((byte) (4000 + i)));
+      }
+      assertThat(windows.getMappedSegmentCount(), equalTo(0));
+    }
+  }
+
+  @Test(expected = IOException.class)
+  public void sliceBeyondEndOfFile() throws IOException {
+    File file = sequentialFile(100);
+    try (FileChannel channel = new RandomAccessFile(file, "r").getChannel()) {
+      new MappedWindows(channel, 4096, 2).slice(90, 20);
+    }
+  }
+
+  private File sequentialFile(int size) throws IOException {
+    File file = File.createTempFile("windows", ".bin");
+    file.deleteOnExit();
+    byte[] bytes = new byte[size];
+    for (int i = 0; i < size; i++) {
+      bytes[i] = (byte) i;
+    }
+    try (FileOutputStream out = new FileOutputStream(file)) {
+      out.write(bytes);
+    }
+    return file;
+  }
+}
@@ -0,0 +1,67 @@
+package org.renjin.hdf5.storage;
+
+import org.junit.Test;
+import org.renjin.hdf5.DataObject;
+import org.renjin.hdf5.Hdf5Data;
+import org.renjin.hdf5.Hdf5File;
+import org.renjin.hdf5.chunked.Chunk;
+import org.renjin.hdf5.chunked.ChunkIndex;
+import org.renjin.repackaged.guava.io.Resources;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class StorageBackendTest {
+
+  @Test
+  public void backendsReadSameBytes() throws IOException {
+    File file = testFile("h5ex_d_gzip.h5");
+    StorageBackend mapped = StorageType.MMAP.open(file);
+    StorageBackend pread = StorageType.PREAD.open(file);
+    StorageBackend memory = StorageType.MEMORY.open(file);
+
+    assertThat(pread.size(), equalTo(mapped.size()));
+    assertThat(memory.size(), equalTo(mapped.size()));
+
+    long size = mapped.size();
+    ByteBuffer expected = mapped.slice(0, size);
+    assertThat(pread.slice(0, size), equalTo(expected));
+    assertThat(memory.slice(0, size), equalTo(expected));
+
+    ByteBuffer buffer = ByteBuffer.allocate(100);
+    assertThat(pread.read(buffer, size - 50), equalTo(50));
+    buffer.clear();
+    assertThat(memory.read(buffer, size - 50), equalTo(50));
+
+    mapped.close();
+    pread.close();
+    memory.close();
+  }
+
+  @Test
+  public void readDatasetThroughEachBackend() throws IOException {
+    for (StorageType type : StorageType.values()) {
+      LatencyInjectingStorage storage = new LatencyInjectingStorage(type.open(testFile("h5ex_d_gzip.h5")));
+      Hdf5File hdf5File = new Hdf5File(new Hdf5Data(storage));
+      DataObject object = hdf5File.getObject("DS1");
+      ChunkIndex chunkIndex = hdf5File.openChunkIndex(object);
+
+      // DS1[i][j] = i * j - j
+      Chunk chunk = chunkIndex.chunkAt(new long[] { 0, 0 });
+      assertThat(chunk.getDoubleAt(1), equalTo(-1d));
+      assertThat(chunk.getDoubleAt(5), equalTo(-5d));
+
+      assertTrue(storage.getRequestCount() > 0);
+      hdf5File.close();
+    }
+  }
+
+  private File testFile(String resourceName) {
+    return new File(Resources.getResource(resourceName).getFile());
+  }
+}
@@ -0,0 +1,176 @@
+package org.renjin.hdf5.vector;
+
+import org.junit.Assume;
+import org.junit.Test;
+import org.renjin.hdf5.DataObject;
+import org.renjin.hdf5.Hdf5File;
+import org.renjin.hdf5.chunked.Chunk;
+import org.renjin.hdf5.chunked.ChunkCache;
+import org.renjin.hdf5.chunked.ChunkIndex;
+import org.renjin.hdf5.chunked.ChunkPrefetcher;
+import org.renjin.repackaged.guava.io.Resources;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+public class ChunkCursorTest {
+
+  /**
+   * The 32 x 64 dataset is stored in 4 x 8 chunks, so consecutive elements of a column in R step through each
+   * chunk a row at a time.
+   */
+  @Test
+  public void sequentialAndRandomAccess() throws IOException {
+    ChunkCursor cursor = openDataset("h5ex_d_gzip.h5").newCursor();
+
+    // DS1[i][j] = i * j - j, which is column i of the transposed R matrix
+    for (int k = 0; k < 32 * 64; k++) {
+      assertThat(cursor.valueAt(k), equalTo(expectedCompressed(k)));
+    }
+
+    Random random = new Random(42);
+    for (int n = 0; n < 1000; n++) {
+      int k = random.nextInt(32 * 64);
+      assertThat(cursor.valueAt(k), equalTo(expectedCompressed(k)));
+    }
+  }
+
+  /**
+   * The 6 x 10 dataset is stored in 4 x 4 chunks, which are clipped at its edges.
+   */
+  @Test
+  public void edgeChunks() throws IOException {
+    ChunkCursor cursor = openDataset("h5ex_d_fillval.h5").newCursor();
+    for (int pass = 0; pass < 2; pass++) {
+      for (int k = 6 * 10 - 1; k >= 0; k--) {
+        int i = k / 10;
+        int j = k % 10;
+        double expected = (i < 4 && j < 7) ? (i * j - j) : 99;
+        assertThat("[" + i + "][" + j + "]", cursor.valueAt(k), equalTo(expected));
+      }
+    }
+  }
+
+  /**
+   * Stepping through the elements of a chunk, whether sequentially or by jumping between its rows, allocates
+   * nothing once the chunk has been found.
+   */
+  @Test
+  public void accessWithinChunkDoesNotAllocate() throws IOException {
+    Assume.assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+    com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    Assume.assumeTrue(threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled());
+
+    ChunkCursor cursor = openDataset("h5ex_d_gzip.h5").newCursor();
+    long threadId = Thread.currentThread().getId();
+
+    // Warm up, so that the measured loop runs compiled code
+    double sum = scanFirstChunk(cursor, 20000);
+
+    long before = threads.getThreadAllocatedBytes(threadId);
+    before = threads.getThreadAllocatedBytes(threadId);
+    sum += scanFirstChunk(cursor, 100000);
+    long allocated = threads.getThreadAllocatedBytes(threadId) - before;
+
+    assertThat("bytes allocated while reading " + (100000 * 32) + " elements (checksum " + sum + ")",
+        allocated, equalTo(0L));
+  }
+
+  /**
+   * A cursor keeps its chunk alive while reading from it, even once the cache has evicted it, and lets go of
+   * it when closed.
+   */
+  @Test
+  public void closedCursorHoldsNoReference() throws IOException {
+    File file = new File(Resources.getResource("h5ex_d_gzip.h5").getFile());
+    Hdf5File hdf5File = new Hdf5File(file);
+    DataObject object = hdf5File.getObject("DS1");
+    ChunkCursor cursor = new ChunkedDataset(hdf5File, object).newCursor();
+
+    assertThat(cursor.valueAt(65), equalTo(expectedCompressed(65)));
+
+    Chunk chunk = hdf5File.getChunkIndex(object).chunkAt(new long[] { 1, 1 });
+    chunk.release();
+
+    ChunkCache.getShared().invalidateAll();
+    assertThat(chunk.tryRetain(), equalTo(true));
+    chunk.release();
+
+    cursor.close();
+    assertThat(chunk.tryRetain(), equalTo(false));
+
+    assertThat(cursor.valueAt(66), equalTo(expectedCompressed(66)));
+    assertThat(cursor.valueAt(0), equalTo(expectedCompressed(0)));
+    cursor.close();
+  }
+
+  /**
+   * Chunks which the cache cannot hold are decoded once each time the cursor enters them, rather than once
+   * for every element read.
+   */
+  @Test
+  public void decodesChunksOnceThroughCacheSmallerThanChunk() throws IOException {
+    // Each chunk of 4 x 8 doubles takes 256 bytes
+    ChunkCache.configure(100);
+    try {
+      File file = new File(Resources.getResource("h5ex_d_gzip.h5").getFile());
+      Hdf5File hdf5File = new Hdf5File(file);
+      ChunkIndex index = hdf5File.openChunkIndex(hdf5File.getObject("DS1"));
+
+      // Without reading ahead, so that chunks are only decoded when the cursor enters them
+      ChunkCursor cursor = new ChunkCursor(new ChunkPrefetcher(index, 0, null), new long[] { 32, 64 },
+          new int[] { 4, 8 });
+
+      // Visit each of the 8 x 8 chunks in turn, reading all of its elements
+      for (int chunkRow = 0; chunkRow < 8; chunkRow++) {
+        for (int chunkColumn = 0; chunkColumn < 8; chunkColumn++) {
+          for (int i = chunkRow * 4; i < chunkRow * 4 + 4; i++) {
+            for (int j = chunkColumn * 8; j < chunkColumn * 8 + 8; j++) {
+              int k = i * 64 + j;
+              assertThat(cursor.valueAt(k), equalTo(expectedCompressed(k)));
+            }
+          }
+        }
+      }
+      cursor.close();
+
+      assertThat(ChunkCache.getShared().size(), equalTo(0L));
+      assertThat(hdf5File.getDecoderMetrics().getChunksDecoded(), equalTo(64L));
+    } finally {
+      ChunkCache.configure(ChunkCache.DEFAULT_MAX_BYTES);
+    }
+  }
+
+  /**
+   * Reads the 4 x 8 elements of the first chunk, held in the first 8 rows of the first 4 columns in R.
+   */
+  private static double scanFirstChunk(ChunkCursor cursor, int passes) throws IOException {
+    double sum = 0;
+    for (int pass = 0; pass < passes; pass++) {
+      for (int column = 0; column < 4; column++) {
+        for (int row = 0; row < 8; row++) {
+          sum += cursor.valueAt(column * 64 + row);
+        }
+      }
+    }
+    return sum;
+  }
+
+  private static double expectedCompressed(int k) {
+    int i = k / 64;
+    int j = k % 64;
+    return i * j - j;
+  }
+
+  private static ChunkedDataset openDataset(String name) throws IOException {
+    File file = new File(Resources.getResource(name).getFile());
+    Hdf5File hdf5File = new Hdf5File(file);
+    DataObject object = hdf5File.getObject("DS1");
+    return new ChunkedDataset(hdf5File, object);
+  }
+}
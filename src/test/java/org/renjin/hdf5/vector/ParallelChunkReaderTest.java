@@ -0,0 +1,50 @@
+package org.renjin.hdf5.vector;
+
+import org.junit.Test;
+import org.renjin.hdf5.DataObject;
+import org.renjin.hdf5.Hdf5File;
+import org.renjin.repackaged.guava.io.Resources;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+public class ParallelChunkReaderTest {
+
+  @Test
+  public void readCompressed() throws IOException {
+    double[] values = readAll("h5ex_d_gzip.h5");
+
+    // 32 x 64 dataset, DS1[i][j] = i * j - j
+    assertThat(values.length, equalTo(32 * 64));
+    for (int i = 0; i < 32; i++) {
+      for (int j = 0; j < 64; j++) {
+        assertThat(values[i * 64 + j], equalTo((double) (i * j - j)));
+      }
+    }
+  }
+
+  @Test
+  public void readPartialEdgeChunks() throws IOException {
+    double[] values = readAll("h5ex_d_fillval.h5");
+
+    // 6 x 10 dataset in 4 x 4 chunks, with the first 4 x 7 elements written
+    // and the remainder set to the fill value
+    assertThat(values.length, equalTo(6 * 10));
+    for (int i = 0; i < 6; i++) {
+      for (int j = 0; j < 10; j++) {
+        double expected = (i < 4 && j < 7) ? (i * j - j) : 99;
+        assertThat("[" + i + "][" + j + "]", values[i * 10 + j], equalTo(expected));
+      }
+    }
+  }
+
+  private double[] readAll(String name) throws IOException {
+    File file = new File(Resources.getResource(name).getFile());
+    Hdf5File hdf5File = new Hdf5File(file);
+    DataObject object = hdf5File.getObject("DS1");
+    return new ChunkedDataset(hdf5File, object).readAll();
+  }
+}